@@ -2,14 +2,28 @@
 
 DATABASE=$1
 QUERY=$2
+EVALUE=$3
+HITS=$4
+THREADS=$5
 
-if [ "$#" -ne 3 ]; then
-	# run blastp
-	blastp -db $DATABASE -query $QUERY
-else 
-	EVALUE=$3
-	# run blastp
-	blastp -db $DATABASE -query $QUERY -evalue $EVALUE
+# tab-separated output, read by BlastSearchReader, with only the best HSP
+# of each subject
+ARGS=(-db $DATABASE -query $QUERY -outfmt "6 qseqid slen bitscore evalue nident positive length stitle" -max_hsps 1)
+
+if [ -n "$EVALUE" ]; then
+	ARGS+=(-evalue $EVALUE)
+fi
+if [ -n "$HITS" ] && [ "$HITS" -gt 500 ]; then
+	# only ever raise BLAST's default of 500 subjects per query, so that no
+	# subject it would otherwise report is dropped; BlastSearchReader applies
+	# any smaller limit
+	ARGS+=(-max_target_seqs $HITS)
 fi
+if [ -n "$THREADS" ] && [ "$THREADS" -gt 1 ]; then
+	ARGS+=(-num_threads $THREADS)
+fi
+
+# run blastp
+blastp "${ARGS[@]}"
 
 
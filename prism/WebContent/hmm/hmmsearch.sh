@@ -2,9 +2,18 @@
 
 MODEL=$1
 SEQUENCES=$2
+MODE=$3
 
-echo $MODEL
-echo $SEQUENCES
+# any further arguments are passed directly to hmmsearch
+shift $(( $# < 3 ? $# : 3 ))
 
-# run hmmsearch
-hmmsearch $MODEL $SEQUENCES
+if [ "$MODE" == "domtbl" ]; then
+	# run hmmsearch, writing only the per-domain table
+	hmmsearch -o /dev/null --domtblout /dev/stdout "$@" $MODEL $SEQUENCES
+else
+	echo $MODEL
+	echo $SEQUENCES
+
+	# run hmmsearch
+	hmmsearch "$@" $MODEL $SEQUENCES
+fi
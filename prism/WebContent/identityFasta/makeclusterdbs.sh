@@ -1,7 +1,16 @@
 #!/bin/bash
 
-for file in *.fasta; do
-	basename=$(basename $file)
+# paths are resolved from the location of this script, so that the databases
+# are built where PRISM reads them from whatever the working directory
+DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")" && pwd)"
+
+for file in "$DIR"/fasta/*.fasta; do
+	basename=$(basename "$file")
 	filename=${basename%.*}	
-	makeblastdb -in "$file" -dbtype prot -out "$filename"
-done
\ No newline at end of file
+	makeblastdb -in "$file" -dbtype prot -out "$DIR/$filename"
+done
+
+# combined database of all clusters, used for identity scoring
+mkdir -p "$DIR/combined"
+cat "$DIR"/fasta/*.fasta > "$DIR/combined/all.fa"
+makeblastdb -in "$DIR/combined/all.fa" -dbtype prot -out "$DIR/combined/all"
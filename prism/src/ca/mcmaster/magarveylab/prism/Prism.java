@@ -4,6 +4,8 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.openscience.cdk.exception.CDKException;
 
@@ -15,12 +17,14 @@ import ca.mcmaster.magarveylab.prism.data.Contig;
 import ca.mcmaster.magarveylab.prism.data.Genome;
 import ca.mcmaster.magarveylab.prism.data.Library;
 import ca.mcmaster.magarveylab.prism.genome.GenomeSearch;
+import ca.mcmaster.magarveylab.prism.genome.HmmCache;
+import ca.mcmaster.magarveylab.prism.genome.HmmPrefilter;
 import ca.mcmaster.magarveylab.prism.orfs.OrfSearch;
 import ca.mcmaster.magarveylab.prism.homology.HomologousClusterSearch;
 import ca.mcmaster.magarveylab.prism.tanimoto.TanimotoSearch;
 import ca.mcmaster.magarveylab.prism.tanimoto.data.TanimotoScore;
 import ca.mcmaster.magarveylab.prism.util.PrismFileWriter;
-import ca.mcmaster.magarveylab.prism.util.exception.BadSequenceException;
+import ca.mcmaster.magarveylab.prism.util.SearchExecutor;
 import ca.mcmaster.magarveylab.prism.util.exception.BadSmilesToFingerprinterException;
 import ca.mcmaster.magarveylab.prism.util.exception.DatabaseConnectException;
 import ca.mcmaster.magarveylab.prism.util.exception.DependencyException;
@@ -44,10 +48,15 @@ import ca.mcmaster.magarveylab.wasp.session.Session;
  */
 public class Prism implements Runnable, WebApplication {
 
+	private static final Logger logger = Logger.getLogger(Prism.class.getName());
+
 	private boolean terminated;
 	private Session session;
 	private PrismConfig config;
 	private Genome genome;
+	private SearchExecutor executor;
+	private HmmPrefilter prefilter;
+	private HmmCache hmmCache;
 
 	/**
 	 * Instantiate a new PRISM search.
@@ -82,6 +91,9 @@ public class Prism implements Runnable, WebApplication {
 		} catch (Exception e) {
 			session.exceptionHandler().throwException(e);
 		} finally {
+			if (executor != null)
+				executor.shutdown();
+			saveHmmCache();
 			terminate();
 		}
 	}
@@ -131,11 +143,8 @@ public class Prism implements Runnable, WebApplication {
 		session.listener().addStage("Identifying genes",
 				"Finding open reading frames...");
 
+		// sequence length is checked as the file is read
 		File file = new File(config.input);
-		if (file.length() > 50 * 1024 * 1024) // 50 MB check
-			throw new BadSequenceException("Could not run PRISM: "
-					+ "your file exceeds the maximum file size of 50 MB!");
-
 		genome = new Genome(file);
 		OrfSearch os = new OrfSearch(genome, session);
 		os.run();
@@ -340,6 +349,62 @@ public class Prism implements Runnable, WebApplication {
 		return config;
 	}
 	
+	/**
+	 * Get the executor used to run external searches for this PRISM search.
+	 * The executor is created on first use, with the number of threads set in
+	 * the search configuration.
+	 * 
+	 * @return the external search executor
+	 */
+	public synchronized SearchExecutor executor() {
+		if (executor == null)
+			executor = new SearchExecutor(config.threads);
+		return executor;
+	}
+	
+	/**
+	 * Get the filter used to skip hidden Markov models which cannot hit any
+	 * orf in the genome. The filter is created on first use, after orfs have
+	 * been identified.
+	 * 
+	 * @return the hidden Markov model prefilter, or null if prefiltering is
+	 *         not enabled
+	 */
+	public synchronized HmmPrefilter prefilter() {
+		if (prefilter == null && config.hmmPrefilter && genome != null)
+			prefilter = HmmPrefilter.forGenome(genome);
+		return prefilter;
+	}
+	
+	/**
+	 * Get the persistent cache of hmmsearch hits for this PRISM search. The
+	 * cache is read from its directory on first use.
+	 * 
+	 * @return the hmmsearch hit cache, or null if caching is not enabled
+	 * @throws IOException
+	 */
+	public synchronized HmmCache hmmCache() throws IOException {
+		if (hmmCache == null && config.hmmCache != null) {
+			hmmCache = new HmmCache(new File(config.hmmCache), config.hmmCacheSize);
+			hmmCache.load();
+		}
+		return hmmCache;
+	}
+	
+	/**
+	 * Write the hmmsearch hit cache back to its directory, if it was used.
+	 */
+	private synchronized void saveHmmCache() {
+		if (hmmCache == null)
+			return;
+		try {
+			hmmCache.save();
+			logger.log(Level.INFO, "Saved " + hmmCache.size() + " sequences to hmmsearch hit cache");
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not save hmmsearch hit cache", e);
+		}
+	}
+	
 	/**
 	 * Get the current session. 
 	 * @return	current session 
@@ -1,14 +1,19 @@
 package ca.mcmaster.magarveylab.prism;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import ca.mcmaster.magarveylab.enums.version.Version;
 import ca.mcmaster.magarveylab.prism.blast.BlastSearchResult;
 import ca.mcmaster.magarveylab.prism.blast.BlastpSearch;
 import ca.mcmaster.magarveylab.prism.data.Genome;
 import ca.mcmaster.magarveylab.prism.fasta.FastaReader;
+import ca.mcmaster.magarveylab.prism.genome.HmmPrefilter;
 import ca.mcmaster.magarveylab.prism.genome.HmmSearch;
 import ca.mcmaster.magarveylab.prism.genome.data.HmmSearchResult;
 import ca.mcmaster.magarveylab.prism.motif.FimoSearch;
@@ -256,6 +261,71 @@ public class PrismDependencyCheck {
 		if (results.size() == 0)
 			throw new DependencyBinaryException(
 					"Error: hmmsearch is not installed!");
+		if (config.hmmPrefilter)
+			checkHmmPrefilter(model, query, results);
+	}
+
+	/**
+	 * Ensure that the hidden Markov model prefilter does not discard any
+	 * sequence which hmmsearch reports as a hit, using the same model and
+	 * sequences as the hmmsearch installation test. If the prefilter rejects
+	 * a hit, enabling it would change PRISM's results, so PRISM will
+	 * terminate.
+	 * 
+	 * @param model
+	 *            the hidden Markov model searched
+	 * @param query
+	 *            the FASTA file searched
+	 * @param results
+	 *            hmmsearch results for the model and FASTA file
+	 * @throws DependencyException
+	 *             if the prefilter rejects any hmmsearch hit
+	 * @throws IOException
+	 */
+	private void checkHmmPrefilter(String model, String query,
+			List<HmmSearchResult> results) throws DependencyException,
+			IOException {
+		session.listener().updateLastDetail(
+				"Ensuring hidden Markov model prefilter is sensitive...");
+
+		Map<String, String> sequences = readFasta(query);
+		for (HmmSearchResult result : results) {
+			String sequence = sequences.get(result.name);
+			if (sequence == null || !HmmPrefilter.accepts(model, sequence))
+				throw new DependencyException("Error: hidden Markov model "
+						+ "prefilter rejected hmmsearch hit " + result.name);
+		}
+	}
+
+	/**
+	 * Read the sequences in a FASTA file, keyed by the first word of their
+	 * header.
+	 * 
+	 * @param filepath
+	 *            the FASTA file to read
+	 * @return all sequences in the file
+	 * @throws IOException
+	 */
+	private Map<String, String> readFasta(String filepath) throws IOException {
+		Map<String, String> sequences = new HashMap<String, String>();
+		BufferedReader br = new BufferedReader(new FileReader(filepath));
+		String name = null;
+		StringBuilder sb = new StringBuilder();
+		String line = null;
+		while ((line = br.readLine()) != null) {
+			if (line.startsWith(">")) {
+				if (name != null)
+					sequences.put(name, sb.toString());
+				name = line.substring(1).trim().split("\\s+")[0];
+				sb.setLength(0);
+			} else {
+				sb.append(line.trim());
+			}
+		}
+		if (name != null)
+			sequences.put(name, sb.toString());
+		br.close();
+		return sequences;
 	}
 
 	/**
@@ -352,12 +422,12 @@ public class PrismDependencyCheck {
 
 	/**
 	 * Determine whether the RDKit and a Python script to execute it are
-	 * required.
+	 * required. They are not if fingerprints are generated in-process.
 	 * 
 	 * @return true if RDKit dependency checks must be performed
 	 */
 	private boolean requireFingerprinter() {
-		return config.score && config.scaffoldLimit > 0;
+		return config.score && config.scaffoldLimit > 0 && !config.nativeFingerprints;
 	}
 
 }
@@ -5,6 +5,8 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -32,6 +34,8 @@ import ca.mcmaster.magarveylab.wasp.util.TimeUtil;
  */
 public class PrismDesktop {
 	
+	private static final Logger logger = Logger.getLogger(PrismDesktop.class.getName());
+	
 	private Prism prism;
 	
 	/**
@@ -81,7 +85,7 @@ public class PrismDesktop {
 				HelpFormatter formatter = new HelpFormatter();
 				 String header = "PRISM: PRediction Informatics for Secondary Metabolomes \n" +
 						 "Search a genome for novel natural products.\n" +
-						 "Requires blastp, hmmsearch, fimo, Prodigal, and BioPerl as dependencies.\n\n";
+						 "Requires blastp, hmmsearch, fimo, and Prodigal as dependencies.\n\n";
 				 String footer = "\nGUI available at http://magarveylab.com/prism";
 				 formatter.printHelp("prism", header, options, footer, true);
 			} else { 
@@ -164,6 +168,8 @@ public class PrismDesktop {
 				.hasArg().withDescription("Maximum number of homologous clusters, "
 						+ "similar molecules, substrates, and BLAST returned for each "
 						+ "cluster or biosynthetic domain.").create("d");
+		Option threads = OptionBuilder.withLongOpt("threads").withArgName("THREADS")
+				.hasArg().withDescription("Maximum number of external searches to run at once").create("t");
 		Option grid = OptionBuilder.withArgName("SESSION-ID").hasArg().withDescription("Grid mode allows for specification of"
 				+ " session ID.").create("grid");
 		
@@ -193,6 +199,25 @@ public class PrismDesktop {
 				"Write open reading frame sequences in JSON output");
 		Option allOrfs = new Option("a", "allorfs", false, "Find all potential coding sequences");
 		Option prodigal = new Option("p", "prodigal", false, "Use Prodigal to predict open reading frames");
+		Option combinedHmm = new Option("chmm", "combined_hmm", false, 
+				"Search all enabled hidden Markov models in a single hmmsearch per contig");
+		Option hmmReport = new Option("hmr", "hmm_report", false, 
+				"Read hmmsearch's human-readable report rather than its per-domain table");
+		Option tiered = new Option("tier", "tiered", false, 
+				"Search for accessory domains only near biosynthetic genes");
+		Option prefilter = new Option("msv", "prefilter", false, 
+				"Skip hidden Markov models which cannot hit any sequence");
+		Option smithWaterman = new Option("sw", "smith_waterman", false, 
+				"Align domains to the BLAST reference databases in-process");
+		Option homologyCandidates = OptionBuilder.withLongOpt("homology_candidates").withArgName("NUMBER")
+				.hasArg().withDescription("Calculate identity only to the known clusters sharing the most k-mers with "
+						+ "each cluster").create("hca");
+		Option nativeFingerprints = new Option("nfp", "native_fingerprints", false, 
+				"Generate ECFP6 and FCFP6 fingerprints in-process, without RDKit");
+		Option hmmCache = OptionBuilder.withLongOpt("hmm_cache").withArgName("DIRECTORY")
+				.hasArg().withDescription("Cache hmmsearch hits in a directory shared between runs").create("hmc");
+		Option hmmCacheSize = OptionBuilder.withLongOpt("hmm_cache_size").withArgName("SEQUENCES")
+				.hasArg().withDescription("Maximum number of sequences in the hmmsearch hit cache").create("hmcs");
 		Option help = new Option("h", "help", false, "Print this message");
 		Option version = new Option("v", "version", false, "Print the current version and exit");
 		
@@ -202,6 +227,7 @@ public class PrismDesktop {
 		options.addOption(tanimotoCutoff);
 		options.addOption(homologyCutoff);
 		options.addOption(display);
+		options.addOption(threads);
 		options.addOption(score);
 		options.addOption(root);
 		options.addOption(organism);
@@ -216,6 +242,15 @@ public class PrismDesktop {
 		options.addOption(saveSequences);
 		options.addOption(allOrfs);
 		options.addOption(prodigal);
+		options.addOption(combinedHmm);
+		options.addOption(hmmReport);
+		options.addOption(tiered);
+		options.addOption(prefilter);
+		options.addOption(smithWaterman);
+		options.addOption(homologyCandidates);
+		options.addOption(nativeFingerprints);
+		options.addOption(hmmCache);
+		options.addOption(hmmCacheSize);
 		options.addOption(help);
 		options.addOption(version);
 		options.addOption(speciesInformation);
@@ -251,6 +286,11 @@ public class PrismDesktop {
 			config.display = Integer.parseInt(value);
 			System.out.println("[Prism] Set display to " + config.display);
 		}
+		if (line.hasOption("t")) {
+			String value = line.getOptionValue("t");
+			config.threads = Integer.parseInt(value);
+			logger.log(Level.INFO, "Set threads to " + config.threads);
+		}
 		if (line.hasOption("w")) {
 			String value = line.getOptionValue("w");
 			config.window = Integer.parseInt(value);
@@ -331,6 +371,45 @@ public class PrismDesktop {
 			config.genePredictionModes.add(GenePredictionModes.ALL_ORFS);
 			System.out.println("[Prism] Finding all potential coding sequences");
 		}
+		if (line.hasOption("chmm")) {
+			config.combinedHmmSearch = true;
+			logger.log(Level.INFO, "Searching all hidden Markov models in a single pass");
+		}
+		if (line.hasOption("hmr")) {
+			config.hmmDomainTable = false;
+			logger.log(Level.INFO, "Reading hmmsearch results from the human-readable report");
+		}
+		if (line.hasOption("tier")) {
+			config.tieredSearch = true;
+			logger.log(Level.INFO, "Searching for accessory domains near biosynthetic genes");
+		}
+		if (line.hasOption("msv")) {
+			config.hmmPrefilter = true;
+			logger.log(Level.INFO, "Prefiltering hidden Markov models");
+		}
+		if (line.hasOption("sw")) {
+			config.smithWaterman = true;
+			logger.log(Level.INFO, "Aligning domains to BLAST reference databases in-process");
+		}
+		if (line.hasOption("hca")) {
+			String value = line.getOptionValue("hca");
+			config.homologyCandidates = Integer.parseInt(value);
+			logger.log(Level.INFO, "Calculating identity to " + config.homologyCandidates 
+					+ " candidate known clusters");
+		}
+		if (line.hasOption("nfp")) {
+			config.nativeFingerprints = true;
+			logger.log(Level.INFO, "Generating fingerprints in-process");
+		}
+		if (line.hasOption("hmc")) {
+			config.hmmCache = line.getOptionValue("hmc");
+			logger.log(Level.INFO, "Set hmmsearch hit cache to " + config.hmmCache);
+		}
+		if (line.hasOption("hmcs")) {
+			String value = line.getOptionValue("hmcs");
+			config.hmmCacheSize = Integer.parseInt(value);
+			logger.log(Level.INFO, "Set hmmsearch hit cache size to " + config.hmmCacheSize);
+		}
 		// Requires a specified output folder
 		if(line.hasOption("grid")){
 			config.grid = line.getOptionValue("grid");
@@ -0,0 +1,222 @@
+package ca.mcmaster.magarveylab.prism.blast;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An in-memory copy of a precompiled protein BLAST database (format version
+ * 4, as written by makeblastdb without -parse_seqids).<br>
+ * <br>
+ * The index (.pin) file holds the number of sequences and residues and the
+ * offset of each sequence in the header (.phr) and sequence (.psq) files.
+ * Sequences are stored as one NCBIstdaa residue code per byte, and each
+ * header is an ASN.1 (BER) encoded definition line, from which only the title
+ * is read. Databases are read once and cached for the lifetime of the
+ * application.
+ *
+ * @author skinnider
+ *
+ */
+public class BlastDatabase {
+
+	private static Map<String, BlastDatabase> databases = new ConcurrentHashMap<String, BlastDatabase>();
+
+	private String[] titles;
+	private byte[][] sequences;
+	private long length;
+
+	private BlastDatabase(String[] titles, byte[][] sequences, long length) {
+		this.titles = titles;
+		this.sequences = sequences;
+		this.length = length;
+	}
+
+	/**
+	 * Get a protein BLAST database, reading it if it has not been read
+	 * already.
+	 *
+	 * @param database
+	 *            location of the database, without extension
+	 * @return the database
+	 * @throws IOException
+	 *             if the database cannot be read
+	 */
+	public static BlastDatabase get(String database) throws IOException {
+		BlastDatabase db = databases.get(database);
+		if (db == null) {
+			db = read(database);
+			databases.put(database, db);
+		}
+		return db;
+	}
+
+	/**
+	 * Build a protein BLAST database from a FASTA file with makeblastdb.
+	 *
+	 * @param fasta
+	 *            location of the FASTA file
+	 * @param database
+	 *            location of the database to build, without extension
+	 * @throws IOException
+	 *             if makeblastdb fails
+	 * @throws InterruptedException
+	 */
+	public static void make(String fasta, String database) throws IOException, InterruptedException {
+		ProcessBuilder pb = new ProcessBuilder("makeblastdb", "-in", fasta, "-dbtype", "prot", "-out", database);
+		pb.redirectErrorStream(true);
+		Process process = pb.start();
+		StringBuilder output = new StringBuilder();
+		BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()));
+		try {
+			String line = null;
+			while ((line = br.readLine()) != null)
+				output.append(line).append("\n");
+		} finally {
+			br.close();
+		}
+		if (process.waitFor() != 0)
+			throw new IOException("Could not build BLAST database " + database + ": " + output);
+		databases.remove(database);
+	}
+
+	/**
+	 * Get the number of sequences in this database.
+	 *
+	 * @return the number of sequences
+	 */
+	public int size() {
+		return sequences.length;
+	}
+
+	/**
+	 * Get the total number of residues in this database.
+	 *
+	 * @return the number of residues
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Get the definition line of a sequence in this database.
+	 *
+	 * @param index
+	 *            the index of the sequence
+	 * @return the title of the sequence
+	 */
+	public String title(int index) {
+		return titles[index];
+	}
+
+	/**
+	 * Get a sequence in this database.
+	 *
+	 * @param index
+	 *            the index of the sequence
+	 * @return the NCBIstdaa residue codes of the sequence
+	 */
+	public byte[] sequence(int index) {
+		return sequences[index];
+	}
+
+	/**
+	 * Get all sequences in this database.
+	 *
+	 * @return the NCBIstdaa residue codes of each sequence
+	 */
+	public byte[][] sequences() {
+		return sequences;
+	}
+
+	/**
+	 * Read a protein BLAST database.
+	 *
+	 * @param database
+	 *            location of the database, without extension
+	 * @return the database
+	 * @throws IOException
+	 *             if the database is not a version 4 protein database
+	 */
+	private static BlastDatabase read(String database) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(database + ".pin"));
+		int[] headerOffsets;
+		int[] sequenceOffsets;
+		long length = 0;
+		try {
+			int version = in.readInt();
+			int type = in.readInt();
+			if (version != 4 || type != 1)
+				throw new IOException("Not a version 4 protein BLAST database: " + database);
+			in.skipBytes(in.readInt()); // title
+			in.skipBytes(in.readInt()); // date
+			int size = in.readInt();
+			// the total length is the only little-endian field
+			for (int i = 0; i < 8; i++)
+				length |= (long) in.readUnsignedByte() << (8 * i);
+			in.readInt(); // maximum length
+			headerOffsets = new int[size + 1];
+			for (int i = 0; i <= size; i++)
+				headerOffsets[i] = in.readInt();
+			sequenceOffsets = new int[size + 1];
+			for (int i = 0; i <= size; i++)
+				sequenceOffsets[i] = in.readInt();
+		} finally {
+			in.close();
+		}
+
+		int size = headerOffsets.length - 1;
+		byte[] headers = Files.readAllBytes(new File(database + ".phr").toPath());
+		byte[] residues = Files.readAllBytes(new File(database + ".psq").toPath());
+		String[] titles = new String[size];
+		byte[][] sequences = new byte[size][];
+		for (int i = 0; i < size; i++) {
+			titles[i] = readTitle(headers, headerOffsets[i], headerOffsets[i + 1]);
+			// each sequence is followed by a null byte
+			int start = sequenceOffsets[i];
+			int end = Math.max(start, sequenceOffsets[i + 1] - 1);
+			sequences[i] = new byte[end - start];
+			System.arraycopy(residues, start, sequences[i], 0, end - start);
+		}
+		return new BlastDatabase(titles, sequences, length);
+	}
+
+	/**
+	 * Read the title of a definition line, which is the first VisibleString
+	 * in its BER encoding.
+	 *
+	 * @param header
+	 *            the header file
+	 * @param start
+	 *            the offset of the definition line
+	 * @param end
+	 *            the offset of the next definition line
+	 * @return the title
+	 * @throws IOException
+	 *             if the definition line has no title
+	 */
+	private static String readTitle(byte[] header, int start, int end) throws IOException {
+		for (int i = start; i < end - 1; i++) {
+			if (header[i] != 0x1a)
+				continue;
+			int length = header[i + 1] & 0xff;
+			int offset = i + 2;
+			if (length > 0x80) {
+				int bytes = length & 0x7f;
+				length = 0;
+				for (int j = 0; j < bytes; j++)
+					length = (length << 8) | (header[offset++] & 0xff);
+			}
+			if (offset + length <= end)
+				return new String(header, offset, length, "US-ASCII");
+		}
+		throw new IOException("Could not read BLAST database header at offset " + start);
+	}
+
+}
@@ -3,26 +3,41 @@ package ca.mcmaster.magarveylab.prism.blast;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-
-import ca.mcmaster.magarveylab.prism.util.Numbers;
+import java.util.Set;
 
 /**
- * Reads output of a BLAST search.
- * 
+ * Reads the tabular output of a BLAST search. blastp.sh requests tab-separated
+ * output (-outfmt 6) with the columns<br>
+ * <br>
+ * qseqid slen bitscore evalue nident positive length stitle<br>
+ * <br>
+ * Each line is parsed as it is read, without regular expressions. The subject
+ * title is read from the last column, since it may contain spaces, and the
+ * subject is the first word of the title, as in the pairwise report.<br>
+ * <br>
+ * Tabular output contains one line for each HSP. Only the first, best-scoring
+ * HSP of each subject is read, so that each result represents a single query
+ * and subject as in the pairwise report.
+ *
  * @author skinnider
  *
  */
-public class BlastSearchReader { 
+public class BlastSearchReader {
+
+	/**
+	 * Number of columns in a line of BLAST output.
+	 */
+	private static final int COLUMNS = 8;
 
 	private BufferedReader br;
 
 	/**
 	 * Instantiate a new BLAST search reader.
-	 * 
-	 * @param input
-	 *            location of the input file to read, i.e. the output file from
-	 *            the BLAST search
+	 *
+	 * @param br
+	 *            reader for the output of the BLAST search
 	 */
 	public BlastSearchReader(BufferedReader br) {
 		this.br = br;
@@ -30,7 +45,7 @@ public class BlastSearchReader {
 
 	/**
 	 * Parse the output from a BLAST search into Java data packages.
-	 * 
+	 *
 	 * @param readLength
 	 *            maximum number of subject hits per query to read. Set to -1 to
 	 *            read all subject hits.
@@ -41,80 +56,106 @@ public class BlastSearchReader {
 	public List<BlastSearchResult> read(int readLength) throws IOException {
 		List<BlastSearchResult> results = new ArrayList<BlastSearchResult>();
 
+		String[] columns = new String[COLUMNS];
+		Set<String> subjects = new HashSet<String>();
+		String query = null;
 		String line = null;
-		StringBuffer frame = new StringBuffer();
-		StringBuffer query = new StringBuffer();
-		StringBuffer subject = new StringBuffer();
-		double score = 0, eValue = 0, identity = 0, positive = 0;
-		int j = 0, length = 0, coverage = 0;
-		boolean readingDetails = false;
-
+		int j = 0;
 		while ((line = br.readLine()) != null) {
-			if (line.startsWith("Query=")) {
-				// reset variables
-				query.delete(0, query.length());
+			// skip comments, as well as any warnings written by blastp
+			if (line.startsWith("#") || tokenize(line, columns) < COLUMNS)
+				continue;
+
+			// hits are listed by query, so reset the count on each query
+			if (!columns[0].equals(query)) {
+				query = columns[0];
+				subjects.clear();
 				j = 0;
-
-				String queryString = line.split("\\s+")[1];	
-				query.append(queryString);
 			}
-			if (j < readLength || readLength <= 0) {
-				if (line.startsWith(">")) {
-					subject.append(line.split("\\s+")[1].replace("...", ""));
-					readingDetails = true;
-
-					// determine frame
-					String[] split = line.split("\\|");
-					if (split.length >= 2)
-						if (split[2].contains("+")) {
-							frame.append("+");
-						} else if (split[2].contains("-")) {
-							frame.append("-");
-						}
-				}
-				if (readingDetails) {
-					if (line.contains("Length="))
-						length = Integer.parseInt(line.split("=")[1]);
-					if (line.contains("Score = ")) {
-						// parse bitscore
-						String trimmed = line.trim();
-						String[] split = trimmed.split(",");
-						String rawScore = split[0].split("\\(")[0].trim().replace("Score = ", "")
-								.replace(" bits", "");
-						score = Double.parseDouble(rawScore);
-
-						// parse E-value
-						String rawValue = split[1].trim().replace("Expect = ", "");
-						eValue = Numbers.newDoubleFromString(rawValue);
-					}
-					if (line.contains("Identities = ")) {
-						String[] split = line.trim().split("\\s+");
-						String identityRaw = split[2].split("/")[0];
-						String positiveRaw = split[6].split("/")[0];
-						String coverageRaw = split[2].split("/")[1];
-
-						coverage = Integer.parseInt(coverageRaw);
-						identity = Double.parseDouble(identityRaw) / coverage;
-						positive = Double.parseDouble(positiveRaw) / coverage;
-
-						readingDetails = false;
-
-						BlastSearchResult result = new BlastSearchResult(query.toString(), subject.toString(), length, 
-								score, eValue, identity, positive, coverage);
-						results.add(result);
-						j++;
-
-						// reset variables
-						length = 0;
-						subject.delete(0, subject.length());	
-						frame.delete(0, frame.length());
-					}
-				}
+			if (readLength > 0 && j >= readLength)
+				continue;
+			// skip all but the first HSP of each subject
+			if (!subjects.add(columns[7]))
+				continue;
+
+			BlastSearchResult result;
+			try {
+				result = parse(columns);
+			} catch (NumberFormatException e) {
+				continue;
 			}
+			results.add(result);
+			j++;
 		}
 		br.close();
 
 		return results;
 	}
 
+	/**
+	 * Create a BLAST search result from a line of tabular output.
+	 *
+	 * @param columns
+	 *            the columns of the line
+	 * @return the result
+	 * @throws NumberFormatException
+	 *             if a numeric column cannot be parsed
+	 */
+	private static BlastSearchResult parse(String[] columns) throws NumberFormatException {
+		int length = Integer.parseInt(columns[1]);
+		double score = Double.parseDouble(columns[2]);
+		double eValue = parseEValue(columns[3]);
+		int identities = Integer.parseInt(columns[4]);
+		int positives = Integer.parseInt(columns[5]);
+		int coverage = Integer.parseInt(columns[6]);
+		double identity = 1.0d * identities / coverage;
+		double positive = 1.0d * positives / coverage;
+
+		String title = columns[7];
+		int space = title.indexOf(' ');
+		String subject = (space == -1) ? title : title.substring(0, space);
+
+		return new BlastSearchResult(columns[0], subject, length, score, eValue, identity, positive, coverage);
+	}
+
+	/**
+	 * Parse an E-value as written by BLAST, which may omit the mantissa of
+	 * very small values (e.g. "e-180").
+	 *
+	 * @param value
+	 *            the E-value to parse
+	 * @return the E-value
+	 * @throws NumberFormatException
+	 */
+	private static double parseEValue(String value) throws NumberFormatException {
+		if (value.length() > 0 && value.charAt(0) == 'e')
+			return Double.parseDouble("1" + value);
+		return Double.parseDouble(value);
+	}
+
+	/**
+	 * Split a tab-separated line into an existing array, without using regular
+	 * expressions. The final column contains the rest of the line.
+	 *
+	 * @param line
+	 *            the line to split
+	 * @param columns
+	 *            the array to fill with columns
+	 * @return the number of columns read
+	 */
+	private static int tokenize(String line, String[] columns) {
+		int count = 0;
+		int start = 0;
+		while (count < columns.length - 1) {
+			int tab = line.indexOf('\t', start);
+			if (tab == -1)
+				break;
+			columns[count++] = line.substring(start, tab);
+			start = tab + 1;
+		}
+		if (count == columns.length - 1)
+			columns[count++] = line.substring(start).trim();
+		return count;
+	}
+
 }
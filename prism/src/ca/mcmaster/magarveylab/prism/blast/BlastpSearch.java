@@ -17,6 +17,8 @@ public class BlastpSearch {
 	private String query;
 	private String database;
 	private String eValue = "1E-05";
+	private int hits = -1;
+	private int threads = 1;
 	private Session session;
 	
 	/**
@@ -45,6 +47,29 @@ public class BlastpSearch {
 		this.eValue = evalue;
 	}
 
+	/**
+	 * Instantiate a new BLAST search against a precompiled BLAST database with a specific E-value cutoff, in which
+	 * BLAST keeps more than its default of 500 subjects per query. The number of results read is still limited by
+	 * {@link #run(int)}.
+	 * @param database	location of the database
+	 * @param query		location of the query file
+	 * @param session	the current session
+	 * @param evalue	the desired e-value
+	 * @param hits		the number of subject sequences BLAST keeps for each query, if more than 500
+	 */
+	public BlastpSearch(String database, String query, Session session, String evalue, int hits) {
+		this(database, query, session, evalue);
+		this.hits = hits;
+	}
+
+	/**
+	 * Set the number of threads BLASTp uses for this search.
+	 * @param threads	the number of threads
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
 	/**
 	 * Execute a BLASTp search.
 	 * @throws IOException
@@ -56,7 +81,7 @@ public class BlastpSearch {
 		Runtime.getRuntime().exec("chmod +x " + executable);
 		
 		// use: blastn -db nt -query sequence.fsa -out results.out 
-		String[] cmd = { executable, database, query, eValue };
+		String[] cmd = { executable, database, query, eValue, String.valueOf(hits), String.valueOf(threads) };
 		PrismProcessBuilder ppb = new PrismProcessBuilder(cmd);
 		BufferedReader br = ppb.run();
 		
@@ -1,13 +1,15 @@
 package ca.mcmaster.magarveylab.prism.blast;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import ca.mcmaster.magarveylab.enums.domains.DomainType;
 import ca.mcmaster.magarveylab.prism.Prism;
 import ca.mcmaster.magarveylab.prism.data.Domain;
 import ca.mcmaster.magarveylab.prism.data.Contig;
-import ca.mcmaster.magarveylab.prism.data.Orf;
 import ca.mcmaster.magarveylab.prism.web.PrismConfig;
 import ca.mcmaster.magarveylab.wasp.session.Session;
 
@@ -24,6 +26,7 @@ public class DomainBlastpSearch {
 	private DomainType type;
 	private Contig contig;
 	private PrismConfig config;
+	private int threads = 1;
 	
 	/**
 	 * Instantiate a new BLASTP search against a precompiled BLAST database. 
@@ -49,21 +52,61 @@ public class DomainBlastpSearch {
 	 * @throws InterruptedException
 	 */
 	public void run() throws IOException, InterruptedException {
+		matchResultsToDomains(search());
+	}
+	
+	/**
+	 * Execute the BLASTP search and return its results, without matching them
+	 * to domains. This search holds no results itself, so many BLASTP searches
+	 * can be run concurrently and their results matched to domains afterwards
+	 * with {@link #matchResultsToDomains(List)}. No search is run if the
+	 * query file is empty. If in-process alignment is enabled, the database
+	 * is searched with {@link SmithWatermanSearch} instead of BLASTP.
+	 * @return	BLASTP results for this search's query 
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public List<BlastSearchResult> search() throws IOException, InterruptedException {
+		if (!hasQuery())
+			return new ArrayList<BlastSearchResult>();
+		if (config.smithWaterman) {
+			SmithWatermanSearch sw = new SmithWatermanSearch(database, query);
+			return sw.run(config.display);
+		}
 		BlastpSearch blast = new BlastpSearch(database, query, session);
-		List<BlastSearchResult> results = blast.run(config.display);
-		matchResultsToDomains(results);
+		blast.setThreads(threads);
+		return blast.run(config.display);
+	}
+	
+	/**
+	 * Check whether the query file of this search contains any sequences.
+	 * @return	false if the query file is empty or does not exist 
+	 */
+	public boolean hasQuery() {
+		return new File(query).length() > 0;
+	}
+	
+	/**
+	 * Set the number of threads BLASTP uses for this search.
+	 * @param threads	the number of threads
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
 	}
 	
 	/**
 	 * Match BLASTp results to their corresponding domains.
 	 * @param results	list of results to match
 	 */
-	private void matchResultsToDomains(List<BlastSearchResult> results) {
+	public void matchResultsToDomains(List<BlastSearchResult> results) {
+		Map<String, List<Domain>> domains = contig.indexDomains(type);
 		for (BlastSearchResult blastpResult : results) {
-			for (Orf orf : contig.orfs()) 
-				for (Domain domain : orf.domains(type))
-					if (domain.name().equals(blastpResult.query()) && domain.score() > type.cutoff())
-						domain.addBlastResult(blastpResult);
+			List<Domain> queryDomains = domains.get(blastpResult.query());
+			if (queryDomains == null)
+				continue;
+			for (Domain domain : queryDomains)
+				if (domain.score() > type.cutoff())
+					domain.addBlastResult(blastpResult);
 		}
 	}
 
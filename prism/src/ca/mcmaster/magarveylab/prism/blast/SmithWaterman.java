@@ -0,0 +1,353 @@
+package ca.mcmaster.magarveylab.prism.blast;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Local alignment of a protein query to subject sequences with the BLOSUM62
+ * matrix and affine gap penalties (BLASTp defaults: gap open 11, extend 1).<br>
+ * <br>
+ * Optimal scores are computed for {@link #LANES} subjects at a time, one
+ * subject per lane, as in SWIPE (Rognes 2011). The cells updated together in
+ * the inner loop belong to different subjects, so they never depend on each
+ * other and, unlike a striped query layout, no correction pass is needed for
+ * vertical gaps; this matters for the reference databases, whose sequences
+ * are closely related. Subjects are processed in order of length, so that the
+ * subjects sharing a batch are of similar length. The inner loop is integer
+ * arithmetic over flat arrays, so the JIT can vectorize it. Only subjects
+ * which score highly enough to be reported are realigned with a full dynamic
+ * programming matrix to recover the alignment itself.<br>
+ * <br>
+ * Residues are encoded as NCBIstdaa codes, as in BLAST databases.
+ *
+ * @author skinnider
+ *
+ */
+public class SmithWaterman {
+
+	/**
+	 * The NCBIstdaa residue alphabet, indexed by residue code.
+	 */
+	public static final String ALPHABET = "-ABCDEFGHIKLMNPQRSTVWXYZU*OJ";
+
+	/**
+	 * The cost of opening a gap of length one.
+	 */
+	public static final int GAP_OPEN = 11;
+
+	/**
+	 * The cost of extending a gap by one residue.
+	 */
+	public static final int GAP_EXTEND = 1;
+
+	/**
+	 * Number of subjects aligned together in the inner loop.
+	 */
+	private static final int LANES = 8;
+
+	/**
+	 * Score of a subject position past the end of the subject.
+	 */
+	private static final int PADDING = -1_000;
+
+	/**
+	 * The BLOSUM62 substitution matrix, indexed by residue code.
+	 */
+	private static final int[][] BLOSUM62 = new int[ALPHABET.length()][ALPHABET.length()];
+
+	static {
+		String order = "ARNDCQEGHILKMFPSTWYVBZX*";
+		int[][] matrix = {
+				{ 4, -1, -2, -2, 0, -1, -1, 0, -2, -1, -1, -1, -1, -2, -1, 1, 0, -3, -2, 0, -2, -1, 0, -4 },
+				{ -1, 5, 0, -2, -3, 1, 0, -2, 0, -3, -2, 2, -1, -3, -2, -1, -1, -3, -2, -3, -1, 0, -1, -4 },
+				{ -2, 0, 6, 1, -3, 0, 0, 0, 1, -3, -3, 0, -2, -3, -2, 1, 0, -4, -2, -3, 3, 0, -1, -4 },
+				{ -2, -2, 1, 6, -3, 0, 2, -1, -1, -3, -4, -1, -3, -3, -1, 0, -1, -4, -3, -3, 4, 1, -1, -4 },
+				{ 0, -3, -3, -3, 9, -3, -4, -3, -3, -1, -1, -3, -1, -2, -3, -1, -1, -2, -2, -1, -3, -3, -2, -4 },
+				{ -1, 1, 0, 0, -3, 5, 2, -2, 0, -3, -2, 1, 0, -3, -1, 0, -1, -2, -1, -2, 0, 3, -1, -4 },
+				{ -1, 0, 0, 2, -4, 2, 5, -2, 0, -3, -3, 1, -2, -3, -1, 0, -1, -3, -2, -2, 1, 4, -1, -4 },
+				{ 0, -2, 0, -1, -3, -2, -2, 6, -2, -4, -4, -2, -3, -3, -2, 0, -2, -2, -3, -3, -1, -2, -1, -4 },
+				{ -2, 0, 1, -1, -3, 0, 0, -2, 8, -3, -3, -1, -2, -1, -2, -1, -2, -2, 2, -3, 0, 0, -1, -4 },
+				{ -1, -3, -3, -3, -1, -3, -3, -4, -3, 4, 2, -3, 1, 0, -3, -2, -1, -3, -1, 3, -3, -3, -1, -4 },
+				{ -1, -2, -3, -4, -1, -2, -3, -4, -3, 2, 4, -2, 2, 0, -3, -2, -1, -2, -1, 1, -4, -3, -1, -4 },
+				{ -1, 2, 0, -1, -3, 1, 1, -2, -1, -3, -2, 5, -1, -3, -1, 0, -1, -3, -2, -2, 0, 1, -1, -4 },
+				{ -1, -1, -2, -3, -1, 0, -2, -3, -2, 1, 2, -1, 5, 0, -2, -1, -1, -1, -1, 1, -3, -1, -1, -4 },
+				{ -2, -3, -3, -3, -2, -3, -3, -3, -1, 0, 0, -3, 0, 6, -4, -2, -2, 1, 3, -1, -3, -3, -1, -4 },
+				{ -1, -2, -2, -1, -3, -1, -1, -2, -2, -3, -3, -1, -2, -4, 7, -1, -1, -4, -3, -2, -2, -1, -2, -4 },
+				{ 1, -1, 1, 0, -1, 0, 0, 0, -1, -2, -2, 0, -1, -2, -1, 4, 1, -3, -2, -2, 0, 0, 0, -4 },
+				{ 0, -1, 0, -1, -1, -1, -1, -2, -2, -1, -1, -1, -1, -2, -1, 1, 5, -2, -2, 0, -1, -1, 0, -4 },
+				{ -3, -3, -4, -4, -2, -2, -3, -2, -2, -3, -2, -3, -1, 1, -4, -3, -2, 11, 2, -3, -4, -3, -2, -4 },
+				{ -2, -2, -2, -3, -2, -1, -2, -3, 2, -1, -1, -2, -1, 3, -3, -2, -2, 2, 7, -1, -3, -2, -1, -4 },
+				{ 0, -3, -3, -3, -1, -2, -2, -3, -3, 3, 1, -2, 1, -1, -2, -2, 0, -3, -1, 4, -3, -2, -1, -4 },
+				{ -2, -1, 3, 4, -3, 0, 1, -1, 0, -3, -4, 0, -3, -3, -2, 0, -1, -4, -3, -3, 4, 1, -1, -4 },
+				{ -1, 0, 0, 1, -3, 3, 4, -2, 0, -3, -3, 1, -1, -3, -1, 0, -1, -3, -2, -2, 1, 4, -1, -4 },
+				{ 0, -1, -1, -1, -2, -1, -1, -1, -1, -1, -1, -1, -1, -1, -2, 0, 0, -2, -1, -1, -1, -1, -1, -4 },
+				{ -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, 1 } };
+
+		// the gap code scores as a stop; selenocysteine, pyrrolysine and J score as X
+		String equivalent = "*ABCDEFGHIKLMNPQRSTVWXYZX*XX";
+		for (int a = 0; a < ALPHABET.length(); a++)
+			for (int b = 0; b < ALPHABET.length(); b++)
+				BLOSUM62[a][b] = matrix[order.indexOf(equivalent.charAt(a))][order.indexOf(equivalent.charAt(b))];
+	}
+
+	private byte[] query;
+
+	/**
+	 * Instantiate a new aligner for a query sequence.
+	 *
+	 * @param query
+	 *            NCBIstdaa residue codes of the query
+	 */
+	public SmithWaterman(byte[] query) {
+		this.query = query;
+	}
+
+	/**
+	 * Encode a protein sequence as NCBIstdaa residue codes. Unknown characters
+	 * are encoded as X.
+	 *
+	 * @param sequence
+	 *            the sequence to encode
+	 * @return the residue codes
+	 */
+	public static byte[] encode(String sequence) {
+		byte[] codes = new byte[sequence.length()];
+		for (int i = 0; i < sequence.length(); i++) {
+			int code = ALPHABET.indexOf(Character.toUpperCase(sequence.charAt(i)));
+			codes[i] = (byte) (code <= 0 ? ALPHABET.indexOf('X') : code);
+		}
+		return codes;
+	}
+
+	/**
+	 * Get the substitution score of two residues.
+	 *
+	 * @param a
+	 *            the residue code of the first residue
+	 * @param b
+	 *            the residue code of the second residue
+	 * @return the BLOSUM62 score
+	 */
+	public static int score(byte a, byte b) {
+		return BLOSUM62[a][b];
+	}
+
+	/**
+	 * Calculate the optimal local alignment score of the query to each of a
+	 * set of subjects.
+	 *
+	 * @param subjects
+	 *            NCBIstdaa residue codes of each subject
+	 * @return the optimal alignment score of each subject
+	 */
+	public int[] score(final byte[][] subjects) {
+		Integer[] order = new Integer[subjects.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				return Integer.compare(subjects[i1].length, subjects[i2].length);
+			}
+		});
+
+		int[] scores = new int[subjects.length];
+		int[] h = new int[query.length * LANES];
+		int[] e = new int[query.length * LANES];
+		int[][] profile = new int[ALPHABET.length()][LANES];
+		byte[][] batch = new byte[LANES][];
+		int[] max = new int[LANES];
+		for (int start = 0; start < order.length; start += LANES) {
+			int length = 0;
+			for (int k = 0; k < LANES; k++) {
+				batch[k] = (start + k < order.length) ? subjects[order[start + k]] : new byte[0];
+				length = Math.max(length, batch[k].length);
+			}
+			score(batch, length, h, e, profile, max);
+			for (int k = 0; k < LANES && start + k < order.length; k++)
+				scores[order[start + k]] = max[k];
+		}
+		return scores;
+	}
+
+	/**
+	 * Calculate the optimal local alignment scores of one batch of subjects.
+	 *
+	 * @param batch
+	 *            NCBIstdaa residue codes of the subject in each lane
+	 * @param length
+	 *            the length of the longest subject in the batch
+	 * @param h
+	 *            working array for the scores of the previous column
+	 * @param e
+	 *            working array for horizontal gap scores
+	 * @param profile
+	 *            working array for the substitution scores of each column
+	 * @param max
+	 *            array to fill with the optimal score in each lane
+	 */
+	private void score(byte[][] batch, int length, int[] h, int[] e, int[][] profile, int[] max) {
+		final int open = GAP_OPEN + GAP_EXTEND;
+		final int extend = GAP_EXTEND;
+		final byte[] query = this.query;
+		final int[] vF = new int[LANES];
+		final int[] vH = new int[LANES];
+		Arrays.fill(h, 0);
+		Arrays.fill(e, -open);
+		Arrays.fill(max, 0);
+
+		for (int t = 0; t < length; t++) {
+			// substitution scores of every residue against this column of each subject
+			for (int a = 0; a < profile.length; a++)
+				for (int k = 0; k < LANES; k++)
+					profile[a][k] = (t < batch[k].length) ? BLOSUM62[a][batch[k][t]] : PADDING;
+
+			Arrays.fill(vF, -open);
+			Arrays.fill(vH, 0);
+			for (int i = 0; i < query.length; i++) {
+				final int[] scores = profile[query[i]];
+				final int offset = i * LANES;
+				for (int k = 0; k < LANES; k++) {
+					int c = offset + k;
+					int score = Math.max(Math.max(vH[k] + scores[k], e[c]), Math.max(vF[k], 0));
+					vH[k] = h[c];
+					h[c] = score;
+					max[k] = Math.max(max[k], score);
+					int gap = score - open;
+					e[c] = Math.max(e[c] - extend, gap);
+					vF[k] = Math.max(vF[k] - extend, gap);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Align the query to a subject with full dynamic programming, and
+	 * summarize the optimal local alignment.
+	 *
+	 * @param subject
+	 *            NCBIstdaa residue codes of the subject
+	 * @return the score, length, identities and positives of the alignment
+	 */
+	public Alignment align(byte[] subject) {
+		final int open = GAP_OPEN + GAP_EXTEND;
+		final int extend = GAP_EXTEND;
+		int m = query.length;
+		int n = subject.length;
+		int width = n + 1;
+		int[] h = new int[(m + 1) * width];
+		int[] e = new int[(m + 1) * width];
+		int[] f = new int[(m + 1) * width];
+		Arrays.fill(e, -open);
+		Arrays.fill(f, -open);
+
+		int best = 0, bestI = 0, bestJ = 0;
+		for (int i = 1; i <= m; i++)
+			for (int j = 1; j <= n; j++) {
+				int c = i * width + j;
+				e[c] = Math.max(h[c - 1] - open, e[c - 1] - extend);
+				f[c] = Math.max(h[c - width] - open, f[c - width] - extend);
+				int score = h[c - width - 1] + BLOSUM62[query[i - 1]][subject[j - 1]];
+				score = Math.max(Math.max(score, 0), Math.max(e[c], f[c]));
+				h[c] = score;
+				if (score > best) {
+					best = score;
+					bestI = i;
+					bestJ = j;
+				}
+			}
+
+		// trace back from the best cell in the match (0), query gap (1) or subject gap (2) state
+		Alignment alignment = new Alignment(best);
+		int i = bestI, j = bestJ, state = 0;
+		while (i > 0 && j > 0) {
+			int c = i * width + j;
+			if (state == 0) {
+				if (h[c] == 0)
+					break;
+				int substitution = BLOSUM62[query[i - 1]][subject[j - 1]];
+				if (h[c] == h[c - width - 1] + substitution) {
+					alignment.length++;
+					if (query[i - 1] == subject[j - 1])
+						alignment.identities++;
+					if (substitution > 0)
+						alignment.positives++;
+					i--;
+					j--;
+				} else if (h[c] == e[c]) {
+					state = 1;
+				} else {
+					state = 2;
+				}
+			} else if (state == 1) {
+				alignment.length++;
+				if (e[c] == h[c - 1] - open)
+					state = 0;
+				j--;
+			} else {
+				alignment.length++;
+				if (f[c] == h[c - width] - open)
+					state = 0;
+				i--;
+			}
+		}
+		return alignment;
+	}
+
+	/**
+	 * Summary of an optimal local alignment.
+	 *
+	 * @author skinnider
+	 *
+	 */
+	public static class Alignment {
+
+		private int score;
+		private int length = 0;
+		private int identities = 0;
+		private int positives = 0;
+
+		private Alignment(int score) {
+			this.score = score;
+		}
+
+		/**
+		 * Get the raw score of this alignment.
+		 *
+		 * @return the alignment score
+		 */
+		public int score() {
+			return score;
+		}
+
+		/**
+		 * Get the number of columns in this alignment, including gaps.
+		 *
+		 * @return the alignment length
+		 */
+		public int length() {
+			return length;
+		}
+
+		/**
+		 * Get the number of identical residue pairs in this alignment.
+		 *
+		 * @return the number of identities
+		 */
+		public int identities() {
+			return identities;
+		}
+
+		/**
+		 * Get the number of residue pairs with a positive score in this
+		 * alignment.
+		 *
+		 * @return the number of positives
+		 */
+		public int positives() {
+			return positives;
+		}
+
+	}
+
+}
@@ -0,0 +1,253 @@
+package ca.mcmaster.magarveylab.prism.blast;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Search a precompiled protein BLAST database in-process, by aligning every
+ * query to every database sequence with {@link SmithWaterman}. This avoids
+ * launching a BLASTp process and reading the database for each search of the
+ * small domain reference databases, which are read into memory once.<br>
+ * <br>
+ * Results are reported as BLASTp would report them: bit scores and E-values
+ * use BLASTp's Karlin-Altschul parameters for BLOSUM62 with gap costs 11/1,
+ * with its effective search space correction, and hits are listed for each
+ * query in order of E-value. Because every alignment is exhaustive, a hit
+ * which BLASTp's heuristics miss may be found, and each subject is reported
+ * with its single best local alignment.
+ *
+ * @author skinnider
+ *
+ */
+public class SmithWatermanSearch {
+
+	/**
+	 * Gapped Karlin-Altschul lambda for BLOSUM62, gap costs 11/1.
+	 */
+	public static final double LAMBDA = 0.267;
+
+	/**
+	 * Gapped Karlin-Altschul K for BLOSUM62, gap costs 11/1.
+	 */
+	public static final double K = 0.041;
+
+	/**
+	 * Gapped alpha for BLOSUM62, gap costs 11/1, used to correct the
+	 * effective lengths of the query and database.
+	 */
+	public static final double ALPHA = 1.9;
+
+	/**
+	 * Gapped beta for BLOSUM62, gap costs 11/1, used to correct the effective
+	 * lengths of the query and database.
+	 */
+	public static final double BETA = -30;
+
+	/**
+	 * The maximum number of subjects reported for each query, as in BLASTp.
+	 */
+	public static final int MAX_TARGET_SEQS = 500;
+
+	private String database;
+	private String query;
+	private double eValue = 1E-05;
+
+	/**
+	 * Instantiate a new in-process search against a precompiled BLAST
+	 * database.
+	 * @param database	location of the database
+	 * @param query		location of the query file
+	 */
+	public SmithWatermanSearch(String database, String query) {
+		this.database = database;
+		this.query = query;
+	}
+
+	/**
+	 * Instantiate a new in-process search against a precompiled BLAST
+	 * database with a specific E-value cutoff.
+	 * @param database	location of the database
+	 * @param query		location of the query file
+	 * @param evalue	the desired e-value
+	 */
+	public SmithWatermanSearch(String database, String query, double evalue) {
+		this(database, query);
+		this.eValue = evalue;
+	}
+
+	/**
+	 * Execute the search.
+	 * @param resultSize	maximum number of subject hits per query to report. Set to -1 to report all subject 
+	 * 						hits. 
+	 * @return				a list of BLAST search results, each representing the intersection of a query and 
+	 * 						subject
+	 * @throws IOException
+	 */
+	public List<BlastSearchResult> run(int resultSize) throws IOException {
+		final BlastDatabase db = BlastDatabase.get(database);
+		List<BlastSearchResult> results = new ArrayList<BlastSearchResult>();
+		int limit = (resultSize > 0) ? Math.min(resultSize, MAX_TARGET_SEQS) : MAX_TARGET_SEQS;
+
+		List<String> names = new ArrayList<String>();
+		List<String> sequences = new ArrayList<String>();
+		readQueries(names, sequences);
+		for (int q = 0; q < names.size(); q++) {
+			byte[] sequence = SmithWaterman.encode(sequences.get(q));
+			if (sequence.length == 0)
+				continue;
+			SmithWaterman sw = new SmithWaterman(sequence);
+			final int[] scores = sw.score(db.sequences());
+
+			int adjustment = lengthAdjustment(sequence.length, db.length(), db.size());
+			double space = Math.max(sequence.length - adjustment, 1)
+					* (double) Math.max(db.length() - (long) db.size() * adjustment, 1);
+
+			// a higher score always means a lower E-value, so order hits by score
+			List<Integer> hits = new ArrayList<Integer>();
+			for (int i = 0; i < scores.length; i++)
+				if (eValue(scores[i], space) <= eValue)
+					hits.add(i);
+			Collections.sort(hits, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer i1, Integer i2) {
+					return Integer.compare(scores[i2], scores[i1]);
+				}
+			});
+
+			for (int h = 0; h < hits.size() && h < limit; h++) {
+				int i = hits.get(h);
+				byte[] subject = db.sequence(i);
+				SmithWaterman.Alignment alignment = sw.align(subject);
+				double identity = 1.0d * alignment.identities() / alignment.length();
+				double positive = 1.0d * alignment.positives() / alignment.length();
+				double bits = Math.round(bitScore(alignment.score()) * 10) / 10.0d;
+				results.add(new BlastSearchResult(names.get(q), subject(db.title(i)), subject.length, bits,
+						eValue(alignment.score(), space), identity, positive, alignment.length()));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Convert a raw alignment score to a bit score.
+	 * @param score		the raw score
+	 * @return			the bit score
+	 */
+	public static double bitScore(int score) {
+		return (LAMBDA * score - Math.log(K)) / Math.log(2);
+	}
+
+	/**
+	 * Calculate the E-value of a raw alignment score.
+	 * @param score		the raw score
+	 * @param space		the effective search space
+	 * @return			the E-value
+	 */
+	public static double eValue(int score, double space) {
+		return space * K * Math.exp(-LAMBDA * score);
+	}
+
+	/**
+	 * Calculate the length by which the query and each database sequence are
+	 * shortened to find the effective search space, in the same way as
+	 * BLAST_ComputeLengthAdjustment in the NCBI C toolkit.
+	 * @param queryLength	the length of the query
+	 * @param dbLength		the total length of the database
+	 * @param dbSize		the number of sequences in the database
+	 * @return				the length adjustment
+	 */
+	public static int lengthAdjustment(int queryLength, long dbLength, int dbSize) {
+		double m = queryLength, n = dbLength, N = dbSize;
+		double logK = Math.log(K);
+		double alphaOverLambda = ALPHA / LAMBDA;
+
+		// the largest length adjustment for which K * (m - ell) * (n - N * ell) > max(m, n)
+		double a = N;
+		double mb = m * N + n;
+		double c = n * m - Math.max(m, n) / K;
+		if (c < 0)
+			return 0;
+		double ellMax = 2 * c / (mb + Math.sqrt(mb * mb - 4 * a * c));
+
+		double ell = 0, ellMin = 0, ellNext = 0;
+		boolean converged = false;
+		for (int i = 1; i <= 20; i++) {
+			ell = ellNext;
+			double ss = (m - ell) * (n - N * ell);
+			double ellBar = alphaOverLambda * (logK + Math.log(ss)) + BETA;
+			if (ellBar >= ell) {
+				ellMin = ell;
+				if (ellBar - ellMin <= 1.0) {
+					converged = true;
+					break;
+				}
+				if (ellMin == ellMax)
+					break;
+			} else {
+				ellMax = ell;
+			}
+			if (ellMin <= ellBar && ellBar <= ellMax)
+				ellNext = ellBar;
+			else
+				ellNext = (i == 1) ? ellMax : (ellMin + ellMax) / 2;
+		}
+
+		int adjustment = (int) ellMin;
+		if (converged) {
+			ell = Math.ceil(ellMin);
+			if (ell <= ellMax) {
+				double ss = (m - ell) * (n - N * ell);
+				if (alphaOverLambda * (logK + Math.log(ss)) + BETA >= ell)
+					adjustment = (int) ell;
+			}
+		}
+		return adjustment;
+	}
+
+	/**
+	 * Get the name of a subject from its definition line, which is the first
+	 * word of the title.
+	 * @param title		the definition line
+	 * @return			the subject name
+	 */
+	private static String subject(String title) {
+		int space = title.indexOf(' ');
+		return (space == -1) ? title : title.substring(0, space);
+	}
+
+	/**
+	 * Read the name (the first word of the definition line) and sequence of
+	 * each query in the query file.
+	 * @param names		list to add query names to
+	 * @param sequences	list to add query sequences to
+	 * @throws IOException
+	 */
+	private void readQueries(List<String> names, List<String> sequences) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(query));
+		try {
+			StringBuilder sequence = null;
+			String line = null;
+			while ((line = br.readLine()) != null) {
+				line = line.trim();
+				if (line.startsWith(">")) {
+					if (sequence != null)
+						sequences.add(sequence.toString());
+					names.add(subject(line.substring(1).trim()));
+					sequence = new StringBuilder();
+				} else if (sequence != null) {
+					sequence.append(line);
+				}
+			}
+			if (sequence != null)
+				sequences.add(sequence.toString());
+		} finally {
+			br.close();
+		}
+	}
+
+}
@@ -73,8 +73,10 @@ public class ClusterFinder {
 				}
 				
 				// detect all modules in the cluster
-				for (Orf o : cluster.orfs()) 
+				for (Orf o : cluster.orfs()) {
+					o.translate();
 					ModuleFinder.detectModules(o);
+				}
 				
 				// perform module/substrate checks
 				ClusterAnalyzer.setExtendability(cluster);
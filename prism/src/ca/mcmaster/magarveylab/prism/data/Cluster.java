@@ -25,7 +25,7 @@ import ca.mcmaster.magarveylab.prism.web.html.graph.CircularGenomeGraph;
  * @author skinnider
  *
  */
-public class Cluster implements Serializable {
+public class Cluster implements Serializable, Interval {
 
 	private static final long serialVersionUID = 1L;
 	protected int index;
@@ -1,9 +1,13 @@
 package ca.mcmaster.magarveylab.prism.data;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import ca.mcmaster.magarveylab.enums.domains.DomainType;
 import ca.mcmaster.magarveylab.prism.orfs.GenePredictionModes;
 import ca.mcmaster.magarveylab.prism.util.Sorter;
 
@@ -16,10 +20,12 @@ public class Contig {
 
 	private int index;
 	private String header;
-	private String sequence;
+	private PackedSequence sequence;
 	private List<Orf> orfs = new ArrayList<Orf>();
 	private List<Cluster> clusters = new ArrayList<Cluster>();
 	private HashMap<String,String> files = new HashMap<String,String>();
+	private HashMap<String,List<Orf>> orfIndex;
+	private IntervalIndex<Orf> orfIntervals;
 	
 	
 	private Integer length;
@@ -30,6 +36,15 @@ public class Contig {
 	 * @param sequence	the contig sequence 
 	 */
 	public Contig(String header, String sequence) {
+		this(header, PackedSequence.valueOf(sequence));
+	}
+	
+	/**
+	 * Instantiate a new contig from a packed sequence.
+	 * @param header	the FASTA or GenBank header for the contig sequence
+	 * @param sequence	the packed contig sequence 
+	 */
+	public Contig(String header, PackedSequence sequence) {
 		this.header = header;
 		this.sequence = sequence;
 	}
@@ -43,27 +58,50 @@ public class Contig {
 	}
 	
 	/**
-	 * Get the nucleotide sequence of this contig.
+	 * Get the nucleotide sequence of this contig. The sequence is stored
+	 * packed; use {@link #sequence(int, int)} to get a slice of it as a
+	 * string.
 	 * @return	nucleotide sequence 
 	 */
-	public String sequence() {
+	public PackedSequence sequence() {
 		return sequence;
 	}
 	
+	/**
+	 * Get a slice of the nucleotide sequence of this contig.
+	 * @param start	the first position of the slice
+	 * @param end	one past the last position of the slice
+	 * @return		the nucleotide sequence between start and end
+	 */
+	public String sequence(int start, int end) {
+		return sequence.substring(start, end);
+	}
+	
 	/**
 	 * Set the nucleotide sequence of this contig.
 	 * @param sequence	nucleotide sequence
 	 */
-	public void setSequence(String sequence) {
+	public void setSequence(PackedSequence sequence) {
 		this.sequence = sequence;
 	}
 	
 	/**
-	 * Get all open reading frames on this contig. 
+	 * Get all open reading frames on this contig. The list cannot be
+	 * modified; orfs are added and removed through this contig, so that its
+	 * orf indexes are rebuilt.
 	 * @return	all contig orfs
 	 */
 	public List<Orf> orfs() {
-		return orfs;
+		return Collections.unmodifiableList(orfs);
+	}
+	
+	/**
+	 * Add an open reading frame to this contig.
+	 * @param orf	contig orf 
+	 */
+	public void addOrf(Orf orf) {
+		orfs.add(orf);
+		invalidateOrfIndexes();
 	}
 	
 	/**
@@ -72,6 +110,27 @@ public class Contig {
 	 */
 	public void addOrfs(List<Orf> orfs) {
 		this.orfs.addAll(orfs);
+		invalidateOrfIndexes();
+	}
+	
+	/**
+	 * Remove open reading frames from this contig.
+	 * @param orfs	the orfs to remove 
+	 */
+	public void removeOrfs(Collection<Orf> orfs) {
+		this.orfs.removeAll(orfs);
+		invalidateOrfIndexes();
+	}
+	
+	/**
+	 * Discard the indexes of the orfs on this contig, so that they are
+	 * rebuilt when they are next used. Orfs added or removed through this
+	 * contig do this already; call it after changing the name, start, end or
+	 * frame of an orf which is already on the contig.
+	 */
+	public void invalidateOrfIndexes() {
+		orfIndex = null;
+		orfIntervals = null;
 	}
 	
 	/**
@@ -142,18 +201,8 @@ public class Contig {
 	 * @return 			all open reading frames within the boundaries of this cluster
 	 */
 	public List<Orf> getAllOrfs(Cluster cluster, int window) {
-		List<Orf> orfs = new ArrayList<Orf>();
-	
-		// get cluster start & end
-		int start = cluster.start() - window;
-		int end = cluster.end() + window;
-	
-		// if orf is within the cluster, add to return list
-		for (Orf orf : this.orfs) {
-			if (orf.start() >= start && orf.end() <= end)
-				orfs.add(orf);
-		}
-		
+		// get all orfs within the cluster and window
+		List<Orf> orfs = getOrfIntervals().within(cluster, window);
 		Sorter.sortOrfs(orfs);
 		return orfs;
 	}
@@ -177,14 +226,9 @@ public class Contig {
 			int window) {
 		List<Orf> orfs = new ArrayList<Orf>();
 
-		// get cluster start & end
-		int start = cluster.start() - window;
-		int end = cluster.end() + window;
-	
 		// if orf is within the cluster, add to return list
-		for (Orf orf : this.orfs) {
-			if (orf.start() >= start && orf.end() <= end
-					&& orf.getMode() == mode)
+		for (Orf orf : getOrfIntervals().within(cluster, window)) {
+			if (orf.getMode() == mode)
 				orfs.add(orf);
 		}
 
@@ -192,4 +236,102 @@ public class Contig {
 		return orfs;
 	}
 	
+	/**
+	 * Get all the orfs on this contig which overlap a given range.
+	 * 
+	 * @param start
+	 *            the start of the range
+	 * @param end
+	 *            the end of the range
+	 * @return all open reading frames overlapping the range, sorted by start
+	 *         position
+	 */
+	public List<Orf> getOverlappingOrfs(int start, int end) {
+		return getOrfIntervals().overlapping(start, end);
+	}
+	
+	/**
+	 * Get the interval index of the orfs on this contig. The index is rebuilt
+	 * if it has been invalidated since it was last built.
+	 * 
+	 * @return the interval index of all orfs on this contig
+	 */
+	private IntervalIndex<Orf> getOrfIntervals() {
+		if (orfIntervals == null)
+			orfIntervals = new IntervalIndex<Orf>(orfs);
+		return orfIntervals;
+	}
+	
+	/**
+	 * Index the orfs on this contig by name, so that search results can be
+	 * matched to orfs without scanning every orf on the contig. Orfs are
+	 * indexed both by name and by their start, end and frame (i.e.,
+	 * <code>orf.toString()</code>).
+	 */
+	public void indexOrfs() {
+		orfIndex = new HashMap<String,List<Orf>>();
+		for (Orf orf : orfs) {
+			addToIndex(orf.name(), orf);
+			if (!orf.toString().equals(orf.name()))
+				addToIndex(orf.toString(), orf);
+		}
+	}
+	
+	/**
+	 * Add an orf to the orf index under a single key.
+	 * @param key	the key to index the orf by
+	 * @param orf	the orf to index
+	 */
+	private void addToIndex(String key, Orf orf) {
+		List<Orf> indexed = orfIndex.get(key);
+		if (indexed == null) {
+			indexed = new ArrayList<Orf>();
+			orfIndex.put(key, indexed);
+		}
+		indexed.add(orf);
+	}
+	
+	/**
+	 * Get all orfs on this contig with a given name, or with a given start,
+	 * end and frame. The index is rebuilt if it has been invalidated since it
+	 * was last built.
+	 * 
+	 * @param name
+	 *            the name of the orf(s) to get
+	 * @return all orfs on this contig with this name, in the order in which
+	 *         they appear on the contig
+	 */
+	public List<Orf> getOrfs(String name) {
+		if (orfIndex == null)
+			indexOrfs();
+		List<Orf> indexed = orfIndex.get(name);
+		if (indexed == null)
+			return new ArrayList<Orf>();
+		return indexed;
+	}
+	
+	/**
+	 * Index all domains of a given type on this contig by name. Domains are
+	 * added and removed by each domain search, so this index reflects the
+	 * domains on the contig at the time it is built, and should be built once
+	 * before matching a set of results to domains.
+	 * 
+	 * @param type
+	 *            the type of domain to index
+	 * @return all domains of this type on this contig, keyed by name
+	 */
+	public Map<String,List<Domain>> indexDomains(DomainType type) {
+		Map<String,List<Domain>> index = new HashMap<String,List<Domain>>();
+		for (Orf orf : orfs)
+			for (Domain domain : orf.domains(type)) {
+				List<Domain> indexed = index.get(domain.name());
+				if (indexed == null) {
+					indexed = new ArrayList<Domain>();
+					index.put(domain.name(), indexed);
+				}
+				indexed.add(domain);
+			}
+		return index;
+	}
+	
 }
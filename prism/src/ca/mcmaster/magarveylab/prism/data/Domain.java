@@ -16,7 +16,7 @@ import ca.mcmaster.magarveylab.prism.motif.MotifList;
  * @author skinnider
  *
  */
-public class Domain implements Serializable {
+public class Domain implements Serializable, Interval {
 	
 	private static final long serialVersionUID = -4854494547847250230L;
 	
@@ -87,6 +87,14 @@ public class Domain implements Serializable {
 		return ">" + name + "\n" + sequence + "\n";
 	}
 	
+	/**
+	 * Get the amino acid sequence of this domain.
+	 * @return the sequence of this domain
+	 */
+	public String sequence() {
+		return sequence;
+	}
+	
 	/**
 	 * Set the sequence of this domain.
 	 * @param sequence the sequence of this domain
@@ -2,6 +2,7 @@ package ca.mcmaster.magarveylab.prism.data;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 import ca.mcmaster.magarveylab.prism.web.html.graph.CircularGenomeGraph;
@@ -14,11 +15,17 @@ import ca.mcmaster.magarveylab.prism.web.html.graph.CircularGenomeGraph;
  */
 public class Genome {
 
+	/**
+	 * The maximum total length of all sequences in a genome, in nucleotides.
+	 */
+	public static final long MAX_LENGTH = 50L * 1024 * 1024;
+
 	private File file;
 	private Organism organism;
 	private CircularGenomeGraph graph;
 	private List<Contig> contigs = new ArrayList<Contig>();
 	private List<RnaSequence> ribosomalSequences = new ArrayList<RnaSequence>();
+	private HashMap<String,String> files = new HashMap<String,String>();
 
 	/**
 	 * Instantiate a new genome.
@@ -58,6 +65,29 @@ public class Genome {
 		this.file = f;
 	}
 
+	/**
+	 * Associate a new filepath with this genome.
+	 * 
+	 * @param key
+	 *            the key to access this filepath with
+	 * @param value
+	 *            the filepath itself
+	 */
+	public void setFile(String key, String value) {
+		files.put(key, value);
+	}
+
+	/**
+	 * Get a filepath associated with this genome.
+	 * 
+	 * @param key
+	 *            the key to access this filepath with
+	 * @return the filepath, or null if no file has been set for this key
+	 */
+	public String getFile(String key) {
+		return files.get(key);
+	}
+
 	/**
 	 * Get the filepath of this genome's sequence file.
 	 * 
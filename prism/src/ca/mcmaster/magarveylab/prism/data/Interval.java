@@ -0,0 +1,26 @@
+package ca.mcmaster.magarveylab.prism.data;
+
+/**
+ * Any feature which occupies a closed range of positions on a sequence, such
+ * as an orf on a contig or a domain within an orf.
+ * 
+ * @author skinnider
+ *
+ */
+public interface Interval {
+
+	/**
+	 * Get the first position of this feature.
+	 * 
+	 * @return the start index
+	 */
+	public int start();
+
+	/**
+	 * Get the last position of this feature.
+	 * 
+	 * @return the end index
+	 */
+	public int end();
+
+}
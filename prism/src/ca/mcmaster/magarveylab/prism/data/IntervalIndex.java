@@ -0,0 +1,208 @@
+package ca.mcmaster.magarveylab.prism.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A static index of intervals on a single sequence, used to find all
+ * intervals overlapping or contained within a range without comparing every
+ * pair of intervals.<br>
+ * <br>
+ * Intervals are sorted by start position, and the sorted array is treated as
+ * an implicit balanced binary search tree in which each node stores the
+ * largest end position within its subtree. Overlap queries take O(log n + k)
+ * time and containment queries take O(log n + m) time, where k is the number
+ * of intervals returned and m the number of intervals which start within the
+ * range. Ranges are closed, as in {@link Orf#overlaps(Orf)} and
+ * {@link Domain#overlaps(Domain)}.<br>
+ * <br>
+ * The index reflects the intervals it was built with; it must be rebuilt if
+ * intervals are added, or if removed intervals should no longer be returned.
+ * 
+ * @author skinnider
+ *
+ * @param <T>
+ *            the type of interval
+ */
+public class IntervalIndex<T extends Interval> {
+
+	private List<T> intervals;
+	private int[] starts;
+	private int[] ends;
+	private int[] maxEnds;
+
+	/**
+	 * Instantiate a new index of a set of intervals.
+	 * 
+	 * @param intervals
+	 *            the intervals to index
+	 */
+	public IntervalIndex(Collection<? extends T> intervals) {
+		this.intervals = new ArrayList<T>(intervals);
+		// stable sort, so intervals with the same start keep their order
+		Collections.sort(this.intervals, new Comparator<T>() {
+			@Override
+			public int compare(T i1, T i2) {
+				return Integer.compare(i1.start(), i2.start());
+			}
+		});
+
+		int size = this.intervals.size();
+		starts = new int[size];
+		ends = new int[size];
+		maxEnds = new int[size];
+		for (int i = 0; i < size; i++) {
+			T interval = this.intervals.get(i);
+			starts[i] = interval.start();
+			ends[i] = interval.end();
+		}
+		build(0, size);
+	}
+
+	/**
+	 * Calculate the largest end position within each subtree of the implicit
+	 * tree over a range of the sorted intervals.
+	 * 
+	 * @param lo
+	 *            the first index in the range
+	 * @param hi
+	 *            one past the last index in the range
+	 * @return the largest end position in the range
+	 */
+	private int build(int lo, int hi) {
+		if (lo >= hi)
+			return Integer.MIN_VALUE;
+		int mid = (lo + hi) >>> 1;
+		int max = Math.max(ends[mid],
+				Math.max(build(lo, mid), build(mid + 1, hi)));
+		maxEnds[mid] = max;
+		return max;
+	}
+
+	/**
+	 * Get the number of intervals in this index.
+	 * 
+	 * @return the number of indexed intervals
+	 */
+	public int size() {
+		return intervals.size();
+	}
+
+	/**
+	 * Get all indexed intervals which overlap a closed range.
+	 * 
+	 * @param start
+	 *            the start of the range
+	 * @param end
+	 *            the end of the range
+	 * @return all intervals overlapping the range, sorted by start position
+	 */
+	public List<T> overlapping(int start, int end) {
+		List<T> overlapping = new ArrayList<T>();
+		overlapping(0, intervals.size(), start, end, overlapping);
+		return overlapping;
+	}
+
+	/**
+	 * Get all indexed intervals which overlap another interval, including the
+	 * interval itself if it is indexed.
+	 * 
+	 * @param interval
+	 *            the interval in question
+	 * @return all intervals overlapping the interval, sorted by start position
+	 */
+	public List<T> overlapping(Interval interval) {
+		return overlapping(interval.start(), interval.end());
+	}
+
+	/**
+	 * Collect all intervals which overlap a closed range from a subtree of the
+	 * implicit tree, in order of start position.
+	 * 
+	 * @param lo
+	 *            the first index in the subtree
+	 * @param hi
+	 *            one past the last index in the subtree
+	 * @param start
+	 *            the start of the range
+	 * @param end
+	 *            the end of the range
+	 * @param overlapping
+	 *            the list to add overlapping intervals to
+	 */
+	private void overlapping(int lo, int hi, int start, int end,
+			List<T> overlapping) {
+		if (lo >= hi)
+			return;
+		int mid = (lo + hi) >>> 1;
+		// no interval in this subtree reaches the range
+		if (maxEnds[mid] < start)
+			return;
+		overlapping(lo, mid, start, end, overlapping);
+		// intervals to the right start after this one
+		if (starts[mid] > end)
+			return;
+		if (ends[mid] >= start)
+			overlapping.add(intervals.get(mid));
+		overlapping(mid + 1, hi, start, end, overlapping);
+	}
+
+	/**
+	 * Get all indexed intervals which lie entirely within a closed range.
+	 * 
+	 * @param start
+	 *            the start of the range
+	 * @param end
+	 *            the end of the range
+	 * @return all intervals within the range, sorted by start position
+	 */
+	public List<T> within(int start, int end) {
+		List<T> within = new ArrayList<T>();
+		for (int i = firstStartingAt(start); i < starts.length
+				&& starts[i] <= end; i++)
+			if (ends[i] <= end)
+				within.add(intervals.get(i));
+		return within;
+	}
+
+	/**
+	 * Get all indexed intervals which lie entirely within a window around
+	 * another interval.
+	 * 
+	 * @param interval
+	 *            the interval in question
+	 * @param window
+	 *            the number of positions on either side of the interval to
+	 *            include
+	 * @return all intervals within the window, sorted by start position
+	 */
+	public List<T> within(Interval interval, int window) {
+		return within(interval.start() - window, interval.end() + window);
+	}
+
+	/**
+	 * Find the first sorted interval with a start position greater than or
+	 * equal to a given position.
+	 * 
+	 * @param position
+	 *            the position in question
+	 * @return the index of the first such interval, or the number of indexed
+	 *         intervals if there is none
+	 */
+	private int firstStartingAt(int position) {
+		int lo = 0;
+		int hi = starts.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (starts[mid] < position)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+}
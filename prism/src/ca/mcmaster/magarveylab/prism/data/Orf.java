@@ -12,6 +12,7 @@ import ca.mcmaster.magarveylab.enums.domains.DomainType;
 import ca.mcmaster.magarveylab.enums.domains.ThiotemplatedDomains;
 import ca.mcmaster.magarveylab.prism.cluster.analysis.DomainAnalyzer;
 import ca.mcmaster.magarveylab.prism.orfs.GenePredictionModes;
+import ca.mcmaster.magarveylab.prism.orfs.OrfTable;
 
 /**
  * A putative biosynthetic open reading frame.
@@ -19,7 +20,7 @@ import ca.mcmaster.magarveylab.prism.orfs.GenePredictionModes;
  * @author skinnider
  *
  */
-public class Orf implements Serializable {
+public class Orf implements Serializable, Interval {
 
 	private static final long serialVersionUID = -5713920469341661161L;
 	
@@ -29,6 +30,8 @@ public class Orf implements Serializable {
 	private String frame;
 	private String dnaSequence;
 	private String aaSequence;
+	private OrfTable table;
+	private int row;
 	private List<Domain> domains = new LinkedList<Domain>();
 	private List<Module> modules = new LinkedList<Module>();
 	private List<Propeptide> propeptides = new ArrayList<Propeptide>(); 
@@ -49,6 +52,27 @@ public class Orf implements Serializable {
 		this.aaSequence = aaSequence;
 	}
 	
+	/**
+	 * Instantiate a new orf found by scanning a nucleotide sequence. The amino
+	 * acid sequence of the orf is translated from the table when it is
+	 * requested, until {@link #translate()} is called.
+	 * 
+	 * @param name
+	 *            name of the orf
+	 * @param table
+	 *            the table of orfs found in the sequence
+	 * @param row
+	 *            the row of this orf in the table
+	 */
+	public Orf(String name, OrfTable table, int row) {
+		this.name = name;
+		this.table = table;
+		this.row = row;
+		this.start = table.start(row);
+		this.end = table.end(row);
+		this.frame = table.isReverse(row) ? "-" : "+";
+	}
+	
 	/**
 	 * Instantiate a new orf by making a deep copy of an existing orf. Modules
 	 * within the orf will be deep-copied, but not domains.
@@ -152,13 +176,26 @@ public class Orf implements Serializable {
 	}
 
 	/**
-	 * Get the amino acid sequence of this orf.
+	 * Get the amino acid sequence of this orf. Orfs found by scanning are
+	 * translated on every call, unless {@link #translate()} has been called.
 	 * 
 	 * @return the amino acid sequence of the orf
 	 */
 	public String sequence() {
+		if (aaSequence == null && table != null)
+			return table.translate(row);
 		return aaSequence;
 	}
+	
+	/**
+	 * Translate this orf, if it was found by scanning, and keep its amino acid
+	 * sequence for the rest of the analysis. This should be called for orfs
+	 * whose sequence will be read repeatedly, e.g. orfs within clusters.
+	 */
+	public void translate() {
+		if (aaSequence == null && table != null)
+			aaSequence = table.translate(row);
+	}
 
 	/**
 	 * Get all domains associated with this orf.
@@ -0,0 +1,347 @@
+package ca.mcmaster.magarveylab.prism.data;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * An immutable nucleotide sequence stored with two bits per base. Most of a
+ * genome consists of the nucleotides A, C, G and T, which are packed 32 to a
+ * long; all other characters (e.g. N or IUPAC ambiguity codes) are stored in a
+ * side table as runs of a single character, and lowercase nucleotides as runs
+ * of positions, so that the sequence can be read back exactly as it was
+ * written.<br>
+ * <br>
+ * The sequence implements {@link CharSequence}, but slices should be read
+ * with {@link #substring(int, int)} or {@link #getChars(int, int, char[], int)}
+ * rather than by converting the whole sequence to a string.
+ *
+ * @author skinnider
+ *
+ */
+public class PackedSequence implements CharSequence, Serializable {
+
+	private static final long serialVersionUID = -2046522914723813958L;
+
+	/**
+	 * The nucleotides which can be packed, in the order of their two-bit
+	 * codes.
+	 */
+	private static final String NUCLEOTIDES = "ACGT";
+
+	private static final byte[] CODES = new byte[128];
+
+	static {
+		Arrays.fill(CODES, (byte) -1);
+		for (int i = 0; i < NUCLEOTIDES.length(); i++) {
+			CODES[NUCLEOTIDES.charAt(i)] = (byte) i;
+			CODES[Character.toLowerCase(NUCLEOTIDES.charAt(i))] = (byte) i;
+		}
+	}
+
+	private final int length;
+	private final long[] bits;
+	private final int[] otherStarts;
+	private final int[] otherEnds;
+	private final char[] otherChars;
+	private final int[] lowercaseStarts;
+	private final int[] lowercaseEnds;
+
+	private PackedSequence(Builder builder) {
+		this.length = builder.length;
+		this.bits = Arrays.copyOf(builder.bits, (length + 31) >>> 5);
+		this.otherStarts = Arrays.copyOf(builder.otherStarts, builder.others);
+		this.otherEnds = Arrays.copyOf(builder.otherEnds, builder.others);
+		this.otherChars = Arrays.copyOf(builder.otherChars, builder.others);
+		this.lowercaseStarts = Arrays.copyOf(builder.lowercaseStarts,
+				builder.lowercases);
+		this.lowercaseEnds = Arrays.copyOf(builder.lowercaseEnds,
+				builder.lowercases);
+	}
+
+	/**
+	 * Pack a sequence.
+	 *
+	 * @param sequence
+	 *            the sequence to pack
+	 * @return the packed sequence
+	 */
+	public static PackedSequence valueOf(CharSequence sequence) {
+		Builder builder = new Builder(sequence.length());
+		for (int i = 0; i < sequence.length(); i++)
+			builder.append(sequence.charAt(i));
+		return builder.build();
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length)
+			throw new IndexOutOfBoundsException("Index " + index
+					+ " out of bounds for sequence of length " + length);
+		int other = find(otherStarts, otherEnds, index);
+		if (other != -1)
+			return otherChars[other];
+		char c = NUCLEOTIDES.charAt(code(index));
+		if (find(lowercaseStarts, lowercaseEnds, index) != -1)
+			c = Character.toLowerCase(c);
+		return c;
+	}
+
+	/**
+	 * Copy a range of this sequence into a character array.
+	 *
+	 * @param start
+	 *            the first position to copy
+	 * @param end
+	 *            one past the last position to copy
+	 * @param dst
+	 *            the destination array
+	 * @param offset
+	 *            the position in the destination array to copy to
+	 */
+	public void getChars(int start, int end, char[] dst, int offset) {
+		if (start < 0 || end > length || start > end)
+			throw new IndexOutOfBoundsException("Range " + start + "-" + end
+					+ " out of bounds for sequence of length " + length);
+		for (int i = start; i < end; i++)
+			dst[offset + i - start] = NUCLEOTIDES.charAt(code(i));
+		for (int r = first(lowercaseEnds, start); r < lowercaseStarts.length
+				&& lowercaseStarts[r] < end; r++)
+			for (int i = Math.max(start, lowercaseStarts[r]); i < Math.min(end,
+					lowercaseEnds[r]); i++)
+				dst[offset + i - start] = Character
+						.toLowerCase(dst[offset + i - start]);
+		for (int r = first(otherEnds, start); r < otherStarts.length
+				&& otherStarts[r] < end; r++)
+			Arrays.fill(dst, offset + Math.max(start, otherStarts[r]) - start,
+					offset + Math.min(end, otherEnds[r]) - start, otherChars[r]);
+	}
+
+	/**
+	 * Get a slice of this sequence as a string.
+	 *
+	 * @param start
+	 *            the first position of the slice
+	 * @param end
+	 *            one past the last position of the slice
+	 * @return the slice
+	 */
+	public String substring(int start, int end) {
+		char[] chars = new char[end - start];
+		getChars(start, end, chars, 0);
+		return new String(chars);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return substring(start, end);
+	}
+
+	/**
+	 * Get every character in this sequence other than A, C, G or T, in either
+	 * case.
+	 *
+	 * @return all distinct characters which are not packed
+	 */
+	public Set<Character> otherCharacters() {
+		Set<Character> characters = new LinkedHashSet<Character>();
+		for (char c : otherChars)
+			characters.add(c);
+		return characters;
+	}
+
+	/**
+	 * Get the runs of N in this sequence, e.g. the gaps between contigs in a
+	 * scaffold. Adjacent runs of N and n are merged.
+	 *
+	 * @return the start and end (exclusive) of each run, in order
+	 */
+	public int[][] maskedIntervals() {
+		int[][] runs = new int[otherChars.length][];
+		int size = 0;
+		for (int r = 0; r < otherChars.length; r++) {
+			if (otherChars[r] != 'N' && otherChars[r] != 'n')
+				continue;
+			if (size > 0 && runs[size - 1][1] == otherStarts[r])
+				runs[size - 1][1] = otherEnds[r];
+			else
+				runs[size++] = new int[] { otherStarts[r], otherEnds[r] };
+		}
+		return Arrays.copyOf(runs, size);
+	}
+
+	/**
+	 * Convert this entire sequence to a string. This creates a full-length
+	 * copy of the sequence, and should be avoided for large sequences.
+	 *
+	 * @return the sequence as a string
+	 */
+	@Override
+	public String toString() {
+		return substring(0, length);
+	}
+
+	/**
+	 * Get the two-bit code of the nucleotide at a position.
+	 *
+	 * @param index
+	 *            the position in question
+	 * @return the code of the packed nucleotide
+	 */
+	private int code(int index) {
+		return (int) (bits[index >>> 5] >>> ((index & 31) << 1)) & 3;
+	}
+
+	/**
+	 * Find the run which contains a position.
+	 *
+	 * @param starts
+	 *            the sorted starts of each run
+	 * @param ends
+	 *            the ends of each run
+	 * @param index
+	 *            the position in question
+	 * @return the index of the run, or -1 if no run contains the position
+	 */
+	private static int find(int[] starts, int[] ends, int index) {
+		int r = first(ends, index);
+		return r < starts.length && starts[r] <= index ? r : -1;
+	}
+
+	/**
+	 * Find the first run which ends after a position.
+	 *
+	 * @param ends
+	 *            the sorted ends of each run
+	 * @param index
+	 *            the position in question
+	 * @return the index of the first run ending after the position, or the
+	 *         number of runs if there is none
+	 */
+	private static int first(int[] ends, int index) {
+		int lo = 0;
+		int hi = ends.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (ends[mid] <= index)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Builds a packed sequence one character at a time, without holding the
+	 * unpacked sequence in memory.
+	 */
+	public static class Builder {
+
+		private int length = 0;
+		private long[] bits;
+		private int[] otherStarts = new int[16];
+		private int[] otherEnds = new int[16];
+		private char[] otherChars = new char[16];
+		private int others = 0;
+		private int[] lowercaseStarts = new int[16];
+		private int[] lowercaseEnds = new int[16];
+		private int lowercases = 0;
+
+		/**
+		 * Instantiate a new builder.
+		 */
+		public Builder() {
+			this(1024);
+		}
+
+		/**
+		 * Instantiate a new builder for a sequence of known length.
+		 *
+		 * @param capacity
+		 *            the expected length of the sequence
+		 */
+		public Builder(int capacity) {
+			bits = new long[Math.max(1, (capacity + 31) >>> 5)];
+		}
+
+		/**
+		 * Append a single character to the sequence.
+		 *
+		 * @param c
+		 *            the character to append
+		 * @return this builder
+		 */
+		public Builder append(char c) {
+			if (length == Integer.MAX_VALUE)
+				throw new IllegalStateException("Sequence is too long to pack");
+			int word = length >>> 5;
+			if (word == bits.length)
+				bits = Arrays.copyOf(bits, Math.max(bits.length * 2, word + 1));
+
+			int code = c < CODES.length ? CODES[c] : -1;
+			if (code == -1) {
+				// extend the last run of the same character, or start a new one
+				if (others > 0 && otherEnds[others - 1] == length
+						&& otherChars[others - 1] == c) {
+					otherEnds[others - 1]++;
+				} else {
+					if (others == otherStarts.length) {
+						otherStarts = Arrays.copyOf(otherStarts, others * 2);
+						otherEnds = Arrays.copyOf(otherEnds, others * 2);
+						otherChars = Arrays.copyOf(otherChars, others * 2);
+					}
+					otherStarts[others] = length;
+					otherEnds[others] = length + 1;
+					otherChars[others] = c;
+					others++;
+				}
+			} else {
+				bits[word] |= (long) code << ((length & 31) << 1);
+				if (Character.isLowerCase(c)) {
+					if (lowercases > 0
+							&& lowercaseEnds[lowercases - 1] == length) {
+						lowercaseEnds[lowercases - 1]++;
+					} else {
+						if (lowercases == lowercaseStarts.length) {
+							lowercaseStarts = Arrays.copyOf(lowercaseStarts,
+									lowercases * 2);
+							lowercaseEnds = Arrays.copyOf(lowercaseEnds,
+									lowercases * 2);
+						}
+						lowercaseStarts[lowercases] = length;
+						lowercaseEnds[lowercases] = length + 1;
+						lowercases++;
+					}
+				}
+			}
+			length++;
+			return this;
+		}
+
+		/**
+		 * Get the number of characters appended so far.
+		 *
+		 * @return the length of the sequence
+		 */
+		public int length() {
+			return length;
+		}
+
+		/**
+		 * Create the packed sequence.
+		 *
+		 * @return the packed sequence
+		 */
+		public PackedSequence build() {
+			return new PackedSequence(this);
+		}
+
+	}
+
+}
@@ -1,39 +1,71 @@
 package ca.mcmaster.magarveylab.prism.fasta;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 
 import ca.mcmaster.magarveylab.prism.data.Contig;
 import ca.mcmaster.magarveylab.prism.data.Genome;
+import ca.mcmaster.magarveylab.prism.data.PackedSequence;
+import ca.mcmaster.magarveylab.prism.util.Decompressor;
+import ca.mcmaster.magarveylab.prism.util.SearchExecutor;
+import ca.mcmaster.magarveylab.prism.util.exception.BadSequenceException;
 
 /**
- * Reads FASTA files.
- * 
+ * Reads FASTA files. Files are memory-mapped and parsed byte by byte, and
+ * each contig sequence is packed as it is read, so that no unpacked copy of
+ * the sequence is held in memory. Compressed files are decompressed as a
+ * stream and parsed in the same way.
+ *
  * @author skinnider
  *
  */
 public class FastaReader {
-	
+
 	/**
-	 * Read all contigs from a FASTA/multi-FASTA format sequence file. 
+	 * The maximum number of bytes to map into memory at once.
+	 */
+	private static final long MAP_SIZE = 1L << 28;
+
+	/**
+	 * Read all contigs from a FASTA/multi-FASTA format sequence file.
 	 * @throws IOException
 	 * @throws BadSequenceException
 	 */
 	public static void readFastaFile(Genome genome) throws IOException {
+		readFastaFile(genome, null);
+	}
+
+	/**
+	 * Read all contigs from a FASTA/multi-FASTA format sequence file, which
+	 * may be compressed.
+	 * 
+	 * @param genome
+	 *            the genome to read
+	 * @param executor
+	 *            the executor used to decompress bgzip files concurrently,
+	 *            or null
+	 * @throws IOException
+	 * @throws BadSequenceException
+	 *             if the file contains more than {@link Genome#MAX_LENGTH}
+	 *             nucleotides
+	 */
+	public static void readFastaFile(Genome genome, SearchExecutor executor)
+			throws IOException {
 		File file = genome.file();
-		List<Contig> contigs = FastaReader.readMultiFasta(file, 500);
+		List<Contig> contigs = FastaReader.readMultiFasta(file, 500, executor);
 		genome.setContigs(contigs);
 	}
 
 	/**
 	 * Read a generic multi-FASTA file to a list of Fasta objects.
-	 * 
+	 *
 	 * @param file
 	 *            the location of the file to read
 	 * @param minSize
@@ -43,44 +75,179 @@ public class FastaReader {
 	 */
 	public static List<Contig> readMultiFasta(File file, int minSize)
 			throws IOException {
+		return readMultiFasta(file, minSize, null);
+	}
+
+	/**
+	 * Read a generic multi-FASTA file, which may be compressed, to a list of
+	 * Fasta objects.
+	 *
+	 * @param file
+	 *            the location of the file to read
+	 * @param minSize
+	 *            the minimum sequence size to be read
+	 * @param executor
+	 *            the executor used to decompress bgzip files concurrently,
+	 *            or null
+	 * @return a list of FastaItem objects
+	 * @throws IOException
+	 */
+	public static List<Contig> readMultiFasta(File file, int minSize,
+			SearchExecutor executor) throws IOException {
 		List<Contig> contigs = new ArrayList<Contig>();
-		if (file.exists()) {
-			int counter = 1;
-			String line;
-			StringBuffer name = new StringBuffer();
-			StringBuffer sequence = new StringBuffer();
-			InputStream in = new FileInputStream(file);
-			BufferedReader br = new BufferedReader(new InputStreamReader(in));
-			while ((line = br.readLine()) != null) {
-				if (line.startsWith(">")) {
-					if (name.length() > 0) { // can't be first 
-						if (sequence.length() > minSize) {
-							Contig item = new Contig(name.toString(),
-									sequence.toString());
-							item.setIndex(counter);
-							contigs.add(item);
-							name.delete(0, name.length());
-							sequence.delete(0, sequence.length());
-							counter++;
-						} else {
-							name.delete(0, name.length());
-							sequence.delete(0, sequence.length());
-						}
-					}
-					String header = line.split(">")[1].trim();
-			//		header = header.replace(" ", "_");
-					name.append(header);
-				} else {
-					sequence.append(line.trim());
+		if (file.exists() && Decompressor.isCompressed(file)) {
+			Parser parser = new Parser(contigs, minSize);
+			InputStream in = Decompressor.open(file, executor);
+			try {
+				byte[] buffer = new byte[1 << 16];
+				int n;
+				while ((n = in.read(buffer)) > 0)
+					for (int i = 0; i < n; i++)
+						parser.read(buffer[i]);
+			} finally {
+				in.close();
+			}
+			parser.finish();
+		} else if (file.exists()) {
+			Parser parser = new Parser(contigs, minSize);
+			FileInputStream in = new FileInputStream(file);
+			try {
+				FileChannel channel = in.getChannel();
+				long size = channel.size();
+				for (long position = 0; position < size; position += MAP_SIZE) {
+					MappedByteBuffer buffer = channel.map(
+							FileChannel.MapMode.READ_ONLY, position,
+							Math.min(MAP_SIZE, size - position));
+					while (buffer.hasRemaining())
+						parser.read(buffer.get());
 				}
+			} finally {
+				in.close();
 			}
+			parser.finish();
+		}
+		return contigs;
+	}
+
+	/**
+	 * Parses the bytes of a multi-FASTA file into contigs, one line at a
+	 * time. Header lines are decoded as strings; sequence lines are trimmed
+	 * and appended directly to a packed sequence.
+	 */
+	private static class Parser {
+
+		private List<Contig> contigs;
+		private int minSize;
+		private int counter = 1;
+		private long bases = 0;
+		private String name = "";
+		private PackedSequence.Builder sequence = new PackedSequence.Builder();
+		private ByteArrayOutputStream header = new ByteArrayOutputStream();
+		private StringBuilder whitespace = new StringBuilder();
+		private boolean lineStart = true;
+		private boolean headerLine = false;
+		private boolean lineContent = false;
+
+		/**
+		 * Instantiate a new parser.
+		 *
+		 * @param contigs
+		 *            the list to add contigs to
+		 * @param minSize
+		 *            the minimum sequence size to be read
+		 */
+		private Parser(List<Contig> contigs, int minSize) {
+			this.contigs = contigs;
+			this.minSize = minSize;
+		}
+
+		/**
+		 * Read the next byte of the file.
+		 *
+		 * @param b
+		 *            the byte
+		 * @throws BadSequenceException
+		 *             if the file contains too many nucleotides
+		 */
+		private void read(byte b) throws BadSequenceException {
+			if (b == '\n' || b == '\r') {
+				endLine();
+				return;
+			}
+			if (lineStart) {
+				lineStart = false;
+				headerLine = b == '>';
+			}
+			if (headerLine) {
+				header.write(b);
+				return;
+			}
+
+			// trim leading and trailing whitespace from sequence lines
+			char c = (char) (b & 0xff);
+			if (c <= ' ') {
+				if (lineContent)
+					whitespace.append(c);
+				return;
+			}
+			for (int i = 0; i < whitespace.length(); i++)
+				sequence.append(whitespace.charAt(i));
+			whitespace.setLength(0);
+			sequence.append(c);
+			if (++bases > Genome.MAX_LENGTH)
+				throw new BadSequenceException("Could not run PRISM: your "
+						+ "sequence exceeds the maximum size of 50 Mb!");
+			lineContent = true;
+		}
+
+		/**
+		 * Finish the current line.
+		 */
+		private void endLine() {
+			if (headerLine) {
+				readHeader(new String(header.toByteArray()));
+				header.reset();
+			}
+			whitespace.setLength(0);
+			lineStart = true;
+			headerLine = false;
+			lineContent = false;
+		}
+
+		/**
+		 * Start a new contig at a header line, adding the previous contig if
+		 * its sequence is long enough.
+		 *
+		 * @param line
+		 *            the header line
+		 */
+		private void readHeader(String line) {
+			if (name.length() > 0) { // can't be first
+				if (sequence.length() > minSize) {
+					Contig item = new Contig(name, sequence.build());
+					item.setIndex(counter);
+					contigs.add(item);
+					counter++;
+				}
+				sequence = new PackedSequence.Builder();
+			}
+			String header = line.split(">")[1].trim();
+	//		header = header.replace(" ", "_");
+			name = header;
+		}
+
+		/**
+		 * Finish reading the file, adding the last contig.
+		 */
+		private void finish() {
+			if (!lineStart)
+				endLine();
 			// add the last orf (when there is no more > to mark the end)
-			Contig contig = new Contig(name.toString(), sequence.toString());
+			Contig contig = new Contig(name, sequence.build());
 			contig.setIndex(counter);
 			contigs.add(contig);
-			br.close();
 		}
-		return contigs;
+
 	}
 
 }
@@ -1,11 +1,17 @@
 package ca.mcmaster.magarveylab.prism.fasta;
 
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import ca.mcmaster.magarveylab.prism.data.Cluster;
 import ca.mcmaster.magarveylab.prism.data.Domain;
 import ca.mcmaster.magarveylab.prism.data.Contig;
+import ca.mcmaster.magarveylab.prism.data.Genome;
 import ca.mcmaster.magarveylab.prism.data.Orf;
 import ca.mcmaster.magarveylab.prism.data.Organism;
 import ca.mcmaster.magarveylab.wasp.session.Session;
@@ -56,6 +62,39 @@ public class FastaUtil {
 		return sb.toString();
 	}
 	
+	/**
+	 * Write any sequence in FASTA format, with line breaks after every 50th
+	 * character, without converting the whole sequence to a string.
+	 * @param sequence	sequence to write
+	 * @param writer	writer to append the formatted sequence to
+	 * @throws IOException
+	 */
+	public static void writeSequenceForFasta(CharSequence sequence, Writer writer)
+			throws IOException {
+		for (int i = 0; i < sequence.length(); i += 50) {
+			writer.append(sequence, i, Math.min(sequence.length(), i + 50));
+			writer.append("\n");
+		}
+	}
+	
+	/**
+	 * Write a list of contigs to a multi-FASTA file. Each contig is written
+	 * with its full header, so that results for the file can be matched to
+	 * contigs in the same way as for the original input file.
+	 * @param contigs	contigs to write
+	 * @param path		location of the FASTA file
+	 * @throws IOException
+	 */
+	public static void writeContigs(List<Contig> contigs, String path)
+			throws IOException {
+		BufferedWriter bw = new BufferedWriter(new FileWriter(path));
+		for (Contig contig : contigs) {
+			bw.append(">" + contig.header() + "\n");
+			writeSequenceForFasta(contig.sequence(), bw);
+		}
+		bw.close();
+	}
+	
 	public static Organism parseOrganism(String header) {
 		Organism o = new Organism(header);
 
@@ -115,10 +154,6 @@ public class FastaUtil {
 	 * @param contig	contig in question
 	 */
 	public static void setFiles(Contig contig, Session session) {
-		contig.setFile("orfs", session.dir() + "contig_" + contig.index() + "_orfs.fa");
-		contig.setFile("adenylation", session.dir() + "contig_" + contig.index() + "_adenylation.fa");
-		contig.setFile("acyl_adenylating", session.dir() + "contig_" + contig.index() + "_acyl_adenylating.fa");
-		contig.setFile("acyltransferase", session.dir() + "contig_" + contig.index() + "_acyltransferase.fa");
 		contig.setFile("priming_AT", session.dir() + "contig_" + contig.index() + "_priming_at.fa");
 		contig.setFile("condensation", session.dir() + "contig_" + contig.index() + "_condensation.fa");
 		contig.setFile("ketosynthase", session.dir() + "contig_" + contig.index() + "_ketosynthase.fa");
@@ -128,4 +163,16 @@ public class FastaUtil {
 		contig.setFile("glycosyltransferase", session.dir() + "contig_" + contig.index() + "_glycosyltransferase.fa");
 	}
 	
+	/**
+	 * Initialize locations for genome-wide files, which contain the sequences
+	 * of every contig with contig-tagged names.
+	 * @param genome	genome in question
+	 */
+	public static void setFiles(Genome genome, Session session) {
+		genome.setFile("orfs", session.dir() + "genome_orfs.fa");
+		genome.setFile("adenylation", session.dir() + "genome_adenylation.fa");
+		genome.setFile("acyl_adenylating", session.dir() + "genome_acyl_adenylating.fa");
+		genome.setFile("acyltransferase", session.dir() + "genome_acyltransferase.fa");
+	}
+	
 }
\ No newline at end of file
@@ -1,222 +1,131 @@
 package ca.mcmaster.magarveylab.prism.fasta;
 
+import java.util.Arrays;
+
+import ca.mcmaster.magarveylab.prism.data.PackedSequence;
+
 /**
- * Remove unsupported nucleotide codes from DNA sequences.  	
+ * Remove unsupported nucleotide codes from DNA sequences.<br>
+ * <br>
+ * Each character is normalized with a single lookup table: A, C, G, T and N
+ * are kept as they are, IUPAC ambiguity codes are resolved to one of the
+ * nucleotides they represent, and all other characters are replaced with N.
+ * Ambiguity codes are resolved by hashing their position in the sequence, so
+ * the same sequence is always cleaned in the same way.
  * @author skinnider
  *
  */
 public class SequenceCleaner {
-	
-	private final static char[] valid = { 
-		'k', 'r', 'y', 'm', 's', 'w', 'b', 'd', 'v', 'h', 'a', 'c', 'g', 't', 'n',
-		'K', 'R', 'Y', 'M', 'S', 'W', 'B', 'D', 'V', 'H', 'A', 'C', 'G', 'T', 'N'
-	};
 
 	/**
-	 * Remove all unsupported nucleotide codes (RYKMSWBDHV) from a sequence.
-	 * @param seq	the sequence to clean
-	 * @return		the cleaned sequence
+	 * The normalized form of each character, or 0 for ambiguity codes.
 	 */
-	public static String clean(String seq) {
-		StringBuilder sequence = new StringBuilder(seq);
-		
-		for (int i = 0; i < seq.length(); i++) {
-			char c = sequence.charAt(i);
-			if (!isValid(c))
-				replaceN(i, sequence);
-			if (c == 'k' || c == 'K')
-				replaceK(i, sequence);
-			if (c == 'r' || c == 'R')
-				replaceR(i, sequence);
-			if (c == 'y' || c == 'Y')
-				replaceY(i, sequence);
-			if (c == 'm' || c == 'M')
-				replaceM(i, sequence);
-			if (c == 's' || c == 'S')
-				replaceS(i, sequence);
-			if (c == 'w' || c == 'W')
-				replaceW(i, sequence);
-			if (c == 'b' || c == 'B')
-				replaceB(i, sequence);
-			if (c == 'd' || c == 'D')
-				replaceD(i, sequence);
-			if (c == 'v' || c == 'V')
-				replaceV(i, sequence);
-			if (c == 'h' || c == 'H')
-				replaceH(i, sequence);
-		}
-		return sequence.toString();
-	}
-	
-	/**
-	 * Test whether the array of valid characters contains a given FASTA nucleotide character.
-	 * @param valid		array of valid FASTA input characters
-	 * @param c			character to test
-	 * @return			false if this is invalid
-	 */
-	public static boolean isValid(char c) {
-		boolean flag = false;
-		for (char ch : valid)
-			if (ch == c)
-				flag = true;
-		return flag;
-	}
-	
-	/**
-	 * Replace an invalid character with N. 
-	 * @param i			index of the invalid character within the sequence
-	 * @param sequence	the sequence
-	 */
-	public static void replaceN(int i, StringBuilder sequence) {
-		sequence.setCharAt(i, 'N');
-	}
-	
-	/**
-	 * Replace a K (ketone nucleotide) with either G or T. 
-	 * @param i			index of the K within the sequence
-	 * @param sequence	the sequence
-	 */
-	public static void replaceK(int i, StringBuilder sequence) {
-		int random = (int) Math.floor(Math.random() * 2);
-		if (random == 1) {
-			sequence.setCharAt(i, 'G');
-		} else {
-			sequence.setCharAt(i, 'T');
-		}
-	}
-	
-	/**
-	 * Replace a R (purine nucleotide) with either A or G.
-	 * @param i			index of the R within the sequence
-	 * @param sequence	the sequence
-	 */
-	public static void replaceR(int i, StringBuilder sequence) {
-		int random = (int) Math.floor(Math.random() * 2);
-		if (random == 1) {
-			sequence.setCharAt(i, 'A');
-		} else {
-			sequence.setCharAt(i, 'G');
-		}
-	}
+	private static final char[] NORMALIZED = new char[256];
 
 	/**
-	 * Replace a Y (pyrimidine nucleotide) with either T or C.
-	 * @param i			index of the R within the sequence
-	 * @param sequence	the sequence
+	 * The nucleotides which each ambiguity code can be resolved to.
 	 */
-	public static void replaceY(int i, StringBuilder sequence) {
-		int random = (int) Math.floor(Math.random() * 2);
-		if (random == 1) {
-			sequence.setCharAt(i, 'T');
-		} else {
-			sequence.setCharAt(i, 'C');
-		}
-	}
-	
-	/**
-	 * Replace a M (amino nucleotide) with either A or C.
-	 * @param i			index of the R within the sequence
-	 * @param sequence	the sequence
-	 */
-	public static void replaceM(int i, StringBuilder sequence) {
-		int random = (int) Math.floor(Math.random() * 2);
-		if (random == 1) {
-			sequence.setCharAt(i, 'A');
-		} else {
-			sequence.setCharAt(i, 'C');
-		}
-	}
+	private static final char[][] RESOLUTIONS = new char[256][];
 
-	/**
-	 * Replace a S (strong interaction nucleotide) with either C or G.
-	 * @param i			index of the R within the sequence
-	 * @param sequence	the sequence
-	 */
-	public static void replaceS(int i, StringBuilder sequence) {
-		int random = (int) Math.floor(Math.random() * 2);
-		if (random == 1) {
-			sequence.setCharAt(i, 'G');
-		} else {
-			sequence.setCharAt(i, 'C');
+	static {
+		Arrays.fill(NORMALIZED, 'N');
+		for (char c : "ACGTNacgtn".toCharArray())
+			NORMALIZED[c] = c;
+		String[][] codes = { { "K", "GT" }, { "R", "AG" }, { "Y", "TC" },
+				{ "M", "AC" }, { "S", "GC" }, { "W", "TA" }, { "B", "CTG" },
+				{ "D", "ATG" }, { "V", "CAG" }, { "H", "CTA" } };
+		for (String[] code : codes) {
+			char c = code[0].charAt(0);
+			NORMALIZED[c] = NORMALIZED[Character.toLowerCase(c)] = 0;
+			RESOLUTIONS[c] = RESOLUTIONS[Character.toLowerCase(c)] = code[1]
+					.toCharArray();
 		}
 	}
 
 	/**
-	 * Replace a W (weak interaction nucleotide) with either A or T.
-	 * @param i			index of the R within the sequence
-	 * @param sequence	the sequence
+	 * Remove all unsupported nucleotide codes (RYKMSWBDHV) from a sequence.
+	 * @param seq	the sequence to clean
+	 * @return		the cleaned sequence
 	 */
-	public static void replaceW(int i, StringBuilder sequence) {
-		int random = (int) Math.floor(Math.random() * 2);
-		if (random == 1) {
-			sequence.setCharAt(i, 'T');
-		} else {
-			sequence.setCharAt(i, 'A');
-		}
+	public static String clean(String seq) {
+		char[] sequence = seq.toCharArray();
+		clean(sequence, 0, sequence.length, 0);
+		return new String(sequence);
 	}
-	
+
 	/**
-	 * Replace a B (not-A nucleotide) with either C, T, or G.
-	 * @param i			index of the R within the sequence
-	 * @param sequence	the sequence
+	 * Remove all unsupported nucleotide codes (RYKMSWBDHV) from part of a
+	 * sequence buffer, in place.
+	 * @param sequence	the buffer holding the sequence
+	 * @param start		the first index to clean
+	 * @param end		one past the last index to clean
+	 * @param position	the position of the first cleaned character in the
+	 * 					complete sequence, used to resolve ambiguity codes
 	 */
-	public static void replaceB(int i, StringBuilder sequence) {
-		int random = (int) Math.floor(Math.random() * 3);
-		if (random == 1) {
-			sequence.setCharAt(i, 'T');
-		} else if (random == 2) {
-			sequence.setCharAt(i, 'G');
-		} else {
-			sequence.setCharAt(i, 'C');
+	public static void clean(char[] sequence, int start, int end, int position) {
+		for (int i = start; i < end; i++) {
+			char c = sequence[i];
+			char normalized = c < NORMALIZED.length ? NORMALIZED[c] : 'N';
+			if (normalized == 0)
+				normalized = resolve(c, position + i - start);
+			sequence[i] = normalized;
 		}
 	}
 
 	/**
-	 * Replace a D (not-C nucleotide) with either A, T, or G.
-	 * @param i			index of the R within the sequence
-	 * @param sequence	the sequence
+	 * Remove all unsupported nucleotide codes (RYKMSWBDHV) from a packed
+	 * sequence, in the same way as {@link #clean(String)}. The sequence is
+	 * read in short slices, and is returned unchanged if it contains no
+	 * unsupported codes.
+	 * @param seq	the sequence to clean
+	 * @return		the cleaned sequence
 	 */
-	public static void replaceD(int i, StringBuilder sequence) {
-		int random = (int) Math.floor(Math.random() * 3);
-		if (random == 1) {
-			sequence.setCharAt(i, 'T');
-		} else if (random == 2) {
-			sequence.setCharAt(i, 'G');
-		} else {
-			sequence.setCharAt(i, 'A');
+	public static PackedSequence clean(PackedSequence seq) {
+		boolean clean = true;
+		for (char c : seq.otherCharacters())
+			if (c != 'n' && c != 'N')
+				clean = false;
+		if (clean)
+			return seq;
+
+		PackedSequence.Builder builder = new PackedSequence.Builder(seq.length());
+		char[] buffer = new char[8192];
+		for (int start = 0; start < seq.length(); start += buffer.length) {
+			int end = Math.min(seq.length(), start + buffer.length);
+			seq.getChars(start, end, buffer, 0);
+			clean(buffer, 0, end - start, start);
+			for (int i = 0; i < end - start; i++)
+				builder.append(buffer[i]);
 		}
+		return builder.build();
 	}
-	
+
 	/**
-	 * Replace a H (not-G nucleotide) with either C, T, or A.
-	 * @param i			index of the R within the sequence
-	 * @param sequence	the sequence
+	 * Test whether a character is a valid FASTA nucleotide character,
+	 * including ambiguity codes.
+	 * @param c			character to test
+	 * @return			false if this is invalid
 	 */
-	public static void replaceH(int i, StringBuilder sequence) {
-		int random = (int) Math.floor(Math.random() * 3);
-		if (random == 1) {
-			sequence.setCharAt(i, 'T');
-		} else if (random == 2) {
-			sequence.setCharAt(i, 'A');
-		} else {
-			sequence.setCharAt(i, 'C');
-		}
+	public static boolean isValid(char c) {
+		return c < NORMALIZED.length && (NORMALIZED[c] == c || NORMALIZED[c] == 0);
 	}
-	
+
 	/**
-	 * Replace a V (not-T nucleotide) with either C, A, or G.
-	 * @param i			index of the R within the sequence
-	 * @param sequence	the sequence
+	 * Resolve an ambiguity code to one of the nucleotides it represents.
+	 * @param c			the ambiguity code
+	 * @param position	the position of the code in the sequence
+	 * @return			the nucleotide chosen for this position
 	 */
-	public static void replaceV(int i, StringBuilder sequence) {
-		int random = (int) Math.floor(Math.random() * 3);
-		if (random == 1) {
-			sequence.setCharAt(i, 'A');
-		} else if (random == 2) {
-			sequence.setCharAt(i, 'G');
-		} else {
-			sequence.setCharAt(i, 'C');
-		}
+	private static char resolve(char c, int position) {
+		// murmur3 finalizer
+		int h = position;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		char[] resolutions = RESOLUTIONS[c];
+		return resolutions[(h & Integer.MAX_VALUE) % resolutions.length];
 	}
 
 }
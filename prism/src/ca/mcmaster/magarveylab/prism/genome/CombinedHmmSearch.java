@@ -0,0 +1,192 @@
+package ca.mcmaster.magarveylab.prism.genome;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ca.mcmaster.magarveylab.enums.domains.DomainType;
+import ca.mcmaster.magarveylab.prism.Prism;
+import ca.mcmaster.magarveylab.prism.data.Contig;
+import ca.mcmaster.magarveylab.prism.data.Genome;
+import ca.mcmaster.magarveylab.prism.genome.data.HmmSearchResult;
+import ca.mcmaster.magarveylab.wasp.session.Session;
+
+/**
+ * Search a genome against a single profile database, built by concatenating
+ * the hidden Markov models for a set of domain types, and split the hits back
+ * out by domain type and contig. This replaces one hmmsearch process per
+ * domain type with a single process per genome.<br>
+ * <br>
+ * Each model is renamed within the combined database so that its hits can be
+ * routed back to the domain type it was built for. Only HMMER3 models are
+ * combined; legacy HMMER2 models are not included, and domain types which use
+ * them are searched individually as before. Models rejected by the prefilter,
+ * if enabled, are also left out of the combined database.
+ *
+ * @author skinnider
+ *
+ */
+public class CombinedHmmSearch {
+
+	private List<DomainType> types;
+	private Genome genome;
+	private Session session;
+	private HmmPrefilter prefilter;
+	private String database;
+	private Map<String, DomainType> combined = new LinkedHashMap<String, DomainType>();
+	private Map<String, Map<Contig, List<HmmSearchResult>>> results = new HashMap<String, Map<Contig, List<HmmSearchResult>>>();
+
+	/**
+	 * Instantiate a new combined hidden Markov model search.
+	 *
+	 * @param types
+	 *            the domain types to search for
+	 * @param genome
+	 *            the genome to search
+	 * @param session
+	 *            the current session
+	 */
+	public CombinedHmmSearch(List<DomainType> types, Genome genome,
+			Session session) {
+		this.types = types;
+		this.genome = genome;
+		this.session = session;
+		this.database = session.dir() + "combined.hmm";
+		if (session.webapp() instanceof Prism)
+			this.prefilter = ((Prism) session.webapp()).prefilter();
+	}
+
+	/**
+	 * Write the combined profile database, and search the genome against it.
+	 *
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void run() throws IOException, InterruptedException {
+		writeDatabase();
+		if (combined.size() == 0)
+			return;
+
+		session.listener().addStage("Analyzing domains",
+				"Searching " + combined.size() + " hidden Markov models...");
+		HmmSearch search = new HmmSearch(database, genome.getFile("orfs"),
+				session);
+		search.run();
+
+		ContigIndex index = new ContigIndex(genome);
+		Map<String, List<HmmSearchResult>> queryResults = search.reader()
+				.readAll();
+		for (Map.Entry<String, List<HmmSearchResult>> entry : queryResults
+				.entrySet())
+			results.put(entry.getKey(), index.split(entry.getValue()));
+	}
+
+	/**
+	 * Concatenate the hidden Markov model for each domain type into a single
+	 * profile database, replacing the name of each model with a key unique to
+	 * its domain type.
+	 *
+	 * @throws IOException
+	 */
+	private void writeDatabase() throws IOException {
+		BufferedWriter bw = new BufferedWriter(new FileWriter(database));
+		for (DomainType type : types) {
+			String key = getKey(type);
+			if (combined.containsKey(key))
+				continue;
+			File model = new File(getModelFile(type));
+			if (!model.exists() || !isHmmer3(model))
+				continue;
+			if (prefilter != null && !prefilter.accepts(model.getPath()))
+				continue;
+
+			BufferedReader br = new BufferedReader(new FileReader(model));
+			String line = null;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith("NAME "))
+					line = "NAME  " + key;
+				bw.append(line + "\n");
+			}
+			br.close();
+			combined.put(key, type);
+		}
+		bw.close();
+	}
+
+	/**
+	 * Determine whether a hidden Markov model file is in HMMER3 format.
+	 *
+	 * @param model
+	 *            the model file to check
+	 * @return true if the first line of the file is a HMMER3 format tag
+	 * @throws IOException
+	 */
+	private boolean isHmmer3(File model) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(model));
+		String line = br.readLine();
+		br.close();
+		return line != null && line.startsWith("HMMER3");
+	}
+
+	/**
+	 * Get the location of the hidden Markov model file for a domain type.
+	 *
+	 * @param type
+	 *            domain type being searched for
+	 * @return location of the hidden Markov model file
+	 */
+	private String getModelFile(DomainType type) {
+		String family = type.family().toString().toLowerCase();
+		return session.subDir("hmm") + family + File.separator + type.hmm();
+	}
+
+	/**
+	 * Get the name given to the model for a domain type within the combined
+	 * database.
+	 *
+	 * @param type
+	 *            domain type
+	 * @return the name of the domain type's model in the combined database
+	 */
+	public static String getKey(DomainType type) {
+		return type.family().toString().toLowerCase() + "."
+				+ type.toString().toLowerCase();
+	}
+
+	/**
+	 * Check whether a domain type was searched as part of this combined
+	 * search.
+	 *
+	 * @param type
+	 *            domain type to check
+	 * @return true if the model for this domain type is in the combined
+	 *         database
+	 */
+	public boolean contains(DomainType type) {
+		return combined.get(getKey(type)) == type;
+	}
+
+	/**
+	 * Get the hmmsearch results for a single domain type on each contig.
+	 *
+	 * @param type
+	 *            domain type
+	 * @return all hmmsearch results for this domain type, by contig
+	 */
+	public Map<Contig, List<HmmSearchResult>> results(DomainType type) {
+		Map<Contig, List<HmmSearchResult>> typeResults = results
+				.get(getKey(type));
+		if (typeResults == null)
+			return new HashMap<Contig, List<HmmSearchResult>>();
+		return typeResults;
+	}
+
+}
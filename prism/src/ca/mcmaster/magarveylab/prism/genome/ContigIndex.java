@@ -0,0 +1,208 @@
+package ca.mcmaster.magarveylab.prism.genome;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ca.mcmaster.magarveylab.enums.domains.DomainType;
+import ca.mcmaster.magarveylab.prism.data.Contig;
+import ca.mcmaster.magarveylab.prism.data.Domain;
+import ca.mcmaster.magarveylab.prism.data.Genome;
+import ca.mcmaster.magarveylab.prism.data.Orf;
+import ca.mcmaster.magarveylab.prism.fasta.FastaUtil;
+import ca.mcmaster.magarveylab.prism.genome.data.HmmSearchResult;
+
+/**
+ * Index of the contigs in a genome, used to write genome-wide FASTA files in
+ * which every sequence name is tagged with its parent contig, and to route
+ * search results against those files back to the right contig. Orf and domain
+ * names are only unique within a contig, so each name is prefixed with a
+ * contig tag (e.g. <code>contig3|orf00012</code>), which is removed again
+ * before results are matched to orfs.
+ *
+ * @author skinnider
+ *
+ */
+public class ContigIndex {
+
+	/**
+	 * Separates the contig tag from the name of a sequence.
+	 */
+	public static final String SEPARATOR = "|";
+
+	private Genome genome;
+	private Map<Contig, String> tags = new HashMap<Contig, String>();
+	private Map<String, Contig> contigs = new HashMap<String, Contig>();
+
+	/**
+	 * Instantiate a new index of the contigs in a genome.
+	 *
+	 * @param genome
+	 *            the genome to index
+	 */
+	public ContigIndex(Genome genome) {
+		this.genome = genome;
+		for (int i = 0; i < genome.contigs().size(); i++) {
+			Contig contig = genome.contigs().get(i);
+			String tag = "contig" + (i + 1);
+			tags.put(contig, tag);
+			contigs.put(tag, contig);
+		}
+	}
+
+	/**
+	 * Tag the name of a sequence with its parent contig.
+	 *
+	 * @param contig
+	 *            the parent contig
+	 * @param name
+	 *            the name of the sequence
+	 * @return the tagged name
+	 */
+	public String tag(Contig contig, String name) {
+		return tags.get(contig) + SEPARATOR + name;
+	}
+
+	/**
+	 * Get the contig a tagged sequence name belongs to.
+	 *
+	 * @param name
+	 *            the tagged name
+	 * @return the parent contig, or null if the name is not tagged with a
+	 *         contig in this index
+	 */
+	public Contig contig(String name) {
+		return contigs.get(tagOf(name));
+	}
+
+	/**
+	 * Get the contig tag of a sequence name.
+	 *
+	 * @param name
+	 *            the tagged name
+	 * @return the contig tag, or an empty string if the name is not tagged
+	 */
+	public static String tagOf(String name) {
+		int idx = name.indexOf(SEPARATOR);
+		return (idx == -1) ? "" : name.substring(0, idx);
+	}
+
+	/**
+	 * Get the number of orfs in each contig of the genome.
+	 *
+	 * @return the number of orfs in each contig, keyed by contig tag
+	 */
+	public Map<String, Integer> orfCounts() {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (Contig contig : genome.contigs())
+			counts.put(tags.get(contig), contig.orfs().size());
+		return counts;
+	}
+
+	/**
+	 * Remove the contig tag from a sequence name.
+	 *
+	 * @param name
+	 *            the tagged name
+	 * @return the name of the sequence within its parent contig
+	 */
+	public String untag(String name) {
+		return name.substring(name.indexOf(SEPARATOR) + 1);
+	}
+
+	/**
+	 * Split the results of a search against a genome-wide FASTA file by
+	 * contig, removing the contig tag from the name of each result. Results
+	 * for each contig are kept in the order in which they were read.
+	 *
+	 * @param results
+	 *            hmmsearch results with tagged names
+	 * @return the results for each contig with at least one result
+	 */
+	public Map<Contig, List<HmmSearchResult>> split(List<HmmSearchResult> results) {
+		Map<Contig, List<HmmSearchResult>> split = new LinkedHashMap<Contig, List<HmmSearchResult>>();
+		for (HmmSearchResult result : results) {
+			Contig contig = contig(result.name);
+			if (contig == null)
+				continue;
+			result.name = untag(result.name);
+			List<HmmSearchResult> contigResults = split.get(contig);
+			if (contigResults == null) {
+				contigResults = new ArrayList<HmmSearchResult>();
+				split.put(contig, contigResults);
+			}
+			contigResults.add(result);
+		}
+		return split;
+	}
+
+	/**
+	 * Print the amino acid sequences of all orfs in the genome to a single
+	 * multi-FASTA file, with contig-tagged names.
+	 *
+	 * @param path
+	 *            the location of the FASTA file
+	 * @throws IOException
+	 */
+	public void printOrfs(String path) throws IOException {
+		printOrfs(path, null);
+	}
+
+	/**
+	 * Print the amino acid sequences of a subset of the orfs in the genome to
+	 * a single multi-FASTA file, with contig-tagged names.
+	 *
+	 * @param path
+	 *            the location of the FASTA file
+	 * @param include
+	 *            the orfs to print, or null to print all orfs
+	 * @return the number of orfs printed
+	 * @throws IOException
+	 */
+	public int printOrfs(String path, Set<Orf> include) throws IOException {
+		int count = 0;
+		BufferedWriter bw = new BufferedWriter(new FileWriter(path));
+		for (Contig contig : genome.contigs())
+			for (Orf orf : contig.orfs()) {
+				if (include != null && !include.contains(orf))
+					continue;
+				bw.append(">" + tag(contig, orf.name()) + "\n"
+						+ FastaUtil.formatSequenceForFasta(orf.sequence()));
+				count++;
+			}
+		bw.close();
+		return count;
+	}
+
+	/**
+	 * Print the amino acid sequences of all domains of a given type in the
+	 * genome to a single multi-FASTA file, with contig-tagged names.
+	 *
+	 * @param type
+	 *            the type of domain to print
+	 * @param path
+	 *            the location of the FASTA file
+	 * @return the number of domains printed
+	 * @throws IOException
+	 */
+	public int printDomains(DomainType type, String path) throws IOException {
+		int count = 0;
+		BufferedWriter bw = new BufferedWriter(new FileWriter(path));
+		for (Contig contig : genome.contigs())
+			for (Orf orf : contig.orfs())
+				for (Domain domain : orf.domains(type)) {
+					bw.append(">" + tag(contig, domain.name()) + "\n"
+							+ domain.sequence() + "\n");
+					count++;
+				}
+		bw.close();
+		return count;
+	}
+
+}
@@ -3,13 +3,18 @@ package ca.mcmaster.magarveylab.prism.genome;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import ca.mcmaster.magarveylab.enums.domains.DomainType;
 import ca.mcmaster.magarveylab.prism.Prism;
 import ca.mcmaster.magarveylab.prism.data.Domain;
 import ca.mcmaster.magarveylab.prism.data.Contig;
 import ca.mcmaster.magarveylab.prism.data.Genome;
+import ca.mcmaster.magarveylab.prism.data.IntervalIndex;
 import ca.mcmaster.magarveylab.prism.data.Orf;
 import ca.mcmaster.magarveylab.prism.fasta.FastaWriter;
 import ca.mcmaster.magarveylab.prism.genome.data.HmmSearchResult;
@@ -23,19 +28,42 @@ public class DomainSearch implements Runnable {
 	protected Genome genome;
 	protected Session session;
 	protected PrismConfig config;
-	protected HmmSearch search;
+	protected CombinedHmmSearch combined;
 	protected String model;
 	protected DomainType type;
+	protected Map<Contig, List<HmmSearchResult>> results;
+	protected HmmPrefilter prefilter;
 	
 	public DomainSearch(DomainType type, Genome genome, Session session) {
 		this.genome = genome;
 		this.session = session;
 		Prism prism = (Prism) session.webapp();
 		this.config = prism.config();
+		this.prefilter = prism.prefilter();
 		this.type = type;
 		this.model = getModelFile(type);
 	}
 	
+	/**
+	 * Instantiate a new domain search which reads its results from a combined
+	 * hidden Markov model search, if that search included this domain type.
+	 * 
+	 * @param type
+	 *            domain type being searched for
+	 * @param genome
+	 *            the genome to search
+	 * @param session
+	 *            the current session
+	 * @param combined
+	 *            combined search to read results from, or null to search this
+	 *            domain type individually
+	 */
+	public DomainSearch(DomainType type, Genome genome, Session session,
+			CombinedHmmSearch combined) {
+		this(type, genome, session);
+		this.combined = combined;
+	}
+	
 	/**
 	 * Get the location of the hidden Markov model file.
 	 * @param type	domain type being searched for 
@@ -50,9 +78,13 @@ public class DomainSearch implements Runnable {
 		if (new File(model).exists()) {
 			try {
 				setStatusMessage();
+				if (results == null)
+					search();
 				for (Contig contig : genome.contigs()) {
-					runHmmSearch(contig);
-					matchResultsToOrfs(contig);
+					List<HmmSearchResult> contigResults = results.get(contig);
+					if (contigResults == null)
+						contigResults = new ArrayList<HmmSearchResult>();
+					matchResultsToOrfs(contig, contigResults);
 					removeOverlap(contig);
 					sortDomains(contig);
 					printDomains(contig);
@@ -63,6 +95,89 @@ public class DomainSearch implements Runnable {
 		}
 	}
 	
+	/**
+	 * Execute the hmmsearch for this domain type against the whole genome,
+	 * and store the results for each contig without matching them to orfs.
+	 * This allows the searches for many domain types to be run concurrently;
+	 * the results are matched to orfs when this search is run.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void search() throws IOException, InterruptedException {
+		if (!new File(model).exists())
+			return;
+		results = runHmmSearch();
+	}
+	
+	/**
+	 * Execute the hmmsearch for this domain type against a subset of the
+	 * genome's orfs, and add the results to those of any previous search.
+	 * E-values are calculated for databases of the given sizes, so that they
+	 * are the same as those from a search of each whole contig.
+	 * @param database		FASTA file of contig-tagged orfs to search
+	 * @param databaseSizes	the number of orfs in each contig, keyed by 
+	 * 						contig tag
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void search(String database, Map<String, Integer> databaseSizes) 
+			throws IOException, InterruptedException {
+		if (!new File(model).exists())
+			return;
+		if (results == null)
+			clearResults();
+		if (prefilter != null && !prefilter.accepts(model))
+			return;
+		HmmSearch search = new HmmSearch(model, database, session);
+		search.setDatabaseSizes(databaseSizes);
+		search.run();
+		ContigIndex index = new ContigIndex(genome);
+		Map<Contig, List<HmmSearchResult>> split = index.split(search.reader().read());
+		for (Map.Entry<Contig, List<HmmSearchResult>> entry : split.entrySet()) {
+			List<HmmSearchResult> contigResults = results.get(entry.getKey());
+			if (contigResults == null) {
+				contigResults = new ArrayList<HmmSearchResult>();
+				results.put(entry.getKey(), contigResults);
+			}
+			contigResults.addAll(entry.getValue());
+		}
+	}
+	
+	/**
+	 * Discard any stored results, and mark this search as executed. Results
+	 * of subsequent searches against subsets of the genome are added to an
+	 * empty set of results, rather than triggering a genome-wide search.
+	 */
+	public void clearResults() {
+		results = new HashMap<Contig, List<HmmSearchResult>>();
+	}
+	
+	/**
+	 * Check whether the hmmsearch for this domain type has already been
+	 * executed.
+	 * @return	true if results have been stored for this search
+	 */
+	public boolean searched() {
+		return results != null;
+	}
+	
+	/**
+	 * Get all orfs with at least one hit for this domain type above the
+	 * domain cutoff, among the results stored for this search.
+	 * @return	all orfs which will contain a domain of this type
+	 */
+	public Set<Orf> hits() {
+		Set<Orf> hits = new HashSet<Orf>();
+		if (results == null)
+			return hits;
+		for (Map.Entry<Contig, List<HmmSearchResult>> entry : results.entrySet())
+			for (HmmSearchResult result : entry.getValue())
+				for (HmmSearchResultAnnotation annotation : result.annotations())
+					if (annotation.score() > type.cutoff())
+						hits.addAll(entry.getKey().getOrfs(result.name));
+		return hits;
+	}
+	
 	/**
 	 * Set the status message shown to the user during this domain search. 
 	 */
@@ -71,30 +186,34 @@ public class DomainSearch implements Runnable {
 	}
 
 	/**
-	 * Execute the hmmsearch executable program given the arguments for this domain search.
-	 * @param contig		contig to analyze
+	 * Execute the hmmsearch executable program given the arguments for this
+	 * domain search against the genome-wide orf file, or get the results of
+	 * the combined search if this domain type was part of it.
+	 * @return				hmmsearch results for this domain type, by contig
 	 * @throws IOException
 	 * @throws InterruptedException 
 	 */
-	protected void runHmmSearch(Contig contig) throws IOException, InterruptedException {
-		search = new HmmSearch(model, contig.getFile("orfs"), session);
+	protected Map<Contig, List<HmmSearchResult>> runHmmSearch() throws IOException, InterruptedException {
+		if (combined != null && combined.contains(type))
+			return combined.results(type);
+		if (prefilter != null && !prefilter.accepts(model))
+			return new HashMap<Contig, List<HmmSearchResult>>();
+		HmmSearch search = new HmmSearch(model, genome.getFile("orfs"), session);
 		search.run();
+		ContigIndex index = new ContigIndex(genome);
+		return index.split(search.reader().read());
 	}
 	
 	/**
 	 * Match results parsed from hmmsearch output text files to Orf objects within PRISM. 
 	 * @param contig		contig to analyze
+	 * @param results		hmmsearch results for this domain type
 	 * @throws IOException
 	 */
-	protected void matchResultsToOrfs(Contig contig) throws IOException {
-		List<HmmSearchResult> results = search.reader().read();
-		for (HmmSearchResult result : results) {
-			for (Orf orf : contig.orfs()) {
-				if (orf.toString().equals(result.name) || orf.name().equals(result.name)) {
-					parseResultForDomains(orf, result);
-				}
-			}
-		}
+	protected void matchResultsToOrfs(Contig contig, List<HmmSearchResult> results) throws IOException {
+		for (HmmSearchResult result : results)
+			for (Orf orf : contig.getOrfs(result.name))
+				parseResultForDomains(orf, result);
 	}
 	
 	/**
@@ -102,11 +221,18 @@ public class DomainSearch implements Runnable {
 	 * @param contig	contig to analyze
 	 */
 	protected void removeOverlap(Contig contig) {
-		for (Orf orf : contig.orfs())
-			for (Domain d1 : orf.domains(type))
-				for (Domain d2 : orf.domains(type)) 
-					if (d1 != d2 && d1.overlaps(d2) && d1.score() < d2.score())
-						orf.domains().remove(d1);
+		for (Orf orf : contig.orfs()) {
+			List<Domain> domains = orf.domains(type);
+			IntervalIndex<Domain> index = new IntervalIndex<Domain>(domains);
+			Set<Domain> removed = new HashSet<Domain>();
+			for (Domain d1 : domains)
+				for (Domain d2 : index.overlapping(d1))
+					if (d1 != d2 && d1.score() < d2.score()) {
+						removed.add(d1);
+						break;
+					}
+			orf.domains().removeAll(removed);
+		}
 	}
 
 	/**
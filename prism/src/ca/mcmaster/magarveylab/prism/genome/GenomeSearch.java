@@ -1,9 +1,17 @@
 package ca.mcmaster.magarveylab.prism.genome;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import ca.mcmaster.magarveylab.enums.DomainFamilies;
 import ca.mcmaster.magarveylab.enums.domains.DeoxySugarDomains;
@@ -16,16 +24,21 @@ import ca.mcmaster.magarveylab.enums.domains.TailoringDomains;
 import ca.mcmaster.magarveylab.enums.domains.ThiotemplatedDomains;
 import ca.mcmaster.magarveylab.enums.domains.TypeIIPolyketideDomains;
 import ca.mcmaster.magarveylab.prism.Prism;
+import ca.mcmaster.magarveylab.prism.blast.BlastSearchResult;
 import ca.mcmaster.magarveylab.prism.blast.DomainBlastpSearch;
 import ca.mcmaster.magarveylab.prism.data.Contig;
 import ca.mcmaster.magarveylab.prism.data.Domain;
 import ca.mcmaster.magarveylab.prism.data.Genome;
+import ca.mcmaster.magarveylab.prism.data.IntervalIndex;
 import ca.mcmaster.magarveylab.prism.data.Orf;
 import ca.mcmaster.magarveylab.prism.data.RnaSequence;
 import ca.mcmaster.magarveylab.prism.enums.hmms.SubstrateDomainSearches;
 import ca.mcmaster.magarveylab.prism.enums.hmms.SubstrateHmm;
+import ca.mcmaster.magarveylab.prism.fasta.FastaUtil;
 import ca.mcmaster.magarveylab.prism.fasta.FastaWriter;
+import ca.mcmaster.magarveylab.prism.util.Decompressor;
 import ca.mcmaster.magarveylab.prism.util.RibosomalSequence;
+import ca.mcmaster.magarveylab.prism.util.SearchExecutor;
 import ca.mcmaster.magarveylab.prism.util.Sorter;
 import ca.mcmaster.magarveylab.prism.util.exception.RibosomalSequenceException;
 import ca.mcmaster.magarveylab.prism.util.exception.SugarGeneException;
@@ -34,9 +47,14 @@ import ca.mcmaster.magarveylab.wasp.session.Session;
 
 public class GenomeSearch {
 
+	private static final Logger logger = Logger.getLogger(GenomeSearch.class.getName());
+
 	private PrismConfig config;
 	private Genome genome;
 	private Session session;
+	private CombinedHmmSearch combined;
+	private SearchExecutor executor;
+	private Map<DomainType, DomainSearch> searched = new HashMap<DomainType, DomainSearch>();
 	
 	/**
 	 * List of domains which can overlap with other domains. This includes
@@ -47,6 +65,9 @@ public class GenomeSearch {
 	public final static DomainType[] canOverlap = new DomainType[] {
 			RibosomalDomains.RRE, ThiotemplatedDomains.REDUCTASE, };
 
+	private final static List<DomainType> canOverlapList = Arrays
+			.asList(canOverlap);
+
 	/**
 	 * Instantiate a new genome analysis search.
 	 * 
@@ -60,6 +81,7 @@ public class GenomeSearch {
 		this.session = session;
 		Prism prism = (Prism) session.webapp();
 		config = prism.config();
+		executor = prism.executor();
 	}
 
 	/**
@@ -72,6 +94,11 @@ public class GenomeSearch {
 	public void run() throws InterruptedException, SugarGeneException, IOException, Exception {
 		findRibosomalSequence();
 		
+		if (config.combinedHmmSearch) {
+			combined = new CombinedHmmSearch(getDomainTypes(), genome, session);
+			combined.run();
+		}
+		
 		if (config.thiotemplated) {
 			findSubstrateDomains();
 			findPrerequisiteDomains();
@@ -80,6 +107,9 @@ public class GenomeSearch {
 			executeBlastpAnalysis();
 		}
 		
+		if (config.tieredSearch)
+			searchBiosyntheticRegions();
+		
 		findTailoringDomains();
 		findSugarGenes();
 		findResistanceDomains();
@@ -101,7 +131,13 @@ public class GenomeSearch {
 		Prism prism = (Prism) session.webapp();		
 		try {
 			if (config.find16s) {
-				RibosomalSequence rs = new RibosomalSequence(prism.genome().contigs(), config.input);
+				String input = config.input;
+				if (Decompressor.isCompressed(new File(input))) {
+					// barrnap can't read compressed files
+					input = session.dir() + "barrnap_in.fasta";
+					FastaUtil.writeContigs(genome.contigs(), input);
+				}
+				RibosomalSequence rs = new RibosomalSequence(prism.genome().contigs(), input);
 				rs.runProcess();
 				List<RnaSequence> allRnaSeq = rs.parseRawOutput();
 				//if there were not sequences added from the Genbank file and if there are some found from prediction
@@ -114,6 +150,205 @@ public class GenomeSearch {
 		}
 	}
 
+	/**
+	 * Get all domain types which will be searched for within this genome,
+	 * given the current configuration, in the order in which they are
+	 * searched.
+	 * 
+	 * @return all domain types to search for
+	 */
+	public List<DomainType> getDomainTypes() {
+		List<DomainType> types = new ArrayList<DomainType>();
+		if (config.thiotemplated) {
+			for (SubstrateDomainSearches searchType : SubstrateDomainSearches.values())
+				types.add(searchType.type());
+			types.addAll(Arrays.asList(PrerequisiteDomains.values()));
+			typeLoop:
+			for (ThiotemplatedDomains type : ThiotemplatedDomains.values()) {
+				for (SubstrateDomainSearches searchType : SubstrateDomainSearches.values())
+					if (type == searchType.type())
+						continue typeLoop;
+				types.add(type);
+			}
+			types.addAll(Arrays.asList(TypeIIPolyketideDomains.values()));
+		}
+		if (!config.tieredSearch)
+			types.addAll(Arrays.asList(TailoringDomains.values()));
+		if (config.sugar && !config.tieredSearch)
+			types.addAll(Arrays.asList(DeoxySugarDomains.values()));
+		if (config.resistance && !config.tieredSearch)
+			types.addAll(Arrays.asList(ResistanceDomains.values()));
+		if (config.ribosomal)
+			types.addAll(Arrays.asList(RibosomalDomains.values()));
+		if (config.regulation && !config.tieredSearch)
+			types.addAll(Arrays.asList(RegulatorDomains.values()));
+		return types;
+	}
+
+	/**
+	 * Get all accessory domain types which will be searched for within this
+	 * genome, given the current configuration. Accessory domains (tailoring,
+	 * sugar, resistance and regulator domains) cannot form a cluster on their
+	 * own, so when tiered search is enabled they are only searched for near
+	 * biosynthetic genes.
+	 * 
+	 * @return all accessory domain types to search for
+	 */
+	public List<DomainType> getAccessoryDomainTypes() {
+		List<DomainType> types = new ArrayList<DomainType>();
+		types.addAll(Arrays.asList(TailoringDomains.values()));
+		if (config.sugar)
+			types.addAll(Arrays.asList(DeoxySugarDomains.values()));
+		if (config.resistance)
+			types.addAll(Arrays.asList(ResistanceDomains.values()));
+		if (config.regulation)
+			types.addAll(Arrays.asList(RegulatorDomains.values()));
+		return types;
+	}
+
+	/**
+	 * Search for accessory domains only within the biosynthetic regions of
+	 * this genome. Each region spans one cluster window on either side of an
+	 * orf with a biosynthetic or ribosomal domain. Orfs within these regions
+	 * are searched for all accessory domains; any orf with a new accessory
+	 * domain then extends the regions, and the search is repeated on the new
+	 * orfs until no more domains are found. Results are stored and matched to
+	 * orfs later, in the same order as a genome-wide search.<br>
+	 * <br>
+	 * E-values are calculated as though the whole genome had been searched.
+	 * Clusters are only ever formed from orfs within a cluster window of an
+	 * orf with domains, so the same clusters are detected as in a genome-wide
+	 * search.
+	 * 
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void searchBiosyntheticRegions() throws IOException, InterruptedException {
+		session.listener().addStage("Analyzing biosynthetic regions", 
+				"Finding biosynthetic regions...");
+		
+		// ribosomal domains are searched genome-wide, and seed regions 
+		List<DomainSearch> ribosomal = new ArrayList<DomainSearch>();
+		if (config.ribosomal)
+			for (RibosomalDomains type : RibosomalDomains.values()) {
+				DomainSearch search = new DomainSearch(type, genome, session, combined);
+				searched.put(type, search);
+				ribosomal.add(search);
+			}
+		prefetchDomainSearches(ribosomal);
+		if (Thread.interrupted())
+			throw new InterruptedException();
+		
+		List<DomainSearch> accessory = new ArrayList<DomainSearch>();
+		for (DomainType type : getAccessoryDomainTypes()) {
+			DomainSearch search = new DomainSearch(type, genome, session);
+			search.clearResults();
+			searched.put(type, search);
+			accessory.add(search);
+		}
+
+		int size = 0;
+		Set<Orf> seeds = new HashSet<Orf>();
+		for (Contig contig : genome.contigs()) {
+			size += contig.orfs().size();
+			for (Orf orf : contig.orfs())
+				if (orf.domains().size() > 0)
+					seeds.add(orf);
+		}
+		for (DomainSearch search : ribosomal)
+			seeds.addAll(search.hits());
+		
+		ContigIndex index = new ContigIndex(genome);
+		String path = session.dir() + "genome_region_orfs.fa";
+		Set<Orf> allSeeds = new HashSet<Orf>(seeds);
+		Set<Orf> searchedOrfs = new HashSet<Orf>();
+		while (seeds.size() > 0) {
+			Set<Orf> orfs = getRegionOrfs(seeds, searchedOrfs);
+			if (orfs.size() == 0)
+				break;
+			searchedOrfs.addAll(orfs);
+			session.listener().updateLastDetail("Searching " + searchedOrfs.size() 
+					+ " of " + size + " orfs for accessory domains...");
+			index.printOrfs(path, orfs);
+			searchDomains(accessory, path, index.orfCounts());
+
+			seeds = new HashSet<Orf>();
+			for (DomainSearch search : accessory)
+				for (Orf orf : search.hits())
+					if (allSeeds.add(orf))
+						seeds.add(orf);
+		}
+	}
+
+	/**
+	 * Get all orfs within one cluster window of any of a set of seed orfs,
+	 * which have not already been searched.
+	 * 
+	 * @param seeds
+	 *            orfs around which to search
+	 * @param searched
+	 *            orfs which have already been searched
+	 * @return all new orfs within the regions around the seed orfs
+	 */
+	private Set<Orf> getRegionOrfs(Set<Orf> seeds, Set<Orf> searched) {
+		int window = config.window;
+		Set<Orf> orfs = new HashSet<Orf>();
+		for (Contig contig : genome.contigs()) {
+			for (Orf seed : contig.orfs()) {
+				if (!seeds.contains(seed))
+					continue;
+				for (Orf orf : contig.getOverlappingOrfs(seed.start() - window,
+						seed.end() + window))
+					if (!searched.contains(orf))
+						orfs.add(orf);
+			}
+		}
+		return orfs;
+	}
+
+	/**
+	 * Search a subset of this genome's orfs for a set of domain types,
+	 * concurrently if multiple threads are enabled, without matching the
+	 * results to orfs.
+	 * 
+	 * @param searches
+	 *            domain searches to execute
+	 * @param database
+	 *            FASTA file of contig-tagged orfs to search
+	 * @param databaseSizes
+	 *            the number of orfs in each contig, keyed by contig tag
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void searchDomains(List<DomainSearch> searches, final String database, 
+			final Map<String, Integer> databaseSizes) throws IOException, InterruptedException {
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final DomainSearch search : searches)
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					search.search(database, databaseSizes);
+					return null;
+				}
+			});
+		executor.invokeAll(tasks);
+	}
+
+	/**
+	 * Get a new search for a domain type, or the search which was already
+	 * executed for it within biosynthetic regions.
+	 * 
+	 * @param type
+	 *            domain type to search for
+	 * @return the domain search for this type
+	 */
+	private DomainSearch getDomainSearch(DomainType type) {
+		DomainSearch search = searched.get(type);
+		if (search == null)
+			search = new DomainSearch(type, genome, session, combined);
+		return search;
+	}
+
 	/**
 	 * Find substrate-containing domains within this genome.
 	 */
@@ -122,33 +357,35 @@ public class GenomeSearch {
 			DomainType domain = searchType.type();
 			SubstrateHmm[] substrates = searchType.substrates();
 
-			SubstrateDomainSearch search = new SubstrateDomainSearch(domain, substrates, genome, session);
+			SubstrateDomainSearch search = new SubstrateDomainSearch(domain, substrates, genome, session, combined);
 			search.run();
 		}
 	}
 	
 	/**
 	 * Find type II polyketide domains within this genome.
+	 * @throws IOException
 	 */
-	private void findTypeIIPolyketideDomains() {
+	private void findTypeIIPolyketideDomains() throws IOException {
 		session.listener().addStage("Analyzing type II polyketide domains", 
 				"Finding type II poleyktide domains...");
-		for (TypeIIPolyketideDomains type : TypeIIPolyketideDomains.values()) {
-			DomainSearch search = new DomainSearch(type, genome, session);
-			search.run();
-		}
+		List<DomainSearch> searches = new ArrayList<DomainSearch>();
+		for (TypeIIPolyketideDomains type : TypeIIPolyketideDomains.values())
+			searches.add(new DomainSearch(type, genome, session, combined));
+		runDomainSearches(searches);
 	}
 
 	/**
 	 * Find tailoring domains within this genome.
+	 * @throws IOException
 	 */
-	private void findTailoringDomains() {
+	private void findTailoringDomains() throws IOException {
 		session.listener().addStage("Analyzing tailoring domains", 
 				"Finding tailoring domains...");
-		for (TailoringDomains type : TailoringDomains.values()) {
-			DomainSearch search = new DomainSearch(type, genome, session);
-			search.run();
-		}
+		List<DomainSearch> searches = new ArrayList<DomainSearch>();
+		for (TailoringDomains type : TailoringDomains.values())
+			searches.add(getDomainSearch(type));
+		runDomainSearches(searches);
 	}
 	
 	/**
@@ -159,6 +396,7 @@ public class GenomeSearch {
 		session.listener().addStage("Analyzing other thiotemplated domains", 
 				"Finding other domains...");
 		
+		List<DomainSearch> searches = new ArrayList<DomainSearch>();
 		typeLoop:
 		for (ThiotemplatedDomains type : ThiotemplatedDomains.values()) {
 			// not substrate domains
@@ -166,9 +404,9 @@ public class GenomeSearch {
 				if (type == searchType.type())
 					continue typeLoop;	
 
-			DomainSearch hmm = new DomainSearch(type, genome, session);
-			hmm.run();
+			searches.add(new DomainSearch(type, genome, session, combined));
 		}
+		runDomainSearches(searches);
 	}
 
 	/**
@@ -179,96 +417,209 @@ public class GenomeSearch {
 	 */
 	private void executeBlastpAnalysis() throws IOException, InterruptedException {
 		session.listener().updateLastDetail("Analyzing condensation and ketosynthase domains...");
+		List<DomainBlastpSearch> condensation = new ArrayList<DomainBlastpSearch>();
+		List<DomainBlastpSearch> ketosynthase = new ArrayList<DomainBlastpSearch>();
+		List<DomainBlastpSearch> clf = new ArrayList<DomainBlastpSearch>();
+		List<DomainBlastpSearch> primingAT = new ArrayList<DomainBlastpSearch>();
+		List<DomainBlastpSearch> chlorination = new ArrayList<DomainBlastpSearch>();
+		List<DomainBlastpSearch> glycosyltransferase = new ArrayList<DomainBlastpSearch>();
 		for (Contig contig : genome.contigs()) {
 			// NAPDOS analysis
-			DomainBlastpSearch condensationBlast = new DomainBlastpSearch(session.subDir("blast") + "condensationdb", 
-					contig.getFile("condensation"), ThiotemplatedDomains.CONDENSATION, contig, session);
-			condensationBlast.run();
-			DomainBlastpSearch ketosynthaseBlast = new DomainBlastpSearch(session.subDir("blast") + "ketosynthasedb", 
-					contig.getFile("ketosynthase"), ThiotemplatedDomains.KETOSYNTHASE, contig, session);
-			ketosynthaseBlast.run();
+			condensation.add(new DomainBlastpSearch(session.subDir("blast") + "condensationdb", 
+					contig.getFile("condensation"), ThiotemplatedDomains.CONDENSATION, contig, session));
+			ketosynthase.add(new DomainBlastpSearch(session.subDir("blast") + "ketosynthasedb", 
+					contig.getFile("ketosynthase"), ThiotemplatedDomains.KETOSYNTHASE, contig, session));
 
 			// type II polyketide analysis 
-			DomainBlastpSearch ksbBlast = new DomainBlastpSearch(session.subDir("blast") + "CLF", 
-					contig.getFile("CLF"), TypeIIPolyketideDomains.CLF, contig, session);
-			ksbBlast.run();
+			clf.add(new DomainBlastpSearch(session.subDir("blast") + "CLF", 
+					contig.getFile("CLF"), TypeIIPolyketideDomains.CLF, contig, session));
+			primingAT.add(new DomainBlastpSearch(session.subDir("blast") + "priming_AT", 
+					contig.getFile("priming_AT"), TypeIIPolyketideDomains.PRIMING_AT, contig, session));
 
-			// c starter analysis
+			// PTM analysis
+			chlorination.add(new DomainBlastpSearch(session.subDir("blast") + "chlorination", 
+					contig.getFile("chlorination"), TailoringDomains.CHLORINATION, contig, session));
+			glycosyltransferase.add(new DomainBlastpSearch(session.subDir("blast") + "glycosyltransferase", 
+					contig.getFile("glycosyltransferase"), TailoringDomains.GLYCOSYLTRANSFERASE, contig, session));
+		}
+		
+		// execute all searches which do not depend on other results at once 
+		List<DomainBlastpSearch> searches = new ArrayList<DomainBlastpSearch>();
+		searches.addAll(condensation);
+		searches.addAll(ketosynthase);
+		searches.addAll(clf);
+		searches.addAll(primingAT);
+		searches.addAll(chlorination);
+		searches.addAll(glycosyltransferase);
+		List<List<BlastSearchResult>> results = searchBlastp(searches);
+		int n = genome.contigs().size();
+
+		// c starter analysis depends on condensation domain results 
+		List<DomainBlastpSearch> cstarter = new ArrayList<DomainBlastpSearch>();
+		for (int i = 0; i < n; i++) {
+			Contig contig = genome.contigs().get(i);
+			condensation.get(i).matchResultsToDomains(results.get(i));
+			ketosynthase.get(i).matchResultsToDomains(results.get(n + i));
+			clf.get(i).matchResultsToDomains(results.get(2 * n + i));
 			FastaWriter.printCStarter(contig, contig.getFile("cstarter"));
-			DomainBlastpSearch cstarterBlast = new DomainBlastpSearch(session.subDir("blast") + "cstarter", 
-					contig.getFile("cstarter"), ThiotemplatedDomains.CONDENSATION, contig, session);
-			cstarterBlast.run();
-			
-			// priming AT analysis 
-			DomainBlastpSearch atBlast = new DomainBlastpSearch(session.subDir("blast") + "priming_AT", 
-					contig.getFile("priming_AT"), TypeIIPolyketideDomains.PRIMING_AT, contig, session);
-			atBlast.run();
+			cstarter.add(new DomainBlastpSearch(session.subDir("blast") + "cstarter", 
+					contig.getFile("cstarter"), ThiotemplatedDomains.CONDENSATION, contig, session));
+		}
+		List<List<BlastSearchResult>> cstarterResults = searchBlastp(cstarter);
+		
+		for (int i = 0; i < n; i++) {
+			Contig contig = genome.contigs().get(i);
+			cstarter.get(i).matchResultsToDomains(cstarterResults.get(i));
+			primingAT.get(i).matchResultsToDomains(results.get(3 * n + i));
 			Sorter.sortBlastpResults(contig);
 		}
 
 		session.listener().updateLastDetail("Analyzing halogenation and glycosyltransferase domains...");
-		for (Contig contig : genome.contigs()) {
-			// PTM analysis
-			DomainBlastpSearch chlorinaseBlast = new DomainBlastpSearch(session.subDir("blast") + "chlorination", 
-					contig.getFile("chlorination"), TailoringDomains.CHLORINATION, contig, session);
-			chlorinaseBlast.run();
-			DomainBlastpSearch glycosyltransferaseBlast = new DomainBlastpSearch(session.subDir("blast") + "glycosyltransferase", 
-					contig.getFile("glycosyltransferase"), TailoringDomains.GLYCOSYLTRANSFERASE, contig, session);
-			glycosyltransferaseBlast.run();
+		for (int i = 0; i < n; i++) {
+			chlorination.get(i).matchResultsToDomains(results.get(4 * n + i));
+			glycosyltransferase.get(i).matchResultsToDomains(results.get(5 * n + i));
 		}
 	}
 
+	/**
+	 * Execute a set of domain searches. The hmmsearch for each domain type is
+	 * executed concurrently if multiple threads are enabled; results are then
+	 * matched to orfs in the order in which the searches were given, so the
+	 * domains detected are identical to those of a serial search.
+	 * 
+	 * @param searches
+	 *            domain searches to run, in order
+	 * @throws IOException
+	 *             if any search fails
+	 */
+	private void runDomainSearches(List<DomainSearch> searches) throws IOException {
+		prefetchDomainSearches(searches);
+		if (Thread.currentThread().isInterrupted())
+			return;
+		for (DomainSearch search : searches)
+			search.run();
+	}
+
+	/**
+	 * Execute the hmmsearch for each of a set of domain searches concurrently,
+	 * if multiple threads are enabled, without matching results to orfs.
+	 * Searches which have already been executed are skipped. If the current
+	 * thread is interrupted, its interrupt status is restored and no further
+	 * searches are started.
+	 * 
+	 * @param searches
+	 *            domain searches to execute
+	 * @throws IOException
+	 *             if any search fails
+	 */
+	private void prefetchDomainSearches(List<DomainSearch> searches) throws IOException {
+		if (executor.threads() > 1) {
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for (final DomainSearch search : searches)
+				if (!search.searched())
+					tasks.add(new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							search.search();
+							return null;
+						}
+					});
+			try {
+				executor.invokeAll(tasks);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Execute a set of BLASTP searches, concurrently if multiple threads are
+	 * enabled, without matching their results to domains. Searches with empty
+	 * queries are not run, and if there are fewer searches to run than
+	 * threads, the remaining threads are divided between BLASTP processes.
+	 * 
+	 * @param searches
+	 *            BLASTP searches to execute
+	 * @return the results of each search, in the same order as the searches
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private List<List<BlastSearchResult>> searchBlastp(List<DomainBlastpSearch> searches) 
+			throws IOException, InterruptedException {
+		int queries = 0;
+		for (DomainBlastpSearch search : searches)
+			if (search.hasQuery())
+				queries++;
+		int threads = Math.max(1, executor.threads() / Math.max(1, queries));
+
+		List<Callable<List<BlastSearchResult>>> tasks = new ArrayList<Callable<List<BlastSearchResult>>>();
+		for (final DomainBlastpSearch search : searches) {
+			search.setThreads(threads);
+			tasks.add(new Callable<List<BlastSearchResult>>() {
+				@Override
+				public List<BlastSearchResult> call() throws Exception {
+					return search.search();
+				}
+			});
+		}
+		return executor.invokeAll(tasks);
+	}
+
 	/**
 	 * Find ribosomal domains within this genome.
+	 * @throws IOException
 	 */
-	private void findRibosomalDomains() {
+	private void findRibosomalDomains() throws IOException {
 		if (config.ribosomal) {
 			session.listener().addStage("Analyzing ribosomal domains", 
 					"Finding ribosomal domains...");
-			for (RibosomalDomains type : RibosomalDomains.values()) {
-				DomainSearch hmm = new DomainSearch(type, genome, session);
-				hmm.run();
-			}
+			List<DomainSearch> searches = new ArrayList<DomainSearch>();
+			for (RibosomalDomains type : RibosomalDomains.values())
+				searches.add(getDomainSearch(type));
+			runDomainSearches(searches);
 		}
 	}
 
 	/**
 	 * Find biosynthetic domains which are considered prerequisites for rare substrate detection within this genome.
+	 * @throws IOException
 	 */
-	private void findPrerequisiteDomains() {
+	private void findPrerequisiteDomains() throws IOException {
 		session.listener().addStage("Analyzing substrate biosynthesis domains", 
 				"Finding rare substrate biosynthesis domains...");
-		for (PrerequisiteDomains type : PrerequisiteDomains.values()) {
-			DomainSearch hmm = new DomainSearch(type, genome, session);
-			hmm.run();
-		}
+		List<DomainSearch> searches = new ArrayList<DomainSearch>();
+		for (PrerequisiteDomains type : PrerequisiteDomains.values())
+			searches.add(new DomainSearch(type, genome, session, combined));
+		runDomainSearches(searches);
 	}
 
 	/**
 	 * Find resistance genes within this genome.
+	 * @throws IOException
 	 */
-	private void findResistanceDomains() {
+	private void findResistanceDomains() throws IOException {
 		if (config.resistance) {
 			session.listener().addStage("Analyzing resistance domains", 
 					"Finding resistance domains...");
-			for (ResistanceDomains type : ResistanceDomains.values()) {
-				DomainSearch hmm = new DomainSearch(type, genome, session);
-				hmm.run();
-			}
+			List<DomainSearch> searches = new ArrayList<DomainSearch>();
+			for (ResistanceDomains type : ResistanceDomains.values())
+				searches.add(getDomainSearch(type));
+			runDomainSearches(searches);
 		}
 	}
 
 	/**
 	 * Find resistance genes within this genome.
+	 * @throws IOException
 	 */
-	private void findRegulatorDomains() {
+	private void findRegulatorDomains() throws IOException {
 		if (config.regulation) {
 			session.listener().addStage("Analyzing regulator domains", 
 					"Finding regulator domains...");
-			for (RegulatorDomains type : RegulatorDomains.values()) {
-				DomainSearch hmm = new DomainSearch(type, genome, session);
-				hmm.run();
-			}
+			List<DomainSearch> searches = new ArrayList<DomainSearch>();
+			for (RegulatorDomains type : RegulatorDomains.values())
+				searches.add(getDomainSearch(type));
+			runDomainSearches(searches);
 		}
 	}
 
@@ -277,14 +628,14 @@ public class GenomeSearch {
 	 * @throws IOException
 	 * @throws SugarGeneException
 	 */
-	private void findSugarGenes() {
+	private void findSugarGenes() throws IOException {
 		if (config.sugar) {
 			session.listener().addStage("Analyzing sugar genes", 
 					"Finding sugar biosynthesis genes...");
-			for (DeoxySugarDomains gene : DeoxySugarDomains.values()) {
-				DomainSearch sgs = new DomainSearch(gene, genome, session);
-				sgs.run();
-			}
+			List<DomainSearch> searches = new ArrayList<DomainSearch>();
+			for (DeoxySugarDomains gene : DeoxySugarDomains.values())
+				searches.add(getDomainSearch(gene));
+			runDomainSearches(searches);
 		}
 	}
 
@@ -295,28 +646,39 @@ public class GenomeSearch {
 		for (Contig contig : genome.contigs()) {
 			for (Orf orf : contig.orfs()) {
 				List<Domain> domains = orf.domains();
-				Iterator<Domain> itr1 = domains.iterator();
-				loop1: while (itr1.hasNext()) {
-					Domain d1 = itr1.next();
-					Iterator<Domain> itr2 = domains.iterator();
-					while (itr2.hasNext()) {
-						Domain d2 = itr2.next();
-						if (d1.overlaps(d2)
-								&& d1 != d2
-								&& Arrays.asList(canOverlap).indexOf(d1.type()) == -1
-								&& d1.family() != DomainFamilies.REGULATOR
-								&& Arrays.asList(canOverlap).indexOf(d2.type()) == -1
-								&& d2.family() != DomainFamilies.REGULATOR)
-							if (d2.score() > d1.score()) {
-								itr1.remove();
-								System.out.println("Removed " + d1.name());
-								continue loop1;
-							}
-
+				IntervalIndex<Domain> index = new IntervalIndex<Domain>(domains);
+				Set<Domain> removed = new HashSet<Domain>();
+				for (Domain d1 : domains) {
+					if (!canRemoveOverlap(d1))
+						continue;
+					// only domains which overlap d1 need to be compared
+					for (Domain d2 : index.overlapping(d1)) {
+						if (d1 != d2 && !removed.contains(d2)
+								&& canRemoveOverlap(d2)
+								&& d2.score() > d1.score()) {
+							removed.add(d1);
+							logger.log(Level.INFO, "Removed " + d1.name() + " overlapping higher-scoring "
+									+ d2.name());
+							break;
+						}
 					}
 				}
+				domains.removeAll(removed);
 			}
 		}
 	}
 
+	/**
+	 * Check whether a domain should be removed when it overlaps with another,
+	 * higher-scoring domain.
+	 * 
+	 * @param domain
+	 *            the domain in question
+	 * @return false if the domain can overlap with others, or is a regulator
+	 */
+	private boolean canRemoveOverlap(Domain domain) {
+		return canOverlapList.indexOf(domain.type()) == -1
+				&& domain.family() != DomainFamilies.REGULATOR;
+	}
+
 }
@@ -0,0 +1,331 @@
+package ca.mcmaster.magarveylab.prism.genome;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A persistent, size-bounded cache of hmmsearch hits, used to avoid searching
+ * the same sequences against the same hidden Markov models when closely
+ * related genomes are analyzed one after another.<br>
+ * <br>
+ * Entries are content-addressed: each sequence is identified by a checksum of
+ * its amino acid sequence, and each model by a checksum of its text (excluding
+ * its name, so that renamed copies of a model in combined or batched model
+ * files share entries). For every sequence, the cache records which models it
+ * has been searched against and the hmmsearch domain table lines for any
+ * hits. Hits are stored with E-values calculated for a database of size one,
+ * i.e. as P-values, so that they can be rescaled for any database.<br>
+ * <br>
+ * Sequences are evicted in least recently used order once the cache exceeds
+ * its capacity. When the text of a named model changes, all entries for the
+ * previous version of the model are invalidated.
+ *
+ * @author skinnider
+ *
+ */
+public class HmmCache {
+
+	/**
+	 * Name of the file which stores model checksums.
+	 */
+	public static final String MODELS_FILE = "models.tsv";
+
+	/**
+	 * Name of the file which stores sequence entries.
+	 */
+	public static final String SEQUENCES_FILE = "sequences.tsv";
+
+	private static final Logger logger = Logger.getLogger(HmmCache.class.getName());
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private File directory;
+	private Map<String, Integer> ids = new HashMap<String, Integer>();
+	private Map<String, String> checksums = new HashMap<String, String>();
+	private Map<String, CachedSequence> entries;
+	private int nextId = 0;
+
+	/**
+	 * The models searched and hits found for a single sequence.
+	 */
+	private static class CachedSequence {
+		private BitSet searched = new BitSet();
+		private Map<Integer, List<String>> hits = new HashMap<Integer, List<String>>();
+	}
+
+	/**
+	 * Instantiate a new hmmsearch hit cache.
+	 *
+	 * @param directory
+	 *            the directory in which the cache is stored
+	 * @param capacity
+	 *            the maximum number of sequences to keep in the cache
+	 */
+	public HmmCache(File directory, final int capacity) {
+		this.directory = directory;
+		this.entries = new LinkedHashMap<String, CachedSequence>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedSequence> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Get the id of a model, registering it if it has not been seen before. If
+	 * a model with the same name was previously cached with different text,
+	 * all hits for the previous version are invalidated.
+	 *
+	 * @param name
+	 *            the name of the model
+	 * @param checksum
+	 *            the checksum of the model text
+	 * @return the id of the model within this cache
+	 */
+	public synchronized int model(String name, String checksum) {
+		String previous = checksums.put(name, checksum);
+		if (previous != null && !previous.equals(checksum)
+				&& !checksums.containsValue(previous))
+			invalidate(previous);
+		Integer id = ids.get(checksum);
+		if (id == null) {
+			id = nextId++;
+			ids.put(checksum, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Remove all hits for a model which is no longer in use.
+	 *
+	 * @param checksum
+	 *            the checksum of the model
+	 */
+	private void invalidate(String checksum) {
+		Integer id = ids.remove(checksum);
+		if (id == null)
+			return;
+		for (CachedSequence entry : entries.values()) {
+			entry.searched.clear(id);
+			entry.hits.remove(id);
+		}
+		logger.log(Level.INFO, "Invalidated hits for changed model " + checksum);
+	}
+
+	/**
+	 * Get the cached domain table lines for a sequence and model. Entries can
+	 * be evicted at any time by other searches, so callers should keep the
+	 * lines returned rather than looking them up again.
+	 *
+	 * @param sequence
+	 *            the checksum of the sequence
+	 * @param model
+	 *            the id of the model
+	 * @return all cached domain table lines, an empty list if the sequence
+	 *         had no hits, or null if the sequence has not been searched
+	 *         against the model
+	 */
+	public synchronized List<String> get(String sequence, int model) {
+		CachedSequence entry = entries.get(sequence);
+		if (entry == null || !entry.searched.get(model))
+			return null;
+		List<String> lines = entry.hits.get(model);
+		if (lines == null)
+			lines = new ArrayList<String>();
+		return lines;
+	}
+
+	/**
+	 * Store the domain table lines for a sequence and model.
+	 *
+	 * @param sequence
+	 *            the checksum of the sequence
+	 * @param model
+	 *            the id of the model
+	 * @param lines
+	 *            all domain table lines for this sequence, which may be empty
+	 */
+	public synchronized void put(String sequence, int model, List<String> lines) {
+		CachedSequence entry = entries.get(sequence);
+		if (entry == null) {
+			entry = new CachedSequence();
+			entries.put(sequence, entry);
+		}
+		entry.searched.set(model);
+		if (lines.size() > 0)
+			entry.hits.put(model, new ArrayList<String>(lines));
+		else
+			entry.hits.remove(model);
+	}
+
+	/**
+	 * Get the number of sequences in this cache.
+	 *
+	 * @return the number of cached sequences
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Read this cache from its directory, if it has been saved before.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void load() throws IOException {
+		File models = new File(directory, MODELS_FILE);
+		File sequences = new File(directory, SEQUENCES_FILE);
+		if (!models.exists() || !sequences.exists())
+			return;
+
+		BufferedReader br = new BufferedReader(new FileReader(models));
+		String line = null;
+		while ((line = br.readLine()) != null) {
+			String[] fields = line.split("\t");
+			if (fields.length < 3)
+				continue;
+			if (fields[0].equals("M")) {
+				int id = Integer.parseInt(fields[1]);
+				ids.put(fields[2], id);
+				nextId = Math.max(nextId, id + 1);
+			} else if (fields[0].equals("N")) {
+				checksums.put(fields[1], fields[2]);
+			}
+		}
+		br.close();
+
+		br = new BufferedReader(new FileReader(sequences));
+		CachedSequence entry = null;
+		while ((line = br.readLine()) != null) {
+			String[] fields = line.split("\t", 3);
+			if (fields[0].equals("S") && fields.length > 1) {
+				entry = new CachedSequence();
+				if (fields.length > 2 && fields[2].length() > 0)
+					for (String id : fields[2].split(","))
+						entry.searched.set(Integer.parseInt(id));
+				entries.put(fields[1], entry);
+			} else if (fields[0].equals("H") && fields.length > 2
+					&& entry != null) {
+				int id = Integer.parseInt(fields[1]);
+				List<String> lines = entry.hits.get(id);
+				if (lines == null) {
+					lines = new ArrayList<String>();
+					entry.hits.put(id, lines);
+				}
+				lines.add(fields[2]);
+			}
+		}
+		br.close();
+		logger.log(Level.INFO, "Loaded " + entries.size()
+				+ " cached sequences from " + directory.getAbsolutePath());
+	}
+
+	/**
+	 * Write this cache to its directory. Sequences are written from least to
+	 * most recently used, so that their order is preserved when the cache is
+	 * loaded again. Each file is written to a new temporary file first and
+	 * then moved over the previous one, so that a search which saves the cache
+	 * at the same time cannot leave it half written.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		if (!directory.exists())
+			directory.mkdirs();
+
+		File models = File.createTempFile(MODELS_FILE, ".tmp", directory);
+		BufferedWriter bw = new BufferedWriter(new FileWriter(models));
+		for (Map.Entry<String, Integer> id : ids.entrySet())
+			bw.append("M\t" + id.getValue() + "\t" + id.getKey() + "\n");
+		for (Map.Entry<String, String> checksum : checksums.entrySet())
+			bw.append("N\t" + checksum.getKey() + "\t" + checksum.getValue()
+					+ "\n");
+		bw.close();
+
+		File sequences = File.createTempFile(SEQUENCES_FILE, ".tmp", directory);
+		bw = new BufferedWriter(new FileWriter(sequences));
+		for (Map.Entry<String, CachedSequence> entry : entries.entrySet()) {
+			StringBuilder searched = new StringBuilder();
+			BitSet bits = entry.getValue().searched;
+			for (int id = bits.nextSetBit(0); id >= 0; id = bits
+					.nextSetBit(id + 1)) {
+				if (searched.length() > 0)
+					searched.append(",");
+				searched.append(id);
+			}
+			bw.append("S\t" + entry.getKey() + "\t" + searched + "\n");
+			for (Map.Entry<Integer, List<String>> hits : entry.getValue().hits
+					.entrySet())
+				for (String line : hits.getValue())
+					bw.append("H\t" + hits.getKey() + "\t" + line + "\n");
+		}
+		bw.close();
+
+		replace(models, new File(directory, MODELS_FILE));
+		replace(sequences, new File(directory, SEQUENCES_FILE));
+	}
+
+	/**
+	 * Replace a file with a newly written temporary file, in a single rename
+	 * where the file system supports it.
+	 *
+	 * @param temporary
+	 *            the newly written file
+	 * @param file
+	 *            the file to replace
+	 * @throws IOException
+	 */
+	private void replace(File temporary, File file) throws IOException {
+		try {
+			Files.move(temporary.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			temporary.delete();
+			throw new IOException("Could not write cache file "
+					+ file.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * Calculate the checksum of a string.
+	 *
+	 * @param text
+	 *            the string
+	 * @return the hexadecimal SHA-1 digest of the string
+	 */
+	public static String checksum(String text) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] bytes = digest.digest(text.getBytes(StandardCharsets.UTF_8));
+			char[] hex = new char[bytes.length * 2];
+			for (int i = 0; i < bytes.length; i++) {
+				hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+				hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+			}
+			return new String(hex);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,179 @@
+package ca.mcmaster.magarveylab.prism.genome;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ca.mcmaster.magarveylab.prism.genome.data.HmmSearchResult;
+import ca.mcmaster.magarveylab.prism.genome.data.HmmSearchResultAnnotation;
+import ca.mcmaster.magarveylab.prism.util.Numbers;
+
+/**
+ * Read the tabular per-domain output of a hidden Markov model search
+ * (hmmsearch --domtblout). Each line is parsed once as it is read, and the
+ * result for each target sequence is found by name in a hash map, rather than
+ * by scanning all previous results.<br>
+ * <br>
+ * The human-readable hmmsearch report only lists sequences and domains which
+ * satisfy hmmsearch's default inclusion thresholds as significant; the same
+ * thresholds are applied here, so this reader returns the same results as
+ * {@link HmmSearchReader}. As in hmmsearch, the per-sequence threshold applies
+ * to the full sequence E-value, and the per-domain threshold to the
+ * conditional E-value of each domain.
+ *
+ * @author skinnider
+ *
+ */
+public class HmmDomainTableReader extends HmmSearchReader {
+
+	/**
+	 * The default hmmsearch per-sequence inclusion threshold (--incE).
+	 */
+	public static final double SEQUENCE_INCLUSION_EVALUE = 0.01;
+
+	/**
+	 * The default hmmsearch per-domain inclusion threshold (--incdomE), which
+	 * applies to the conditional E-value.
+	 */
+	public static final double DOMAIN_INCLUSION_EVALUE = 0.01;
+
+	/**
+	 * Number of columns in a --domtblout line, the last of which is a free
+	 * text description which may contain spaces.
+	 */
+	private static final int COLUMNS = 23;
+
+	/**
+	 * Initialize a new hmmsearch domain table reader.
+	 *
+	 * @param br
+	 *            reader for the hmmsearch domain table
+	 */
+	public HmmDomainTableReader(BufferedReader br) {
+		super(br);
+	}
+
+	/**
+	 * Parse a hmmsearch domain table and return a list of
+	 * {@code HmmSearchResult}s with domains annotated.
+	 *
+	 * @return all HmmSearchResults
+	 * @throws IOException
+	 */
+	@Override
+	public List<HmmSearchResult> read() throws IOException {
+		List<HmmSearchResult> results = new ArrayList<HmmSearchResult>();
+		for (List<HmmSearchResult> queryResults : readAll().values())
+			results.addAll(queryResults);
+		return results;
+	}
+
+	/**
+	 * Parse a hmmsearch domain table from a search with several hidden Markov
+	 * models, and return the {@code HmmSearchResult}s for each model
+	 * separately.
+	 *
+	 * @return all HmmSearchResults, keyed by the name of the query model
+	 * @throws IOException
+	 */
+	@Override
+	public Map<String, List<HmmSearchResult>> readAll() throws IOException {
+		Map<String, List<HmmSearchResult>> results = new LinkedHashMap<String, List<HmmSearchResult>>();
+
+		String query = null;
+		List<HmmSearchResult> queryResults = null;
+		Map<String, HmmSearchResult> rows = new HashMap<String, HmmSearchResult>();
+
+		String[] columns = new String[COLUMNS];
+		String line = null;
+		while ((line = br.readLine()) != null) {
+			if (line.startsWith("#") || tokenize(line, columns) < COLUMNS - 1)
+				continue;
+
+			// targets are listed by query, so start a new table on each query
+			if (!columns[3].equals(query)) {
+				query = columns[3];
+				queryResults = results.get(query);
+				if (queryResults == null) {
+					queryResults = new ArrayList<HmmSearchResult>();
+					results.put(query, queryResults);
+				}
+				rows.clear();
+			}
+
+			// skip sequences and domains below the inclusion thresholds
+			double sequenceEValue = Numbers.newDoubleFromString(columns[6]);
+			double conditionalEValue = Numbers.newDoubleFromString(columns[11]);
+			double domainEValue = Numbers.newDoubleFromString(columns[12]);
+			if (sequenceEValue > SEQUENCE_INCLUSION_EVALUE)
+				continue;
+
+			String name = columns[0];
+			HmmSearchResult row = rows.get(name);
+			if (row == null) {
+				row = new HmmSearchResult(columns[6], columns[7], columns[8],
+						columns[12], columns[13], columns[14], name,
+						columns[22]);
+				rows.put(name, row);
+				queryResults.add(row);
+			}
+
+			// the best domain is the highest-scoring domain in the sequence
+			double score = Numbers.newDoubleFromString(columns[13]);
+			if (score > row.bestDomainScore) {
+				row.bestDomainEValue = domainEValue;
+				row.bestDomainScore = score;
+				row.bestDomainBias = Numbers.newDoubleFromString(columns[14]);
+			}
+
+			if (conditionalEValue > DOMAIN_INCLUSION_EVALUE)
+				continue;
+			int envfrom = Integer.parseInt(columns[19]);
+			int envto = Integer.parseInt(columns[20]);
+			row.addAnnotation(new HmmSearchResultAnnotation(envfrom, envto,
+					score, row));
+		}
+		br.close();
+
+		return results;
+	}
+
+	/**
+	 * Split a line of whitespace-delimited columns into an existing array,
+	 * without using regular expressions. The final column contains the rest
+	 * of the line.
+	 *
+	 * @param line
+	 *            the line to split
+	 * @param columns
+	 *            the array to fill with columns
+	 * @return the number of columns read
+	 */
+	private static int tokenize(String line, String[] columns) {
+		int count = 0;
+		int length = line.length();
+		int i = 0;
+		while (i < length && count < columns.length) {
+			while (i < length && Character.isWhitespace(line.charAt(i)))
+				i++;
+			if (i == length)
+				break;
+			int start = i;
+			if (count == columns.length - 1) {
+				columns[count++] = line.substring(start).trim();
+				break;
+			}
+			while (i < length && !Character.isWhitespace(line.charAt(i)))
+				i++;
+			columns[count++] = line.substring(start, i);
+		}
+		for (int j = count; j < columns.length; j++)
+			columns[j] = "";
+		return count;
+	}
+
+}
@@ -0,0 +1,129 @@
+package ca.mcmaster.magarveylab.prism.genome;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ca.mcmaster.magarveylab.prism.data.Contig;
+import ca.mcmaster.magarveylab.prism.data.Genome;
+import ca.mcmaster.magarveylab.prism.data.Orf;
+
+/**
+ * Decide, without launching hmmsearch, whether a hidden Markov model can hit
+ * any sequence in a set of sequences. Each sequence is scored in-process with
+ * the MSV filter which is the first stage of hmmsearch itself; a model is only
+ * searched with hmmsearch if at least one sequence passes.<br>
+ * <br>
+ * hmmsearch discards any sequence with an MSV P-value above 0.02 before
+ * calculating full scores, so a model with no sequence below that threshold
+ * cannot report any results. This filter uses a more permissive threshold to
+ * allow for the reduced precision of hmmsearch's own MSV implementation.
+ * Models which cannot be parsed (e.g. legacy HMMER2 models) are always
+ * searched.<br>
+ * <br>
+ * Sequences are scored until one passes, so a model which can hit the
+ * sequences is usually accepted after only a few sequences have been scored;
+ * every sequence is scored only for a model which is then rejected, and whose
+ * hmmsearch is skipped.
+ *
+ * @author skinnider
+ *
+ */
+public class HmmPrefilter {
+
+	/**
+	 * The MSV P-value below which a sequence passes the filter.
+	 */
+	public static final double P_VALUE = 0.1;
+
+	private List<byte[]> sequences = new ArrayList<byte[]>();
+	private Map<String, Boolean> accepted = new ConcurrentHashMap<String, Boolean>();
+
+	/**
+	 * Instantiate a new prefilter for a set of amino acid sequences.
+	 *
+	 * @param sequences
+	 *            the sequences which will be searched
+	 */
+	public HmmPrefilter(List<String> sequences) {
+		for (String sequence : sequences)
+			this.sequences.add(MsvProfile.digitize(sequence));
+	}
+
+	/**
+	 * Instantiate a new prefilter for all orfs in a genome.
+	 *
+	 * @param genome
+	 *            the genome which will be searched
+	 * @return a prefilter for the genome's orfs
+	 */
+	public static HmmPrefilter forGenome(Genome genome) {
+		List<String> sequences = new ArrayList<String>();
+		for (Contig contig : genome.contigs())
+			for (Orf orf : contig.orfs())
+				sequences.add(orf.sequence());
+		return new HmmPrefilter(sequences);
+	}
+
+	/**
+	 * Determine whether a hidden Markov model file should be searched against
+	 * these sequences. The result for each model is cached.
+	 *
+	 * @param model
+	 *            the model file
+	 * @return true if any sequence passes the MSV filter for any model in the
+	 *         file, or if the file cannot be filtered
+	 * @throws IOException
+	 */
+	public boolean accepts(String model) throws IOException {
+		Boolean result = accepted.get(model);
+		if (result == null) {
+			result = accepts(MsvProfile.get(model), sequences);
+			accepted.put(model, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Determine whether a single sequence passes the filter for a hidden
+	 * Markov model file.
+	 *
+	 * @param model
+	 *            the model file
+	 * @param sequence
+	 *            the amino acid sequence
+	 * @return true if the sequence passes the MSV filter for any model in the
+	 *         file, or if the file cannot be filtered
+	 * @throws IOException
+	 */
+	public static boolean accepts(String model, String sequence)
+			throws IOException {
+		List<byte[]> sequences = new ArrayList<byte[]>();
+		sequences.add(MsvProfile.digitize(sequence));
+		return accepts(MsvProfile.get(model), sequences);
+	}
+
+	/**
+	 * Determine whether any of a list of digitized sequences passes the filter
+	 * for any of a list of profiles.
+	 *
+	 * @param profiles
+	 *            profiles parsed from a model file
+	 * @param sequences
+	 *            digitized sequences
+	 * @return true if any sequence passes, or if there are no profiles
+	 */
+	private static boolean accepts(List<MsvProfile> profiles,
+			List<byte[]> sequences) {
+		if (profiles.size() == 0)
+			return true;
+		for (MsvProfile profile : profiles)
+			for (byte[] dsq : sequences)
+				if (profile.pValue(profile.score(dsq)) <= P_VALUE)
+					return true;
+		return false;
+	}
+
+}
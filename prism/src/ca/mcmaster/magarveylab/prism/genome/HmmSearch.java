@@ -1,9 +1,27 @@
 package ca.mcmaster.magarveylab.prism.genome;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import ca.mcmaster.magarveylab.prism.Prism;
+import ca.mcmaster.magarveylab.prism.util.Numbers;
 import ca.mcmaster.magarveylab.prism.util.PrismProcessBuilder;
 import ca.mcmaster.magarveylab.wasp.session.Session;
 
@@ -14,11 +32,25 @@ import ca.mcmaster.magarveylab.wasp.session.Session;
  */
 public class HmmSearch {
 
+	private static final Logger logger = Logger.getLogger(HmmSearch.class.getName());
+
 	protected String proteinFastaDatabase;
 	protected String hmmModel;
 	protected String hmmExecutable;
 	protected Session session;
 	private HmmSearchReader reader;
+	private Map<String, Integer> databaseSizes = new HashMap<String, Integer>();
+	
+	/**
+	 * hmmsearch's default reporting threshold for sequences and domains (-E
+	 * and --domE).
+	 */
+	public static final double REPORTING_EVALUE = 10.0;
+	
+	/**
+	 * Number of columns in a hmmsearch domain table line.
+	 */
+	private static final int DOMAIN_TABLE_COLUMNS = 23;
 	
 	/**
 	 * Initiate a new hidden Markov model search against a protein FASTA database. 
@@ -58,15 +90,526 @@ public class HmmSearch {
 	}
 	
 	/**
-	 * Create and start a process builder to execute the hmmsearch. 
+	 * Create and start a process builder to execute the hmmsearch. E-values
+	 * are calculated separately for the sequences of each contig in a
+	 * genome-wide database, as if each contig had been searched on its own.
+	 * If a hit cache is enabled, cached hits are used for sequences which have
+	 * already been searched against each model, and only new sequences are
+	 * searched; otherwise, the E-values are those output by hmmsearch.
 	 * @throws IOException 
 	 * @throws InterruptedException 
 	 */
 	protected void execute() throws IOException, InterruptedException {
-		String[] cmd = { hmmExecutable, hmmModel, proteinFastaDatabase };
-		PrismProcessBuilder ppb = new PrismProcessBuilder(cmd);
-		BufferedReader br = ppb.run();
-		reader = new HmmSearchReader(br);
+		boolean table = domainTable();
+		HmmCache cache = table ? cache() : null;
+		BufferedReader br = (cache != null) ? executeCached(cache) 
+				: executeContigs(table ? "domtbl" : "text");
+		reader = table ? new HmmDomainTableReader(br) : new HmmSearchReader(br);
+	}
+	
+	/**
+	 * Execute this search once for the sequences of each contig. If the
+	 * database contains the sequences of more than one contig, each contig is
+	 * written to a separate file and searched separately, and the output of 
+	 * each search is concatenated.
+	 * @param mode	"domtbl" to output the per-domain table, or "text" to
+	 * 				output the human-readable report
+	 * @return		a reader for the hmmsearch output
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private BufferedReader executeContigs(String mode) throws IOException, InterruptedException {
+		Map<String, Integer> counts = countContigs();
+		if (counts.size() <= 1) {
+			String tag = counts.size() == 0 ? "" : counts.keySet().iterator().next();
+			return execute(hmmModel, proteinFastaDatabase, mode, sizeOptions(tag));
+		}
+		
+		Map<String, File> databases = splitContigs(counts.keySet());
+		try {
+			StringBuilder sb = new StringBuilder();
+			for (Map.Entry<String, File> database : databases.entrySet()) {
+				BufferedReader br = execute(hmmModel, database.getValue().getPath(), mode, 
+						sizeOptions(database.getKey()));
+				String line = null;
+				while ((line = br.readLine()) != null)
+					sb.append(line + "\n");
+				br.close();
+			}
+			return new BufferedReader(new StringReader(sb.toString()));
+		} finally {
+			for (File database : databases.values())
+				database.delete();
+		}
+	}
+	
+	/**
+	 * Get the hmmsearch options which set the size of the database of a
+	 * contig, if a size was set for the contig. Otherwise, hmmsearch uses the
+	 * number of sequences in the database searched.
+	 * @param tag	the contig tag
+	 * @return		the options
+	 */
+	private List<String> sizeOptions(String tag) {
+		if (!databaseSizes.containsKey(tag))
+			return new ArrayList<String>();
+		return Arrays.asList("-Z", String.valueOf(databaseSizes.get(tag)));
+	}
+	
+	/**
+	 * Count the sequences of each contig in the FASTA database, reading only
+	 * the name of each sequence.
+	 * @return	the number of sequences of each contig, keyed by contig tag in
+	 * 			the order of each contig's first sequence
+	 * @throws IOException
+	 */
+	private Map<String, Integer> countContigs() throws IOException {
+		Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+		BufferedReader br = new BufferedReader(new FileReader(proteinFastaDatabase));
+		String line = null;
+		while ((line = br.readLine()) != null) {
+			if (!line.startsWith(">"))
+				continue;
+			String tag = ContigIndex.tagOf(name(line));
+			Integer count = counts.get(tag);
+			counts.put(tag, count == null ? 1 : count + 1);
+		}
+		br.close();
+		return counts;
+	}
+	
+	/**
+	 * Write the sequences of each contig in the FASTA database to a separate
+	 * temporary file, copying them line by line.
+	 * @param tags	the tags of all contigs in the database, in order
+	 * @return		the file of each contig, keyed by contig tag in the order
+	 * 				given
+	 * @throws IOException
+	 */
+	private Map<String, File> splitContigs(Set<String> tags) throws IOException {
+		Map<String, File> databases = new LinkedHashMap<String, File>();
+		try {
+			for (String tag : tags)
+				databases.put(tag, File.createTempFile("hmmsearch", ".fa", new File(session.dir())));
+			
+			// only one file is open at a time; a contig's file is reopened
+			// for appending if its sequences are not consecutive
+			BufferedReader br = new BufferedReader(new FileReader(proteinFastaDatabase));
+			BufferedWriter bw = null;
+			String current = null;
+			String line = null;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith(">")) {
+					String tag = ContigIndex.tagOf(name(line));
+					if (!tag.equals(current)) {
+						if (bw != null)
+							bw.close();
+						bw = new BufferedWriter(new FileWriter(databases.get(tag), true));
+						current = tag;
+					}
+				}
+				if (bw != null)
+					bw.append(line + "\n");
+			}
+			if (bw != null)
+				bw.close();
+			br.close();
+		} catch (IOException e) {
+			for (File database : databases.values())
+				database.delete();
+			throw e;
+		}
+		return databases;
+	}
+	
+	/**
+	 * Get the name of a sequence from its FASTA header line.
+	 * @param header	the header line
+	 * @return			the first word of the header
+	 */
+	private static String name(String header) {
+		return header.substring(1).trim().split("\\s+")[0];
+	}
+	
+	/**
+	 * Execute hmmsearch with a model file against a FASTA file.
+	 * @param model		the model file
+	 * @param database	the FASTA file
+	 * @param mode		"domtbl" to output the per-domain table, or "text" to
+	 * 					output the human-readable report
+	 * @param options	additional hmmsearch options
+	 * @return			a reader for the hmmsearch output
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private BufferedReader execute(String model, String database, String mode, 
+			List<String> options) throws IOException, InterruptedException {
+		List<String> cmd = new ArrayList<String>();
+		cmd.add(hmmExecutable);
+		cmd.add(model);
+		cmd.add(database);
+		cmd.add(mode);
+		cmd.addAll(options);
+		PrismProcessBuilder ppb = new PrismProcessBuilder(cmd.toArray(new String[cmd.size()]));
+		return ppb.run();
+	}
+	
+	/**
+	 * Execute this search with hmmsearch's per-domain table and a hit cache.
+	 * Only sequences which have not been searched against every model in the
+	 * model file are searched, with E-values calculated for a database of 
+	 * size one, and their hits are added to the cache. A domain table is then
+	 * assembled from the hits of every sequence, with E-values rescaled for 
+	 * the size of the database of each contig. Cached hits are taken from the
+	 * cache once, so that entries evicted by concurrent searches are not lost.
+	 * <br><br>
+	 * hmmsearch writes E-values to the domain table with two significant
+	 * digits, so rescaled E-values can differ slightly from those of a search
+	 * without the cache, and hits very close to a reporting or inclusion
+	 * threshold may fall on the other side of it.
+	 * @param cache		the hit cache
+	 * @return			a reader for the assembled domain table
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private BufferedReader executeCached(HmmCache cache) throws IOException, InterruptedException {
+		Map<String, Integer> models = readModels(cache);
+		List<String[]> sequences = readSequences();
+		
+		// take the cached hits of each sequence, and find sequences which
+		// have not been searched against every model
+		Map<Integer, Map<String, List<String>>> hits = new HashMap<Integer, Map<String, List<String>>>();
+		for (int id : models.values())
+			hits.put(id, new HashMap<String, List<String>>());
+		Map<String, String> uncached = new LinkedHashMap<String, String>();
+		Set<String> checked = new HashSet<String>();
+		for (String[] sequence : sequences) {
+			if (!checked.add(sequence[1]))
+				continue;
+			for (int id : models.values()) {
+				List<String> lines = cache.get(sequence[1], id);
+				if (lines == null) {
+					uncached.put(sequence[1], sequence[2]);
+					break;
+				}
+				hits.get(id).put(sequence[1], lines);
+			}
+		}
+		
+		// search new sequences, keeping their hits for this search even if
+		// the cache evicts them
+		if (uncached.size() > 0)
+			for (Map.Entry<Integer, Map<String, List<String>>> modelHits 
+					: searchUncached(cache, models, uncached).entrySet())
+				hits.get(modelHits.getKey()).putAll(modelHits.getValue());
+		logger.log(Level.INFO, "Searched " + uncached.size() + " of " + sequences.size() 
+				+ " sequences not in cache");
+		
+		Map<String, Integer> sizes = new HashMap<String, Integer>();
+		Map<String, List<String[]>> contigs = readContigs(sequences);
+		for (Map.Entry<String, List<String[]>> contig : contigs.entrySet())
+			sizes.put(contig.getKey(), size(contig.getKey(), contig.getValue().size()));
+		return new BufferedReader(new StringReader(domainTable(models, contigs, hits, sizes)));
+	}
+	
+	/**
+	 * Assemble a domain table from the hits of every sequence against every
+	 * model, as hmmsearch would output it if the sequences of each contig had
+	 * been searched separately. Within each model, contigs are output in the
+	 * order of their first sequence in the database.
+	 * @param models	the id of each model, keyed by model name, in order
+	 * @param contigs	the name, checksum and sequence of every sequence, 
+	 * 					keyed by contig tag
+	 * @param hits		domain table lines for each model id and sequence 
+	 * 					checksum, with E-values calculated for a database of 
+	 * 					size one
+	 * @param sizes		the number of sequences in the database of each 
+	 * 					contig, keyed by contig tag
+	 * @return			the domain table
+	 */
+	static String domainTable(Map<String, Integer> models, Map<String, List<String[]>> contigs, 
+			Map<Integer, Map<String, List<String>>> hits, Map<String, Integer> sizes) {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Integer> model : models.entrySet()) {
+			Map<String, List<String>> modelHits = hits.get(model.getValue());
+			if (modelHits == null)
+				continue;
+			for (Map.Entry<String, List<String[]>> contig : contigs.entrySet()) {
+				List<List<String[]>> rows = new ArrayList<List<String[]>>();
+				for (String[] sequence : contig.getValue()) {
+					List<String> lines = modelHits.get(sequence[1]);
+					if (lines == null || lines.size() == 0)
+						continue;
+					List<String[]> row = new ArrayList<String[]>();
+					for (String line : lines) {
+						String[] columns = line.trim().split("\\s+", DOMAIN_TABLE_COLUMNS);
+						columns[0] = sequence[0];
+						columns[3] = model.getKey();
+						row.add(columns);
+					}
+					rows.add(row);
+				}
+				appendDomainTable(sb, rows, sizes.get(contig.getKey()));
+			}
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Read the names of all models in the model file, and register each model
+	 * with the hit cache. Each model is identified by the checksum of its 
+	 * text, excluding its name.
+	 * @param cache		the hit cache
+	 * @return			the cache id of each model, keyed by model name
+	 * @throws IOException
+	 */
+	private Map<String, Integer> readModels(HmmCache cache) throws IOException {
+		Map<String, Integer> models = new LinkedHashMap<String, Integer>();
+		BufferedReader br = new BufferedReader(new FileReader(hmmModel));
+		String name = null;
+		StringBuilder sb = new StringBuilder();
+		String line = null;
+		while ((line = br.readLine()) != null) {
+			if (line.startsWith("NAME ")) {
+				name = line.substring(5).trim();
+				continue;
+			}
+			sb.append(line + "\n");
+			if (line.startsWith("//")) {
+				if (name != null)
+					models.put(name, cache.model(name, HmmCache.checksum(sb.toString())));
+				name = null;
+				sb.setLength(0);
+			}
+		}
+		br.close();
+		return models;
+	}
+	
+	/**
+	 * Read all sequences in the FASTA database, with the checksums by which
+	 * they are identified in the hit cache.
+	 * @return		the name, checksum, and sequence of each sequence, in order
+	 * @throws IOException
+	 */
+	private List<String[]> readSequences() throws IOException {
+		List<String[]> sequences = new ArrayList<String[]>();
+		BufferedReader br = new BufferedReader(new FileReader(proteinFastaDatabase));
+		String name = null;
+		StringBuilder sb = new StringBuilder();
+		String line = null;
+		while (true) {
+			line = br.readLine();
+			if (line == null || line.startsWith(">")) {
+				if (name != null) {
+					String sequence = sb.toString();
+					sequences.add(new String[] { name, HmmCache.checksum(sequence), sequence });
+				}
+				if (line == null)
+					break;
+				String header = line.substring(1).trim();
+				name = header.split("\\s+")[0];
+				sb.setLength(0);
+			} else {
+				sb.append(line.trim());
+			}
+		}
+		br.close();
+		return sequences;
+	}
+	
+	/**
+	 * Group sequences by the contig tag of their names. Sequences whose names
+	 * are not tagged with a contig are grouped under an empty tag.
+	 * @param sequences		the name, checksum, and sequence of each sequence
+	 * @return				the sequences of each contig, in order, keyed by 
+	 * 						contig tag in the order of each contig's first 
+	 * 						sequence
+	 */
+	private static Map<String, List<String[]>> readContigs(List<String[]> sequences) {
+		Map<String, List<String[]>> contigs = new LinkedHashMap<String, List<String[]>>();
+		for (String[] sequence : sequences) {
+			String tag = ContigIndex.tagOf(sequence[0]);
+			List<String[]> contig = contigs.get(tag);
+			if (contig == null) {
+				contig = new ArrayList<String[]>();
+				contigs.put(tag, contig);
+			}
+			contig.add(sequence);
+		}
+		return contigs;
+	}
+	
+	/**
+	 * Get the number of sequences hmmsearch uses to calculate E-values for
+	 * the sequences of a contig.
+	 * @param tag		the contig tag
+	 * @param count		the number of sequences of the contig in this database
+	 * @return			the size set for the contig's database, or the number
+	 * 					of its sequences in this database if none was set
+	 */
+	private int size(String tag, int count) {
+		Integer size = databaseSizes.get(tag);
+		return size == null ? count : size;
+	}
+	
+	/**
+	 * Search sequences which are not in the hit cache against all models,
+	 * and add their hits to the cache. E-values are calculated for a database
+	 * of size one, so that hits can be rescaled for any database.
+	 * @param cache		the hit cache
+	 * @param models	the cache id of each model, keyed by model name
+	 * @param uncached	sequences to search, keyed by checksum
+	 * @return			domain table lines for each model and sequence checksum
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private Map<Integer, Map<String, List<String>>> searchUncached(HmmCache cache, 
+			Map<String, Integer> models, Map<String, String> uncached) 
+					throws IOException, InterruptedException {
+		File database = File.createTempFile("hmmsearch", ".fa", new File(session.dir()));
+		BufferedWriter bw = new BufferedWriter(new FileWriter(database));
+		for (Map.Entry<String, String> sequence : uncached.entrySet())
+			bw.append(">" + sequence.getKey() + "\n" + sequence.getValue() + "\n");
+		bw.close();
+		
+		BufferedReader br = execute(hmmModel, database.getPath(), "domtbl", 
+				Arrays.asList("-Z", "1", "--domZ", "1"));
+		Map<String, Map<String, List<String>>> lines = readDomainTable(br, uncached.keySet());
+		database.delete();
+		
+		Map<Integer, Map<String, List<String>>> hits = new HashMap<Integer, Map<String, List<String>>>();
+		for (Map.Entry<String, Integer> model : models.entrySet()) {
+			Map<String, List<String>> queryLines = lines.get(model.getKey());
+			Map<String, List<String>> modelHits = new HashMap<String, List<String>>();
+			for (String checksum : uncached.keySet()) {
+				List<String> targetLines = null;
+				if (queryLines != null)
+					targetLines = queryLines.get(checksum);
+				if (targetLines == null)
+					targetLines = new ArrayList<String>();
+				cache.put(checksum, model.getValue(), targetLines);
+				modelHits.put(checksum, targetLines);
+			}
+			hits.put(model.getValue(), modelHits);
+		}
+		return hits;
+	}
+	
+	/**
+	 * Read the lines of a hmmsearch domain table, grouped by query model and
+	 * target sequence.
+	 * @param br		reader for the domain table
+	 * @param targets	the names of the target sequences to keep
+	 * @return			the domain table lines for each target, keyed by
+	 * 					query model name and then by target name
+	 * @throws IOException
+	 */
+	static Map<String, Map<String, List<String>>> readDomainTable(BufferedReader br, 
+			Set<String> targets) throws IOException {
+		Map<String, Map<String, List<String>>> lines = new HashMap<String, Map<String, List<String>>>();
+		String line = null;
+		while ((line = br.readLine()) != null) {
+			if (line.startsWith("#"))
+				continue;
+			String[] columns = line.trim().split("\\s+", DOMAIN_TABLE_COLUMNS);
+			if (columns.length < DOMAIN_TABLE_COLUMNS - 1 || !targets.contains(columns[0]))
+				continue;
+			Map<String, List<String>> queryLines = lines.get(columns[3]);
+			if (queryLines == null) {
+				queryLines = new HashMap<String, List<String>>();
+				lines.put(columns[3], queryLines);
+			}
+			List<String> targetLines = queryLines.get(columns[0]);
+			if (targetLines == null) {
+				targetLines = new ArrayList<String>();
+				queryLines.put(columns[0], targetLines);
+			}
+			targetLines.add(line);
+		}
+		br.close();
+		return lines;
+	}
+	
+	/**
+	 * Append the domain table for a single model to a buffer, as hmmsearch
+	 * would output it for a database of the given size. E-values are rescaled
+	 * from those for a database of size one; sequences whose E-values, and
+	 * domains whose conditional E-values, are above hmmsearch's default
+	 * reporting threshold are not output, and sequences are output in order
+	 * of decreasing score.
+	 * @param sb	the buffer
+	 * @param rows	the domain table lines for each sequence with hits, with
+	 * 				E-values calculated for a database of size one
+	 * @param size	the number of sequences in the database
+	 */
+	private static void appendDomainTable(StringBuilder sb, List<List<String[]>> rows, int size) {
+		// conditional E-values are calculated for the number of reported
+		// sequences, and independent E-values for the size of the database
+		List<List<String[]>> reported = new ArrayList<List<String[]>>();
+		for (List<String[]> row : rows)
+			if (Numbers.newDoubleFromString(row.get(0)[6]) * size <= REPORTING_EVALUE)
+				reported.add(row);
+		int domZ = reported.size();
+		
+		Collections.sort(reported, new Comparator<List<String[]>>() {
+			@Override
+			public int compare(List<String[]> row1, List<String[]> row2) {
+				return Double.compare(Numbers.newDoubleFromString(row2.get(0)[7]),
+						Numbers.newDoubleFromString(row1.get(0)[7]));
+			}
+		});
+		
+		for (List<String[]> row : reported)
+			for (String[] columns : row) {
+				double conditional = Numbers.newDoubleFromString(columns[11]) * domZ;
+				if (conditional > REPORTING_EVALUE)
+					continue;
+				columns[6] = String.valueOf(Numbers.newDoubleFromString(columns[6]) * size);
+				columns[11] = String.valueOf(conditional);
+				columns[12] = String.valueOf(Numbers.newDoubleFromString(columns[12]) * size);
+				for (int i = 0; i < columns.length; i++) {
+					if (i > 0)
+						sb.append(" ");
+					sb.append(columns[i]);
+				}
+				sb.append("\n");
+			}
+	}
+	
+	/**
+	 * Get the hit cache for the current search, if one is enabled.
+	 * @return	the hit cache, or null
+	 * @throws IOException
+	 */
+	protected HmmCache cache() throws IOException {
+		if (session.webapp() instanceof Prism)
+			return ((Prism) session.webapp()).hmmCache();
+		return null;
+	}
+	
+	/**
+	 * Set the number of sequences hmmsearch uses to calculate E-values for
+	 * the sequences of each contig. By default this is the number of
+	 * sequences of that contig in the database searched; when searching a
+	 * subset of a contig's sequences, setting this to the number of sequences
+	 * in the contig gives the same E-values as a search of the whole contig.
+	 * @param databaseSizes	the number of sequences in the full database of 
+	 * 						each contig, keyed by contig tag
+	 */
+	public void setDatabaseSizes(Map<String, Integer> databaseSizes) {
+		this.databaseSizes = new HashMap<String, Integer>(databaseSizes);
+	}
+	
+	/**
+	 * Determine whether to read hmmsearch's tabular per-domain output, rather
+	 * than its human-readable report.
+	 * @return	true if the current configuration enables domain table output
+	 */
+	protected boolean domainTable() {
+		if (session.webapp() instanceof Prism)
+			return ((Prism) session.webapp()).config().hmmDomainTable;
+		return false;
 	}
 	
 	/**
@@ -2,8 +2,11 @@ package ca.mcmaster.magarveylab.prism.genome;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import ca.mcmaster.magarveylab.prism.genome.data.HmmSearchResult;
 import ca.mcmaster.magarveylab.prism.genome.data.HmmSearchResultAnnotation;
@@ -16,7 +19,7 @@ import ca.mcmaster.magarveylab.prism.util.Numbers;
  */
 public class HmmSearchReader {
 
-	private BufferedReader br;
+	protected BufferedReader br;
 
 	/**
 	 * Initialize a new hmmsearch output reader.
@@ -87,6 +90,46 @@ public class HmmSearchReader {
 		return results;
 	}
 
+	/**
+	 * Parse the output of a hmmsearch against a database of several hidden
+	 * Markov models, and return the {@code HmmSearchResult}s for each model
+	 * separately. The results of a model which appears in several
+	 * concatenated reports are combined.
+	 * 
+	 * @return all HmmSearchResults, keyed by the name of the query model
+	 * @throws IOException
+	 */
+	public Map<String, List<HmmSearchResult>> readAll() throws IOException {
+		Map<String, List<HmmSearchResult>> results = new LinkedHashMap<String, List<HmmSearchResult>>();
+
+		String line = null;
+		String query = null;
+		StringBuffer sb = new StringBuffer();
+		while ((line = br.readLine()) != null) {
+			if (line.startsWith("Query:")) {
+				query = line.split("\\s+")[1];
+				sb.delete(0, sb.length());
+			}
+			if (query == null)
+				continue;
+			if (line.startsWith("//")) {
+				// end of the output for this model: parse it separately
+				BufferedReader section = new BufferedReader(new StringReader(sb.toString()));
+				List<HmmSearchResult> queryResults = new HmmSearchReader(section).read();
+				if (results.containsKey(query))
+					results.get(query).addAll(queryResults);
+				else
+					results.put(query, queryResults);
+				query = null;
+			} else {
+				sb.append(line + "\n");
+			}
+		}
+		br.close();
+
+		return results;
+	}
+
 	/**
 	 * Parses a single row of a hmmsearch reading score table to instantiate a new <code>HmmRow</code>.
 	 * @param columns	the reading score table line, represented 
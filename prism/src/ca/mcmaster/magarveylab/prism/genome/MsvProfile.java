@@ -0,0 +1,326 @@
+package ca.mcmaster.magarveylab.prism.genome;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The match emission scores of a HMMER3 profile hidden Markov model, used to
+ * score sequences with an ungapped multiple segment Viterbi (MSV) filter, as
+ * in the first stage of the hmmsearch acceleration pipeline (Eddy 2011).<br>
+ * <br>
+ * Profiles are parsed from HMMER3 ASCII model files once, and cached for the
+ * lifetime of the application.
+ *
+ * @author skinnider
+ *
+ */
+public class MsvProfile {
+
+	/**
+	 * The order of residues in HMMER3 amino acid models.
+	 */
+	public static final String ALPHABET = "ACDEFGHIKLMNPQRSTVWY";
+
+	/**
+	 * Background residue frequencies of the HMMER3 null model, in the same
+	 * order as the alphabet.
+	 */
+	public static final double[] BACKGROUND = new double[] { 0.0787945,
+			0.0151600, 0.0535222, 0.0668298, 0.0397062, 0.0695071, 0.0229198,
+			0.0590092, 0.0594422, 0.0963728, 0.0237718, 0.0414386, 0.0482904,
+			0.0395639, 0.0540978, 0.0683364, 0.0540687, 0.0673417, 0.0114135,
+			0.0304133 };
+
+	/**
+	 * Residue code for any character outside the alphabet, which is given a
+	 * match score of zero.
+	 */
+	public static final byte UNKNOWN = 20;
+
+	/**
+	 * Scores are calculated in fixed point, in units of 1/SCALE nats, so that
+	 * the inner loop of the filter uses only integer arithmetic.
+	 */
+	private static final double SCALE = 1000.0;
+
+	/**
+	 * Fixed-point score of an impossible emission or state.
+	 */
+	private static final int IMPOSSIBLE = Integer.MIN_VALUE / 4;
+
+	private static Map<String, List<MsvProfile>> profiles = new ConcurrentHashMap<String, List<MsvProfile>>();
+
+	private String name;
+	private int length;
+	private double mu;
+	private double lambda;
+	private int[][] scores;
+
+	private MsvProfile(String name, int length, double mu, double lambda) {
+		this.name = name;
+		this.length = length;
+		this.mu = mu;
+		this.lambda = lambda;
+		this.scores = new int[UNKNOWN + 1][length + 1];
+	}
+
+	/**
+	 * Get the name of this profile.
+	 *
+	 * @return the name of the model
+	 */
+	public String name() {
+		return name;
+	}
+
+	/**
+	 * Get the number of match states in this profile.
+	 *
+	 * @return the length of the model
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Get all profiles in a HMMER3 model file, reading the file only on the
+	 * first call for each file.
+	 *
+	 * @param path
+	 *            the model file
+	 * @return the profiles in the file, or an empty list if the file is not a
+	 *         HMMER3 amino acid model with MSV statistics
+	 * @throws IOException
+	 */
+	public static List<MsvProfile> get(String path) throws IOException {
+		List<MsvProfile> list = profiles.get(path);
+		if (list == null) {
+			list = read(new File(path));
+			profiles.put(path, list);
+		}
+		return list;
+	}
+
+	/**
+	 * Parse all profiles from a HMMER3 ASCII model file.
+	 *
+	 * @param file
+	 *            the model file
+	 * @return the profiles in the file, or an empty list if any model in the
+	 *         file cannot be used for MSV filtering
+	 * @throws IOException
+	 */
+	public static List<MsvProfile> read(File file) throws IOException {
+		List<MsvProfile> list = new ArrayList<MsvProfile>();
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		try {
+			String line = br.readLine();
+			while (line != null) {
+				if (!line.startsWith("HMMER3"))
+					return Collections.emptyList();
+				MsvProfile profile = readProfile(br);
+				if (profile == null)
+					return Collections.emptyList();
+				list.add(profile);
+
+				// skip to the next model, if any
+				while ((line = br.readLine()) != null && line.trim().isEmpty())
+					;
+			}
+		} finally {
+			br.close();
+		}
+		return list;
+	}
+
+	/**
+	 * Parse the header and match emissions of a single model, up to and
+	 * including its terminating line.
+	 *
+	 * @param br
+	 *            reader positioned after the format tag of the model
+	 * @return the profile, or null if the model is not an amino acid model
+	 *         with MSV statistics
+	 * @throws IOException
+	 */
+	private static MsvProfile readProfile(BufferedReader br) throws IOException {
+		String name = null;
+		String alphabet = null;
+		int length = 0;
+		double mu = Double.NaN;
+		double lambda = Double.NaN;
+
+		// header
+		String line = null;
+		while ((line = br.readLine()) != null) {
+			String[] tokens = line.trim().split("\\s+");
+			if (tokens[0].equals("NAME") && tokens.length > 1) {
+				name = tokens[1];
+			} else if (tokens[0].equals("LENG") && tokens.length > 1) {
+				length = Integer.parseInt(tokens[1]);
+			} else if (tokens[0].equals("ALPH") && tokens.length > 1) {
+				alphabet = tokens[1];
+			} else if (tokens[0].equals("STATS") && tokens.length > 4
+					&& tokens[2].equals("MSV")) {
+				mu = Double.parseDouble(tokens[3]);
+				lambda = Double.parseDouble(tokens[4]);
+			} else if (tokens[0].equals("HMM")) {
+				break;
+			}
+		}
+		if (line == null || length == 0 || !"amino".equals(alphabet)
+				|| Double.isNaN(mu) || Double.isNaN(lambda))
+			return null;
+
+		MsvProfile profile = new MsvProfile(name, length, mu, lambda);
+		br.readLine(); // transition header
+
+		// the optional COMPO line precedes the node 0 insert emissions and
+		// transitions
+		line = br.readLine();
+		if (line != null && line.trim().startsWith("COMPO"))
+			br.readLine();
+		br.readLine();
+
+		int k = 0;
+		while ((line = br.readLine()) != null && !line.startsWith("//")) {
+			String[] tokens = line.trim().split("\\s+");
+
+			// match emission line, followed by insert emissions and transitions
+			k = Integer.parseInt(tokens[0]);
+			if (k < 1 || k > length || tokens.length < 21)
+				return null;
+			for (int x = 0; x < UNKNOWN; x++)
+				profile.scores[x][k] = score(tokens[x + 1], x);
+			br.readLine();
+			br.readLine();
+		}
+		if (k != length)
+			return null;
+		return profile;
+	}
+
+	/**
+	 * Convert a match emission from a model file, given as a negative natural
+	 * log probability, to a log-odds score against the background frequency
+	 * of the residue.
+	 *
+	 * @param value
+	 *            the emission value from the model file
+	 * @param x
+	 *            the residue code
+	 * @return the fixed-point log-odds score
+	 */
+	private static int score(String value, int x) {
+		if (value.equals("*"))
+			return IMPOSSIBLE;
+		return scale(-Double.parseDouble(value) - Math.log(BACKGROUND[x]));
+	}
+
+	/**
+	 * Convert a score in nats to fixed point.
+	 *
+	 * @param nats
+	 *            the score, in nats
+	 * @return the fixed-point score
+	 */
+	private static int scale(double nats) {
+		return (int) Math.round(nats * SCALE);
+	}
+
+	/**
+	 * Convert an amino acid sequence to residue codes.
+	 *
+	 * @param sequence
+	 *            the amino acid sequence
+	 * @return the residue code of each letter in the sequence
+	 */
+	public static byte[] digitize(String sequence) {
+		int length = 0;
+		for (int i = 0; i < sequence.length(); i++)
+			if (Character.isLetter(sequence.charAt(i)))
+				length++;
+		byte[] dsq = new byte[length];
+		int j = 0;
+		for (int i = 0; i < sequence.length(); i++) {
+			char c = Character.toUpperCase(sequence.charAt(i));
+			if (!Character.isLetter(c))
+				continue;
+			int x = ALPHABET.indexOf(c);
+			dsq[j++] = (byte) (x == -1 ? UNKNOWN : x);
+		}
+		return dsq;
+	}
+
+	/**
+	 * Calculate the MSV score of a sequence against this profile, using the
+	 * same local, multihit configuration and length model as hmmsearch.
+	 *
+	 * @param dsq
+	 *            the digitized sequence
+	 * @return the MSV score, in bits
+	 */
+	public double score(byte[] dsq) {
+		int L = dsq.length;
+		if (L == 0)
+			return Double.NEGATIVE_INFINITY;
+		int loop = scale(Math.log((double) L / (L + 3)));
+		int move = scale(Math.log(3.0 / (L + 3)));
+		int entry = scale(Math.log(2.0 / ((double) length * (length + 1))));
+		int exit = scale(Math.log(0.5));
+
+		int[] previous = new int[length + 1];
+		int[] current = new int[length + 1];
+		Arrays.fill(previous, IMPOSSIBLE);
+		current[0] = IMPOSSIBLE;
+
+		int xN = 0;
+		int xB = move;
+		int xJ = IMPOSSIBLE;
+		int xC = IMPOSSIBLE;
+		for (int i = 0; i < L; i++) {
+			int[] emissions = scores[dsq[i]];
+			int b = xB + entry;
+			int xE = IMPOSSIBLE;
+			for (int k = 1; k <= length; k++) {
+				int m = Math.max(previous[k - 1], b) + emissions[k];
+				current[k] = m;
+				xE = Math.max(xE, m);
+			}
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+
+			xJ = Math.max(xJ + loop, xE + exit);
+			xC = Math.max(xC + loop, xE + exit);
+			xN = xN + loop;
+			xB = Math.max(xN + move, xJ + move);
+		}
+
+		double null1 = L * Math.log((double) L / (L + 1)) - Math.log(L + 1);
+		return ((xC + move) / SCALE - null1) / Math.log(2);
+	}
+
+	/**
+	 * Calculate the P-value of an MSV score, from the Gumbel distribution
+	 * fitted when the model was built.
+	 *
+	 * @param score
+	 *            the MSV score, in bits
+	 * @return the probability of a score at least this high for an unrelated
+	 *         sequence
+	 */
+	public double pValue(double score) {
+		double y = lambda * (score - mu);
+		return -Math.expm1(-Math.exp(-y));
+	}
+
+}
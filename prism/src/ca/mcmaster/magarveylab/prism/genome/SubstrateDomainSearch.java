@@ -1,9 +1,17 @@
 package ca.mcmaster.magarveylab.prism.genome;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import ca.mcmaster.magarveylab.enums.domains.DomainType;
 import ca.mcmaster.magarveylab.enums.interfaces.SubstrateType;
@@ -14,9 +22,9 @@ import ca.mcmaster.magarveylab.prism.data.Genome;
 import ca.mcmaster.magarveylab.prism.data.Orf;
 import ca.mcmaster.magarveylab.prism.data.Substrate;
 import ca.mcmaster.magarveylab.prism.enums.hmms.SubstrateHmm;
-import ca.mcmaster.magarveylab.prism.fasta.FastaWriter;
 import ca.mcmaster.magarveylab.prism.genome.data.HmmSearchResult;
 import ca.mcmaster.magarveylab.prism.genome.data.HmmSearchResultAnnotation;
+import ca.mcmaster.magarveylab.prism.util.SearchExecutor;
 import ca.mcmaster.magarveylab.prism.util.Sorter;
 import ca.mcmaster.magarveylab.prism.web.PrismConfig;
 import ca.mcmaster.magarveylab.wasp.session.Session;
@@ -31,17 +39,47 @@ public class SubstrateDomainSearch {
 	protected SubstrateHmm[] substrates;
 	protected String family;
 	protected String typeString;
+	protected CombinedHmmSearch combined;
+	protected SearchExecutor executor;
+	protected ContigIndex index;
+	protected HmmPrefilter prefilter;
 	
 	public SubstrateDomainSearch(DomainType type, SubstrateHmm[] substrates, Genome genome, Session session) {
 		this.genome = genome;
 		this.session = session;
 		Prism prism = (Prism) session.webapp();
 		this.config = prism.config();
+		this.executor = prism.executor();
+		this.prefilter = prism.prefilter();
 		this.type = type;
 		this.substrates = substrates;
 		this.model = getModelFile(type);
 		this.family = type.family().toString().toLowerCase();
 		this.typeString = type.toString().toLowerCase();
+		this.index = new ContigIndex(genome);
+	}
+	
+	/**
+	 * Instantiate a new substrate domain search which reads its domain results
+	 * from a combined hidden Markov model search, if that search included this
+	 * domain type. Substrate models are still searched individually.
+	 * 
+	 * @param type
+	 *            domain type being searched for
+	 * @param substrates
+	 *            substrate models for this domain type
+	 * @param genome
+	 *            the genome to search
+	 * @param session
+	 *            the current session
+	 * @param combined
+	 *            combined search to read results from, or null to search this
+	 *            domain type individually
+	 */
+	public SubstrateDomainSearch(DomainType type, SubstrateHmm[] substrates, Genome genome, Session session, 
+			CombinedHmmSearch combined) {
+		this(type, substrates, genome, session);
+		this.combined = combined;
 	}
 	
 	public void run() {
@@ -75,15 +113,22 @@ public class SubstrateDomainSearch {
 		session.listener().addStage("Analyzing " + type.fullName().toLowerCase() + " domains", 
 				"Identifying " + type.fullName().toLowerCase() + " domains..."); 
 		
-		for (Contig contig : genome.contigs()) {
+		Map<Contig, List<HmmSearchResult>> results = null;
+		if (combined != null && combined.contains(type)) {
+			results = combined.results(type);
+		} else if (prefilter != null && !prefilter.accepts(model)) {
+			return;
+		} else {
 			HmmSearch search = new HmmSearch(session.subDir("hmm") + family + File.separator + type.hmm(), 
-					contig.getFile("orfs"), session);
+					genome.getFile("orfs"), session);
 			search.run();
+			results = index.split(search.reader().read());
+		}
 
-			List<HmmSearchResult> results = search.reader().read();
-			matchDomainsToOrfs(contig, results);
-
-			printDomainsToFasta(contig, contig.getFile(typeString));
+		for (Contig contig : genome.contigs()) {
+			List<HmmSearchResult> contigResults = results.get(contig);
+			if (contigResults != null)
+				matchDomainsToOrfs(contig, contigResults);
 		}
 	}
 
@@ -94,26 +139,174 @@ public class SubstrateDomainSearch {
 	 * @throws InterruptedException 
 	 */
 	private void findSubstrates() throws IOException, InterruptedException {
+		// print domains from all contigs to a single file
+		String domains = genome.getFile(typeString);
+		if (index.printDomains(type, domains) == 0)
+			return;
+		
+		// skip substrate models which cannot hit any domain
+		HmmPrefilter domainPrefilter = null;
+		if (config.hmmPrefilter) {
+			List<String> sequences = new ArrayList<String>();
+			for (Contig contig : genome.contigs())
+				for (Orf orf : contig.orfs())
+					for (Domain domain : orf.domains(type))
+						sequences.add(domain.sequence());
+			domainPrefilter = new HmmPrefilter(sequences);
+		}
+
 		// Run ensemble of substrate HMMs on domain FASTA file
-		for (SubstrateHmm substrate : substrates) {
+		Map<String, List<HmmSearchResult>> results = searchSubstrates(domains, domainPrefilter);
+
+		// match results to domains in the same order as they were searched
+		for (int i = 0; i < substrates.length; i++) {
+			SubstrateHmm substrate = substrates[i];
 			if (substrate.fullName().toString().length() > 0)
 				session.listener().updateLastDetail("Finding " + type.fullName().toLowerCase()
 						+ " domains with substrate " + substrate.fullName() + "...");
 
+			List<HmmSearchResult> substrateResults = results.get(getSubstrateKey(i));
+			if (substrateResults == null)
+				substrateResults = new ArrayList<HmmSearchResult>();
+			Map<Contig, List<HmmSearchResult>> contigResults = index.split(substrateResults);
 			for (Contig contig : genome.contigs()) {
-				HmmSearch hmm = new HmmSearch(session.subDir("hmm") + family
-						+ File.separator + typeString + File.separator + substrate.hmm(), 
-						contig.getFile(typeString), session);
-				hmm.run();
-
-				List<HmmSearchResult> substrateResults = hmm.reader().read();
-				matchSubstratesToDomains(contig, substrateResults, substrate);
+				List<HmmSearchResult> resultList = contigResults.get(contig);
+				if (resultList != null)
+					matchSubstratesToDomains(contig, resultList, substrate);
 				
 				sortSubstrates(contig);
 			}
 		}
 	}
 	
+	/**
+	 * Search the domain FASTA file with every substrate model of this domain
+	 * type. Rather than executing one hmmsearch per model, models are
+	 * concatenated into multi-model files, each renamed with a key for its
+	 * substrate, and each file is searched in a single hmmsearch. Models are
+	 * grouped by file format, since hmmsearch cannot read a file with mixed
+	 * HMMER2 and HMMER3 models, and each group is split into one batch per
+	 * search thread.
+	 * @param domains	the FASTA file of domains to search
+	 * @param prefilter	filter for models which cannot hit any domain, or null
+	 * @return			hmmsearch results, keyed by substrate key
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private Map<String, List<HmmSearchResult>> searchSubstrates(String domains, HmmPrefilter prefilter) 
+			throws IOException, InterruptedException {
+		// group models by format 
+		Map<String, List<Integer>> formats = new LinkedHashMap<String, List<Integer>>();
+		for (int i = 0; i < substrates.length; i++) {
+			String model = getSubstrateModelFile(substrates[i]);
+			if (!new File(model).exists())
+				throw new IOException("Hidden Markov model file " + model + " does not exist");
+			if (prefilter != null && !prefilter.accepts(model))
+				continue;
+			String format = getFormat(model);
+			List<Integer> group = formats.get(format);
+			if (group == null) {
+				group = new ArrayList<Integer>();
+				formats.put(format, group);
+			}
+			group.add(i);
+		}
+		
+		// write one multi-model file per batch
+		List<Callable<Map<String, List<HmmSearchResult>>>> searches = 
+				new ArrayList<Callable<Map<String, List<HmmSearchResult>>>>();
+		int batches = 0;
+		for (List<Integer> group : formats.values()) {
+			int size = (group.size() + executor.threads() - 1) / executor.threads();
+			for (int start = 0; start < group.size(); start += size) {
+				String batch = session.dir() + typeString + "_substrates_" + (++batches) + ".hmm";
+				writeBatch(group.subList(start, Math.min(start + size, group.size())), batch);
+				searches.add(getHmmSearch(batch, domains));
+			}
+		}
+		
+		Map<String, List<HmmSearchResult>> results = new HashMap<String, List<HmmSearchResult>>();
+		for (Map<String, List<HmmSearchResult>> batchResults : executor.invokeAll(searches))
+			results.putAll(batchResults);
+		return results;
+	}
+	
+	/**
+	 * Concatenate a set of substrate models into a single multi-model file,
+	 * replacing the name of each model with the key for its substrate.
+	 * @param indices	the indices of the substrates to write
+	 * @param path		the multi-model file to write
+	 * @throws IOException
+	 */
+	private void writeBatch(List<Integer> indices, String path) throws IOException {
+		BufferedWriter bw = new BufferedWriter(new FileWriter(path));
+		for (int i : indices) {
+			BufferedReader br = new BufferedReader(new FileReader(getSubstrateModelFile(substrates[i])));
+			String line = null;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith("NAME "))
+					line = "NAME  " + getSubstrateKey(i);
+				bw.append(line + "\n");
+			}
+			br.close();
+		}
+		bw.close();
+	}
+	
+	/**
+	 * Get the file format tag of a hidden Markov model file. 
+	 * @param model		the model file
+	 * @return			the first word of the file, e.g. HMMER3/f or HMMER2.0
+	 * @throws IOException
+	 */
+	private String getFormat(String model) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(model));
+		String line = br.readLine();
+		br.close();
+		if (line == null)
+			return "";
+		return line.trim().split("\\s+")[0];
+	}
+	
+	/**
+	 * Get the location of the hidden Markov model file for a substrate.
+	 * @param substrate		substrate of this domain type
+	 * @return				location of the substrate hidden Markov model file
+	 */
+	private String getSubstrateModelFile(SubstrateHmm substrate) {
+		return session.subDir("hmm") + family + File.separator + typeString 
+				+ File.separator + substrate.hmm();
+	}
+	
+	/**
+	 * Get the name given to a substrate model within a multi-model file.
+	 * @param i		the index of the substrate
+	 * @return		the name of the substrate's model in a multi-model file
+	 */
+	private String getSubstrateKey(int i) {
+		return typeString + ".substrate" + i;
+	}
+	
+	/**
+	 * Create a hidden Markov model search which can be executed concurrently
+	 * with other searches.
+	 * @param model		the (multi-)model file to search with
+	 * @param database	the FASTA file to search
+	 * @return			a task which executes the search and returns its results,
+	 * 					keyed by model name
+	 */
+	private Callable<Map<String, List<HmmSearchResult>>> getHmmSearch(final String model, 
+			final String database) {
+		return new Callable<Map<String, List<HmmSearchResult>>>() {
+			@Override
+			public Map<String, List<HmmSearchResult>> call() throws IOException, InterruptedException {
+				HmmSearch hmm = new HmmSearch(model, database, session);
+				hmm.run();
+				return hmm.reader().readAll();
+			}
+		};
+	}
+	
 	/**
 	 * Matches a list of hidden Markov model search results representing domains to their corresponding orfs.
 	 * @param contig	contig to analyze
@@ -121,9 +314,8 @@ public class SubstrateDomainSearch {
 	 */
 	private void matchDomainsToOrfs(Contig contig, List<HmmSearchResult> results) {
 		for (HmmSearchResult result : results) 
-			for (Orf orf : contig.orfs()) 
-				if (orf.toString().equals(result.name) || orf.name().equals(result.name)) 
-					parseResultForDomains(orf, result);
+			for (Orf orf : contig.getOrfs(result.name)) 
+				parseResultForDomains(orf, result);
 	}
 	
 	/**
@@ -145,25 +337,6 @@ public class SubstrateDomainSearch {
 		}
 	}
 
-	/**
-	 * Print all domains to a FASTA file. 
-	 * @param contig	contig to analyze
-	 * @param path	the path of the FASTA file
-	 * @throws IOException
-	 */
-	private void printDomainsToFasta(Contig contig, String path) throws IOException {
-		List<Domain> domains = new ArrayList<Domain>();
-		for (Orf orf : contig.orfs()) {
-			List<Domain> typeDomains = orf.domains(type);
-			domains.addAll(typeDomains);
-		}
-
-		if (domains.size() == 0)
-			return;
-
-		FastaWriter.printDomainsToFasta(domains, path);
-	}
-
 	/**
 	 * Matches a list of hidden Markov model search results representing domain substrates to their corresponding 
 	 * domains.
@@ -173,19 +346,19 @@ public class SubstrateDomainSearch {
 	 */
 	private void matchSubstratesToDomains(Contig contig, List<HmmSearchResult> results, 
 			SubstrateType substrate) {
-		for (HmmSearchResult result : results) 
-			for (Orf orf : contig.orfs())
-				// Match HmmSearchResult to the appropriate orf
-				// (substrateResult.name() is orf.toString() w/domain start & end appended in this context)
-				if (result.name.indexOf(orf.toString()) != -1 || result.name.indexOf(orf.name()) != -1) 
-					// next match HmmSearchResult to appropriate domain
-					for (Domain domain : orf.domains(type)) 
-						if (result.name.indexOf(domain.name()) != -1) 
-							for (HmmSearchResultAnnotation annotation : result.annotations()) {
-								Substrate s = new Substrate(annotation, substrate);
-								if (s.score() > type.cutoff()) 
-									domain.addSubstrate(s);
-							}
+		Map<String, List<Domain>> domains = contig.indexDomains(type);
+		for (HmmSearchResult result : results) {
+			// substrate result names are the names of the domains searched
+			List<Domain> resultDomains = domains.get(result.name);
+			if (resultDomains == null)
+				continue;
+			for (Domain domain : resultDomains) 
+				for (HmmSearchResultAnnotation annotation : result.annotations()) {
+					Substrate s = new Substrate(annotation, substrate);
+					if (s.score() > type.cutoff()) 
+						domain.addSubstrate(s);
+				}
+		}
 	}
 	
 	/**
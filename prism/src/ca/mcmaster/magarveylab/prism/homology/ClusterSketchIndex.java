@@ -0,0 +1,449 @@
+package ca.mcmaster.magarveylab.prism.homology;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ca.mcmaster.magarveylab.prism.util.Files;
+import ca.mcmaster.magarveylab.wasp.session.Session;
+
+/**
+ * An index of k-mer sketches of every known cluster, used to choose the known
+ * clusters worth scoring against a detected cluster before any alignment is
+ * done.<br>
+ * <br>
+ * Protein sequences are translated to a reduced 10-letter alphabet (Murphy et
+ * al. 2000), which groups residues that frequently substitute for one another,
+ * so that k-mers are shared between homologous proteins of moderate identity.
+ * Each k-mer is hashed, and only the fraction 1/{@link #SCALE} of hashes
+ * below a fixed threshold is kept (a scaled MinHash sketch). Because the same
+ * hashes are kept for every sequence, the number of hashes shared by two
+ * sketches estimates the number of k-mers the clusters share, whatever their
+ * sizes.<br>
+ * <br>
+ * The index is built from the known cluster FASTA files the first time it is
+ * used, and is stored in a compact binary file in the identity database
+ * directory. It is rebuilt whenever a FASTA file is newer than the index.
+ *
+ * @author skinnider
+ *
+ */
+public class ClusterSketchIndex {
+
+	private static final Logger logger = Logger.getLogger(ClusterSketchIndex.class.getName());
+
+	/**
+	 * The length of the k-mers hashed.
+	 */
+	public static final int K = 6;
+
+	/**
+	 * One in SCALE k-mer hashes is kept in each sketch.
+	 */
+	public static final int SCALE = 4;
+
+	/**
+	 * Residue groups of the reduced alphabet.
+	 */
+	private static final String[] GROUPS = { "LVIM", "C", "A", "G", "ST", "P", "FYW", "EDNQ", "KR", "H" };
+
+	/**
+	 * Identifies a sketch index file, and the version of its format.
+	 */
+	private static final int MAGIC = 0x50534b01;
+
+	/**
+	 * The reduced alphabet code of each character, or -1 for characters
+	 * which are not standard residues.
+	 */
+	private static final byte[] CODES = new byte[128];
+
+	static {
+		Arrays.fill(CODES, (byte) -1);
+		for (int i = 0; i < GROUPS.length; i++)
+			for (char c : GROUPS[i].toCharArray())
+				CODES[c] = CODES[Character.toLowerCase(c)] = (byte) i;
+	}
+
+	private static final Map<String, ClusterSketchIndex> indices = new HashMap<String, ClusterSketchIndex>();
+
+	private String[] names;
+	private int[][] sketches;
+
+	private ClusterSketchIndex(String[] names, int[][] sketches) {
+		this.names = names;
+		this.sketches = sketches;
+	}
+
+	/**
+	 * Get the known cluster sketch index for the current session, building it
+	 * if it does not exist or is out of date.
+	 *
+	 * @param session
+	 *            the current session
+	 * @return the sketch index
+	 * @throws IOException
+	 *             if the known cluster sequences or the index cannot be read
+	 */
+	public static synchronized ClusterSketchIndex get(Session session) throws IOException {
+		String dir = session.subDir("identityFasta");
+		ClusterSketchIndex index = indices.get(dir);
+		if (index == null) {
+			index = load(dir);
+			indices.put(dir, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Get the number of known clusters in this index.
+	 *
+	 * @return the number of clusters
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Choose the known clusters which share the most k-mers with a set of
+	 * query sequences.
+	 *
+	 * @param fasta
+	 *            location of a FASTA file of query protein sequences
+	 * @param n
+	 *            the maximum number of clusters to choose
+	 * @return the names of up to n known clusters which share at least one
+	 *         k-mer with the query, in order of their scores
+	 * @throws IOException
+	 */
+	public List<String> candidates(String fasta, int n) throws IOException {
+		Map<String, List<String>> sequences = readFasta(new File(fasta));
+		List<String> all = new ArrayList<String>();
+		for (List<String> s : sequences.values())
+			all.addAll(s);
+		return candidates(sketch(all), n);
+	}
+
+	/**
+	 * Choose the known clusters which share the most k-mers with a query
+	 * sketch. Large clusters share more k-mers with any query by chance, so
+	 * clusters are ranked by how far the number of shared hashes exceeds the
+	 * number expected between unrelated sketches of the same sizes, relative
+	 * to its standard deviation.
+	 *
+	 * @param query
+	 *            the sketch of the query sequences
+	 * @param n
+	 *            the maximum number of clusters to choose
+	 * @return the names of up to n known clusters which share at least one
+	 *         k-mer with the query, in order of their scores
+	 */
+	public List<String> candidates(int[] query, int n) {
+		// the number of distinct hashes which can be kept in a sketch
+		double space = 1.0d * pow(GROUPS.length, K) / SCALE;
+		final double[] scores = new double[names.length];
+		List<Integer> hits = new ArrayList<Integer>();
+		for (int i = 0; i < names.length; i++) {
+			int shared = intersection(query, sketches[i]);
+			double expected = query.length * (sketches[i].length / space);
+			scores[i] = (shared - expected) / Math.sqrt(expected + 1);
+			if (shared > 0)
+				hits.add(i);
+		}
+		Collections.sort(hits, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				int c = Double.compare(scores[i2], scores[i1]);
+				return (c != 0) ? c : names[i1].compareTo(names[i2]);
+			}
+		});
+
+		List<String> candidates = new ArrayList<String>();
+		for (int i = 0; i < hits.size() && i < n; i++)
+			candidates.add(names[hits.get(i)]);
+		return candidates;
+	}
+
+	/**
+	 * Sketch a set of protein sequences.
+	 *
+	 * @param sequences
+	 *            the sequences to sketch
+	 * @return the sorted, distinct k-mer hashes kept from the sequences
+	 */
+	public static int[] sketch(List<String> sequences) {
+		long threshold = (1L << 32) / SCALE;
+		int[] hashes = new int[64];
+		int size = 0;
+		for (String sequence : sequences) {
+			long kmer = 0;
+			int length = 0;
+			for (int i = 0; i < sequence.length(); i++) {
+				char c = sequence.charAt(i);
+				int code = (c < 128) ? CODES[c] : -1;
+				if (code == -1) {
+					// k-mers do not span unknown residues or stops
+					length = 0;
+					kmer = 0;
+					continue;
+				}
+				kmer = (kmer * GROUPS.length + code) % pow(GROUPS.length, K);
+				if (++length < K)
+					continue;
+				long hash = mix(kmer) >>> 32;
+				if (hash < threshold) {
+					if (size == hashes.length)
+						hashes = Arrays.copyOf(hashes, size * 2);
+					hashes[size++] = (int) hash;
+				}
+			}
+		}
+
+		Arrays.sort(hashes, 0, size);
+		int distinct = 0;
+		for (int i = 0; i < size; i++)
+			if (distinct == 0 || hashes[i] != hashes[distinct - 1])
+				hashes[distinct++] = hashes[i];
+		return Arrays.copyOf(hashes, distinct);
+	}
+
+	/**
+	 * Count the hashes shared by two sketches.
+	 *
+	 * @param a
+	 *            the first sketch
+	 * @param b
+	 *            the second sketch
+	 * @return the number of shared hashes
+	 */
+	public static int intersection(int[] a, int[] b) {
+		int shared = 0;
+		int i = 0, j = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				shared++;
+				i++;
+				j++;
+			}
+		}
+		return shared;
+	}
+
+	/**
+	 * Load the sketch index, building it from the known cluster FASTA files if
+	 * necessary.
+	 *
+	 * @param dir
+	 *            the identity database directory
+	 * @return the sketch index
+	 * @throws IOException
+	 */
+	static ClusterSketchIndex load(String dir) throws IOException {
+		File[] files = Files.getDirectoryFiles(dir + "fasta", ".fasta");
+		if (files == null || files.length == 0)
+			throw new IOException("Could not find known cluster sequences in " + dir + "fasta");
+		File file = new File(dir + "combined" + File.separator + "sketches.bin");
+		boolean build = !file.exists();
+		for (File fasta : files)
+			if (fasta.lastModified() > file.lastModified())
+				build = true;
+
+		if (!build) {
+			try {
+				return read(file);
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Rebuilding unreadable sketch index " + file.getPath()
+						+ ": " + e.getMessage());
+			}
+		}
+
+		// every sequence is named with its cluster, followed by a '|'
+		Map<String, List<String>> clusters = new LinkedHashMap<String, List<String>>();
+		Arrays.sort(files);
+		for (File fasta : files)
+			for (Map.Entry<String, List<String>> entry : readFasta(fasta).entrySet()) {
+				String name = IdentityDatabase.cluster(entry.getKey());
+				List<String> sequences = clusters.get(name);
+				if (sequences == null) {
+					sequences = new ArrayList<String>();
+					clusters.put(name, sequences);
+				}
+				sequences.addAll(entry.getValue());
+			}
+
+		String[] names = clusters.keySet().toArray(new String[clusters.size()]);
+		int[][] sketches = new int[names.length][];
+		for (int i = 0; i < names.length; i++)
+			sketches[i] = sketch(clusters.get(names[i]));
+		ClusterSketchIndex index = new ClusterSketchIndex(names, sketches);
+
+		File parent = file.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs())
+			throw new IOException("Could not create directory " + parent.getPath());
+		index.write(file);
+		return index;
+	}
+
+	/**
+	 * Write this index to a file. Each sketch is written as the differences
+	 * between consecutive hashes, as variable-length integers.
+	 *
+	 * @param file
+	 *            the file to write
+	 * @throws IOException
+	 */
+	private void write(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(K);
+			out.writeInt(SCALE);
+			out.writeInt(names.length);
+			for (int i = 0; i < names.length; i++) {
+				out.writeUTF(names[i]);
+				writeVarint(out, sketches[i].length);
+				int previous = 0;
+				for (int hash : sketches[i]) {
+					writeVarint(out, hash - previous);
+					previous = hash;
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Read a sketch index from a file.
+	 *
+	 * @param file
+	 *            the file to read
+	 * @return the sketch index
+	 * @throws IOException
+	 *             if the file is not a sketch index built with the current
+	 *             parameters
+	 */
+	private static ClusterSketchIndex read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != K || in.readInt() != SCALE)
+				throw new IOException("sketch index was built with different parameters");
+			int size = in.readInt();
+			String[] names = new String[size];
+			int[][] sketches = new int[size][];
+			for (int i = 0; i < size; i++) {
+				names[i] = in.readUTF();
+				sketches[i] = new int[readVarint(in)];
+				int previous = 0;
+				for (int j = 0; j < sketches[i].length; j++)
+					previous = sketches[i][j] = previous + readVarint(in);
+			}
+			return new ClusterSketchIndex(names, sketches);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read the sequences in a FASTA file, grouped by name (the first word of
+	 * the definition line).
+	 *
+	 * @param file
+	 *            the file to read
+	 * @return the sequences with each name
+	 * @throws IOException
+	 */
+	private static Map<String, List<String>> readFasta(File file) throws IOException {
+		Map<String, List<String>> sequences = new LinkedHashMap<String, List<String>>();
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		try {
+			String name = null;
+			StringBuilder sequence = new StringBuilder();
+			String line = null;
+			while (true) {
+				line = br.readLine();
+				if (line == null || line.startsWith(">")) {
+					if (name != null) {
+						List<String> list = sequences.get(name);
+						if (list == null) {
+							list = new ArrayList<String>();
+							sequences.put(name, list);
+						}
+						list.add(sequence.toString());
+					}
+					if (line == null)
+						break;
+					String header = line.substring(1).trim();
+					int space = header.indexOf(' ');
+					name = (space == -1) ? header : header.substring(0, space);
+					sequence.setLength(0);
+				} else {
+					sequence.append(line.trim());
+				}
+			}
+		} finally {
+			br.close();
+		}
+		return sequences;
+	}
+
+	private static long pow(int base, int exponent) {
+		long result = 1;
+		for (int i = 0; i < exponent; i++)
+			result *= base;
+		return result;
+	}
+
+	/**
+	 * The murmur3 64-bit finalizer, used to hash k-mer codes.
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static void writeVarint(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarint(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed sketch index");
+	}
+
+}
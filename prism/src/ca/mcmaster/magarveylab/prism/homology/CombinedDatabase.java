@@ -0,0 +1,234 @@
+package ca.mcmaster.magarveylab.prism.homology;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ca.mcmaster.magarveylab.prism.blast.BlastDatabase;
+import ca.mcmaster.magarveylab.prism.blast.SmithWatermanSearch;
+
+/**
+ * A single BLAST database built from the sequences of several smaller
+ * databases, so that one BLASTp search can replace a search of each.<br>
+ * <br>
+ * Each smaller database is identified by a tag, and every sequence in the
+ * combined database is named with the tag of the database it came from,
+ * followed by a '|', so that hits can be assigned back to that database. The
+ * combined database is built with makeblastdb the first time it is used, and
+ * is rebuilt whenever one of the FASTA files it is built from is newer than
+ * it.<br>
+ * <br>
+ * The number of sequences and residues of each tag is recorded, so that the
+ * E-value of a hit can be converted to the E-value of the same hit in a
+ * search of that tag's database alone. E-values are proportional to the
+ * effective search space, which BLAST calculates by shortening the query and
+ * every database sequence by a length adjustment that depends on the size of
+ * the database; the same adjustment is used here.
+ *
+ * @author skinnider
+ *
+ */
+public class CombinedDatabase {
+
+	private static final Logger logger = Logger.getLogger(CombinedDatabase.class.getName());
+
+	private String database;
+	private Map<String, Long> lengths = new HashMap<String, Long>();
+	private Map<String, Integer> counts = new HashMap<String, Integer>();
+	private long length = 0;
+	private int sequences = 0;
+
+	/**
+	 * Instantiate a new combined database.
+	 *
+	 * @param database
+	 *            the location of the combined database, without extension
+	 */
+	protected CombinedDatabase(String database) {
+		this.database = database;
+	}
+
+	/**
+	 * Get the tag a sequence name starts with.
+	 *
+	 * @param name
+	 *            the name of a tagged sequence
+	 * @return the tag
+	 */
+	public static String tag(String name) {
+		int separator = name.indexOf('|');
+		return (separator == -1) ? name : name.substring(0, separator);
+	}
+
+	/**
+	 * Get the location of the combined BLAST database.
+	 *
+	 * @return the location of the database
+	 */
+	public String database() {
+		return database;
+	}
+
+	/**
+	 * Get the number of sequences in the combined database.
+	 *
+	 * @return the number of sequences
+	 */
+	public int sequences() {
+		return sequences;
+	}
+
+	/**
+	 * Get the total number of residues in the combined database.
+	 *
+	 * @return the number of residues
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Determine whether this database contains the sequences of a tag.
+	 *
+	 * @param tag
+	 *            the tag
+	 * @return true if the tag has sequences in this database
+	 */
+	public boolean contains(String tag) {
+		return lengths.containsKey(tag);
+	}
+
+	/**
+	 * Convert the E-value of a hit in a search of the combined database to
+	 * the E-value of the same hit in a search of a single tag's database, by
+	 * the ratio of the effective search spaces of the two databases.
+	 *
+	 * @param eValue
+	 *            the E-value in the combined database
+	 * @param queryLength
+	 *            the length of the query sequence
+	 * @param tag
+	 *            the tag of the database
+	 * @return the E-value in the tag's database
+	 */
+	public double eValue(double eValue, int queryLength, String tag) {
+		Long length = lengths.get(tag);
+		if (length == null)
+			return Double.POSITIVE_INFINITY;
+		return eValue * searchSpace(queryLength, length, counts.get(tag))
+				/ searchSpace(queryLength, this.length, sequences);
+	}
+
+	/**
+	 * Get the E-value cutoff for a search of the combined database which
+	 * finds every hit that passes an E-value cutoff in a search of any single
+	 * tag's database.
+	 *
+	 * @param eValue
+	 *            the E-value cutoff for a search of a single tag's database
+	 * @param queryLengths
+	 *            the lengths of the query sequences
+	 * @return the E-value cutoff for the combined database
+	 */
+	public double cutoff(double eValue, Collection<Integer> queryLengths) {
+		double cutoff = eValue;
+		for (int queryLength : queryLengths)
+			for (String tag : lengths.keySet())
+				cutoff = Math.max(cutoff, eValue / eValue(1.0d, queryLength, tag));
+		return cutoff;
+	}
+
+	/**
+	 * Calculate the effective search space of a query and database, as BLAST
+	 * calculates it.
+	 *
+	 * @param queryLength
+	 *            the length of the query
+	 * @param length
+	 *            the total length of the database
+	 * @param sequences
+	 *            the number of sequences in the database
+	 * @return the effective search space
+	 */
+	static double searchSpace(int queryLength, long length, int sequences) {
+		int adjustment = SmithWatermanSearch.lengthAdjustment(queryLength, length, sequences);
+		return Math.max(queryLength - adjustment, 1)
+				* (double) Math.max(length - (long) sequences * adjustment, 1);
+	}
+
+	/**
+	 * Read the FASTA files of the smaller databases and build the combined
+	 * database from them if necessary. The combined database is not built if
+	 * there are no files.
+	 *
+	 * @param files
+	 *            the FASTA file of each smaller database, keyed by tag, in
+	 *            the order in which they are combined
+	 * @param prefix
+	 *            if true, each sequence name is prefixed with its tag;
+	 *            otherwise, sequence names in the FASTA files already start
+	 *            with it
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	protected void load(Map<String, File> files, boolean prefix) throws IOException, InterruptedException {
+		File phr = new File(database + ".phr");
+		boolean build = !phr.exists() && files.size() > 0;
+		for (File file : files.values())
+			if (file.lastModified() > phr.lastModified())
+				build = true;
+		File combined = new File(database).getParentFile();
+		if (build && !combined.isDirectory() && !combined.mkdirs())
+			throw new IOException("Could not create directory " + combined.getPath());
+
+		BufferedWriter bw = build ? new BufferedWriter(new FileWriter(database + ".fa")) : null;
+		try {
+			for (Map.Entry<String, File> file : files.entrySet()) {
+				String tag = file.getKey();
+				BufferedReader br = new BufferedReader(new FileReader(file.getValue()));
+				try {
+					String line = null;
+					while ((line = br.readLine()) != null) {
+						line = line.trim();
+						if (line.length() == 0)
+							continue;
+						if (line.startsWith(">")) {
+							if (prefix)
+								line = ">" + tag + "|" + line.substring(1);
+							Integer count = counts.get(tag);
+							counts.put(tag, (count == null ? 0 : count) + 1);
+							sequences++;
+						} else {
+							Long residues = lengths.get(tag);
+							lengths.put(tag, (residues == null ? 0 : residues) + line.length());
+							length += line.length();
+						}
+						if (bw != null) {
+							bw.write(line);
+							bw.newLine();
+						}
+					}
+				} finally {
+					br.close();
+				}
+			}
+		} finally {
+			if (bw != null)
+				bw.close();
+		}
+
+		if (build) {
+			logger.log(Level.INFO, "Building combined BLAST database " + database);
+			BlastDatabase.make(database + ".fa", database);
+		}
+	}
+
+}
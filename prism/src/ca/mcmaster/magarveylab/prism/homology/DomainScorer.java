@@ -1,10 +1,14 @@
 package ca.mcmaster.magarveylab.prism.homology;
 
-import java.io.File;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import ca.mcmaster.magarveylab.enums.domains.BetaLactamDomains;
 import ca.mcmaster.magarveylab.enums.domains.DeoxySugarDomains;
@@ -32,6 +36,11 @@ import ca.mcmaster.magarveylab.wasp.session.Session;
  */
 public class DomainScorer {
 
+	/**
+	 * The E-value cutoff applied to a search against the reference domains of any single type.
+	 */
+	private static final double E_VALUE = 1E-05;
+
 	private Cluster cluster;
 	private Session session;
 
@@ -91,11 +100,15 @@ public class DomainScorer {
 		types.addAll(Arrays.asList(PrerequisiteDomains.values()));
 		types.addAll(Arrays.asList(BetaLactamDomains.values()));
 		
-		// sort and add domains
-		for (DomainType type : types) {
-			List<Domain> domains = cluster.domains(type);
-			sortDomains(domains, type);
-			sorted.addAll(domains);
+		// score every domain with reference domains in a single search, then sort and add domains
+		Map<DomainType, List<Domain>> domains = new LinkedHashMap<DomainType, List<Domain>>();
+		for (DomainType type : types)
+			domains.put(type, cluster.domains(type));
+		ReferenceDatabase db = ReferenceDatabase.get(session);
+		scoreReferenceDomains(domains, db);
+		for (Map.Entry<DomainType, List<Domain>> entry : domains.entrySet()) {
+			sortDomains(entry.getValue(), entry.getKey(), db);
+			sorted.addAll(entry.getValue());
 		}
 		
 		// write sorted list to file 
@@ -113,21 +126,63 @@ public class DomainScorer {
 		FastaWriter.printToFasta(name, sb.toString(), path);
 	}
 
-	public void sortDomains(List<Domain> domains, DomainType type) throws IOException, InterruptedException {
-		String database = session.subDir("reference") + type.family().toString().toLowerCase() + File.separator
-				+ type.toString().toLowerCase();
-		
-		if (new File(database + ".phr").exists()
-				&& domains.size() > 0) {
-			String query = session.dir() + "cluster_" + cluster.index() + "_" + type.toString().toLowerCase() + ".fa";
-			FastaWriter.printDomainsToFasta(domains, query);
+	/**
+	 * Score domains of every type against the reference domains of their own type with a single BLASTp search
+	 * against the combined reference domain database. Each query is tagged with its domain type, and hits to
+	 * reference domains of any other type are ignored. Hits are kept if they would pass the E-value cutoff in a
+	 * search of their type's own database.
+	 * @param domains	the cluster's domains of each type 
+	 * @param db		the combined reference domain database
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void scoreReferenceDomains(Map<DomainType, List<Domain>> domains, ReferenceDatabase db) 
+			throws IOException, InterruptedException {
+		Map<String, Domain> queries = new HashMap<String, Domain>();
+		Map<String, Integer> lengths = new HashMap<String, Integer>();
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<DomainType, List<Domain>> entry : domains.entrySet()) {
+			if (!db.contains(entry.getKey()))
+				continue;
+			String tag = ReferenceDatabase.tag(entry.getKey());
+			for (Domain domain : entry.getValue()) {
+				String name = tag + "|" + domain.name();
+				queries.put(name, domain);
+				lengths.put(name, domain.sequence().length());
+				sb.append(">" + name + "\n" + domain.sequence() + "\n");
+			}
+		}
+		if (queries.size() == 0)
+			return;
+
+		String query = session.dir() + "cluster_" + cluster.index() + "_reference.fa";
+		BufferedWriter bw = new BufferedWriter(new FileWriter(query));
+		bw.write(sb.toString());
+		bw.close();
+
+		BlastpSearch blast = new BlastpSearch(db.database(), query, session, 
+				String.valueOf(db.cutoff(E_VALUE, lengths.values())), db.sequences());
+		List<BlastSearchResult> results = blast.run(-1);
+		for (BlastSearchResult result : results) {
+			String tag = ReferenceDatabase.tag(result.query());
+			if (!tag.equals(ReferenceDatabase.tag(result.subject()))
+					|| db.eValue(result.eValue(), lengths.get(result.query()), tag) > E_VALUE)
+				continue;
+			Domain domain = queries.get(result.query());
+			if (domain != null)
+				domain.setReferenceDomain(result);
+		}
+	}
 
-			BlastpSearch blast = new BlastpSearch(database, query, session);
-			List<BlastSearchResult> results = blast.run(-1);
-			for (BlastSearchResult result : results) 
-				for (Domain domain : domains) 
-					if (result.query().equals(domain.name())) 
-						domain.setReferenceDomain(result);
+	/**
+	 * Sort domains of a single type by their scores to the type's reference domains, or by their own scores if
+	 * the type has no reference domains. 
+	 * @param domains	domains to sort
+	 * @param type		the type of the domains 
+	 * @param db		the combined reference domain database
+	 */
+	public void sortDomains(List<Domain> domains, DomainType type, ReferenceDatabase db) {
+		if (db.contains(type) && domains.size() > 0) {
 			Sorter.sortDomainsByReferenceScore(domains);
 		} else {
 			Sorter.sortDomainsByScore(domains);
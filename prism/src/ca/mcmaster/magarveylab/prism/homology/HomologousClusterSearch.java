@@ -4,7 +4,10 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import ca.mcmaster.magarveylab.prism.Prism;
 import ca.mcmaster.magarveylab.prism.blast.BlastSearchResult;
 import ca.mcmaster.magarveylab.prism.data.Cluster;
 import ca.mcmaster.magarveylab.prism.data.Domain;
@@ -22,6 +25,8 @@ import ca.mcmaster.magarveylab.wasp.session.Session;
  */
 public class HomologousClusterSearch {
 
+	private static final Logger logger = Logger.getLogger(HomologousClusterSearch.class.getName());
+
 	private final String extension = ".phr";
 	
 	private Cluster cluster;
@@ -69,17 +74,21 @@ public class HomologousClusterSearch {
 	
 	public void runIdentitySearch() throws IOException, InterruptedException {
 		String query = cluster.file("scaffoldOrfs");
-		String dir = session.subDir("identityFasta");
+		session.listener().updateLastDetail("Calculating cluster " + cluster.index() 
+				+ " identity to known clusters...");
+		IdentityScorer search = new IdentityScorer(query, cluster, session);
 		
-		File[] files = Files.getDirectoryFiles(dir, extension);
-		if (files != null)
-			for (File file : files) {
-				String database = file.getAbsolutePath().replace(extension, "");
-				session.listener().updateLastDetail("Calculating cluster " + cluster.index() + " identity to " 
-						+ Strings.name(database) + "...");
-				IdentityScorer search = new IdentityScorer(database, query, cluster, session);
-				search.run();
-			}
+		// if enabled, only score the known clusters which share the most k-mers with this cluster
+		Prism prism = (Prism) session.webapp();
+		int candidates = prism.config().homologyCandidates;
+		if (candidates > 0) {
+			List<String> names = ClusterSketchIndex.get(session).candidates(query, candidates);
+			logger.log(Level.INFO, "Scoring cluster " + cluster.index() + " identity to "
+					+ names.size() + " candidate known clusters");
+			search.run(names);
+		} else {
+			search.run();
+		}
 	}
 	
 	public void runDomainSearch() throws IOException, InterruptedException {
@@ -0,0 +1,89 @@
+package ca.mcmaster.magarveylab.prism.homology;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ca.mcmaster.magarveylab.prism.util.Files;
+import ca.mcmaster.magarveylab.wasp.session.Session;
+
+/**
+ * A single BLAST database containing the sequences of every known cluster
+ * used to calculate identity scores.<br>
+ * <br>
+ * Each sequence in the known cluster FASTA files is named with the name of its
+ * cluster, followed by a '|' and the name of the orf, so the name of the
+ * cluster is the tag of the sequence in the combined database.
+ *
+ * @author skinnider
+ *
+ */
+public class IdentityDatabase extends CombinedDatabase {
+
+	private static final Map<String, IdentityDatabase> databases = new HashMap<String, IdentityDatabase>();
+
+	private IdentityDatabase(String database) {
+		super(database);
+	}
+
+	/**
+	 * Get the combined identity database for the current session, building it
+	 * if it does not exist or is out of date.
+	 *
+	 * @param session
+	 *            the current session
+	 * @return the combined identity database
+	 * @throws IOException
+	 *             if the known cluster sequences cannot be read or the
+	 *             database cannot be built
+	 * @throws InterruptedException
+	 */
+	public static synchronized IdentityDatabase get(Session session) throws IOException, InterruptedException {
+		String dir = session.subDir("identityFasta");
+		IdentityDatabase db = databases.get(dir);
+		if (db == null) {
+			db = load(dir);
+			databases.put(dir, db);
+		}
+		return db;
+	}
+
+	/**
+	 * Get the name of the known cluster a subject sequence belongs to.
+	 *
+	 * @param subject
+	 *            the name of a subject sequence in the combined database
+	 * @return the name of the cluster
+	 */
+	public static String cluster(String subject) {
+		return tag(subject);
+	}
+
+	/**
+	 * Read the known cluster FASTA files and build the combined database from
+	 * them if necessary.
+	 *
+	 * @param dir
+	 *            the identity database directory
+	 * @return the combined identity database
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private static IdentityDatabase load(String dir) throws IOException, InterruptedException {
+		File[] files = Files.getDirectoryFiles(dir + "fasta", ".fasta");
+		if (files == null || files.length == 0)
+			throw new IOException("Could not find known cluster sequences in " + dir + "fasta");
+		Arrays.sort(files);
+
+		Map<String, File> clusters = new LinkedHashMap<String, File>();
+		for (File file : files)
+			clusters.put(file.getName().replace(".fasta", ""), file);
+		IdentityDatabase db = new IdentityDatabase(dir + "combined" + File.separator + "all");
+		db.load(clusters, false);
+		return db;
+	}
+
+}
@@ -1,9 +1,15 @@
 package ca.mcmaster.magarveylab.prism.homology;
 
+import java.io.BufferedReader;
+import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
+import ca.mcmaster.magarveylab.prism.Prism;
 import ca.mcmaster.magarveylab.prism.blast.BlastpSearch;
 import ca.mcmaster.magarveylab.prism.blast.BlastSearchResult;
 import ca.mcmaster.magarveylab.prism.data.Cluster;
@@ -12,43 +18,143 @@ import ca.mcmaster.magarveylab.prism.util.Sorter;
 import ca.mcmaster.magarveylab.prism.util.Strings;
 import ca.mcmaster.magarveylab.wasp.session.Session;
 
+/**
+ * Calculate the identity of a cluster to every known cluster with a single BLASTp search against the combined
+ * identity database. Hits are assigned to the known cluster each subject sequence belongs to and scored
+ * separately for each cluster, as though each had been searched on its own. Alternatively, only a set of
+ * candidate clusters chosen by {@link ClusterSketchIndex} can be searched, each against its own database.
+ * @author skinnider
+ *
+ */
 public class IdentityScorer {
 
+	/**
+	 * The E-value cutoff applied to a search against any single known cluster.
+	 */
+	private static final double E_VALUE = 1E-05;
+
 	private String query;
-	private String database;
 	private Cluster cluster;
 	private Session session;
 	
 	/**
-	 * Instantiate a new cluster BLASTp search against a precompiled cluster BLAST database. 
-	 * @param database	location of the database
+	 * Instantiate a new cluster BLASTp search against the combined identity database. 
 	 * @param query		location of the query file
-	 * @param cluster	the cluster this search is BLASTing against
+	 * @param cluster	the cluster to score
 	 * @param session	the current session
 	 */
-	public IdentityScorer(String database, String query, Cluster cluster, Session session) {
-		this.database = database;
+	public IdentityScorer(String query, Cluster cluster, Session session) {
 		this.query = query;
 		this.cluster = cluster;
 		this.session = session;
 	}
 	
 	/**
-	 * Execute a BLASTp search.
+	 * Execute a BLASTp search and set the identity score of each of the cluster's homologs.
 	 * @throws IOException
 	 * @throws InterruptedException 
 	 */
-	public void run() throws IOException, InterruptedException {		
-		BlastpSearch blast = new BlastpSearch(database, query, session);
+	public void run() throws IOException, InterruptedException {
+		IdentityDatabase db = IdentityDatabase.get(session);
+		
+		// search with a cutoff loose enough for every cluster, and apply each cluster's own cutoff afterwards
+		Map<String, Integer> lengths = queryLengths();
+		double cutoff = db.cutoff(E_VALUE, lengths.values());
+		BlastpSearch blast = new BlastpSearch(db.database(), query, session, String.valueOf(cutoff), 
+				db.sequences());
 		List<BlastSearchResult> results = blast.run(-1);
+		Map<String, List<BlastSearchResult>> hits = demultiplex(results, lengths, db);
 
-		List<BlastSearchResult> filtered = doPreferentialMatching(results);
-		double score = score(filtered);
+		for (HomologousCluster hc : cluster.homologs()) {
+			List<BlastSearchResult> clusterHits = hits.get(hc.name());
+			if (clusterHits == null)
+				clusterHits = new ArrayList<BlastSearchResult>();
+			List<BlastSearchResult> filtered = doPreferentialMatching(clusterHits);
+			hc.setIdentityScore(score(filtered));
+		}
+	}
+	
+	/**
+	 * Execute a BLASTp search against the database of each of a set of candidate known clusters, and set the 
+	 * identity score of each of the cluster's homologs. Homologs which are not candidates are given an identity
+	 * score of 0.
+	 * @param candidates	names of the known clusters to search 
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void run(List<String> candidates) throws IOException, InterruptedException {
+		final String dir = session.subDir("identityFasta");
+		List<Callable<List<BlastSearchResult>>> tasks = new ArrayList<Callable<List<BlastSearchResult>>>();
+		for (final String name : candidates)
+			tasks.add(new Callable<List<BlastSearchResult>>() {
+				@Override
+				public List<BlastSearchResult> call() throws Exception {
+					BlastpSearch blast = new BlastpSearch(dir + name, query, session);
+					return blast.run(-1);
+				}
+			});
+		Prism prism = (Prism) session.webapp();
+		List<List<BlastSearchResult>> results = prism.executor().invokeAll(tasks);
 
-		String name = Strings.name(database);
-		for (HomologousCluster hc : cluster.homologs())
-			if (hc.name().equals(name))
-				hc.setIdentityScore(score);
+		Map<String, List<BlastSearchResult>> hits = new HashMap<String, List<BlastSearchResult>>();
+		for (int i = 0; i < candidates.size(); i++)
+			hits.put(candidates.get(i), results.get(i));
+		for (HomologousCluster hc : cluster.homologs()) {
+			List<BlastSearchResult> clusterHits = hits.get(hc.name());
+			double score = 0.0d;
+			if (clusterHits != null)
+				score = score(doPreferentialMatching(clusterHits));
+			hc.setIdentityScore(score);
+		}
+	}
+	
+	/**
+	 * Split the results of a search against the combined identity database into the results for each known
+	 * cluster, discarding hits which would not pass the E-value cutoff in a search against that cluster alone.
+	 * @param results	results of the combined search
+	 * @param lengths	the length of each query sequence, by name
+	 * @param db		the combined identity database
+	 * @return			the results for each known cluster, by cluster name
+	 */
+	private Map<String, List<BlastSearchResult>> demultiplex(List<BlastSearchResult> results, 
+			Map<String, Integer> lengths, IdentityDatabase db) {
+		Map<String, List<BlastSearchResult>> hits = new HashMap<String, List<BlastSearchResult>>();
+		for (BlastSearchResult result : results) {
+			String name = IdentityDatabase.cluster(result.subject());
+			Integer length = lengths.get(result.query());
+			if (length == null || db.eValue(result.eValue(), length, name) > E_VALUE)
+				continue;
+			List<BlastSearchResult> clusterHits = hits.get(name);
+			if (clusterHits == null) {
+				clusterHits = new ArrayList<BlastSearchResult>();
+				hits.put(name, clusterHits);
+			}
+			clusterHits.add(result);
+		}
+		return hits;
+	}
+	
+	/**
+	 * Read the length of each sequence in the query file.
+	 * @return	the length of each query sequence, by name
+	 * @throws IOException
+	 */
+	private Map<String, Integer> queryLengths() throws IOException {
+		Map<String, Integer> lengths = new HashMap<String, Integer>();
+		BufferedReader br = new BufferedReader(new FileReader(query));
+		String name = null;
+		String line = null;
+		while ((line = br.readLine()) != null) {
+			line = line.trim();
+			if (line.startsWith(">")) {
+				name = line.substring(1).split("\\s+")[0];
+				lengths.put(name, 0);
+			} else if (name != null) {
+				lengths.put(name, lengths.get(name) + line.length());
+			}
+		}
+		br.close();
+		return lengths;
 	}
 	
 	/**
@@ -57,7 +163,7 @@ public class IdentityScorer {
 	 * @param results
 	 * @return
 	 */
-	private List<BlastSearchResult> doPreferentialMatching(List<BlastSearchResult> results) {
+	List<BlastSearchResult> doPreferentialMatching(List<BlastSearchResult> results) {
 		List<BlastSearchResult> filtered = new ArrayList<BlastSearchResult>();
 		List<String> queries = new ArrayList<String>();
 		List<String> subjects = new ArrayList<String>();
@@ -0,0 +1,114 @@
+package ca.mcmaster.magarveylab.prism.homology;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ca.mcmaster.magarveylab.enums.domains.DomainType;
+import ca.mcmaster.magarveylab.prism.util.Files;
+import ca.mcmaster.magarveylab.wasp.session.Session;
+
+/**
+ * A single BLAST database containing the reference domains of every domain
+ * type, used to sort a cluster's domains for dereplication.<br>
+ * <br>
+ * Each reference domain database (reference/&lt;family&gt;/&lt;type&gt;) is
+ * copied into the combined database with every sequence name prefixed by the
+ * family and type it is a reference for, which is the tag of the type's
+ * sequences in the combined database.
+ *
+ * @author skinnider
+ *
+ */
+public class ReferenceDatabase extends CombinedDatabase {
+
+	private static final Map<String, ReferenceDatabase> databases = new HashMap<String, ReferenceDatabase>();
+
+	private ReferenceDatabase(String database) {
+		super(database);
+	}
+
+	/**
+	 * Get the combined reference domain database for the current session,
+	 * building it if it does not exist or is out of date.
+	 *
+	 * @param session
+	 *            the current session
+	 * @return the combined reference domain database
+	 * @throws IOException
+	 *             if the reference domains cannot be read or the database
+	 *             cannot be built
+	 * @throws InterruptedException
+	 */
+	public static synchronized ReferenceDatabase get(Session session) throws IOException, InterruptedException {
+		String dir = session.subDir("reference");
+		ReferenceDatabase db = databases.get(dir);
+		if (db == null) {
+			db = load(dir);
+			databases.put(dir, db);
+		}
+		return db;
+	}
+
+	/**
+	 * Get the tag which identifies the reference domains of a domain type,
+	 * which is also the location of the type's own database within the
+	 * reference directory.
+	 *
+	 * @param type
+	 *            the domain type
+	 * @return the tag of the domain type
+	 */
+	public static String tag(DomainType type) {
+		return type.family().toString().toLowerCase() + "/" + type.toString().toLowerCase();
+	}
+
+	/**
+	 * Determine whether this database contains reference domains of a domain
+	 * type.
+	 *
+	 * @param type
+	 *            the domain type
+	 * @return true if the type has reference domains
+	 */
+	public boolean contains(DomainType type) {
+		return contains(tag(type));
+	}
+
+	/**
+	 * Read the reference domain FASTA files and build the combined database
+	 * from them if necessary. Only types with a reference domain database are
+	 * included, so the combined database is empty if there are none.
+	 *
+	 * @param dir
+	 *            the reference domain directory
+	 * @return the combined reference domain database
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private static ReferenceDatabase load(String dir) throws IOException, InterruptedException {
+		Map<String, File> types = new LinkedHashMap<String, File>();
+		File[] families = new File(dir).listFiles();
+		if (families != null) {
+			Arrays.sort(families);
+			for (File family : families) {
+				if (!family.isDirectory() || family.getName().equals("combined"))
+					continue;
+				File[] fasta = Files.getDirectoryFiles(family.getPath(), ".fasta");
+				if (fasta == null)
+					continue;
+				Arrays.sort(fasta);
+				for (File file : fasta)
+					if (new File(file.getPath().replace(".fasta", ".phr")).exists())
+						types.put(family.getName() + "/" + file.getName().replace(".fasta", ""), file);
+			}
+		}
+		ReferenceDatabase db = new ReferenceDatabase(dir + "combined" + File.separator + "all");
+		db.load(types, true);
+		return db;
+	}
+
+}
@@ -0,0 +1,473 @@
+package ca.mcmaster.magarveylab.prism.orfs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import ca.mcmaster.magarveylab.prism.data.Orf;
+import ca.mcmaster.magarveylab.prism.data.PackedSequence;
+import ca.mcmaster.magarveylab.prism.util.SearchExecutor;
+import ca.mcmaster.magarveylab.prism.util.Sorter;
+
+/**
+ * Find all open reading frames above a minimum size in all six frames of a
+ * nucleotide sequence, without a gene prediction model.<br>
+ * <br>
+ * The packed sequence is encoded once as a byte array, and all six frames are
+ * scanned in a single pass: for each frame, the scanner tracks the start of
+ * the open reading frame being extended, if any, and closes it at the first
+ * stop codon more than 60 nt downstream. Shorter stop codons are read through,
+ * and a start codon is only used if it lies beyond the last stop codon in its
+ * frame. The reverse strand is read from the end of the forward strand rather
+ * than copied, and orfs are translated with a 64-entry codon table (NCBI
+ * translation table 11).<br>
+ * <br>
+ * Orfs are found and translated separately from being named, so several
+ * contigs can be scanned concurrently while orfs are still numbered in contig
+ * order.<br>
+ * <br>
+ * If no stop codon closes an open reading frame, it is extended to the end of
+ * the sequence and scanning of that strand ends with it, so no orf which
+ * starts after it on the same strand is reported.<br>
+ * <br>
+ * Orfs are not translated during the scan. Their coordinates are stored in an
+ * {@link OrfTable} which references the packed sequence, and each orf is
+ * translated from the table when its amino acid sequence is requested.
+ *
+ * @author skinnider
+ *
+ */
+public class OrfScanner {
+
+	/**
+	 * The minimum length of an open reading frame, in nucleotides.
+	 */
+	public static final int MIN_ORF_SIZE = 60;
+
+	/**
+	 * Amino acids encoded by each codon, indexed by the two-bit codes of its
+	 * nucleotides (A, C, G, T).
+	 */
+	private static final char[] AMINO_ACIDS = "KNKNTTTTRSRSIIMIQHQHPPPPRRRRLLLLEDEDAAAAGGGGVVVV*Y*YSSSS*CWCLFLF"
+			.toCharArray();
+
+	/**
+	 * Amino acids encoded by each codon at the start of an orf, where
+	 * alternative start codons are translated as methionine.
+	 */
+	private static final char[] INITIAL_AMINO_ACIDS = "KNKNTTTTRSRSIIMIQHQHPPPPRRRRLLMLEDEDAAAAGGGGVVVV*Y*YSSSS*CWCLFMF"
+			.toCharArray();
+
+	/**
+	 * Amino acid for any codon containing an unknown nucleotide.
+	 */
+	private static final char UNKNOWN_AMINO_ACID = 'X';
+
+	/**
+	 * Flag set on the code of any character other than A, C, G or T.
+	 */
+	private static final byte UNKNOWN = 4;
+
+	/**
+	 * Flag set on the code of a lowercase nucleotide. Lowercase codons are
+	 * translated, but are not recognized as start or stop codons.
+	 */
+	private static final byte LOWERCASE = 8;
+
+	private static final byte[] CODES = new byte[128];
+	private static final boolean[] START = new boolean[64];
+	private static final boolean[] STOP = new boolean[64];
+
+	static {
+		Arrays.fill(CODES, (byte) (UNKNOWN | LOWERCASE));
+		String nucleotides = "ACGT";
+		for (int i = 0; i < nucleotides.length(); i++) {
+			char c = nucleotides.charAt(i);
+			CODES[c] = (byte) i;
+			CODES[Character.toLowerCase(c)] = (byte) (i | LOWERCASE);
+		}
+		CODES['N'] = UNKNOWN;
+		for (String codon : new String[] { "ATG", "GTG", "TTG" })
+			START[codon(codon)] = true;
+		for (String codon : new String[] { "TAA", "TAG", "TGA" })
+			STOP[codon(codon)] = true;
+	}
+
+	private int counter = 1;
+
+	/**
+	 * Get the index of a codon in the codon tables.
+	 *
+	 * @param codon
+	 *            an uppercase codon
+	 * @return the index of the codon
+	 */
+	private static int codon(String codon) {
+		return CODES[codon.charAt(0)] << 4 | CODES[codon.charAt(1)] << 2
+				| CODES[codon.charAt(2)];
+	}
+
+	/**
+	 * Find all open reading frames in both strands of a nucleotide sequence.
+	 * Orfs are named consecutively over all sequences scanned by this scanner,
+	 * first on the forward strand and then on the reverse strand, in order of
+	 * their start position on each strand.
+	 *
+	 * @param sequence
+	 *            the nucleotide sequence to scan
+	 * @return all open reading frames in the sequence, sorted by position
+	 */
+	public List<Orf> scan(PackedSequence sequence) {
+		return name(find(sequence));
+	}
+
+	/**
+	 * Find all open reading frames in each of a list of nucleotide sequences,
+	 * scanning the sequences concurrently. Orfs are named in the same order
+	 * as if each sequence had been scanned in turn with
+	 * {@link #scan(PackedSequence)}, regardless of the order in which the scans
+	 * complete.
+	 *
+	 * @param sequences
+	 *            the nucleotide sequences to scan
+	 * @param executor
+	 *            the executor used to scan sequences concurrently
+	 * @return all open reading frames in each sequence, sorted by position
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public List<List<Orf>> scan(List<PackedSequence> sequences,
+			SearchExecutor executor) throws IOException, InterruptedException {
+		List<Callable<Scan>> tasks = new ArrayList<Callable<Scan>>();
+		for (final PackedSequence sequence : sequences)
+			tasks.add(new Callable<Scan>() {
+				@Override
+				public Scan call() {
+					return find(sequence);
+				}
+			});
+		List<List<Orf>> orfs = new ArrayList<List<Orf>>();
+		for (Scan scan : executor.invokeAll(tasks))
+			orfs.add(name(scan));
+		return orfs;
+	}
+
+	/**
+	 * Find all open reading frames in both strands of a nucleotide sequence,
+	 * without naming them. This method does not modify the state of the
+	 * scanner, and can be called from any thread.
+	 *
+	 * @param sequence
+	 *            the nucleotide sequence to scan
+	 * @return the unnamed open reading frames in the sequence
+	 */
+	private static Scan find(PackedSequence sequence) {
+		int length = sequence.length();
+		byte[] bases = new byte[length];
+		char[] buffer = new char[8192];
+		for (int start = 0; start < length; start += buffer.length) {
+			int end = Math.min(length, start + buffer.length);
+			sequence.getChars(start, end, buffer, 0);
+			for (int i = start; i < end; i++)
+				bases[i] = code(buffer[i - start]);
+		}
+
+		// runs of N on each strand, in the coordinates of that strand
+		int[][] masked = sequence.maskedIntervals();
+		int[][] reverseMasked = new int[masked.length][];
+		for (int r = 0; r < masked.length; r++)
+			reverseMasked[masked.length - 1 - r] = new int[] {
+					length - masked[r][1], length - masked[r][0] };
+
+		Strand forward = new Strand();
+		Strand reverse = new Strand();
+		scan(forward, bases, masked, false);
+		scan(reverse, bases, reverseMasked, true);
+
+		Scan scan = new Scan();
+		scan.sequence = sequence;
+		scan.forward = forward.close(length);
+		scan.reverse = reverse.close(length);
+		return scan;
+	}
+
+	/**
+	 * Read every codon of one strand. Codons which lie entirely within a run
+	 * of N can neither start nor stop an orf, so they are skipped, except for
+	 * the first codon of the strand, which always starts an orf.
+	 *
+	 * @param strand
+	 *            the strand to read
+	 * @param bases
+	 *            the codes of the forward strand
+	 * @param masked
+	 *            the runs of N on this strand, in the coordinates of this
+	 *            strand
+	 * @param reverse
+	 *            true if this is the reverse strand
+	 */
+	private static void scan(Strand strand, byte[] bases, int[][] masked,
+			boolean reverse) {
+		int length = bases.length;
+		int r = 0;
+		for (int i = 0; i < length - 2; i++) {
+			while (r < masked.length && masked[r][1] < i + 3)
+				r++;
+			if (i > 0 && r < masked.length && masked[r][0] <= i) {
+				i = masked[r][1] - 3;
+				continue;
+			}
+			if (reverse) {
+				// codon i of the reverse complement
+				strand.read(i, complement(bases[length - 1 - i]),
+						complement(bases[length - 2 - i]),
+						complement(bases[length - 3 - i]));
+			} else {
+				strand.read(i, bases[i], bases[i + 1], bases[i + 2]);
+			}
+		}
+	}
+
+	/**
+	 * Find all open reading frames in both strands of a nucleotide sequence,
+	 * without creating orfs.
+	 *
+	 * @param sequence
+	 *            the nucleotide sequence to scan
+	 * @return a table of the open reading frames in the sequence, with those
+	 *         on the forward strand first
+	 */
+	static OrfTable table(PackedSequence sequence) {
+		return table(find(sequence));
+	}
+
+	/**
+	 * Store the open reading frames found in a single sequence in a table.
+	 *
+	 * @param scan
+	 *            the unnamed open reading frames in the sequence
+	 * @return a table of the open reading frames, with those on the forward
+	 *         strand first
+	 */
+	private static OrfTable table(Scan scan) {
+		int length = scan.sequence.length();
+		OrfTable table = new OrfTable(scan.sequence);
+		for (int i = 0; i < scan.forward.length; i++)
+			table.add(start(scan.forward[i]), end(scan.forward[i]), false);
+		for (int i = 0; i < scan.reverse.length; i++)
+			table.add(length - end(scan.reverse[i]),
+					length - start(scan.reverse[i]), true);
+		return table;
+	}
+
+	/**
+	 * Create and name the orfs found in a single sequence.
+	 *
+	 * @param scan
+	 *            the unnamed open reading frames in the sequence
+	 * @return all open reading frames in the sequence, sorted by position
+	 */
+	private List<Orf> name(Scan scan) {
+		OrfTable table = table(scan);
+		List<Orf> orfs = new ArrayList<Orf>();
+		for (int row = 0; row < table.size(); row++)
+			orfs.add(newOrf(table, row));
+		Sorter.sortOrfs(orfs);
+		return orfs;
+	}
+
+	/**
+	 * Get the start of an orf from its packed start and end.
+	 *
+	 * @param orf
+	 *            the packed start and end of the orf
+	 * @return the start of the orf on its own strand
+	 */
+	private static int start(long orf) {
+		return (int) (orf >>> 32);
+	}
+
+	/**
+	 * Get the end of an orf from its packed start and end.
+	 *
+	 * @param orf
+	 *            the packed start and end of the orf
+	 * @return the end of the orf on its own strand
+	 */
+	private static int end(long orf) {
+		return (int) orf;
+	}
+
+	/**
+	 * Get the code of the complement of a nucleotide.
+	 *
+	 * @param code
+	 *            the code of the nucleotide
+	 * @return the code of the complementary nucleotide, with the same flags
+	 */
+	private static byte complement(byte code) {
+		return (byte) ((code & ~3) | (3 - (code & 3)));
+	}
+
+	/**
+	 * Get the code of a nucleotide.
+	 *
+	 * @param c
+	 *            the nucleotide
+	 * @return the code of the nucleotide, with any flags
+	 */
+	private static byte code(char c) {
+		return c < CODES.length ? CODES[c] : UNKNOWN | LOWERCASE;
+	}
+
+	/**
+	 * Translate an open reading frame, omitting any incomplete final codon and
+	 * a final stop codon.
+	 *
+	 * @param sequence
+	 *            the sequence containing the orf
+	 * @param start
+	 *            the start of the orf on the forward strand
+	 * @param end
+	 *            the end of the orf on the forward strand
+	 * @param reverse
+	 *            true if the orf is on the reverse strand
+	 * @return the amino acid sequence of the orf
+	 */
+	static String translate(PackedSequence sequence, int start, int end,
+			boolean reverse) {
+		char[] bases = new char[end - start];
+		sequence.getChars(start, end, bases, 0);
+		char[] protein = new char[bases.length / 3];
+		for (int k = 0; k < protein.length; k++) {
+			int b0, b1, b2;
+			if (reverse) {
+				// codon k of the reverse complement
+				int i = bases.length - 1 - k * 3;
+				b0 = complement(code(bases[i]));
+				b1 = complement(code(bases[i - 1]));
+				b2 = complement(code(bases[i - 2]));
+			} else {
+				int i = k * 3;
+				b0 = code(bases[i]);
+				b1 = code(bases[i + 1]);
+				b2 = code(bases[i + 2]);
+			}
+			if (((b0 | b1 | b2) & UNKNOWN) != 0) {
+				protein[k] = UNKNOWN_AMINO_ACID;
+			} else {
+				int codon = (b0 & 3) << 4 | (b1 & 3) << 2 | (b2 & 3);
+				protein[k] = k == 0 ? INITIAL_AMINO_ACIDS[codon]
+						: AMINO_ACIDS[codon];
+			}
+		}
+		int size = protein.length;
+		if (size > 0 && protein[size - 1] == '*')
+			size--;
+		return new String(protein, 0, size);
+	}
+
+	/**
+	 * Create a new orf found by scanning a sequence.
+	 *
+	 * @param table
+	 *            the table of orfs found in the sequence
+	 * @param row
+	 *            the row of the orf in the table
+	 * @return the new orf
+	 */
+	private Orf newOrf(OrfTable table, int row) {
+		String orfName = "orf" + String.format("%05d", counter++);
+		Orf orf = new Orf(orfName, table, row);
+		orf.setMode(GenePredictionModes.ALL_ORFS);
+		return orf;
+	}
+
+	/**
+	 * The unnamed open reading frames found in a single sequence.
+	 */
+	private static class Scan {
+		private PackedSequence sequence;
+		private long[] forward;
+		private long[] reverse;
+	}
+
+	/**
+	 * The state of the three frames of one strand during a scan.
+	 */
+	private static class Strand {
+
+		private int[] open = new int[] { -1, -1, -1 };
+		private long[] orfs = new long[16];
+		private int size = 0;
+
+		/**
+		 * Read the codon at a position of this strand.
+		 *
+		 * @param i
+		 *            the position of the codon
+		 * @param b0
+		 *            the code of the first nucleotide
+		 * @param b1
+		 *            the code of the second nucleotide
+		 * @param b2
+		 *            the code of the third nucleotide
+		 */
+		private void read(int i, int b0, int b1, int b2) {
+			int frame = i % 3;
+			boolean known = ((b0 | b1 | b2) & (UNKNOWN | LOWERCASE)) == 0;
+			int codon = (b0 & 3) << 4 | (b1 & 3) << 2 | (b2 & 3);
+			int start = open[frame];
+			if (start == -1) {
+				// the first codon always starts an orf
+				if (i == 0 || known && START[codon])
+					open[frame] = i;
+			} else if (known && STOP[codon] && i - start > MIN_ORF_SIZE) {
+				add(start, i + 3);
+				open[frame] = -1;
+			}
+		}
+
+		/**
+		 * Add an orf to this strand.
+		 *
+		 * @param start
+		 *            the start of the orf
+		 * @param end
+		 *            the end of the orf
+		 */
+		private void add(int start, int end) {
+			if (size == orfs.length)
+				orfs = Arrays.copyOf(orfs, size * 2);
+			orfs[size++] = (long) start << 32 | end;
+		}
+
+		/**
+		 * Finish scanning this strand. The first orf left open is extended to
+		 * the end of the sequence, and any orf starting after it is discarded.
+		 *
+		 * @param length
+		 *            the length of the sequence
+		 * @return the start and end of each orf, packed into a single value
+		 *         and sorted by start
+		 */
+		private long[] close(int length) {
+			int last = Integer.MAX_VALUE;
+			for (int start : open)
+				if (start != -1 && start < last)
+					last = start;
+			if (last != Integer.MAX_VALUE)
+				add(last, length);
+			long[] sorted = Arrays.copyOf(orfs, size);
+			Arrays.sort(sorted);
+			int count = 0;
+			while (count < sorted.length && (int) (sorted[count] >>> 32) <= last)
+				count++;
+			return Arrays.copyOf(sorted, count);
+		}
+
+	}
+
+}
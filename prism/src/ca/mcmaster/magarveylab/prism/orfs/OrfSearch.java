@@ -2,11 +2,11 @@ package ca.mcmaster.magarveylab.prism.orfs;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -16,12 +16,14 @@ import ca.mcmaster.magarveylab.enums.FileType;
 import ca.mcmaster.magarveylab.prism.Prism;
 import ca.mcmaster.magarveylab.prism.data.Contig;
 import ca.mcmaster.magarveylab.prism.data.Genome;
+import ca.mcmaster.magarveylab.prism.data.IntervalIndex;
 import ca.mcmaster.magarveylab.prism.data.Orf;
+import ca.mcmaster.magarveylab.prism.data.PackedSequence;
 import ca.mcmaster.magarveylab.prism.data.Organism;
 import ca.mcmaster.magarveylab.prism.fasta.SequenceCleaner;
 import ca.mcmaster.magarveylab.prism.fasta.FastaReader;
 import ca.mcmaster.magarveylab.prism.fasta.FastaUtil;
-import ca.mcmaster.magarveylab.prism.fasta.FastaWriter;
+import ca.mcmaster.magarveylab.prism.genome.ContigIndex;
 import ca.mcmaster.magarveylab.prism.util.GenbankParser;
 import ca.mcmaster.magarveylab.prism.util.Sorter;
 import ca.mcmaster.magarveylab.prism.util.Files;
@@ -39,15 +41,10 @@ import ca.mcmaster.magarveylab.wasp.session.Session;
  */
 public class OrfSearch {
 	
-	/**
-	 * The minimum length of an open reading frame, in nucleotides. 
-	 */
-	private static final int minOrfSize = 60;
-	
-	private int counter = 1;
 	private Genome genome;
 	private PrismConfig config;
 	private Session session;
+	private OrfScanner scanner = new OrfScanner();
 
 	private final Logger logger = Logger.getLogger(OrfSearch.class.getName());
 	
@@ -74,13 +71,14 @@ public class OrfSearch {
 		String filename = genome.filepath();
 
 		// read contigs into genome object 
+		Prism prism = (Prism) session.webapp();
 		FileType type = Files.getFileType(filename);
 		if (type == FileType.GENBANK) {
 			logger.log(Level.INFO, "Set input file format to GenBank");
-			GenbankParser.readGenbankFile(genome, filename, session.root(), session.dir());
+			GenbankParser.readGenbankFile(genome, filename, prism.executor());
 		} else if (type == FileType.FASTA) {
 			logger.log(Level.INFO, "Set input file format to FASTA");
-			FastaReader.readFastaFile(genome);
+			FastaReader.readFastaFile(genome, prism.executor());
 		}
 		trimContigs(genome);
 
@@ -105,15 +103,16 @@ public class OrfSearch {
 		// remove overlap between different modes 
 		removeOverlap();
 		
-		// set files for each contig
+		// set files for each contig, and for the whole genome
 		for (Contig contig : genome.contigs())
 			FastaUtil.setFiles(contig, session);
+		FastaUtil.setFiles(genome, session);
 
-		// print each contig's orfs to file
+		// print all orfs to a single file, tagged by contig
+		ContigIndex index = new ContigIndex(genome);
+		index.printOrfs(genome.getFile("orfs"));
 		for (Contig contig : genome.contigs())
-			if (contig.orfs().size() > 0)
-				FastaWriter.printOrfsToFasta(contig.orfs(),
-						contig.getFile("orfs"));
+			contig.indexOrfs();
 		
 		// set organism information from FASTA genome  
 		if (type == FileType.FASTA)
@@ -175,16 +174,16 @@ public class OrfSearch {
 		
 		for (Contig contig : genome.contigs()) {
 			List<Orf> orfs = contig.orfs();
-			Iterator<Orf> itr1 = orfs.iterator();
-			loop1: while (itr1.hasNext()) {
-				Orf orf1 = itr1.next();
-				Iterator<Orf> itr2 = orfs.iterator();
-				while (itr2.hasNext()) {
-					Orf orf2 = itr2.next();
+			IntervalIndex<Orf> index = new IntervalIndex<Orf>(orfs);
+			Set<Orf> removed = new HashSet<Orf>();
+			loop1: for (Orf orf1 : orfs) {
+				// only orfs which overlap orf1 need to be compared
+				for (Orf orf2 : index.overlapping(orf1)) {
+					if (orf1 == orf2 || removed.contains(orf2))
+						continue;
 					int start1 = orf1.frame().equals("+") ? orf1.start() : orf1.end();
 					int start2 = orf2.frame().equals("+") ? orf2.start() : orf2.end();
-					if (orf1 != orf2 && orf1.overlaps(orf2)
-							&& orf1.frame().equals(orf2.frame())
+					if (orf1.frame().equals(orf2.frame())
 							&& start1 % 3 == start2 % 3) {
 						String partial1 = orf1.getPartial();
 						String partial2 = orf2.getPartial();
@@ -193,45 +192,50 @@ public class OrfSearch {
 						// remove partial orfs that overlap with complete orfs 
 						if (partial1 != null && partial1.contains("1")
 								&& partial2 != null && !partial2.contains("1")) {
-//							System.out.println("Removed " + orf1.name() + " ("
-//									+ orf1.start() + "-" + orf1.end()
-//									+ "): orf is partial and overlaps "
-//									+ orf2.name() + " (" + orf2.start() + "-"
-//									+ orf2.end() + ")");
-							itr1.remove();
+							removed.add(orf1);
 							continue loop1;
 						}
 						// remove lower priority method orfs 
 						if (priority2 > priority1) {
-//							System.out.println("Removed " + orf1.name() + " ("
-//									+ orf1.start() + "-" + orf1.end()
-//									+ ") with frame " + orf1.frame() + " for overlap with " + orf2.name()
-//									+ " (" + orf2.start() + "-" + orf2.end()
-//									+ ") with frame " + orf1.frame());
-							itr1.remove();
+							removed.add(orf1);
 							continue loop1;
 						}
 					}
 				}
 			}
+			contig.removeOrfs(removed);
 		}
 	}
 	
 	/**
 	 * Find all open reading frames within the complete set of contigs in a user-submitted genome
-	 * or other sequence file.
+	 * or other sequence file. Contigs are scanned concurrently if multiple 
+	 * threads are enabled.
 	 * @param genome	genome to analyze 
 	 * @throws IOException
+	 * @throws InterruptedException
 	 * @throws BadSequenceException
 	 */
-	private void findAllOrfs(Genome genome) throws IOException, BadSequenceException {
+	private void findAllOrfs(Genome genome) throws IOException, InterruptedException,
+			BadSequenceException {
 		List<Contig> contigs = genome.contigs();
 		try {
+			// clean sequences
+			List<PackedSequence> sequences = new ArrayList<PackedSequence>();
 			for (Contig contig : contigs) {
-				List<Orf> orfs = findOrfs(contig);
+				PackedSequence clean = SequenceCleaner.clean(contig.sequence());
+				contig.setSequence(clean);
+				sequences.add(clean);
+			}
+			
+			// scan contigs concurrently; orfs are named in contig order
+			Prism prism = (Prism) session.webapp();
+			List<List<Orf>> contigOrfs = scanner.scan(sequences, prism.executor());
+			for (int i = 0; i < contigs.size(); i++) {
+				List<Orf> orfs = contigOrfs.get(i);
 				logger.log(Level.INFO, "Found " + orfs.size() + " potential coding sequences within contig " 
-						+ (contigs.indexOf(contig) + 1) + " of " + contigs.size());
-				contig.addOrfs(orfs);	
+						+ (i + 1) + " of " + contigs.size());
+				contigs.get(i).addOrfs(orfs);	
 			}	
 		} catch (CompoundNotFoundError e) {
 			throw new BadSequenceException();
@@ -246,7 +250,7 @@ public class OrfSearch {
 	 */
 	public List<Orf> findOrfs(Contig contig) throws CompoundNotFoundError {
 		// clean sequence
-		String clean = SequenceCleaner.clean(contig.sequence());
+		PackedSequence clean = SequenceCleaner.clean(contig.sequence());
 		contig.setSequence(clean);
 		
 		// find orfs
@@ -257,88 +261,10 @@ public class OrfSearch {
 	/**
 	 * Manually find all orfs with length > 60 nt within a single contig. 
 	 * @param contig		the contig to scan
-	 * @param orfCounter	counter for total number of orfs identified
 	 * @return				a list of all orfs in that contig
 	 */
-	public List<Orf> scanForOrfs(Contig contig) throws CompoundNotFoundError {
-		List<Orf> orfs = new ArrayList<Orf>();
-		String sequence = contig.sequence();
-		int length = sequence.length();
-		String reverseComplementarySequence = SequenceConverter.getReverseComplementaryDNASequence(sequence);
-		List<Orf> forwardOrfs = scanFrameForOrfs(sequence);
-		List<Orf> reverseOrfs = scanFrameForOrfs(reverseComplementarySequence);
-		for (Orf orf : forwardOrfs)
-			orf.setFrame("+");
-		for (Orf orf : reverseOrfs) {
-			orf.setFrame("-");
-			int start = length - orf.start();
-			int end = length - orf.end();
-			orf.setStart(end);
-			orf.setEnd(start);
-		}
-		orfs.addAll(forwardOrfs);
-		orfs.addAll(reverseOrfs);
-		Sorter.sortOrfs(orfs);
-		return orfs;
-	}
-	
-	/**
-	 * Manually find all orfs with length > 60 nt within a single frame (forward or backward).
-	 * @param sequence	the sequence to scan
-	 * @param counter	counter for total number of orfs identified
-	 * @return			a list of all orfs in that frame
-	 */
-	public List<Orf> scanFrameForOrfs(String sequence) throws CompoundNotFoundError {
-		List<Orf> orfs = new ArrayList<Orf>();
-		String[] startCodons = { "ATG", "GTG", "TTG" };
-		String[] stopCodons = { "TAA", "TAG", "TGA" };
-		int[] lastStop = { 0, 0, 0 };
-		boolean doContinue = false;
-		for (int i = 0; i < sequence.length() - 2; i++) {
-			String codon = sequence.substring(i, i+3);
-			if (Arrays.asList(startCodons).contains(codon) || i == 0) {
-				// if index is less than last stop codon in same frame, a longer orf exists; ignore this substring
-				if (i < lastStop[i % 3])
-					continue;
-				doContinue = false;
-				for (int j = i; j < sequence.length() - 2; j += 3) {
-					String secondCodon = sequence.substring(j, j+3);
-					if (Arrays.asList(stopCodons).contains(secondCodon)) {
-						if (j - i > minOrfSize) { // reject orfs shorter than 60 nt
-							String orfSequence = sequence.substring(i,j+3);
-							String orfAASequence = SequenceConverter.convertDNAToAA(orfSequence);
-							String orfIndex = String.format("%05d", counter);
-							String orfName = "orf" + orfIndex;
-							Orf orf = new Orf(orfName, orfAASequence);
-							orf.setStart(i);
-							orf.setEnd(j+3);
-							orf.setMode(GenePredictionModes.ALL_ORFS);
-							orfs.add(orf);
-							counter++;
-							lastStop[j%3] = j;
-							doContinue = true;
-							break;
-						}
-					}
-				}
-				if (doContinue)
-					continue;
-				// if a final start codon is found with no stop codon, save from start to end of sequence as an orf
-				String orfSequence = sequence.substring(i);
-				String orfAASequence = SequenceConverter.convertDNAToAA(orfSequence);
-				String orfIndex = String.format("%05d", counter);
-				String orfName = "orf" + orfIndex;
-				Orf orf = new Orf(orfName, orfAASequence);
-				orf.setStart(i);
-				orf.setEnd(sequence.length());
-				orf.setMode(GenePredictionModes.ALL_ORFS);
-				orfs.add(orf);
-				counter++;
-				lastStop[i%3] = sequence.length() + 1;
-				break;
-			}
-		}
-		return orfs;
+	public List<Orf> scanForOrfs(Contig contig) {
+		return scanner.scan(contig.sequence());
 	}
 	
 }
@@ -0,0 +1,116 @@
+package ca.mcmaster.magarveylab.prism.orfs;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import ca.mcmaster.magarveylab.prism.data.PackedSequence;
+
+/**
+ * A compact table of the open reading frames found by scanning a single
+ * nucleotide sequence. The coordinates of every orf are stored in parallel
+ * arrays alongside the packed sequence they were found in, so that the amino
+ * acid sequence of an orf can be translated when it is needed rather than
+ * stored for every orf in the genome.
+ *
+ * @author skinnider
+ *
+ */
+public class OrfTable implements Serializable {
+
+	private static final long serialVersionUID = 3630383405212736212L;
+
+	private PackedSequence sequence;
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private boolean[] reverse = new boolean[16];
+	private int size = 0;
+
+	/**
+	 * Instantiate a new, empty orf table for a nucleotide sequence.
+	 *
+	 * @param sequence
+	 *            the sequence the orfs were found in
+	 */
+	public OrfTable(PackedSequence sequence) {
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Add an orf to this table.
+	 *
+	 * @param start
+	 *            the start of the orf on the forward strand
+	 * @param end
+	 *            the end of the orf on the forward strand
+	 * @param reverse
+	 *            true if the orf is on the reverse strand
+	 * @return the row of the new orf
+	 */
+	public int add(int start, int end, boolean reverse) {
+		if (size == starts.length) {
+			starts = Arrays.copyOf(starts, size * 2);
+			ends = Arrays.copyOf(ends, size * 2);
+			this.reverse = Arrays.copyOf(this.reverse, size * 2);
+		}
+		starts[size] = start;
+		ends[size] = end;
+		this.reverse[size] = reverse;
+		return size++;
+	}
+
+	/**
+	 * Get the number of orfs in this table.
+	 *
+	 * @return the number of orfs
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the start of an orf.
+	 *
+	 * @param row
+	 *            the row of the orf
+	 * @return the start of the orf on the forward strand
+	 */
+	public int start(int row) {
+		return starts[row];
+	}
+
+	/**
+	 * Get the end of an orf.
+	 *
+	 * @param row
+	 *            the row of the orf
+	 * @return the end of the orf on the forward strand
+	 */
+	public int end(int row) {
+		return ends[row];
+	}
+
+	/**
+	 * Check whether an orf is on the reverse strand.
+	 *
+	 * @param row
+	 *            the row of the orf
+	 * @return true if the orf is on the reverse strand
+	 */
+	public boolean isReverse(int row) {
+		return reverse[row];
+	}
+
+	/**
+	 * Translate an orf from the packed sequence. The translation is not
+	 * stored.
+	 *
+	 * @param row
+	 *            the row of the orf
+	 * @return the amino acid sequence of the orf
+	 */
+	public String translate(int row) {
+		return OrfScanner.translate(sequence, starts[row], ends[row],
+				reverse[row]);
+	}
+
+}
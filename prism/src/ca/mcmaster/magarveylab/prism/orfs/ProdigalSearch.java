@@ -3,14 +3,22 @@ package ca.mcmaster.magarveylab.prism.orfs;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import ca.mcmaster.magarveylab.prism.Prism;
 import ca.mcmaster.magarveylab.prism.data.Contig;
 import ca.mcmaster.magarveylab.prism.data.Genome;
 import ca.mcmaster.magarveylab.prism.data.Orf;
+import ca.mcmaster.magarveylab.prism.fasta.FastaUtil;
+import ca.mcmaster.magarveylab.prism.util.Decompressor;
 import ca.mcmaster.magarveylab.prism.util.PrismProcessBuilder;
+import ca.mcmaster.magarveylab.prism.util.SearchExecutor;
 import ca.mcmaster.magarveylab.prism.util.exception.ProdigalSearchException;
 import ca.mcmaster.magarveylab.wasp.session.Session;
 
@@ -51,26 +59,62 @@ public class ProdigalSearch {
 		this.session = session;
 	}
 
+	/**
+	 * Run Prodigal on the input sequence and add the orfs it predicts to each
+	 * contig. In anonymous (meta) mode, each contig is predicted
+	 * independently, so if multiple threads are enabled the contigs are split
+	 * into batches and Prodigal is run on each batch concurrently. Orfs are
+	 * read from each batch in contig order.
+	 * 
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ProdigalSearchException
+	 *             if Prodigal could not read the input or found no orfs
+	 */
 	public void run() throws IOException, InterruptedException,
 			ProdigalSearchException {
 		// get mode 
 		String mode = getProdigalMode();
 		
-		String file = genome.filepath();
-		String output = session.dir() + "prodigal_out.txt"; // for debugging
-		String protein = session.dir() + "orfs_protein.fasta";
-		String nucleotide = session.dir() + "orfs_nucleotide.fasta";
-		
 		String executable = session.subDir("orfs") + "prodigal.sh";
 		Runtime.getRuntime().exec("chmod +x " + executable);
 		
-		String[] cmd = { executable, mode, output, file, protein, nucleotide };
-		PrismProcessBuilder ppb = new PrismProcessBuilder(cmd);
-		BufferedReader br = ppb.run();
-		checkProdigalSearch(br);
+		Prism prism = (Prism) session.webapp();
+		SearchExecutor executor = prism.executor();
+		List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+		if (mode.equals("meta") && executor.threads() > 1
+				&& genome.contigs().size() > 1) {
+			List<List<Contig>> batches = getBatches(executor.threads());
+			for (int i = 0; i < batches.size(); i++) {
+				String suffix = "_" + (i + 1);
+				String input = session.dir() + "prodigal_in" + suffix + ".fasta";
+				FastaUtil.writeContigs(batches.get(i), input);
+				tasks.add(getProdigalTask(executable, mode, input, suffix));
+			}
+			logger.log(Level.INFO, "Running Prodigal on " + batches.size()
+					+ " batches of contigs");
+		} else {
+			String input = genome.filepath();
+			if (Decompressor.isCompressed(genome.file())) {
+				// Prodigal can't read compressed files
+				input = session.dir() + "prodigal_in.fasta";
+				FastaUtil.writeContigs(genome.contigs(), input);
+			}
+			tasks.add(getProdigalTask(executable, mode, input, ""));
+		}
+		
+		List<String> proteins = null;
+		try {
+			proteins = executor.invokeAll(tasks);
+		} catch (IOException e) {
+			if (e.getCause() instanceof ProdigalSearchException)
+				throw (ProdigalSearchException) e.getCause();
+			throw e;
+		}
 		
 		// read orfs 
-		read(protein);
+		for (String protein : proteins)
+			read(protein);
 		
 		// count orfs
 		int count = 0;
@@ -86,6 +130,70 @@ public class ProdigalSearch {
 				+ genome.contigs().size() + " contigs");
 	}
 
+	/**
+	 * Get a task which runs Prodigal on a single input file.
+	 * 
+	 * @param executable
+	 *            the Prodigal script
+	 * @param mode
+	 *            the Prodigal mode to use (single or meta)
+	 * @param input
+	 *            the input sequence file
+	 * @param suffix
+	 *            suffix for the names of the output files
+	 * @return a task which runs Prodigal and returns the location of the
+	 *         protein output file
+	 */
+	private Callable<String> getProdigalTask(final String executable,
+			final String mode, final String input, String suffix) {
+		final String output = session.dir() + "prodigal_out" + suffix + ".txt"; // for debugging
+		final String protein = session.dir() + "orfs_protein" + suffix + ".fasta";
+		final String nucleotide = session.dir() + "orfs_nucleotide" + suffix + ".fasta";
+		return new Callable<String>() {
+			@Override
+			public String call() throws IOException, InterruptedException,
+					ProdigalSearchException {
+				String[] cmd = { executable, mode, output, input, protein,
+						nucleotide };
+				PrismProcessBuilder ppb = new PrismProcessBuilder(cmd);
+				BufferedReader br = ppb.run();
+				checkProdigalSearch(br);
+				return protein;
+			}
+		};
+	}
+	
+	/**
+	 * Split the contigs in this genome into consecutive batches of roughly
+	 * equal total length.
+	 * 
+	 * @param count
+	 *            the maximum number of batches
+	 * @return batches of contigs, in contig order
+	 */
+	private List<List<Contig>> getBatches(int count) {
+		List<Contig> contigs = genome.contigs();
+		long total = 0;
+		for (Contig contig : contigs)
+			total += contig.length();
+		long size = total / Math.min(count, contigs.size()) + 1;
+		
+		List<List<Contig>> batches = new ArrayList<List<Contig>>();
+		List<Contig> batch = new ArrayList<Contig>();
+		long length = 0;
+		for (Contig contig : contigs) {
+			if (batch.size() > 0 && length + contig.length() > size) {
+				batches.add(batch);
+				batch = new ArrayList<Contig>();
+				length = 0;
+			}
+			batch.add(contig);
+			length += contig.length();
+		}
+		batches.add(batch);
+		return batches;
+	}
+	
 	/**
 	 * Determine the mode in which to run Prodigal. "Normal" mode (single) is
 	 * appropriate when the length of the sequence is >500 kb and involves
@@ -130,48 +238,61 @@ public class ProdigalSearch {
 		}
 	}
 
+	/**
+	 * Read the orfs in a Prodigal protein output file and add them to their
+	 * contigs. Each orf is matched to its contig through a map from contig
+	 * name to contig, so reading is linear in the size of the file.
+	 * 
+	 * @param file
+	 *            the Prodigal protein output file
+	 * @throws IOException
+	 * @throws ProdigalSearchException
+	 */
 	public void read(String file) throws IOException, ProdigalSearchException {
-		List<Contig> contigs = genome.contigs();
+		Map<String, Contig> contigs = getContigNames();
 		BufferedReader br = new BufferedReader(new FileReader(file));
 		Contig contig = null;
 		Orf orf = null;
-		StringBuffer sequence = new StringBuffer();
+		StringBuilder sequence = new StringBuilder();
 		String line = null;
 		while ((line = br.readLine()) != null) {
 			if (line.startsWith(">")) {
 				// add the last orf, and reset 
 				addOrf(orf, sequence, contig);
-				contig = null; // important: reset contig here
-				orf = null;
+				sequence.setLength(0);
 
-				// get name 
-				String[] split = line.split("#");
-				String name = split[0].trim();
-				String orfContigName = name.substring(1, name.lastIndexOf("_"));
-				for (Contig c : contigs) {
-					String contigName = c.header().split("\\s+")[0];
-					if (contigName.equals(orfContigName))
-						contig = c;
+				// header fields are separated by '#': name, start, end, 
+				// strand, and attributes
+				int[] hashes = new int[4];
+				int idx = 0;
+				for (int i = 0; i < hashes.length; i++) {
+					idx = line.indexOf('#', idx + 1);
+					if (idx == -1)
+						throw new ProdigalSearchException("Error: "
+								+ "could not parse Prodigal output " + line);
+					hashes[i] = idx;
 				}
-				
-				String orfName = "orf" + name.substring(name.lastIndexOf("_"));
-				orf = new Orf(orfName, "");
+
+				// get name 
+				String name = line.substring(1, hashes[0]).trim();
+				int underscore = name.lastIndexOf('_');
+				contig = contigs.get(name.substring(0, underscore));
+				orf = new Orf("orf" + name.substring(underscore), "");
 				
 				// set start and end 
-				String startRaw = split[1].trim();
-				String endRaw = split[2].trim();
-				String frameRaw = split[3].trim();
-				int start = Integer.parseInt(startRaw) - 1;
-				int end = Integer.parseInt(endRaw);
-				String frame = frameRaw.contains("-") ? "-" : "+";
+				int start = Integer.parseInt(line.substring(hashes[0] + 1,
+						hashes[1]).trim()) - 1;
+				int end = Integer.parseInt(line.substring(hashes[1] + 1,
+						hashes[2]).trim());
+				String frame = line.substring(hashes[2] + 1, hashes[3])
+						.contains("-") ? "-" : "+";
 				orf.setStart(start);
 				orf.setEnd(end);
 				orf.setFrame(frame);
 				
 				// set partial
-				String partialRaw = split[split.length - 1].trim();
-				int partialIdx = partialRaw.indexOf("partial=");
-				String partial = partialRaw.substring(partialIdx+8, partialIdx+10);
+				int partialIdx = line.indexOf("partial=", line.lastIndexOf('#'));
+				String partial = line.substring(partialIdx + 8, partialIdx + 10);
 				orf.setPartial(partial);
 				
 				// set prediction mode
@@ -185,23 +306,32 @@ public class ProdigalSearch {
 		
 		br.close();
 	}
+	
+	/**
+	 * Map the name of each contig, i.e. the first word of its header, to the
+	 * contig. Prodigal names each orf after the contig it was found in. If two
+	 * contigs share a name, the last one is used.
+	 * 
+	 * @return a map from contig name to contig
+	 */
+	private Map<String, Contig> getContigNames() {
+		Map<String, Contig> contigs = new HashMap<String, Contig>();
+		for (Contig contig : genome.contigs())
+			contigs.put(contig.header().split("\\s+")[0], contig);
+		return contigs;
+	}
 
-	private void addOrf(Orf orf, StringBuffer sequence, Contig contig) {
+	private void addOrf(Orf orf, StringBuilder sequence, Contig contig) {
 		// can we add a new orf?
 		if (orf != null && sequence.length() > 0 && contig != null) {
 			// ignore the * (stop codon)
-			String seq = sequence.toString();
-			if (seq.endsWith("*"))
-				seq = seq.substring(0, seq.length() - 1);
+			int length = sequence.length();
+			if (sequence.charAt(length - 1) == '*')
+				length--;
 
 			// set amino acid sequence and add to contig
-			orf.setAASequence(seq);
-			contig.orfs().add(orf);
-
-			// reset
-			contig = null;
-			orf = null;
-			sequence.delete(0, sequence.length());
+			orf.setAASequence(sequence.substring(0, length));
+			contig.addOrf(orf);
 		}
 	}
 
@@ -5,9 +5,13 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.openscience.cdk.exception.CDKException;
 
+import ca.mcmaster.magarveylab.prism.Prism;
 import ca.mcmaster.magarveylab.prism.data.Cluster;
 import ca.mcmaster.magarveylab.prism.database.data.SmallMolecule;
 import ca.mcmaster.magarveylab.prism.tanimoto.data.Fingerprint;
@@ -16,13 +20,16 @@ import ca.mcmaster.magarveylab.wasp.session.Session;
 
 /**
  * Generate fingerprints using the ecfp6 and fcfp6 algorithms. Requires Python
- * and RDKit.
+ * and RDKit, unless fingerprints are generated in-process with
+ * {@link MorganFingerprinter}.
  * 
  * @author skinnider, cDejong
  * 
  */
 public class Ecfp6Fcfp6Fingerprinter {
 
+	private static final Logger logger = Logger.getLogger(Ecfp6Fcfp6Fingerprinter.class.getName());
+
 	private final static String script = "ecfp6_fcfp6.py";
 
 	/**
@@ -40,40 +47,79 @@ public class Ecfp6Fcfp6Fingerprinter {
 	 */
 	public static List<SmallMolecule> getClusterFingerprints(Cluster cluster, Session session) 
 			throws IOException, CDKException, BadSmilesToFingerprinterException, InterruptedException {
-		List<SmallMolecule> molecules = new ArrayList<SmallMolecule>();
 		Map<String, String> library = FingerprintUtil.getLibraryForFingerprinting(cluster);
+		Prism prism = (Prism) session.webapp();
+		final boolean inProcess = prism.config().nativeFingerprints;
+		final String dir = session.subDir("tanimoto");
 
 		// set permissions of fcfp6 script
-		chmodFingerprinter(session);
-
-		for (Map.Entry<String, String> entry : library.entrySet()) {
-			SmallMolecule molecule = new SmallMolecule();
-
-			String name = entry.getKey();
-			String smiles = entry.getValue();
-
-			molecule.setSmiles(smiles);
-			molecule.setName(name);
-
-			String dir = session.subDir("tanimoto");
-			List<Fingerprint> fingerprints = getCompoundFingerprints(smiles,
-					dir);
-			for (Fingerprint fingerprint : fingerprints) {
-				if (fingerprint.type().equals("fcfp6")) {
-					molecule.setFcfp6Fingerprint(fingerprint.bitset());
-				} else if (fingerprint.type().equals("ecfp6")) {
-					molecule.setEcfp6Fingerprint(fingerprint.bitset());
+		if (!inProcess)
+			chmodFingerprinter(session);
+
+		// fingerprint library compounds concurrently
+		List<Callable<SmallMolecule>> tasks = new ArrayList<Callable<SmallMolecule>>();
+		for (final Map.Entry<String, String> entry : library.entrySet())
+			tasks.add(new Callable<SmallMolecule>() {
+				@Override
+				public SmallMolecule call() throws Exception {
+					return getMolecule(entry.getKey(), entry.getValue(), dir, inProcess);
 				}
-			}
+			});
 
-			// ignore molecules with null fingerprints
-			if (fingerprints.size() < 2)
-				continue;
+		List<SmallMolecule> molecules = new ArrayList<SmallMolecule>();
+		for (SmallMolecule molecule : prism.executor().invokeAll(tasks))
+			if (molecule != null)
+				molecules.add(molecule);
+		return molecules;
+	}
 
-			molecules.add(molecule);
+	/**
+	 * Get a single cluster scaffold library compound with its fingerprints.
+	 * 
+	 * @param name
+	 *            name of the compound
+	 * @param smiles
+	 *            SMILES of the compound
+	 * @param dir
+	 *            directory of the RDKit script
+	 * @param inProcess
+	 *            if true, generate fingerprints in-process with
+	 *            {@link MorganFingerprinter} rather than with RDKit
+	 * @return the compound, or null if it could not be fingerprinted
+	 * @throws IOException
+	 * @throws BadSmilesToFingerprinterException
+	 * @throws InterruptedException
+	 */
+	private static SmallMolecule getMolecule(String name, String smiles, String dir, boolean inProcess)
+			throws IOException, BadSmilesToFingerprinterException, InterruptedException {
+		SmallMolecule molecule = new SmallMolecule();
+		molecule.setSmiles(smiles);
+		molecule.setName(name);
+
+		List<Fingerprint> fingerprints;
+		if (inProcess) {
+			try {
+				fingerprints = MorganFingerprinter.fingerprints(smiles);
+			} catch (CDKException e) {
+				logger.log(Level.WARNING, "Could not fingerprint " + name + ": " 
+						+ e.getMessage());
+				return null;
+			}
+		} else {
+			fingerprints = getCompoundFingerprints(smiles, dir);
+		}
+		for (Fingerprint fingerprint : fingerprints) {
+			if (fingerprint.type().equals("fcfp6")) {
+				molecule.setFcfp6Fingerprint(fingerprint.bitset());
+			} else if (fingerprint.type().equals("ecfp6")) {
+				molecule.setEcfp6Fingerprint(fingerprint.bitset());
+			}
 		}
 
-		return molecules;
+		// ignore molecules with null fingerprints
+		if (fingerprints.size() < 2)
+			return null;
+		return molecule;
 	}
 
 	/**
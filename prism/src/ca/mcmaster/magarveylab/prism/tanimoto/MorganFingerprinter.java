@@ -0,0 +1,369 @@
+package ca.mcmaster.magarveylab.prism.tanimoto;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.aromaticity.Aromaticity;
+import org.openscience.cdk.aromaticity.ElectronDonation;
+import org.openscience.cdk.config.Elements;
+import org.openscience.cdk.config.Isotopes;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.graph.Cycles;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+import org.openscience.cdk.interfaces.IChemObjectBuilder;
+import org.openscience.cdk.interfaces.IIsotope;
+import org.openscience.cdk.ringsearch.RingSearch;
+import org.openscience.cdk.smiles.SmilesParser;
+import org.openscience.cdk.smiles.smarts.SmartsPattern;
+import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
+
+import ca.mcmaster.magarveylab.prism.tanimoto.data.Fingerprint;
+
+/**
+ * Generate ECFP6 and FCFP6 fingerprints in-process with the Morgan algorithm,
+ * as implemented by RDKit's GetMorganFingerprintAsBitVect (radius 3, 1024
+ * bits).<br>
+ * <br>
+ * Each heavy atom is given an initial invariant: for ECFP6, a hash of its
+ * atomic number, total degree, total hydrogen count, formal charge, isotopic
+ * mass difference and ring membership; for FCFP6, a bit mask of the
+ * pharmacophoric features (donor, acceptor, aromatic, halogen, basic, acidic)
+ * it matches. In each of three iterations, the invariant of every atom is
+ * hashed with the bond types and invariants of its neighbours, and each new
+ * environment (set of bonds) is folded into the fingerprint, the first time it
+ * is seen. Hashing follows RDKit's 32-bit boost::hash_combine, so identical
+ * environments set identical bits.<br>
+ * <br>
+ * Bits are numbered from the end of RDKit's bit string, as
+ * {@link FingerprintUtil#bitSetFromString(String)} reads the output of the
+ * RDKit script, so that fingerprints remain comparable with those in the
+ * database. Aromaticity is perceived with CDK's Daylight model, which can
+ * differ from RDKit's for some fused and charged ring systems.
+ *
+ * @author skinnider
+ *
+ */
+public class MorganFingerprinter {
+
+	/**
+	 * The number of bits in each fingerprint.
+	 */
+	public static final int SIZE = 1024;
+
+	/**
+	 * The number of iterations, i.e. the radius of the largest environment.
+	 */
+	public static final int RADIUS = 3;
+
+	/**
+	 * SMARTS definitions of the FCFP features, from RDKit (adapted from Gobbi
+	 * and Poppinger, Biotech. Bioeng. 61, 47-54 (1998)). An atom matching
+	 * feature i has bit i set in its invariant.
+	 */
+	private static final String[] FEATURES = {
+			// donor
+			"[$([N;!H0;v3,v4&+1]),$([O,S;H1;+0]),n&H1&+0]",
+			// acceptor
+			"[$([O,S;H1;v2;!$(*-*=[O,N,P,S])]),$([O,S;H0;v2]),$([O,S;-]),$([N;v3;!$(N-*=[O,N,P,S])]),"
+					+ "n&H0&+0,$([o,s;+0;!$([o,s]:n);!$([o,s]:c:n)])]",
+			// aromatic
+			"[a]",
+			// halogen
+			"[F,Cl,Br,I]",
+			// basic
+			"[#7;+,$([N;H2&+0][$([C,a]);!$([C,a](=O))]),$([N;H1&+0]([$([C,a]);!$([C,a](=O))])"
+					+ "[$([C,a]);!$([C,a](=O))]),$([N;H0&+0]([C;!$(C(=O))])([C;!$(C(=O))])[C;!$(C(=O))])]",
+			// acidic
+			"[$([C,S](=[O,S,P])-[O;H1,-1])]" };
+
+	/**
+	 * RDKit's value for an aromatic bond type.
+	 */
+	private static final int AROMATIC = 12;
+
+	/**
+	 * Generate the ECFP6 and FCFP6 fingerprints of a molecule.
+	 *
+	 * @param smiles
+	 *            SMILES of the molecule
+	 * @return the ECFP6 and FCFP6 fingerprints
+	 * @throws CDKException
+	 *             if the SMILES cannot be parsed or aromaticity cannot be
+	 *             perceived
+	 * @throws IOException
+	 *             if the feature definitions or isotope data cannot be read
+	 */
+	public static List<Fingerprint> fingerprints(String smiles) throws CDKException, IOException {
+		IAtomContainer molecule = prepare(smiles);
+		List<Fingerprint> fingerprints = new ArrayList<Fingerprint>();
+		fingerprints.add(new Fingerprint("ecfp6", fingerprint(molecule, connectivityInvariants(molecule))));
+		fingerprints.add(new Fingerprint("fcfp6", fingerprint(molecule, featureInvariants(molecule))));
+		return fingerprints;
+	}
+
+	/**
+	 * Parse a SMILES string into a hydrogen-suppressed molecule, with
+	 * aromaticity perceived.
+	 *
+	 * @param smiles
+	 *            SMILES of the molecule
+	 * @return the molecule
+	 * @throws CDKException
+	 */
+	private static IAtomContainer prepare(String smiles) throws CDKException {
+		IChemObjectBuilder builder = DefaultChemObjectBuilder.getInstance();
+		SmilesParser parser = new SmilesParser(builder);
+		IAtomContainer molecule = parser.parseSmiles(smiles);
+		molecule = AtomContainerManipulator.suppressHydrogens(molecule);
+
+		for (IAtom atom : molecule.atoms())
+			atom.setIsAromatic(false);
+		for (IBond bond : molecule.bonds())
+			bond.setIsAromatic(false);
+		Aromaticity aromaticity = new Aromaticity(ElectronDonation.daylight(),
+				Cycles.or(Cycles.all(), Cycles.relevant()));
+		aromaticity.apply(molecule);
+		return molecule;
+	}
+
+	/**
+	 * Calculate the ECFP invariant of each atom in a molecule.
+	 *
+	 * @param molecule
+	 *            the molecule
+	 * @return the invariant of each atom
+	 * @throws IOException
+	 *             if isotope data cannot be read
+	 */
+	private static int[] connectivityInvariants(IAtomContainer molecule) throws IOException {
+		RingSearch rings = new RingSearch(molecule);
+		int[] invariants = new int[molecule.getAtomCount()];
+		for (int i = 0; i < invariants.length; i++) {
+			IAtom atom = molecule.getAtom(i);
+			int hydrogens = (atom.getImplicitHydrogenCount() == null) ? 0 : atom.getImplicitHydrogenCount();
+			int charge = (atom.getFormalCharge() == null) ? 0 : atom.getFormalCharge();
+
+			int hash = 0;
+			hash = combine(hash, atomicNumber(atom));
+			hash = combine(hash, molecule.getConnectedAtomsCount(atom) + hydrogens);
+			hash = combine(hash, hydrogens);
+			hash = combine(hash, charge);
+			hash = combine(hash, deltaMass(atom));
+			if (rings.cyclic(i))
+				hash = combine(hash, 1);
+			invariants[i] = hash;
+		}
+		return invariants;
+	}
+
+	/**
+	 * Calculate the FCFP invariant of each atom in a molecule.
+	 *
+	 * @param molecule
+	 *            the molecule
+	 * @return the invariant of each atom
+	 * @throws IOException
+	 *             if a feature definition cannot be parsed
+	 */
+	private static int[] featureInvariants(IAtomContainer molecule) throws IOException {
+		int[] invariants = new int[molecule.getAtomCount()];
+		for (int i = 0; i < FEATURES.length; i++) {
+			SmartsPattern pattern = SmartsPattern.create(FEATURES[i], molecule.getBuilder());
+			for (int[] match : pattern.matchAll(molecule).uniqueAtoms().toArray())
+				for (int atom : match)
+					invariants[atom] |= 1 << i;
+		}
+		return invariants;
+	}
+
+	/**
+	 * Get the unsigned identifiers of every distinct environment in a
+	 * molecule, up to a given radius, as RDKit's GetMorganFingerprint reports
+	 * them.
+	 *
+	 * @param smiles
+	 *            SMILES of the molecule
+	 * @param radius
+	 *            the radius of the largest environment
+	 * @param features
+	 *            if true, start from FCFP invariants; otherwise, from ECFP
+	 *            invariants
+	 * @return the identifiers
+	 * @throws CDKException
+	 * @throws IOException
+	 */
+	static Set<Long> identifiers(String smiles, int radius, boolean features) throws CDKException, IOException {
+		IAtomContainer molecule = prepare(smiles);
+		int[] invariants = features ? featureInvariants(molecule) : connectivityInvariants(molecule);
+		Set<Long> identifiers = new HashSet<Long>();
+		for (int identifier : environments(molecule, invariants, radius))
+			identifiers.add(identifier & 0xffffffffL);
+		return identifiers;
+	}
+
+	/**
+	 * Fold the environments of every atom in a molecule into a fingerprint.
+	 *
+	 * @param molecule
+	 *            the molecule
+	 * @param invariants
+	 *            the initial invariant of each atom
+	 * @return the fingerprint
+	 */
+	private static BitSet fingerprint(IAtomContainer molecule, int[] invariants) {
+		BitSet fingerprint = new BitSet(SIZE);
+		for (int identifier : environments(molecule, invariants, RADIUS))
+			set(fingerprint, identifier);
+		return fingerprint;
+	}
+
+	/**
+	 * Get the identifier of every atom's environment in a molecule, in each
+	 * iteration up to a given radius, the first time the environment is seen.
+	 *
+	 * @param molecule
+	 *            the molecule
+	 * @param invariants
+	 *            the initial invariant of each atom
+	 * @param radius
+	 *            the number of iterations
+	 * @return the identifiers
+	 */
+	private static List<Integer> environments(IAtomContainer molecule, int[] invariants, int radius) {
+		int atoms = molecule.getAtomCount();
+		List<Integer> identifiers = new ArrayList<Integer>();
+		for (int invariant : invariants)
+			identifiers.add(invariant);
+		// the bonds of each atom, and the types of those bonds
+		int[][] neighbours = new int[atoms][];
+		int[][] bonds = new int[atoms][];
+		int[][] types = new int[atoms][];
+		for (int i = 0; i < atoms; i++) {
+			IAtom atom = molecule.getAtom(i);
+			List<IBond> connected = molecule.getConnectedBondsList(atom);
+			neighbours[i] = new int[connected.size()];
+			bonds[i] = new int[connected.size()];
+			types[i] = new int[connected.size()];
+			for (int j = 0; j < connected.size(); j++) {
+				IBond bond = connected.get(j);
+				neighbours[i][j] = molecule.getAtomNumber(bond.getConnectedAtom(atom));
+				bonds[i][j] = molecule.getBondNumber(bond);
+				types[i][j] = bondType(bond);
+			}
+		}
+
+		int[] current = invariants.clone();
+		BitSet[] environments = new BitSet[atoms];
+		for (int i = 0; i < atoms; i++)
+			environments[i] = new BitSet();
+		boolean[] dead = new boolean[atoms];
+		Set<BitSet> seen = new HashSet<BitSet>();
+
+		for (int layer = 0; layer < radius; layer++) {
+			int[] next = new int[atoms];
+			BitSet[] round = new BitSet[atoms];
+			// the atom with the lowest invariant (then index) for each distinct environment
+			Map<BitSet, Integer> representatives = new HashMap<BitSet, Integer>();
+			List<Integer> expanded = new ArrayList<Integer>();
+			for (int i = 0; i < atoms; i++) {
+				round[i] = (BitSet) environments[i].clone();
+				if (dead[i])
+					continue;
+				if (neighbours[i].length == 0) {
+					dead[i] = true;
+					continue;
+				}
+
+				long[] pairs = new long[neighbours[i].length];
+				for (int j = 0; j < neighbours[i].length; j++) {
+					round[i].set(bonds[i][j]);
+					round[i].or(environments[neighbours[i][j]]);
+					pairs[j] = ((long) types[i][j] << 32) | (current[neighbours[i][j]] & 0xffffffffL);
+				}
+				Arrays.sort(pairs);
+
+				int invariant = combine(layer, current[i]);
+				for (long pair : pairs)
+					invariant = combine(invariant, combine(combine(0, (int) (pair >>> 32)), (int) pair));
+				next[i] = invariant;
+				expanded.add(i);
+
+				Integer representative = representatives.get(round[i]);
+				if (representative == null || (invariant & 0xffffffffL) < (next[representative] & 0xffffffffL))
+					representatives.put(round[i], i);
+			}
+
+			// environments seen before, in this or an earlier iteration, are not added again
+			for (int i : expanded) {
+				if (representatives.get(round[i]) != i || seen.contains(round[i])) {
+					dead[i] = true;
+				} else {
+					identifiers.add(next[i]);
+				}
+			}
+			seen.addAll(representatives.keySet());
+
+			current = next;
+			environments = round;
+		}
+		return identifiers;
+	}
+
+	/**
+	 * Combine a value with a hash, as boost::hash_combine does with 32-bit
+	 * values.
+	 */
+	private static int combine(int seed, int value) {
+		return seed ^ (value + 0x9e3779b9 + (seed << 6) + (seed >>> 2));
+	}
+
+	/**
+	 * Set the bit of a fingerprint corresponding to an invariant.
+	 */
+	private static void set(BitSet fingerprint, int invariant) {
+		int bit = (int) ((invariant & 0xffffffffL) % SIZE);
+		fingerprint.set(SIZE - 1 - bit);
+	}
+
+	/**
+	 * Get RDKit's value for the type of a bond.
+	 */
+	private static int bondType(IBond bond) {
+		if (bond.isAromatic())
+			return AROMATIC;
+		if (bond.getOrder() == null || bond.getOrder() == IBond.Order.UNSET)
+			return 0;
+		return bond.getOrder().numeric();
+	}
+
+	private static int atomicNumber(IAtom atom) {
+		if (atom.getAtomicNumber() != null)
+			return atom.getAtomicNumber();
+		return Elements.ofString(atom.getSymbol()).number();
+	}
+
+	/**
+	 * Get the difference between the mass of an atom and the average mass of
+	 * its element, truncated to an integer, which is 0 unless the atom is an
+	 * isotope.
+	 */
+	private static int deltaMass(IAtom atom) throws IOException {
+		if (atom.getMassNumber() == null)
+			return 0;
+		Isotopes isotopes = Isotopes.getInstance();
+		IIsotope isotope = isotopes.getIsotope(atom.getSymbol(), atom.getMassNumber());
+		double mass = (isotope != null) ? isotope.getExactMass() : atom.getMassNumber();
+		return (int) (mass - isotopes.getNaturalMass(atom));
+	}
+
+}
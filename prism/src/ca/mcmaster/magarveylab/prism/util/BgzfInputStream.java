@@ -0,0 +1,218 @@
+package ca.mcmaster.magarveylab.prism.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a file compressed with bgzip (the blocked gzip format used by
+ * samtools and tabix). A bgzip file is a series of independent gzip members
+ * of at most 64 kb each, which records the compressed size of every block in
+ * its header. Blocks are therefore read sequentially, but batches of blocks
+ * are inflated concurrently, and the decompressed bytes are returned in file
+ * order.
+ *
+ * @author skinnider
+ *
+ */
+public class BgzfInputStream extends InputStream {
+
+	/**
+	 * The number of blocks inflated by each thread in a single batch.
+	 */
+	private static final int BLOCKS_PER_THREAD = 16;
+
+	private DataInputStream in;
+	private SearchExecutor executor;
+	private int batchSize;
+	private List<byte[]> blocks = new ArrayList<byte[]>();
+	private int block = 0;
+	private int position = 0;
+	private boolean eof = false;
+
+	/**
+	 * Open a bgzip-compressed file.
+	 *
+	 * @param file
+	 *            the file to read
+	 * @param executor
+	 *            the executor used to inflate blocks concurrently
+	 * @throws IOException
+	 */
+	public BgzfInputStream(File file, SearchExecutor executor)
+			throws IOException {
+		this.in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file), 1 << 20));
+		this.executor = executor;
+		this.batchSize = executor.threads() * BLOCKS_PER_THREAD;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill())
+			return -1;
+		return blocks.get(block)[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!fill())
+			return -1;
+		byte[] current = blocks.get(block);
+		int n = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Make sure the current block has unread bytes, inflating the next batch
+	 * of blocks if necessary.
+	 *
+	 * @return false if the end of the file has been reached
+	 * @throws IOException
+	 */
+	private boolean fill() throws IOException {
+		while (block < blocks.size() && position == blocks.get(block).length) {
+			block++;
+			position = 0;
+		}
+		if (block < blocks.size())
+			return true;
+		if (eof)
+			return false;
+
+		List<Callable<byte[]>> tasks = new ArrayList<Callable<byte[]>>();
+		while (tasks.size() < batchSize) {
+			final byte[] member = readMember();
+			if (member == null) {
+				eof = true;
+				break;
+			}
+			tasks.add(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws IOException {
+					return inflate(member);
+				}
+			});
+		}
+		try {
+			blocks = executor.invokeAll(tasks);
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+		block = 0;
+		position = 0;
+		return fill();
+	}
+
+	/**
+	 * Read the next complete gzip member from the file.
+	 *
+	 * @return the bytes of the member, or null at the end of the file
+	 * @throws IOException
+	 *             if the member is not a bgzip block
+	 */
+	private byte[] readMember() throws IOException {
+		byte[] header = new byte[12];
+		int first = in.read();
+		if (first == -1)
+			return null;
+		header[0] = (byte) first;
+		in.readFully(header, 1, header.length - 1);
+		if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b
+				|| (header[3] & 4) == 0)
+			throw new IOException("Not a bgzip block");
+		int xlen = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+		byte[] extra = new byte[xlen];
+		in.readFully(extra);
+
+		// find the BC subfield, which holds the total block size minus 1
+		int size = -1;
+		for (int i = 0; i + 4 <= xlen;) {
+			int slen = (extra[i + 2] & 0xff) | (extra[i + 3] & 0xff) << 8;
+			if (extra[i] == 'B' && extra[i + 1] == 'C' && slen == 2)
+				size = ((extra[i + 4] & 0xff) | (extra[i + 5] & 0xff) << 8) + 1;
+			i += 4 + slen;
+		}
+		if (size == -1)
+			throw new IOException("Not a bgzip block");
+
+		byte[] member = new byte[size];
+		System.arraycopy(header, 0, member, 0, header.length);
+		System.arraycopy(extra, 0, member, header.length, xlen);
+		try {
+			in.readFully(member, header.length + xlen, size - header.length
+					- xlen);
+		} catch (EOFException e) {
+			throw new IOException("Truncated bgzip block", e);
+		}
+		return member;
+	}
+
+	/**
+	 * Inflate a single bgzip block and check its CRC.
+	 *
+	 * @param member
+	 *            the bytes of the block
+	 * @return the decompressed bytes
+	 * @throws IOException
+	 *             if the block is corrupt
+	 */
+	private static byte[] inflate(byte[] member) throws IOException {
+		int length = member.length;
+		int xlen = (member[10] & 0xff) | (member[11] & 0xff) << 8;
+		int start = 12 + xlen;
+		int size = (member[length - 4] & 0xff)
+				| (member[length - 3] & 0xff) << 8
+				| (member[length - 2] & 0xff) << 16
+				| (member[length - 1] & 0xff) << 24;
+		long crc = ((member[length - 8] & 0xff)
+				| (member[length - 7] & 0xff) << 8
+				| (member[length - 6] & 0xff) << 16
+				| (long) (member[length - 5] & 0xff) << 24);
+
+		byte[] data = new byte[size];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(member, start, length - 8 - start);
+			int n = 0;
+			while (n < size && !inflater.finished()) {
+				int read = inflater.inflate(data, n, size - n);
+				if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				n += read;
+			}
+			if (n != size)
+				throw new IOException("Corrupt bgzip block");
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt bgzip block", e);
+		} finally {
+			inflater.end();
+		}
+
+		CRC32 checksum = new CRC32();
+		checksum.update(data, 0, size);
+		if (checksum.getValue() != crc)
+			throw new IOException("Bad CRC in bgzip block");
+		return data;
+	}
+
+}
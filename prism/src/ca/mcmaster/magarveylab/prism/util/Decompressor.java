@@ -0,0 +1,216 @@
+package ca.mcmaster.magarveylab.prism.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Detects and decompresses compressed sequence files as streams, so that
+ * compressed input can be read without writing a decompressed copy to disk.
+ * The compression format is determined from the first bytes of the file
+ * rather than its extension.<br>
+ * <br>
+ * gzip files are decompressed in-process. bgzip files are decompressed in
+ * parallel if more than one thread is available. zstd files are decompressed
+ * by the zstd command line tool, which must be installed to read them; as
+ * with a corrupt gzip file, reading a truncated or corrupt zstd file throws an
+ * IOException.
+ *
+ * @author skinnider
+ *
+ */
+public class Decompressor {
+
+	/**
+	 * Pattern matching the extension of a compressed file.
+	 */
+	public static final String COMPRESSED_EXTENSION = "\\.(gz|bgz|zst)$";
+
+	/**
+	 * Formats in which an input file may be compressed.
+	 */
+	public enum Compression {
+		NONE, GZIP, BGZIP, ZSTD;
+	}
+
+	/**
+	 * Determine the compression format of a file from its magic number.
+	 *
+	 * @param file
+	 *            the file in question
+	 * @return the compression format of the file
+	 * @throws IOException
+	 */
+	public static Compression getCompression(File file) throws IOException {
+		byte[] header = new byte[16];
+		int length = 0;
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int n;
+			while (length < header.length
+					&& (n = in.read(header, length, header.length - length)) > 0)
+				length += n;
+		} finally {
+			in.close();
+		}
+
+		if (length >= 4 && (header[0] & 0xff) == 0x28
+				&& (header[1] & 0xff) == 0xb5 && (header[2] & 0xff) == 0x2f
+				&& (header[3] & 0xff) == 0xfd)
+			return Compression.ZSTD;
+		if (length >= 2 && (header[0] & 0xff) == 0x1f
+				&& (header[1] & 0xff) == 0x8b) {
+			// bgzip sets FEXTRA and starts the extra field with a BC subfield
+			if (length >= 14 && (header[3] & 4) != 0 && header[12] == 'B'
+					&& header[13] == 'C')
+				return Compression.BGZIP;
+			return Compression.GZIP;
+		}
+		return Compression.NONE;
+	}
+
+	/**
+	 * Check whether a file is compressed.
+	 *
+	 * @param file
+	 *            the file in question
+	 * @return true if the file is compressed in any supported format
+	 * @throws IOException
+	 */
+	public static boolean isCompressed(File file) throws IOException {
+		return getCompression(file) != Compression.NONE;
+	}
+
+	/**
+	 * Open a file for reading, decompressing it as it is read if it is
+	 * compressed.
+	 *
+	 * @param file
+	 *            the file to read
+	 * @param executor
+	 *            the executor used to decompress bgzip blocks concurrently,
+	 *            or null to decompress on the calling thread
+	 * @return a stream of the decompressed contents of the file
+	 * @throws IOException
+	 */
+	public static InputStream open(File file, SearchExecutor executor)
+			throws IOException {
+		switch (getCompression(file)) {
+		case ZSTD:
+			File errors = File.createTempFile("zstd", ".err");
+			ProcessBuilder pb = new ProcessBuilder("zstd", "-d", "-c", "-q",
+					file.getAbsolutePath());
+			pb.redirectError(errors);
+			try {
+				return new ProcessInputStream(pb.start(), errors, file);
+			} catch (IOException e) {
+				errors.delete();
+				throw new IOException("zstd must be installed to read "
+						+ file.getName(), e);
+			}
+		case BGZIP:
+			if (executor != null && executor.threads() > 1)
+				return new BgzfInputStream(file, executor);
+			// fall through: bgzip files are valid multi-member gzip files
+		case GZIP:
+			return new GZIPInputStream(new FileInputStream(file), 1 << 16);
+		default:
+			return new FileInputStream(file);
+		}
+	}
+
+	/**
+	 * The output of a decompression process. When the end of the output is
+	 * reached, the exit status of the process is checked, so that a failed
+	 * decompression is reported rather than read as a shortened file. If the
+	 * stream is closed before the end of the output, the process is stopped.
+	 */
+	private static class ProcessInputStream extends FilterInputStream {
+
+		private Process process;
+		private File errors;
+		private File file;
+		private boolean finished = false;
+
+		private ProcessInputStream(Process process, File errors, File file) {
+			super(process.getInputStream());
+			this.process = process;
+			this.errors = errors;
+			this.file = file;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b == -1)
+				finish();
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n == -1)
+				finish();
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			super.close();
+			if (!finished) {
+				finished = true;
+				process.destroy();
+				errors.delete();
+			}
+		}
+
+		/**
+		 * Wait for the process to exit, and throw an exception if it failed.
+		 *
+		 * @throws IOException
+		 *             if the process exited with a nonzero status
+		 */
+		private void finish() throws IOException {
+			if (finished)
+				return;
+			finished = true;
+			try {
+				int status = process.waitFor();
+				if (status != 0)
+					throw new IOException("zstd could not decompress "
+							+ file.getName() + " (exit status " + status
+							+ "): " + readErrors());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while decompressing "
+						+ file.getName(), e);
+			} finally {
+				errors.delete();
+			}
+		}
+
+		/**
+		 * Read the error output of the process.
+		 *
+		 * @return the error output, on a single line
+		 * @throws IOException
+		 */
+		private String readErrors() throws IOException {
+			StringBuilder sb = new StringBuilder();
+			BufferedReader br = new BufferedReader(new FileReader(errors));
+			String line = null;
+			while ((line = br.readLine()) != null)
+				sb.append((sb.length() > 0 ? " " : "") + line.trim());
+			br.close();
+			return sb.toString();
+		}
+
+	}
+
+}
@@ -122,10 +122,20 @@ public class Files {
 		return directories;
 	}
 	
+	/**
+	 * Get the format of a sequence file from its extension. The extension of a
+	 * compressed file (e.g. <code>.gbk.gz</code>) is ignored.
+	 * 
+	 * @param filename
+	 *            the name of the file
+	 * @return the format of the file
+	 */
 	public static FileType getFileType(String filename) {
 		FileType type = null;
+		filename = filename.replaceFirst(Decompressor.COMPRESSED_EXTENSION, "");
 		
-		if (filename.matches(".+\\.gbk$") || filename.matches(".+\\.gb$") || filename.matches(".+\\.genbank$")) {
+		if (filename.matches(".+\\.gbk$") || filename.matches(".+\\.gb$") || filename.matches(".+\\.genbank$")
+				|| filename.matches(".+\\.embl$")) {
 			type = FileType.GENBANK;
 		}else {
 			type = FileType.FASTA;
@@ -3,151 +3,433 @@ package ca.mcmaster.magarveylab.prism.util;
 import ca.mcmaster.magarveylab.prism.data.Genome;
 import ca.mcmaster.magarveylab.prism.data.Organism;
 import ca.mcmaster.magarveylab.prism.data.Contig;
+import ca.mcmaster.magarveylab.prism.data.PackedSequence;
 import ca.mcmaster.magarveylab.prism.data.RnaSequence;
+import ca.mcmaster.magarveylab.prism.orfs.SequenceConverter;
+import ca.mcmaster.magarveylab.prism.util.exception.BadSequenceException;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-
-import org.biojava3.core.sequence.DNASequence;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * @author prees
- * Will parse a genbank file and generate a Genome object.
+ * Will parse a genbank file and generate a Genome object.<br>
+ * <br>
+ * GenBank and EMBL flat files are read line by line in a single pass. Each
+ * record becomes a contig, whose sequence is packed as it is read; only the
+ * header fields, the location and qualifiers of 16S rRNA features, and the
+ * packed sequence of the current record are held in memory. Organism
+ * information is taken from the first record. Compressed files are
+ * decompressed as they are read.
  */
 public class GenbankParser {
-		
+
+	private static final Pattern NUMBER = Pattern.compile("\\d+");
+	private static final Pattern SUBSPECIES = Pattern
+			.compile("(.+?)\\s+((?:subsp\\.|var\\.).+)");
+
+	/**
+	 * A 16S rRNA feature read from the feature table of a record.
+	 */
+	private static class RnaFeature {
+		private int start = Integer.MAX_VALUE;
+		private int end = -1;
+		private String strand = "1";
+		private HashMap<String, String> data = new HashMap<String, String>();
+	}
 
 	/**
 	 * @param genome A Genome object to add information to
 	 * @param file A string representing a path to the genbank file to parse
-	 * @param session The session of the prism run.
+	 * @param executor The executor used to decompress bgzip files concurrently, or null
 	 * @return genome A genome object with the additional informated added.
+	 * @throws IOException
+	 * @throws BadSequenceException if the file contains more than {@link Genome#MAX_LENGTH} nucleotides
 	 */
-	public static Genome readGenbankFile(Genome genome, String file, String root, String output) throws IOException, InterruptedException, Exception {	
+	public static Genome readGenbankFile(Genome genome, String file,
+			SearchExecutor executor) throws IOException {
 		final Logger logger = Logger.getLogger(GenbankParser.class.getName());
-		logger.log(Level.INFO, "Parsing Genbank file"); 
+		logger.log(Level.INFO, "Parsing Genbank file");
+
+		Parser parser = new Parser();
+		BufferedReader br = new BufferedReader(new InputStreamReader(
+				Decompressor.open(new File(file), executor)));
+		try {
+			String line = null;
+			while ((line = br.readLine()) != null)
+				parser.read(line);
+		} finally {
+			br.close();
+		}
+		parser.finish();
+
+		if (parser.contigs.size() == 0) {
+			logger.log(Level.SEVERE, "No Sequence Found in Genbank file.");
+		} else {
+			genome.setContigs(parser.contigs);
+			genome.setOrganism(parser.organism);
+			genome.setFile(new File(file));
+			if (parser.rnas.size() > 0)
+				genome.setRibosomalSequences(parser.rnas);
+		}
+
+		return genome;
+	}
+
+	/**
+	 * Parses the lines of a GenBank or EMBL file one record at a time. EMBL
+	 * line codes are translated to the equivalent GenBank keywords, so that
+	 * both formats share the same record logic.
+	 */
+	private static class Parser {
+
+		private List<Contig> contigs = new ArrayList<Contig>();
+		private List<RnaSequence> rnas = new ArrayList<RnaSequence>();
+		private Organism organism;
 
-		Process processSeq = runBioPerl(file, "read_genbank_seq.pl", root, output);
-		InputStream isSeq = processSeq.getInputStream();
-		BufferedReader brSeq = new BufferedReader(new InputStreamReader(isSeq));
+		// state of the current record
+		private String keyword;
+		private StringBuilder description;
+		private String accession;
+		private String organismName;
+		private StringBuilder lineage;
+		private List<RnaFeature> features;
+		private PackedSequence.Builder sequence;
+		private boolean inFeatures;
+		private boolean inSequence;
+		private long bases = 0;
 
-		StringBuilder seqSB = new StringBuilder();
-		char[] chars = new char[8192];
+		// state of the current feature
+		private String featureKey;
+		private StringBuilder location;
+		private List<StringBuilder> qualifiers;
 
-		while (brSeq.read(chars) > 0) {
-		    seqSB.append(String.valueOf(chars));
-		//	chars = new char[chars.length];
+		private Parser() {
+			reset();
 		}
 
-		String sequence = seqSB.toString();
-		
-		if (sequence.startsWith("NOSEQ")) {
-			logger.log(Level.SEVERE, "No Sequence Found in Genbank file."); 
-		}else {
-			sequence = sequence.replaceAll("[^ACTGN]", "N");
-			DNASequence seq = new DNASequence(sequence);
-
-			Process process = runBioPerl(file, "read_genbank.pl", root, output);
-			InputStream is = new BufferedInputStream(process.getInputStream());
-			BufferedReader in = new BufferedReader(new InputStreamReader(is));
-	
-			String description = in.readLine();
-			String accession = in.readLine();
-			String classificationOne = in.readLine();
-			List<String> classification = new ArrayList<String>(Arrays.asList(classificationOne.split("\\t")));
-			
-			String genus = in.readLine();
-			String species = in.readLine();
-			String strain = in.readLine();
-
-			List<RnaSequence> allRnaSeq = new ArrayList<RnaSequence>();
-			String line;
-			boolean sixteen = false;
-
-			while ((line = in.readLine()) != null) {
-
-				if ("16S".equals(line)) {
-
-					Integer start = Integer.valueOf(in.readLine());
-					Integer end = Integer.valueOf(in.readLine());
-					String strand = in.readLine();
-					HashMap<String, String> data = new HashMap<String, String>();
-					while ((line = in.readLine()) !=  "###") {
-						if (line.equals("###")) {
-							break;
-						}
-						String[] split = line.split("\\t");
-						data.put(split[0], split[1]);	
-					}
-					
-					String finalSequence;				
-					//if strand is -1 means it needs the reverse complement from the original sequence
-					if (strand.equals("-1")) {
-						DNASequence sub = (DNASequence) seq.getSubSequence(start, end).getViewedSequence();
-						finalSequence = sub.getReverseComplement().getSequenceAsString();
-					}else {
-						finalSequence = seq.getSequenceAsString();
+		/**
+		 * Clear the state of the current record.
+		 */
+		private void reset() {
+			keyword = null;
+			description = new StringBuilder();
+			accession = null;
+			organismName = null;
+			lineage = new StringBuilder();
+			features = new ArrayList<RnaFeature>();
+			sequence = null;
+			inFeatures = false;
+			inSequence = false;
+			featureKey = null;
+		}
+
+		/**
+		 * Read the next line of the file.
+		 *
+		 * @param line
+		 *            the line
+		 * @throws BadSequenceException
+		 *             if the file contains too many nucleotides
+		 */
+		private void read(String line) throws BadSequenceException {
+			if (line.startsWith("//")) {
+				endRecord();
+				return;
+			}
+			if (inSequence) {
+				for (int i = 0; i < line.length(); i++) {
+					char c = line.charAt(i);
+					if (Character.isLetter(c)) {
+						c = Character.toUpperCase(c);
+						if (c != 'A' && c != 'C' && c != 'G' && c != 'T')
+							c = 'N';
+						sequence.append(c);
+						bases++;
 					}
-					
-
-					String parsed = finalSequence.substring(start, end + 1);
-					data.put("sequence", parsed);
-					
-					RnaSequence rna = new RnaSequence(start, end, data, strand);
-					allRnaSeq.add(rna);
-					sixteen = true;
+				}
+				if (bases > Genome.MAX_LENGTH)
+					throw new BadSequenceException("Could not run PRISM: your "
+							+ "sequence exceeds the maximum size of 50 Mb!");
+				return;
+			}
+			if (line.length() >= 2 && Character.isUpperCase(line.charAt(0))
+					&& (line.length() == 2 || line.charAt(2) == ' ')) {
+				readEmbl(line);
+			} else {
+				readGenbank(line);
+			}
+		}
+
+		/**
+		 * Read a line of a GenBank record.
+		 *
+		 * @param line
+		 *            the line
+		 */
+		private void readGenbank(String line) {
+			if (line.trim().length() == 0)
+				return;
+			String content = line.length() > 12 ? line.substring(12).trim() : "";
+			if (line.charAt(0) != ' ') {
+				// new top-level keyword
+				keyword = line.split("\\s+")[0];
+				inFeatures = keyword.equals("FEATURES");
+				if (!inFeatures)
+					endFeature();
+				if (keyword.equals("ORIGIN")) {
+					sequence = new PackedSequence.Builder();
+					inSequence = true;
+				} else {
+					readField(keyword, content, false);
+				}
+			} else if (inFeatures) {
+				readFeature(line);
+			} else if (line.startsWith("  ORGANISM")) {
+				keyword = "ORGANISM";
+				readField(keyword, content, false);
+			} else if (line.startsWith("            ")) {
+				readField(keyword, content, true);
+			} else {
+				keyword = line.trim().split("\\s+")[0];
+			}
+		}
+
+		/**
+		 * Read a line of an EMBL record.
+		 *
+		 * @param line
+		 *            the line
+		 */
+		private void readEmbl(String line) {
+			String code = line.substring(0, 2);
+			String content = line.length() > 5 ? line.substring(5).trim() : "";
+			if (code.equals("ID")) {
+				keyword = "LOCUS";
+			} else if (code.equals("DE")) {
+				readField("DEFINITION", content, false);
+				keyword = "DEFINITION";
+			} else if (code.equals("AC")) {
+				readField("ACCESSION", content, false);
+				keyword = "ACCESSION";
+			} else if (code.equals("OS")) {
+				readField("ORGANISM", content, false);
+				keyword = "ORGANISM";
+			} else if (code.equals("OC")) {
+				readField("ORGANISM", content, true);
+				keyword = "ORGANISM";
+			} else if (code.equals("FT")) {
+				inFeatures = true;
+				readFeature("  " + line.substring(2));
+			} else if (code.equals("SQ")) {
+				endFeature();
+				inFeatures = false;
+				sequence = new PackedSequence.Builder();
+				inSequence = true;
+			} else if (!code.equals("XX")) {
+				keyword = code;
+			}
+		}
+
+		/**
+		 * Read the content of a header field.
+		 *
+		 * @param keyword
+		 *            the GenBank keyword of the field
+		 * @param content
+		 *            the content of the line
+		 * @param continuation
+		 *            true if this line continues a previous line of the field
+		 */
+		private void readField(String keyword, String content,
+				boolean continuation) {
+			if (keyword == null || content.length() == 0)
+				return;
+			if (keyword.equals("DEFINITION")) {
+				if (description.length() > 0)
+					description.append(' ');
+				description.append(content);
+			} else if (keyword.equals("ACCESSION")) {
+				if (accession == null)
+					accession = content.split("[\\s;]+")[0];
+			} else if (keyword.equals("ORGANISM")) {
+				if (!continuation && organismName == null) {
+					organismName = content;
+				} else if (continuation) {
+					lineage.append(content).append(' ');
 				}
 			}
+		}
 
+		/**
+		 * Read a line of the feature table. Only rRNA features are kept.
+		 *
+		 * @param line
+		 *            the line, in GenBank column layout
+		 */
+		private void readFeature(String line) {
+			if (line.length() > 5 && line.charAt(5) != ' ') {
+				// new feature key
+				endFeature();
+				String[] fields = line.trim().split("\\s+", 2);
+				if (fields[0].equals("rRNA")) {
+					featureKey = fields[0];
+					location = new StringBuilder(fields.length > 1 ? fields[1]
+							: "");
+					qualifiers = new ArrayList<StringBuilder>();
+				}
+			} else if (featureKey != null) {
+				String content = line.trim();
+				if (content.startsWith("/")) {
+					qualifiers.add(new StringBuilder(content.substring(1)));
+				} else if (qualifiers.size() == 0) {
+					location.append(content);
+				} else {
+					StringBuilder qualifier = qualifiers
+							.get(qualifiers.size() - 1);
+					if (!qualifier.toString().startsWith("translation="))
+						qualifier.append(' ');
+					qualifier.append(content);
+				}
+			}
+		}
 
-			in.close();
-		
-			List<Contig> contigs = new ArrayList<Contig>();
-			contigs.add(new Contig(description, sequence));
+		/**
+		 * Finish the current feature, keeping it if it is a 16S rRNA.
+		 */
+		private void endFeature() {
+			if (featureKey == null)
+				return;
+			featureKey = null;
 
+			RnaFeature feature = new RnaFeature();
+			for (StringBuilder qualifier : qualifiers) {
+				String[] split = qualifier.toString().split("=", 2);
+				String value = split.length > 1 ? split[1] : "";
+				if (value.startsWith("\"") && value.endsWith("\"")
+						&& value.length() > 1)
+					value = value.substring(1, value.length() - 1);
+				String previous = feature.data.get(split[0]);
+				feature.data.put(split[0], previous == null ? value : previous
+						+ value);
+			}
+			String product = feature.data.get("product");
+			if (product == null
+					|| !product.toLowerCase().contains("16s ribosomal rna"))
+				return;
 
-			Organism org = new Organism(description, accession, genus, species, strain, classification, "genbank");
-			genome.setContigs(contigs);
-			genome.setOrganism(org);
-			genome.setFile(new File(file));
-			
-			if (sixteen) 
-				genome.setRibosomalSequences(allRnaSeq);
-			
+			// span of all positions in the location, as in BioPerl
+			String loc = location.toString();
+			Matcher matcher = NUMBER.matcher(loc);
+			while (matcher.find()) {
+				int position = Integer.parseInt(matcher.group());
+				feature.start = Math.min(feature.start, position);
+				feature.end = Math.max(feature.end, position);
+			}
+			if (feature.end == -1)
+				return;
+			if (loc.contains("complement"))
+				feature.strand = "-1";
+			features.add(feature);
+		}
+
+		/**
+		 * Finish the current record, adding its contig and 16S sequences.
+		 */
+		private void endRecord() {
+			endFeature();
+			if (sequence != null && sequence.length() > 0) {
+				String header = description.toString();
+				if (header.endsWith("."))
+					header = header.substring(0, header.length() - 1);
+				PackedSequence packed = sequence.build();
+				Contig contig = new Contig(header, packed);
+				contig.setIndex(contigs.size() + 1);
+				contigs.add(contig);
+
+				for (RnaFeature feature : features) {
+					if (feature.end > packed.length())
+						continue;
+					String rna = packed.substring(feature.start - 1, feature.end);
+					if (feature.strand.equals("-1"))
+						rna = SequenceConverter
+								.getReverseComplementaryDNASequence(rna);
+					feature.data.put("sequence", rna);
+					feature.data.put("contig", String.valueOf(contig.index()));
+					rnas.add(new RnaSequence(feature.start, feature.end,
+							feature.data, feature.strand));
+				}
+
+				if (organism == null)
+					organism = getOrganism(header);
+			}
+			reset();
+		}
+
+		/**
+		 * Finish reading the file, adding the last record if it was not
+		 * terminated.
+		 */
+		private void finish() {
+			if (sequence != null)
+				endRecord();
+		}
+
+		/**
+		 * Create an organism from the source fields of the current record,
+		 * splitting the scientific name into genus, species and subspecies
+		 * in the same way as BioPerl.
+		 *
+		 * @param header
+		 *            the description of the record
+		 * @return the organism
+		 */
+		private Organism getOrganism(String header) {
+			String name = organismName == null ? "" : organismName;
+			List<String> classification = new ArrayList<String>();
+			for (String taxon : lineage.toString().split("[;.]+")) {
+				taxon = taxon.trim().replaceAll("\\s{2,}", " ");
+				if (taxon.length() > 0)
+					classification.add(taxon);
+			}
+
+			String genus = "";
+			String species = name;
+			String strain = "";
+			int size = classification.size();
+			for (int i = size - 1; i >= Math.max(0, size - 2); i--) {
+				String candidate = classification.get(i);
+				if (name.startsWith(candidate + " ")) {
+					genus = candidate;
+					species = name.substring(candidate.length()).trim();
+					break;
+				}
+			}
+			Matcher matcher = SUBSPECIES.matcher(species);
+			if (matcher.matches()) {
+				species = matcher.group(1);
+				strain = matcher.group(2);
+			}
+
+			// species to kingdom, as in BioPerl
+			classification.add(name);
+			List<String> reversed = new ArrayList<String>();
+			for (int i = classification.size() - 1; i >= 0; i--)
+				reversed.add(classification.get(i));
+
+			return new Organism(header, accession == null ? "" : accession,
+					genus, species, strain, reversed, "genbank");
 		}
 
-		return genome;
-	}	
-	
-	/**
-	 * @param file A string representing a path to the genbank file to parse
-	 * @param script The name of the perl script to execute.
-	 * @param session The session of the prism run.
-	 * @return process The process that was executed.
-	 */
-	private static Process runBioPerl(String file, String script, String root, String output) throws IOException, InterruptedException {
-		
-		List<String> commandStringBuilder = new ArrayList<String>();
-		commandStringBuilder.add("perl");
-		commandStringBuilder.add(root + script);
-		commandStringBuilder.add(file);
-		System.out.println(commandStringBuilder.toString());
-
-		ProcessBuilder pb = new ProcessBuilder(commandStringBuilder);
-		pb.redirectError(new File(output + "errors.txt"));
-		Process process = pb.start();
-	//	process.waitFor();
-		
-		return process;
 	}
+
 }
@@ -125,12 +125,12 @@ public class JsonUtils {
 		input.put("classification", organism.classification());
 		input.put("filename", prism.genome().filename());
 
-		StringBuilder seq = new StringBuilder();
+		int length = 0;
 		for (Contig f : prism.genome().contigs()) {
-			seq.append(f.sequence());
+			length += f.sequence().length();
 		}
 
-		input.put("length", seq.length());
+		input.put("length", length);
 		return input;
 	}
 
@@ -170,8 +170,7 @@ public class PrismFileWriter {
 			if (genome.contigs().size() == 1) {
 				Contig contig = genome.contigs().get(0);
 				if (contig.sequence() == null
-						|| contig.sequence().isEmpty()
-						|| contig.sequence().equals(""))
+						|| contig.sequence().length() == 0)
 					return; // for JSON
 				CircularGenomeGraph genomeGraph = new CircularGenomeGraph(genome, 400);
 				genomeGraph.write(session.dir() + "genome.svg");
@@ -232,8 +231,7 @@ public class PrismFileWriter {
 
 		List<Orf> orfs = null;
 		if (contig.sequence() == null
-				|| contig.sequence().isEmpty()
-				|| contig.sequence().equals("")) {
+				|| contig.sequence().length() == 0) {
 			// for JSON: just write all orfs
 			orfs = cluster.orfs();
 		} else {
@@ -254,8 +252,7 @@ public class PrismFileWriter {
 	 */
 	public static void writeGenomicClusterSequence(Cluster cluster, Contig contig, Session session) throws IOException {
 		if (contig.sequence() == null
-				|| contig.sequence().isEmpty()
-				|| contig.sequence().equals(""))
+				|| contig.sequence().length() == 0)
 			return; // for JSON
 		
 		Prism prism = (Prism) session.webapp();
@@ -270,7 +267,7 @@ public class PrismFileWriter {
 		if (end > contig.length())
 			end = contig.length();
 
-		String sequence = contig.sequence().substring(start, end);
+		String sequence = contig.sequence(start, end);
 
 		String header = "FASTA_item_" + contig.index() + "_Cluster_" + cluster.index();
 		String path = session.dir() + "cluster_" + cluster.index() + "_genomic.fasta";
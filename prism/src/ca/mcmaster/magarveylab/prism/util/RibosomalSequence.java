@@ -87,25 +87,19 @@ public class RibosomalSequence {
 				}
 				
 				if (name.equals("16S_rRNA")) {		
-					StringBuilder full = new StringBuilder();
-					for (Contig key :contigs) {
-						full.append(key.sequence());
-					}
-					
-					DNASequence seq = new DNASequence(full.toString());
+					int start = Integer.valueOf(parts[3]);
+					int end = Integer.valueOf(parts[4]);
 					
 					//if strand is -1 means it needs the reverse complement from the original sequence
-					String finalSequence;
+					String parsed;
 					if (parts[6].equals("-")) {
-						DNASequence sub = (DNASequence) seq.getSubSequence(Integer.valueOf(parts[3]), Integer.valueOf(parts[4])).getViewedSequence();
-						finalSequence = sub.getReverseComplement().getSequenceAsString();
+						DNASequence sub = new DNASequence(slice(start - 1, end));
+						String finalSequence = sub.getReverseComplement().getSequenceAsString();
+						parsed = finalSequence.substring(start, end + 1);
 					}else {
-						finalSequence = seq.getSequenceAsString();
+						parsed = slice(start, end + 1);
 					}
 					
-	
-					String parsed = finalSequence.substring(Integer.valueOf(parts[3]), Integer.valueOf(parts[4]) + 1);
-					
 				
 					RnaSequence rnaSeq = new RnaSequence(Integer.valueOf(parts[3]), Integer.valueOf(parts[4]), parts[6], name, product);
 					HashMap<String, String> data = new HashMap<String, String>();
@@ -119,4 +113,28 @@ public class RibosomalSequence {
 		return parsedSequences;
 	}
 	
+	/**
+	 * Get a slice of the sequence formed by joining all contigs end to end,
+	 * without building the joined sequence.
+	 * @param start The first position of the slice.
+	 * @param end One past the last position of the slice.
+	 * @return The nucleotide sequence between start and end.
+	 */
+	private String slice(int start, int end) {
+		StringBuilder sb = new StringBuilder();
+		int offset = 0;
+		for (Contig contig : contigs) {
+			int length = contig.sequence().length();
+			int from = Math.max(start, offset);
+			int to = Math.min(end, offset + length);
+			if (from < to)
+				sb.append(contig.sequence(from - offset, to - offset));
+			offset += length;
+		}
+		if (start < 0 || end > offset || start > end)
+			throw new StringIndexOutOfBoundsException("Slice " + start + "-"
+					+ end + " out of bounds for sequence of length " + offset);
+		return sb.toString();
+	}
+	
 }
@@ -0,0 +1,120 @@
+package ca.mcmaster.magarveylab.prism.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A bounded pool of worker threads used to run external searches (e.g.
+ * hmmsearch or BLASTp) concurrently. Tasks submitted together are executed in
+ * any order, but their results are always returned in the order in which the
+ * tasks were submitted, so that callers can merge results back onto orfs and
+ * domains exactly as they would have been merged by a serial search.<br>
+ * <br>
+ * With a single thread, tasks are simply executed one after another on the
+ * calling thread.
+ *
+ * @author skinnider
+ *
+ */
+public class SearchExecutor {
+
+	private int threads;
+	private ExecutorService executor;
+
+	/**
+	 * Instantiate a new search executor.
+	 *
+	 * @param threads
+	 *            the maximum number of searches to run at once
+	 */
+	public SearchExecutor(int threads) {
+		this.threads = Math.max(1, threads);
+		if (this.threads > 1)
+			executor = Executors.newFixedThreadPool(this.threads,
+					new ThreadFactory() {
+						private int count = 0;
+
+						@Override
+						public synchronized Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "prism-search-"
+									+ (++count));
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+	}
+
+	/**
+	 * Execute a list of searches and wait for all of them to complete.
+	 *
+	 * @param tasks
+	 *            the searches to execute
+	 * @return the result of each search, in the same order as the tasks
+	 * @throws IOException
+	 *             if any search throws an IOException, or any other checked
+	 *             exception
+	 * @throws InterruptedException
+	 */
+	public <T> List<T> invokeAll(List<? extends Callable<T>> tasks)
+			throws IOException, InterruptedException {
+		List<T> results = new ArrayList<T>();
+		if (executor == null) {
+			for (Callable<T> task : tasks) {
+				try {
+					results.add(task.call());
+				} catch (IOException | InterruptedException
+						| RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new IOException(e);
+				}
+			}
+			return results;
+		}
+
+		List<Future<T>> futures = executor.invokeAll(tasks);
+		for (Future<T> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException)
+					throw (IOException) cause;
+				if (cause instanceof InterruptedException)
+					throw (InterruptedException) cause;
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw new IOException(cause);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Get the maximum number of searches this executor runs at once.
+	 *
+	 * @return the number of worker threads
+	 */
+	public int threads() {
+		return threads;
+	}
+
+	/**
+	 * Stop all worker threads. Searches which have already been submitted are
+	 * allowed to complete.
+	 */
+	public void shutdown() {
+		if (executor != null)
+			executor.shutdown();
+	}
+
+}
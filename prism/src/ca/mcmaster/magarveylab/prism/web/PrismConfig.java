@@ -154,6 +154,73 @@ public class PrismConfig {
 	public List<GenePredictionModes> genePredictionModes = new ArrayList<GenePredictionModes>();
 
 	
+	/**
+	 * Optionally concatenate the hidden Markov models for all enabled domain
+	 * families into a single profile database, and search each contig against
+	 * it with one hmmsearch process, rather than one process per domain type.
+	 */
+	public boolean combinedHmmSearch = false;
+
+	/**
+	 * The maximum number of external searches (hmmsearch, BLASTp) to run
+	 * concurrently. Results are always merged in the same order as a serial
+	 * search.
+	 */
+	public int threads = 1;
+
+	/**
+	 * Read hmmsearch results from its tabular per-domain output
+	 * (--domtblout), rather than parsing the human-readable report.
+	 */
+	public boolean hmmDomainTable = true;
+
+	/**
+	 * Search for tailoring, sugar, resistance and regulator domains only
+	 * within the cluster window of orfs with biosynthetic domains, rather
+	 * than across the whole genome.
+	 */
+	public boolean tieredSearch = false;
+
+	/**
+	 * Score each hidden Markov model against the sequences to be searched
+	 * with an in-process MSV filter, and skip the hmmsearch for any model
+	 * with which no sequence passes.
+	 */
+	public boolean hmmPrefilter = false;
+
+	/**
+	 * Align domains to the small BLAST reference databases (condensation,
+	 * ketosynthase, CLF, C-starter, priming AT, chlorination and
+	 * glycosyltransferase) with an in-process Smith-Waterman search, rather
+	 * than launching BLASTp for each search.
+	 */
+	public boolean smithWaterman = false;
+
+	/**
+	 * The number of known clusters to calculate identity scores for, chosen
+	 * by the number of k-mers they share with each detected cluster. If 0,
+	 * identity scores are calculated for every known cluster.
+	 */
+	public int homologyCandidates = 0;
+
+	/**
+	 * Generate ECFP6 and FCFP6 fingerprints of cluster scaffold libraries
+	 * in-process, rather than running the RDKit script for each scaffold.
+	 */
+	public boolean nativeFingerprints = false;
+
+	/**
+	 * Directory of a persistent cache of hmmsearch hits, shared between
+	 * searches of related genomes. If null, hits are not cached. Hits are
+	 * only cached when hmmsearch results are read from the per-domain table.
+	 */
+	public String hmmCache = null;
+
+	/**
+	 * The maximum number of sequences to keep in the hmmsearch hit cache.
+	 */
+	public int hmmCacheSize = 500_000;
+
 	/**
 	 * Creates a terpene biosynthetic domain scanner
 	 */
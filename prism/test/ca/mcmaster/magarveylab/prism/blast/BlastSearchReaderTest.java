@@ -0,0 +1,92 @@
+package ca.mcmaster.magarveylab.prism.blast;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for the BLAST tabular output reader.
+ *
+ * @author skinnider
+ *
+ */
+public class BlastSearchReaderTest {
+
+	/**
+	 * Tabular output of two queries, in which the first query has two HSPs
+	 * against its first subject and three against its second.
+	 */
+	private static final String OUTPUT = "# BLASTP 2.2.31+\n"
+			+ line("orf1", 350, 412.0, "1e-120", 200, 250, 300, "BGC0000001|A1 adenylation domain")
+			+ line("orf1", 350, 35.4, "2e-05", 20, 30, 60, "BGC0000001|A1 adenylation domain")
+			+ line("orf1", 420, 210.0, "e-180", 100, 150, 280, "BGC0000002|A1 adenylation domain")
+			+ line("orf1", 420, 50.1, "1e-08", 25, 35, 70, "BGC0000002|A1 adenylation domain")
+			+ line("orf1", 420, 22.3, "0.5", 10, 15, 40, "BGC0000002|A1 adenylation domain")
+			+ line("orf2", 100, 80.0, "1e-20", 50, 60, 90, "BGC0000003|KS")
+			+ line("orf2", 100, 21.0, "0.9", 8, 10, 30, "BGC0000003|KS");
+
+	/**
+	 * Only the first, best-scoring HSP of each subject is read.
+	 */
+	@Test
+	public void testMultipleHsps() throws IOException {
+		List<BlastSearchResult> results = read(OUTPUT, -1);
+		assertEquals(3, results.size());
+		assertResult(results.get(0), "orf1", "BGC0000001|A1", 412.0, 1e-120, 300);
+		assertResult(results.get(1), "orf1", "BGC0000002|A1", 210.0, 1e-180, 280);
+		assertResult(results.get(2), "orf2", "BGC0000003|KS", 80.0, 1e-20, 90);
+		assertEquals(200.0 / 300, results.get(0).identity(), 1e-12);
+	}
+
+	/**
+	 * The number of subjects read per query counts subjects rather than HSPs.
+	 */
+	@Test
+	public void testReadLength() throws IOException {
+		List<BlastSearchResult> results = read(OUTPUT, 2);
+		assertEquals(3, results.size());
+		assertEquals("BGC0000002|A1", results.get(1).subject());
+
+		results = read(OUTPUT, 1);
+		assertEquals(2, results.size());
+		assertEquals("BGC0000001|A1", results.get(0).subject());
+		assertEquals("BGC0000003|KS", results.get(1).subject());
+	}
+
+	/**
+	 * Check the query, subject, score, E-value and coverage of a result.
+	 */
+	private static void assertResult(BlastSearchResult result, String query,
+			String subject, double score, double eValue, int coverage) {
+		assertEquals(query, result.query());
+		assertEquals(subject, result.subject());
+		assertEquals(score, result.score(), 1e-9);
+		assertEquals(eValue, result.eValue(), eValue * 1e-9);
+		assertEquals(coverage, result.coverage());
+	}
+
+	/**
+	 * Create a line of tabular output in the format requested by blastp.sh.
+	 */
+	private static String line(String query, int length, double score,
+			String eValue, int identities, int positives, int coverage,
+			String title) {
+		return query + "\t" + length + "\t" + score + "\t" + eValue + "\t"
+				+ identities + "\t" + positives + "\t" + coverage + "\t"
+				+ title + "\n";
+	}
+
+	/**
+	 * Read BLAST output.
+	 */
+	private static List<BlastSearchResult> read(String output, int readLength)
+			throws IOException {
+		return new BlastSearchReader(new BufferedReader(new StringReader(output))).read(readLength);
+	}
+
+}
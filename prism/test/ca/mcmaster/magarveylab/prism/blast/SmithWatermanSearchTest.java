@@ -0,0 +1,112 @@
+package ca.mcmaster.magarveylab.prism.blast;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for the scores and E-values reported by the in-process search, with
+ * BLASTp's Karlin-Altschul statistics and length adjustment.
+ *
+ * @author skinnider
+ *
+ */
+public class SmithWatermanSearchTest {
+
+	/**
+	 * Human insulin, the query in WebContent/tests/blast.
+	 */
+	static final String HUMAN_INSULIN = "MALWMRLLPLLALLALWGPDPAAAFVNQHLCGSHLVEALYLVCGERGFFYTPKTRREAEDLQVGQVELGG"
+			+ "GPGAGSLQPLALEGSLQKRGIVEQCCTSICSLYQLENYCN";
+
+	/**
+	 * Chimpanzee insulin, the only sequence in the database in
+	 * WebContent/tests/blast.
+	 */
+	static final String CHIMP_INSULIN = "MALWMRLLPLLVLLALWGPDPASAFVNQHLCGSHLVEALYLVCGERGFFYTPKTRREAEDLQVGQVELGG"
+			+ "GPGAGSLQPLALEGSLQKRGIVEQCCTSICSLYQLENYCN";
+
+	/**
+	 * The raw score of the insulin alignment: the sum of the BLOSUM62 scores
+	 * of the 110 aligned pairs, two of which (A/V and A/S) are substitutions.
+	 */
+	static final int INSULIN_SCORE = 582;
+
+	/**
+	 * The insulin query is searched against the database with the E-value of
+	 * its score in a search space of (110 - 12) * (110 - 12), where 12 is the
+	 * largest length adjustment which BLAST's condition allows for a query and
+	 * database of 110 residues.
+	 */
+	@Test
+	public void testKnownEValue() throws IOException {
+		SmithWatermanSearch search = new SmithWatermanSearch("WebContent/tests/blast/database",
+				"WebContent/tests/blast/query.fasta");
+		List<BlastSearchResult> results = search.run(-1);
+		assertEquals(1, results.size());
+		BlastSearchResult result = results.get(0);
+		assertEquals("gi|386828|gb|AAA59172.1|", result.query());
+		assertEquals("gi|57113877|ref|NP_001008996.1|", result.subject());
+		assertEquals(228.8, result.score(), 1e-9);
+		assertEquals(1.2837e-65, result.eValue(), 1e-69);
+		assertEquals(108.0 / 110, result.identity(), 1e-12);
+		assertEquals(110, result.coverage());
+
+		assertEquals(12, SmithWatermanSearch.lengthAdjustment(110, 110, 1));
+		assertEquals(result.eValue(), SmithWatermanSearch.eValue(INSULIN_SCORE, 98.0 * 98.0), 0);
+	}
+
+	/**
+	 * The length adjustment is the largest integer which satisfies BLAST's
+	 * condition, found by trying every adjustment, for queries and databases
+	 * of the sizes PRISM searches.
+	 */
+	@Test
+	public void testLengthAdjustment() {
+		int[] queries = { 20, 50, 110, 300, 1000, 5000 };
+		long[][] databases = { { 110, 1 }, { 5000, 20 }, { 300000, 1000 }, { 2000000, 6000 },
+				{ 60000000, 200000 }, { 1000000000L, 3000000 } };
+		for (int query : queries)
+			for (long[] database : databases)
+				assertEquals(query + " vs " + database[0] + "/" + database[1],
+						lengthAdjustment(query, database[0], (int) database[1]),
+						SmithWatermanSearch.lengthAdjustment(query, database[0], (int) database[1]));
+	}
+
+	/**
+	 * The E-value of a score is K m n e^(-lambda S), and the bit score is
+	 * (lambda S - ln K) / ln 2.
+	 */
+	@Test
+	public void testStatistics() {
+		assertEquals(0.041 * 1e6 * Math.exp(-0.267 * 50), SmithWatermanSearch.eValue(50, 1e6), 1e-15);
+		assertEquals((0.267 * 50 - Math.log(0.041)) / Math.log(2), SmithWatermanSearch.bitScore(50), 1e-12);
+		assertEquals(0, SmithWatermanSearch.lengthAdjustment(10, 10, 1));
+	}
+
+	/**
+	 * Find the largest length adjustment l for which the search space
+	 * (m - l)(n - N l) still satisfies K (m - l)(n - N l) > max(m, n) and
+	 * alpha / lambda (ln K + ln((m - l)(n - N l))) + beta >= l, by trying
+	 * every adjustment in turn.
+	 */
+	private static int lengthAdjustment(int m, long n, int N) {
+		double K = SmithWatermanSearch.K;
+		int adjustment = 0;
+		for (int ell = 0; ell < m; ell++) {
+			double space = (m - ell) * (double) (n - (long) N * ell);
+			if (space <= 0 || K * space <= Math.max(m, n))
+				break;
+			double expected = SmithWatermanSearch.ALPHA / SmithWatermanSearch.LAMBDA * (Math.log(K) + Math.log(space))
+					+ SmithWatermanSearch.BETA;
+			if (expected < ell)
+				break;
+			adjustment = ell;
+		}
+		return adjustment;
+	}
+
+}
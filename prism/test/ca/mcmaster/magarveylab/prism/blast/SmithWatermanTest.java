@@ -0,0 +1,148 @@
+package ca.mcmaster.magarveylab.prism.blast;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests that the lane-parallel alignment kernel and the full dynamic
+ * programming alignment give the optimal local alignment score, by comparing
+ * them to a naive scalar Smith-Waterman which scores every gap length
+ * explicitly.
+ *
+ * @author skinnider
+ *
+ */
+public class SmithWatermanTest {
+
+	private static final String RESIDUES = "ACDEFGHIKLMNPQRSTVWY";
+
+	/**
+	 * Scores of unrelated random sequences of different lengths, including
+	 * empty subjects, match the naive scores.
+	 */
+	@Test
+	public void testRandomPairs() {
+		Random random = new Random(22);
+		for (int i = 0; i < 5; i++) {
+			byte[] query = SmithWaterman.encode(random(random, 1 + random.nextInt(150)));
+			byte[][] subjects = new byte[19][];
+			for (int j = 0; j < subjects.length; j++)
+				subjects[j] = SmithWaterman.encode(random(random, random.nextInt(150)));
+			assertScores(query, subjects);
+		}
+	}
+
+	/**
+	 * Scores of homologous sequences, whose optimal alignments contain
+	 * substitutions and gaps of different lengths, match the naive scores.
+	 */
+	@Test
+	public void testHomologousPairs() {
+		Random random = new Random(6);
+		for (int i = 0; i < 5; i++) {
+			String query = random(random, 50 + random.nextInt(100));
+			byte[][] subjects = new byte[13][];
+			for (int j = 0; j < subjects.length; j++)
+				subjects[j] = SmithWaterman.encode(mutate(random, query));
+			assertScores(SmithWaterman.encode(query), subjects);
+		}
+	}
+
+	/**
+	 * Ambiguous and non-standard residues, and characters which are not
+	 * residues, are scored in the same way by every method.
+	 */
+	@Test
+	public void testUnusualResidues() {
+		byte[] query = SmithWaterman.encode("MKBZXJUO*ACDEFGHIKLMN-PQRSTVWY1");
+		byte[][] subjects = { SmithWaterman.encode("ACDEFXXBZJUOGHIKLMN*PQRSTVWY"),
+				SmithWaterman.encode("mkbzxjuo*acdefghiklmnpqrstvwy") };
+		assertScores(query, subjects);
+	}
+
+	/**
+	 * Human and chimpanzee insulin differ by two substitutions, so the optimal
+	 * alignment is the full-length ungapped alignment.
+	 */
+	@Test
+	public void testInsulin() {
+		SmithWaterman sw = new SmithWaterman(SmithWaterman.encode(SmithWatermanSearchTest.HUMAN_INSULIN));
+		SmithWaterman.Alignment alignment = sw.align(SmithWaterman.encode(SmithWatermanSearchTest.CHIMP_INSULIN));
+		assertEquals(SmithWatermanSearchTest.INSULIN_SCORE, alignment.score());
+		assertEquals(110, alignment.length());
+		assertEquals(108, alignment.identities());
+		assertEquals(109, alignment.positives());
+	}
+
+	/**
+	 * Check the scores of a query against a set of subjects, from the kernel
+	 * and from full alignment, against the naive scores.
+	 */
+	private static void assertScores(byte[] query, byte[][] subjects) {
+		SmithWaterman sw = new SmithWaterman(query);
+		int[] scores = sw.score(subjects);
+		for (int i = 0; i < subjects.length; i++) {
+			int expected = naive(query, subjects[i]);
+			assertEquals("Subject " + i, expected, scores[i]);
+			assertEquals("Subject " + i, expected, sw.align(subjects[i]).score());
+		}
+	}
+
+	/**
+	 * Calculate the optimal local alignment score with the textbook
+	 * recurrence, in which a gap of length k costs the gap open cost plus k
+	 * times the gap extension cost.
+	 */
+	private static int naive(byte[] query, byte[] subject) {
+		int m = query.length, n = subject.length;
+		int[][] h = new int[m + 1][n + 1];
+		int best = 0;
+		for (int i = 1; i <= m; i++)
+			for (int j = 1; j <= n; j++) {
+				int score = Math.max(0, h[i - 1][j - 1] + SmithWaterman.score(query[i - 1], subject[j - 1]));
+				for (int k = 1; k <= j; k++)
+					score = Math.max(score, h[i][j - k] - gap(k));
+				for (int k = 1; k <= i; k++)
+					score = Math.max(score, h[i - k][j] - gap(k));
+				h[i][j] = score;
+				best = Math.max(best, score);
+			}
+		return best;
+	}
+
+	private static int gap(int length) {
+		return SmithWaterman.GAP_OPEN + length * SmithWaterman.GAP_EXTEND;
+	}
+
+	private static String random(Random random, int length) {
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+			sb.append(RESIDUES.charAt(random.nextInt(RESIDUES.length())));
+		return sb.toString();
+	}
+
+	/**
+	 * Copy a sequence with random substitutions, insertions and deletions.
+	 */
+	private static String mutate(Random random, String sequence) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < sequence.length(); i++) {
+			double r = random.nextDouble();
+			if (r < 0.15) {
+				sb.append(RESIDUES.charAt(random.nextInt(RESIDUES.length())));
+			} else if (r < 0.18) {
+				sb.append(random(random, 1 + random.nextInt(15)));
+				sb.append(sequence.charAt(i));
+			} else if (r < 0.21) {
+				i += random.nextInt(15);
+			} else {
+				sb.append(sequence.charAt(i));
+			}
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,163 @@
+package ca.mcmaster.magarveylab.prism.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests that packed sequences read back exactly as they were written,
+ * including runs of N and IUPAC ambiguity codes and lowercase nucleotides,
+ * and that the runs of unpacked characters are reported correctly.
+ *
+ * @author skinnider
+ *
+ */
+public class PackedSequenceTest {
+
+	/**
+	 * A sequence with runs of N, ambiguity codes and lowercase nucleotides
+	 * reads back unchanged, character by character and as slices.
+	 */
+	@Test
+	public void testRoundTrip() {
+		String sequence = "ACGTNNNNNacgtnnnRYKMSWBDHVrykmswbdhvACGTacGTaCgTNnNn-*XACGT";
+		assertRoundTrip(sequence);
+	}
+
+	/**
+	 * Runs which cross the boundaries between packed words, and more runs than
+	 * the builder initially has room for, read back unchanged.
+	 */
+	@Test
+	public void testRandomSequences() {
+		Random random = new Random(13);
+		for (int i = 0; i < 50; i++)
+			assertRoundTrip(random(random, 1 + random.nextInt(3000)));
+	}
+
+	/**
+	 * Sequences of only packed or only unpacked characters, and the empty
+	 * sequence, read back unchanged.
+	 */
+	@Test
+	public void testUniformSequences() {
+		assertRoundTrip("");
+		assertRoundTrip("ACGTACGTACGTACGTACGTACGTACGTACGTA");
+		assertRoundTrip("acgtacgtacgtacgtacgtacgtacgtacgta");
+		assertRoundTrip("NNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNN");
+		assertRoundTrip("RYRYRYRYRYRYRYRYRYRYRYRYRYRYRYRYRYRYRYRY");
+	}
+
+	/**
+	 * Sequences built one character at a time equal those packed from a string.
+	 */
+	@Test
+	public void testBuilder() {
+		String sequence = "ACGTNNNNacgtRYKMnnnACGT";
+		PackedSequence.Builder builder = new PackedSequence.Builder(1);
+		for (int i = 0; i < 100; i++)
+			for (char c : sequence.toCharArray())
+				builder.append(c);
+		assertEquals(100 * sequence.length(), builder.length());
+
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 100; i++)
+			expected.append(sequence);
+		assertEquals(expected.toString(), builder.build().toString());
+	}
+
+	/**
+	 * Masked intervals are the runs of N in either case, with adjacent runs of
+	 * N and n merged, and runs of other characters excluded.
+	 */
+	@Test
+	public void testMaskedIntervals() {
+		PackedSequence sequence = PackedSequence.valueOf("ACGTNNNNacgtnnNNACRRNYNNNNT");
+		int[][] intervals = sequence.maskedIntervals();
+		assertEquals(4, intervals.length);
+		assertArrayEquals(new int[] { 4, 8 }, intervals[0]);
+		assertArrayEquals(new int[] { 12, 16 }, intervals[1]);
+		assertArrayEquals(new int[] { 20, 21 }, intervals[2]);
+		assertArrayEquals(new int[] { 22, 26 }, intervals[3]);
+
+		assertEquals(0, PackedSequence.valueOf("ACGTacgtRYKM").maskedIntervals().length);
+	}
+
+	/**
+	 * Other characters are every distinct character which is not packed, in
+	 * the order they first appear, and do not include lowercase nucleotides.
+	 */
+	@Test
+	public void testOtherCharacters() {
+		PackedSequence sequence = PackedSequence.valueOf("acgtNNRYnACGTRkN-");
+		assertEquals(Arrays.asList('N', 'R', 'Y', 'n', 'k', '-'),
+				Arrays.asList(sequence.otherCharacters().toArray()));
+		assertEquals(0, PackedSequence.valueOf("ACGTacgt").otherCharacters().size());
+	}
+
+	/**
+	 * Positions and ranges outside the sequence are rejected.
+	 */
+	@Test
+	public void testBounds() {
+		PackedSequence sequence = PackedSequence.valueOf("ACGTN");
+		for (int index : new int[] { -1, 5 })
+			try {
+				sequence.charAt(index);
+				throw new AssertionError("Read position " + index);
+			} catch (IndexOutOfBoundsException e) {
+				// expected
+			}
+		for (int[] range : new int[][] { { -1, 2 }, { 2, 6 }, { 3, 2 } })
+			try {
+				sequence.getChars(range[0], range[1], new char[10], 0);
+				throw new AssertionError("Read range " + range[0] + "-" + range[1]);
+			} catch (IndexOutOfBoundsException e) {
+				// expected
+			}
+	}
+
+	/**
+	 * Pack a sequence, and check that every character and a range of slices
+	 * read back unchanged.
+	 */
+	private static void assertRoundTrip(String sequence) {
+		PackedSequence packed = PackedSequence.valueOf(sequence);
+		assertEquals(sequence.length(), packed.length());
+		assertEquals(sequence, packed.toString());
+		for (int i = 0; i < sequence.length(); i++)
+			assertEquals("Position " + i, sequence.charAt(i), packed.charAt(i));
+
+		Random random = new Random(sequence.length());
+		for (int i = 0; i < 100 && sequence.length() > 0; i++) {
+			int start = random.nextInt(sequence.length());
+			int end = start + random.nextInt(sequence.length() - start + 1);
+			assertEquals(sequence.substring(start, end), packed.substring(start, end));
+
+			char[] chars = new char[end - start + 2];
+			packed.getChars(start, end, chars, 1);
+			assertEquals(sequence.substring(start, end), new String(chars, 1, end - start));
+		}
+	}
+
+	/**
+	 * Get a random sequence of runs of nucleotides, lowercase nucleotides, N
+	 * and ambiguity codes.
+	 */
+	private static String random(Random random, int length) {
+		String[] alphabets = { "ACGT", "acgt", "N", "n", "RYKMSWBDHV", "ACGTacgt" };
+		StringBuilder sb = new StringBuilder(length);
+		while (sb.length() < length) {
+			String alphabet = alphabets[random.nextInt(alphabets.length)];
+			int run = 1 + random.nextInt(random.nextBoolean() ? 4 : 80);
+			for (int i = 0; i < run && sb.length() < length; i++)
+				sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return sb.toString();
+	}
+
+}
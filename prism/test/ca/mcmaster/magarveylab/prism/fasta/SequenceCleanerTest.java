@@ -0,0 +1,114 @@
+package ca.mcmaster.magarveylab.prism.fasta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ca.mcmaster.magarveylab.prism.data.PackedSequence;
+
+/**
+ * Tests that sequences are cleaned in the same way whether they are held as
+ * strings or packed, and that only unsupported characters are changed.
+ *
+ * @author skinnider
+ *
+ */
+public class SequenceCleanerTest {
+
+	private static final String AMBIGUITY_CODES = "RYKMSWBDHVrykmswbdhv";
+
+	/**
+	 * Nucleotides and N are kept in either case, ambiguity codes are resolved
+	 * to one of the nucleotides they represent, and all other characters are
+	 * replaced with N.
+	 */
+	@Test
+	public void testClean() {
+		String sequence = "ACGTNacgtnRYKMSWBDHVrykmswbdhv-*X.";
+		String cleaned = SequenceCleaner.clean(sequence);
+		assertEquals(sequence.length(), cleaned.length());
+		assertEquals("ACGTNacgtn", cleaned.substring(0, 10));
+		String[] resolutions = { "AG", "TC", "GT", "AC", "GC", "TA", "CTG", "ATG", "CTA", "CAG" };
+		for (int i = 0; i < 20; i++)
+			assertTrue(sequence.charAt(10 + i) + " resolved to " + cleaned.charAt(10 + i),
+					resolutions[i % 10].indexOf(cleaned.charAt(10 + i)) != -1);
+		assertEquals("NNNN", cleaned.substring(30));
+		assertEquals(cleaned, SequenceCleaner.clean(sequence));
+	}
+
+	/**
+	 * Cleaning part of a buffer resolves ambiguity codes as they are resolved
+	 * at the same position in the complete sequence.
+	 */
+	@Test
+	public void testCleanSlice() {
+		String sequence = random(new Random(3), 5000);
+		String cleaned = SequenceCleaner.clean(sequence);
+		for (int start = 0; start < sequence.length(); start += 777) {
+			int end = Math.min(sequence.length(), start + 1000);
+			char[] buffer = sequence.toCharArray();
+			SequenceCleaner.clean(buffer, start, end, start);
+			assertEquals(cleaned.substring(start, end), new String(buffer, start, end - start));
+		}
+	}
+
+	/**
+	 * Cleaning a packed sequence, which is read in slices, gives the same
+	 * sequence as cleaning it as a string, and keeps runs of N and lowercase
+	 * nucleotides.
+	 */
+	@Test
+	public void testCleanPacked() {
+		Random random = new Random(17);
+		for (int i = 0; i < 20; i++) {
+			String sequence = random(random, 1 + random.nextInt(30000));
+			PackedSequence cleaned = SequenceCleaner.clean(PackedSequence.valueOf(sequence));
+			assertEquals(SequenceCleaner.clean(sequence), cleaned.toString());
+			for (char c : cleaned.otherCharacters())
+				assertTrue(c == 'N' || c == 'n');
+		}
+	}
+
+	/**
+	 * A packed sequence without ambiguity codes is returned unchanged.
+	 */
+	@Test
+	public void testCleanPackedUnchanged() {
+		PackedSequence sequence = PackedSequence.valueOf("ACGTNNNNacgtnnnnACGT");
+		assertSame(sequence, SequenceCleaner.clean(sequence));
+	}
+
+	/**
+	 * Nucleotides, N and ambiguity codes are valid, and other characters are
+	 * not.
+	 */
+	@Test
+	public void testIsValid() {
+		for (char c : ("ACGTNacgtn" + AMBIGUITY_CODES).toCharArray())
+			assertTrue(String.valueOf(c), SequenceCleaner.isValid(c));
+		for (char c : "-*X.EeUu \u00e9\u4e00".toCharArray())
+			assertFalse(String.valueOf(c), SequenceCleaner.isValid(c));
+	}
+
+	/**
+	 * Get a random sequence of runs of nucleotides, lowercase nucleotides, N
+	 * and ambiguity codes.
+	 */
+	private static String random(Random random, int length) {
+		String[] alphabets = { "ACGT", "acgt", "N", "n", AMBIGUITY_CODES, "ACGTacgt" };
+		StringBuilder sb = new StringBuilder(length);
+		while (sb.length() < length) {
+			String alphabet = alphabets[random.nextInt(alphabets.length)];
+			int run = 1 + random.nextInt(random.nextBoolean() ? 4 : 80);
+			for (int i = 0; i < run && sb.length() < length; i++)
+				sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,51 @@
+package ca.mcmaster.magarveylab.prism.genome;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+import ca.mcmaster.magarveylab.prism.genome.data.HmmSearchResult;
+
+/**
+ * Tests for the hmmsearch domain table reader.
+ *
+ * @author skinnider
+ *
+ */
+public class HmmDomainTableReaderTest {
+
+	/**
+	 * A weak domain on a sequence with a strong hit is included when its
+	 * conditional E-value passes --incdomE, even if its independent E-value
+	 * does not, as hmmsearch marks it with '!' in its text report.
+	 */
+	@Test
+	public void testConditionalDomainInclusion() throws IOException {
+		String table = HmmSearchTest.line("orf1", 1e-40, 150.0, 1e-42, 1e-40, 1, 3, 10, 90) + "\n"
+				+ HmmSearchTest.line("orf1", 1e-40, 12.0, 0.004, 0.4, 2, 3, 120, 180) + "\n"
+				+ HmmSearchTest.line("orf1", 1e-40, 9.0, 0.05, 5.0, 3, 3, 200, 250) + "\n";
+		List<HmmSearchResult> results = HmmSearchTest.read(table);
+		assertEquals(1, results.size());
+		HmmSearchResult result = results.get(0);
+		assertEquals(2, result.annotations().size());
+		assertEquals(10, result.annotations().get(0).start());
+		assertEquals(120, result.annotations().get(1).start());
+
+		// the best domain E-value is still the independent E-value
+		assertEquals(1e-40, result.bestDomainEValue, 1e-50);
+	}
+
+	/**
+	 * Sequences above the per-sequence inclusion threshold are skipped, along
+	 * with all of their domains.
+	 */
+	@Test
+	public void testSequenceInclusion() throws IOException {
+		String table = HmmSearchTest.line("orf1", 0.02, 20.0, 0.001, 0.02, 1, 1, 10, 90) + "\n";
+		assertEquals(0, HmmSearchTest.read(table).size());
+	}
+
+}
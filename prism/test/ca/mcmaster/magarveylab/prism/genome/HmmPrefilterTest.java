@@ -0,0 +1,198 @@
+package ca.mcmaster.magarveylab.prism.genome;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Recall tests for the hidden Markov model prefilter. The prefilter must never
+ * reject a model which hmmsearch would report a hit for.
+ *
+ * @author skinnider
+ *
+ */
+public class HmmPrefilterTest {
+
+	private static final String TESTS = "WebContent" + File.separator + "tests" + File.separator + "hmm"
+			+ File.separator;
+
+	private static final String MODELS = "WebContent" + File.separator + "hmm";
+
+	/**
+	 * The sequences which hmmsearch reports as hits to the installation test
+	 * model pass the filter, alone and among unrelated sequences.
+	 */
+	@Test
+	public void testInstallationModel() throws IOException {
+		String model = TESTS + "database.hmm";
+		for (String sequence : readFasta(TESTS + "query.fasta")) {
+			assertTrue(HmmPrefilter.accepts(model, sequence));
+			List<String> sequences = random(new Random(0), 50, 300);
+			sequences.add(25, sequence);
+			assertTrue(new HmmPrefilter(sequences).accepts(model));
+		}
+		for (String sequence : readFasta(TESTS + "database.fasta"))
+			assertTrue(HmmPrefilter.accepts(model, sequence));
+	}
+
+	/**
+	 * The consensus sequence of every HMMER3 model shipped with PRISM passes
+	 * the filter for its own model file, including when it is flanked by
+	 * unrelated sequence.
+	 */
+	@Test
+	public void testModelConsensus() throws IOException {
+		Random random = new Random(0);
+		List<File> files = new ArrayList<File>();
+		findModels(new File(MODELS), files);
+		assertTrue(files.size() > 0);
+
+		int tested = 0;
+		for (File file : files) {
+			List<String> consensus = consensus(file);
+			if (consensus.size() == 0 || MsvProfile.get(file.getPath()).size() == 0)
+				continue;
+			for (String sequence : consensus) {
+				assertTrue(file.getPath(), HmmPrefilter.accepts(file.getPath(), sequence));
+				String flanked = random(random, 1, 200).get(0) + sequence + random(random, 1, 200).get(0);
+				assertTrue(file.getPath(), HmmPrefilter.accepts(file.getPath(), flanked));
+				tested++;
+			}
+		}
+		assertTrue(tested > 100);
+	}
+
+	/**
+	 * Models are rejected when no sequence can hit them, which is what allows
+	 * hmmsearch to be skipped.
+	 */
+	@Test
+	public void testRejectsUnrelatedSequences() throws IOException {
+		String model = TESTS + "database.hmm";
+		HmmPrefilter prefilter = new HmmPrefilter(Arrays.asList("WWWWWWWWWWWWWWWWWWWWWWWWWWWWWW"));
+		assertFalse(prefilter.accepts(model));
+	}
+
+	/**
+	 * Models which cannot be parsed are always searched.
+	 */
+	@Test
+	public void testUnparsedModel() throws IOException {
+		List<File> files = new ArrayList<File>();
+		findModels(new File(MODELS), files);
+		for (File file : files)
+			if (MsvProfile.get(file.getPath()).size() == 0) {
+				assertTrue(new HmmPrefilter(Arrays.asList("WWWWWWWWWW")).accepts(file.getPath()));
+				return;
+			}
+	}
+
+	/**
+	 * Find all model files in a directory and its subdirectories.
+	 */
+	private static void findModels(File dir, List<File> files) {
+		File[] children = dir.listFiles();
+		if (children == null)
+			return;
+		Arrays.sort(children);
+		for (File child : children)
+			if (child.isDirectory())
+				findModels(child, files);
+			else if (child.getName().endsWith(".hmm"))
+				files.add(child);
+	}
+
+	/**
+	 * Read the consensus sequence of every HMMER3 model in a file: the most
+	 * probable residue of each match state.
+	 */
+	private static List<String> consensus(File file) throws IOException {
+		List<String> sequences = new ArrayList<String>();
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		StringBuilder sb = null;
+		int line = 0;
+		String text = null;
+		while ((text = br.readLine()) != null) {
+			String[] tokens = text.trim().split("\\s+");
+			if (tokens[0].equals("HMM")) {
+				sb = new StringBuilder();
+				line = 0;
+			} else if (tokens[0].equals("//")) {
+				if (sb != null && sb.length() > 0)
+					sequences.add(sb.toString());
+				sb = null;
+			} else if (sb != null) {
+				// after the transition header, the optional composition line
+				// and node 0, each node has a match emission line, an insert
+				// emission line and a transition line
+				if (!tokens[0].equals("COMPO"))
+					line++;
+				if (line < 4 || (line - 4) % 3 != 0 || tokens.length < 21)
+					continue;
+				int best = 0;
+				for (int x = 1; x < 20; x++)
+					if (emission(tokens[x + 1]) < emission(tokens[best + 1]))
+						best = x;
+				sb.append(MsvProfile.ALPHABET.charAt(best));
+			}
+		}
+		br.close();
+		return sequences;
+	}
+
+	/**
+	 * Parse a match emission, given as a negative log probability.
+	 */
+	private static double emission(String value) {
+		return value.equals("*") ? Double.POSITIVE_INFINITY : Double.parseDouble(value);
+	}
+
+	/**
+	 * Read the sequences in a FASTA file.
+	 */
+	private static List<String> readFasta(String path) throws IOException {
+		List<String> sequences = new ArrayList<String>();
+		BufferedReader br = new BufferedReader(new FileReader(path));
+		StringBuilder sb = null;
+		String line = null;
+		while ((line = br.readLine()) != null) {
+			if (line.startsWith(">")) {
+				if (sb != null)
+					sequences.add(sb.toString());
+				sb = new StringBuilder();
+			} else if (sb != null) {
+				sb.append(line.trim());
+			}
+		}
+		if (sb != null)
+			sequences.add(sb.toString());
+		br.close();
+		return sequences;
+	}
+
+	/**
+	 * Create random amino acid sequences.
+	 */
+	private static List<String> random(Random random, int count, int length) {
+		List<String> sequences = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			StringBuilder sb = new StringBuilder();
+			for (int j = 0; j < length; j++)
+				sb.append(MsvProfile.ALPHABET.charAt(random.nextInt(20)));
+			sequences.add(sb.toString());
+		}
+		return sequences;
+	}
+
+}
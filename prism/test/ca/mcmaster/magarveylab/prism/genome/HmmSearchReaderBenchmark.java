@@ -0,0 +1,146 @@
+package ca.mcmaster.magarveylab.prism.genome;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import ca.mcmaster.magarveylab.prism.genome.data.HmmSearchResult;
+import ca.mcmaster.magarveylab.prism.genome.data.HmmSearchResultAnnotation;
+
+/**
+ * Compares the time taken to read the results of a large hmmsearch from its
+ * text report with {@link HmmSearchReader} and from its domain table with
+ * {@link HmmDomainTableReader}. The same search is written in both formats,
+ * with one to three domains per target sequence, some of which fall below the
+ * domain inclusion threshold.<br>
+ * <br>
+ * This is not a unit test. Run it on the test classpath with:<br>
+ * <code>java ca.mcmaster.magarveylab.prism.genome.HmmSearchReaderBenchmark
+ * [targets] [iterations]</code>
+ *
+ * @author skinnider
+ *
+ */
+public class HmmSearchReaderBenchmark {
+
+	private static final int WARMUP = 2;
+
+	public static void main(String[] args) throws IOException {
+		int targets = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		StringBuilder report = new StringBuilder();
+		StringBuilder table = new StringBuilder();
+		write(targets, report, table);
+		String text = report.toString();
+		String domains = table.toString();
+
+		// both readers must find the same results
+		if (!summarize(readReport(text)).equals(summarize(readTable(domains))))
+			throw new IllegalStateException("Readers found different results");
+
+		long[] tabular = new long[iterations];
+		long[] scraped = new long[iterations];
+		for (int i = -WARMUP; i < iterations; i++) {
+			long start = System.nanoTime();
+			readTable(domains);
+			long time = System.nanoTime() - start;
+			if (i >= 0)
+				tabular[i] = time;
+
+			start = System.nanoTime();
+			readReport(text);
+			time = System.nanoTime() - start;
+			if (i >= 0)
+				scraped[i] = time;
+		}
+
+		System.out.println(String.format("%d targets, %.1f MB report, %.1f MB domain table", targets,
+				text.length() / 1e6, domains.length() / 1e6));
+		System.out.println(String.format("domain table:    %8.1f ms", median(tabular)));
+		System.out.println(String.format("text report:     %8.1f ms", median(scraped)));
+		System.out.println(String.format("speedup:         %8.1fx", median(scraped) / median(tabular)));
+	}
+
+	private static List<HmmSearchResult> readReport(String report) throws IOException {
+		return new HmmSearchReader(new BufferedReader(new StringReader(report))).read();
+	}
+
+	private static List<HmmSearchResult> readTable(String table) throws IOException {
+		return new HmmDomainTableReader(new BufferedReader(new StringReader(table))).read();
+	}
+
+	/**
+	 * Write the same search as a hmmsearch text report without alignments
+	 * and as a domain table.
+	 */
+	private static void write(int targets, StringBuilder report, StringBuilder table) {
+		Random random = new Random(4);
+		double[][][] hits = new double[targets][][];
+		for (int t = 0; t < targets; t++) {
+			// sequences are reported in order of E-value, and all are included
+			double sequenceEValue = 1e-100 * Math.pow(1e95, (double) t / targets);
+			hits[t] = new double[1 + random.nextInt(3)][];
+			for (int d = 0; d < hits[t].length; d++) {
+				// a quarter of domains are excluded, clear of the rounding of the threshold
+				double conditional = random.nextInt(4) == 0 ? 0.02 + 0.5 * random.nextDouble() : sequenceEValue * 10;
+				double score = 20 + random.nextInt(3000) / 10.0;
+				hits[t][d] = new double[] { sequenceEValue, score, conditional, conditional * targets,
+						1 + d * 400, 300 + d * 400 };
+			}
+		}
+
+		report.append("# hmmsearch :: search profile(s) against a sequence database\n"
+				+ "# HMMER 3.1b2 (February 2015); http://hmmer.org/\n\n"
+				+ "Query:       model  [M=300]\n"
+				+ "Scores for complete sequences (score includes all domains):\n"
+				+ "   --- full sequence ---   --- best 1 domain ---    -#dom-\n"
+				+ "    E-value  score  bias    E-value  score  bias    exp  N  Sequence Description\n"
+				+ "    ------- ------ -----    ------- ------ -----   ---- --  -------- -----------\n");
+		for (int t = 0; t < targets; t++)
+			report.append(String.format("  %9.2g %6.1f %5.1f  %9.2g %6.1f %5.1f %6.1f %2d  %-8s -\n", hits[t][0][0],
+					hits[t][0][1], 0.1, hits[t][0][3], hits[t][0][1], 0.1, 1.0, hits[t].length, "orf" + t));
+		report.append("\n\nDomain annotation for each sequence:\n");
+		for (int t = 0; t < targets; t++) {
+			report.append(">> orf" + t + "  -\n"
+					+ "   #    score  bias  c-Evalue  i-Evalue hmmfrom  hmm to    alifrom  ali to    envfrom  env to     acc\n"
+					+ " ---   ------ ----- --------- --------- ------- -------    ------- -------    ------- -------    ----\n");
+			for (int d = 0; d < hits[t].length; d++) {
+				double[] hit = hits[t][d];
+				char included = hit[2] <= HmmDomainTableReader.DOMAIN_INCLUSION_EVALUE ? '!' : '?';
+				report.append(String.format(" %3d %c %6.1f %5.1f %9.2g %9.2g %7d %7d .. %7d %7d .. %7d %7d .. %4.2f\n",
+						d + 1, included, hit[1], 0.1, hit[2], hit[3], 1, 300, (int) hit[4], (int) hit[5],
+						(int) hit[4], (int) hit[5], 0.9));
+				table.append(HmmSearchTest.line("orf" + t, hit[0], hit[1], hit[2], hit[3], d + 1, hits[t].length,
+						(int) hit[4], (int) hit[5]) + "\n");
+			}
+			report.append("\n");
+		}
+		report.append("\nInternal pipeline statistics summary:\n-------------------------------------\n//\n");
+	}
+
+	/**
+	 * Summarize the name and annotations of every result, in order.
+	 */
+	private static List<String> summarize(List<HmmSearchResult> results) {
+		List<String> summary = new ArrayList<String>();
+		for (HmmSearchResult result : results) {
+			StringBuilder sb = new StringBuilder(result.name);
+			for (HmmSearchResultAnnotation annotation : result.annotations())
+				sb.append(" " + annotation.start() + "-" + annotation.end() + ":" + annotation.score());
+			summary.add(sb.toString());
+		}
+		return summary;
+	}
+
+	private static double median(long[] times) {
+		long[] sorted = Arrays.copyOf(times, times.length);
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2] / 1e6;
+	}
+
+}
@@ -0,0 +1,255 @@
+package ca.mcmaster.magarveylab.prism.genome;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ca.mcmaster.magarveylab.prism.genome.data.HmmSearchResult;
+import ca.mcmaster.magarveylab.prism.util.Numbers;
+
+/**
+ * Tests for the domain tables HmmSearch assembles from hits calculated for a
+ * database of size one.
+ *
+ * @author skinnider
+ *
+ */
+public class HmmSearchTest {
+
+	private static final String MODEL = "model";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Hits read back from the cache give the same domain table as the hits
+	 * of a new search, and both match the domain table hmmsearch outputs when
+	 * run with -Z set to the size of the database: sequence and independent
+	 * E-values are scaled by the database size, conditional E-values by the
+	 * number of reported sequences, and the domain reporting threshold
+	 * applies to the conditional E-value.
+	 */
+	@Test
+	public void testCachedDomainTable() throws IOException {
+		Map<String, List<String[]>> contigs = new LinkedHashMap<String, List<String[]>>();
+		contigs.put("", sequences("", 200));
+		Set<String> targets = new HashSet<String>();
+		for (String[] sequence : contigs.get(""))
+			targets.add(sequence[1]);
+
+		// a search of every sequence with -Z 1 --domZ 1
+		String search = "# target name  accession  tlen  query name ...\n"
+				+ line("orf1", 1e-30, 100.0, 1e-32, 1e-32, 1, 3, 10, 90) + "\n"
+				+ line("orf1", 1e-30, 8.0, 0.5, 0.5, 2, 3, 120, 180) + "\n"
+				+ line("orf1", 1e-30, 2.0, 6.0, 6.0, 3, 3, 200, 250) + "\n"
+				+ line("orf2", 1e-3, 20.0, 1e-3, 1e-3, 1, 1, 10, 90) + "\n"
+				+ line("orf3", 0.2, 5.0, 0.2, 0.2, 1, 1, 10, 90) + "\n"
+				+ "#\n# Program:         hmmsearch\n";
+		Map<String, List<String>> searched = HmmSearch.readDomainTable(
+				new BufferedReader(new StringReader(search)), targets).get(MODEL);
+		String uncached = domainTable(contigs, searched, sizes("", 200));
+
+		// the same hits, stored in the cache and read back
+		HmmCache cache = new HmmCache(folder.getRoot(), 1000);
+		int id = cache.model(MODEL, "checksum");
+		for (String target : targets) {
+			List<String> lines = searched.get(target);
+			cache.put(target, id, lines == null ? new ArrayList<String>() : lines);
+		}
+		cache.save();
+		cache = new HmmCache(folder.getRoot(), 1000);
+		cache.load();
+		id = cache.model(MODEL, "checksum");
+		Map<String, List<String>> hits = new HashMap<String, List<String>>();
+		for (String target : targets) {
+			List<String> lines = cache.get(target, id);
+			assertNotNull(lines);
+			hits.put(target, lines);
+		}
+		String cached = domainTable(contigs, hits, sizes("", 200));
+		assertEquals(uncached, cached);
+
+		// the rows of hmmsearch -Z 200, in which orf1 and orf2 are reported
+		List<String[]> rows = rows(cached);
+		assertEquals(3, rows.size());
+		assertRow(rows.get(0), "orf1", 200e-30, 2e-32, 200e-32);
+		assertRow(rows.get(1), "orf1", 200e-30, 1.0, 100.0);
+		assertRow(rows.get(2), "orf2", 200e-3, 2e-3, 200e-3);
+	}
+
+	/**
+	 * A sequence evicted from the cache is reported as not searched, rather
+	 * than as having no hits.
+	 */
+	@Test
+	public void testEvictedSequence() {
+		HmmCache cache = new HmmCache(folder.getRoot(), 1);
+		int id = cache.model(MODEL, "checksum");
+		cache.put("sequence1", id, new ArrayList<String>());
+		assertNotNull(cache.get("sequence1", id));
+		cache.put("sequence2", id, Arrays.asList(line(1e-3, 50.0, 1e-3, 1e-3)));
+		assertNull(cache.get("sequence1", id));
+		assertEquals(1, cache.get("sequence2", id).size());
+		assertNull(cache.get("sequence2", cache.model("other", "other")));
+	}
+
+	/**
+	 * Sequence E-values are calculated for the number of sequences in each
+	 * contig, as if each contig had been searched separately, rather than for
+	 * the number of sequences in the whole genome.
+	 */
+	@Test
+	public void testContigDatabaseSizes() throws IOException {
+		Map<String, List<String[]>> contigs = new LinkedHashMap<String, List<String[]>>();
+		Map<String, List<String>> hits = new HashMap<String, List<String>>();
+		contigs.put("contig1", sequences("contig1", 2));
+		contigs.put("contig2", sequences("contig2", 98));
+		hits.put("contig1|orf1", Arrays.asList(line(1e-3, 50.0, 1e-3, 1e-3)));
+		hits.put("contig2|orf1", Arrays.asList(line(1e-3, 50.0, 1e-3, 1e-3)));
+
+		Map<String, Integer> sizes = new HashMap<String, Integer>();
+		sizes.put("contig1", 2);
+		sizes.put("contig2", 98);
+		List<String[]> rows = rows(domainTable(contigs, hits, sizes));
+		assertEquals(2, rows.size());
+		assertEquals(2e-3, Numbers.newDoubleFromString(rows.get(0)[6]), 1e-12);
+		assertEquals(98e-3, Numbers.newDoubleFromString(rows.get(1)[6]), 1e-12);
+
+		// only the hit on the smaller contig passes the inclusion threshold
+		List<HmmSearchResult> results = read(domainTable(contigs, hits, sizes));
+		assertEquals(1, results.size());
+		assertEquals("contig1|orf1", results.get(0).name);
+	}
+
+	/**
+	 * When a subset of a contig's sequences is searched, E-values are
+	 * calculated for the number of sequences in the whole contig.
+	 */
+	@Test
+	public void testSubsetDatabaseSize() throws IOException {
+		Map<String, List<String[]>> contigs = new LinkedHashMap<String, List<String[]>>();
+		Map<String, List<String>> hits = new HashMap<String, List<String>>();
+		contigs.put("contig1", sequences("contig1", 1));
+		hits.put("contig1|orf1", Arrays.asList(line(1e-3, 50.0, 1e-3, 1e-3)));
+
+		Map<String, Integer> sizes = new HashMap<String, Integer>();
+		sizes.put("contig1", 40);
+		List<String[]> rows = rows(domainTable(contigs, hits, sizes));
+		assertEquals(1, rows.size());
+		assertEquals(40e-3, Numbers.newDoubleFromString(rows.get(0)[6]), 1e-12);
+		assertNull(results(read(domainTable(contigs, hits, sizes)), "contig1|orf1"));
+	}
+
+	/**
+	 * Check the name and E-values of a domain table row.
+	 */
+	static void assertRow(String[] row, String name, double sequenceEValue,
+			double conditionalEValue, double independentEValue) {
+		assertEquals(name, row[0]);
+		assertEquals(sequenceEValue, Numbers.newDoubleFromString(row[6]), sequenceEValue * 1e-9);
+		assertEquals(conditionalEValue, Numbers.newDoubleFromString(row[11]), conditionalEValue * 1e-9);
+		assertEquals(independentEValue, Numbers.newDoubleFromString(row[12]), independentEValue * 1e-9);
+	}
+
+	/**
+	 * Create the database size of a single contig.
+	 */
+	static Map<String, Integer> sizes(String contig, int size) {
+		Map<String, Integer> sizes = new HashMap<String, Integer>();
+		sizes.put(contig, size);
+		return sizes;
+	}
+
+	/**
+	 * Create the name, checksum and sequence of the orfs of a contig. The
+	 * checksum of each orf is its name, and orfs of the empty contig are not
+	 * tagged.
+	 */
+	static List<String[]> sequences(String contig, int count) {
+		List<String[]> sequences = new ArrayList<String[]>();
+		for (int i = 1; i <= count; i++) {
+			String name = (contig.length() == 0 ? "" : contig + ContigIndex.SEPARATOR) + "orf" + i;
+			sequences.add(new String[] { name, name, "MAAAK" });
+		}
+		return sequences;
+	}
+
+	/**
+	 * Create a domain table line for a single domain, as hmmsearch outputs it
+	 * with the given E-values.
+	 */
+	static String line(double sequenceEValue, double score, double conditionalEValue,
+			double independentEValue) {
+		return line("target", sequenceEValue, score, conditionalEValue, independentEValue, 1, 1, 10, 90);
+	}
+
+	/**
+	 * Create a domain table line for one of the domains of a sequence, as
+	 * hmmsearch outputs it with the given E-values.
+	 */
+	static String line(String target, double sequenceEValue, double score,
+			double conditionalEValue, double independentEValue, int domain,
+			int domains, int from, int to) {
+		return String.format("%-20s -          300 %-20s -            100 %9.2g %6.1f %5.1f %3d %3d "
+				+ "%9.2g %9.2g %6.1f %5.1f %5d %5d %5d %5d %5d %5d %4.2f -", target, MODEL,
+				sequenceEValue, score, 0.1, domain, domains, conditionalEValue,
+				independentEValue, score, 0.1, 1, 100, from, to, from, to, 0.9);
+	}
+
+	/**
+	 * Assemble the domain table for a single model.
+	 */
+	static String domainTable(Map<String, List<String[]>> contigs,
+			Map<String, List<String>> hits, Map<String, Integer> sizes) {
+		Map<String, Integer> models = new LinkedHashMap<String, Integer>();
+		models.put(MODEL, 0);
+		Map<Integer, Map<String, List<String>>> modelHits = new HashMap<Integer, Map<String, List<String>>>();
+		modelHits.put(0, hits);
+		return HmmSearch.domainTable(models, contigs, modelHits, sizes);
+	}
+
+	/**
+	 * Split each line of a domain table into columns.
+	 */
+	static List<String[]> rows(String table) {
+		List<String[]> rows = new ArrayList<String[]>();
+		for (String line : table.split("\n"))
+			if (line.length() > 0)
+				rows.add(line.trim().split("\\s+"));
+		return rows;
+	}
+
+	/**
+	 * Read the results of a domain table.
+	 */
+	static List<HmmSearchResult> read(String table) throws IOException {
+		return new HmmDomainTableReader(new BufferedReader(new StringReader(table))).read();
+	}
+
+	/**
+	 * Find the result for a sequence.
+	 */
+	static HmmSearchResult results(List<HmmSearchResult> results, String name) {
+		for (HmmSearchResult result : results)
+			if (result.name.equals(name))
+				return result;
+		return null;
+	}
+
+}
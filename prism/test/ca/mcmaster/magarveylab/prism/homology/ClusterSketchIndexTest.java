@@ -0,0 +1,150 @@
+package ca.mcmaster.magarveylab.prism.homology;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ca.mcmaster.magarveylab.prism.blast.BlastSearchResult;
+import ca.mcmaster.magarveylab.prism.blast.SmithWatermanSearch;
+
+/**
+ * Recall tests for the known cluster sketch prefilter against full identity
+ * scoring. Known clusters from the identity database are used as queries, as
+ * PRISM would detect them in their reference genomes, and every cluster in a
+ * reference set is scored against each with {@link IdentityScorer}, using
+ * the in-process Smith-Waterman search in place of BLASTp with the same
+ * per-cluster E-value cutoff.<br>
+ * <br>
+ * The reference set is a subset of the identity database, with families of
+ * siderophore, type II polyketide and fungal polyketide clusters and unrelated
+ * clusters, because aligning every query to all known clusters takes minutes.
+ *
+ * @author skinnider
+ *
+ */
+public class ClusterSketchIndexTest {
+
+	private static final String DIR = "WebContent/identityFasta/";
+
+	/**
+	 * The known clusters in the reference set.
+	 */
+	private static final String[] REFERENCE = { "enterobactin", "vibriobactin", "paenibactin", "griseobactin",
+			"vanchrobactin", "acinetobactin", "fimsbactin", "pyochelin", "tetracycline", "chlortetracycline",
+			"chelocardin", "resistomycin", "tetracenomyin", "griseusin", "actinorhodin", "sterigmatocystin",
+			"dothistromin", "citrinin", "lovastatin", "patulin", "tabtoxin", "thienamycin", "hygromycin_A",
+			"ribostamycin", "ergovaline", "penicillin", "cephamycin_C", "streptothricin", "albomycin" };
+
+	/**
+	 * Query clusters, which are not in the reference set.
+	 */
+	private static final String[] QUERIES = { "bacillibactin", "oxytetracycline", "aflatoxin" };
+
+	/**
+	 * The number of candidates within which every close homolog must rank.
+	 */
+	private static final int CANDIDATES = 10;
+
+	/**
+	 * The identity score of a close homolog.
+	 */
+	private static final double CLOSE = 0.4d;
+
+	@ClassRule
+	public static TemporaryFolder folder = new TemporaryFolder();
+
+	private static String dir;
+	private static ClusterSketchIndex index;
+	private static Map<String, Map<String, Double>> scores = new HashMap<String, Map<String, Double>>();
+
+	/**
+	 * Copy the FASTA files and BLAST databases of the reference set to an
+	 * identity database directory of its own, index it, and score every query
+	 * against it.
+	 */
+	@BeforeClass
+	public static void setUp() throws IOException {
+		File root = folder.newFolder("identityFasta");
+		File fasta = new File(root, "fasta");
+		fasta.mkdir();
+		for (String name : REFERENCE) {
+			copy(new File(DIR + "fasta", name + ".fasta"), fasta);
+			for (String extension : new String[] { ".phr", ".pin", ".psq" })
+				copy(new File(DIR + name + extension), root);
+		}
+		dir = root.getPath() + File.separator;
+		index = ClusterSketchIndex.load(dir);
+
+		for (String query : QUERIES) {
+			IdentityScorer scorer = new IdentityScorer(query(query), null, null);
+			Map<String, Double> queryScores = new HashMap<String, Double>();
+			for (String name : REFERENCE) {
+				SmithWatermanSearch search = new SmithWatermanSearch(dir + name, query(query));
+				List<BlastSearchResult> results = search.run(-1);
+				queryScores.put(name, scorer.score(scorer.doPreferentialMatching(results)));
+			}
+			scores.put(query, queryScores);
+		}
+	}
+
+	/**
+	 * Every reference cluster to which full scoring gives an identity score is
+	 * a candidate for the query.
+	 */
+	@Test
+	public void testRecall() throws IOException {
+		for (String query : QUERIES) {
+			List<String> candidates = index.candidates(query(query), index.size());
+			for (String name : scored(query, 0.0d))
+				assertTrue(name + " is scored against " + query + " but is not a candidate",
+						candidates.contains(name));
+		}
+	}
+
+	/**
+	 * Every close homolog of the query is among the top candidates.
+	 */
+	@Test
+	public void testCloseHomologs() throws IOException {
+		for (String query : QUERIES) {
+			List<String> candidates = index.candidates(query(query), CANDIDATES);
+			List<String> close = scored(query, CLOSE);
+			assertTrue("No close homologs of " + query, close.size() > 0);
+			for (String name : close)
+				assertTrue(name + " is a close homolog of " + query + " but not in the top " + CANDIDATES
+						+ " candidates " + candidates, candidates.contains(name));
+		}
+	}
+
+	/**
+	 * Get the reference clusters with an identity score to a query cluster
+	 * greater than a cutoff.
+	 */
+	private static List<String> scored(String query, double cutoff) {
+		List<String> scored = new ArrayList<String>();
+		for (Map.Entry<String, Double> score : scores.get(query).entrySet())
+			if (score.getValue() > cutoff)
+				scored.add(score.getKey());
+		return scored;
+	}
+
+	private static String query(String name) {
+		return DIR + "fasta" + File.separator + name + ".fasta";
+	}
+
+	private static void copy(File file, File directory) throws IOException {
+		Files.copy(file.toPath(), new File(directory, file.getName()).toPath());
+	}
+
+}
@@ -0,0 +1,122 @@
+package ca.mcmaster.magarveylab.prism.homology;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ca.mcmaster.magarveylab.prism.blast.SmithWatermanSearch;
+
+/**
+ * Tests for the conversion of E-values between a combined database and the
+ * databases it was built from.
+ *
+ * @author skinnider
+ *
+ */
+public class CombinedDatabaseTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private CombinedDatabase db;
+
+	/**
+	 * Read a combined database of a small and a large tag. The combined
+	 * database is made newer than the FASTA files, so it is not rebuilt.
+	 */
+	@Before
+	public void setUp() throws IOException, InterruptedException {
+		Map<String, File> files = new LinkedHashMap<String, File>();
+		files.put("small", fasta("small", 3, 250));
+		files.put("large", fasta("large", 400, 300));
+		File combined = folder.newFolder("combined");
+		File phr = new File(combined, "all.phr");
+		phr.createNewFile();
+		for (File file : files.values())
+			file.setLastModified(phr.lastModified() - 10000);
+
+		db = new CombinedDatabase(new File(combined, "all").getPath());
+		db.load(files, true);
+	}
+
+	/**
+	 * The sequences and residues of each tag are counted.
+	 */
+	@Test
+	public void testLoad() {
+		assertEquals(403, db.sequences());
+		assertEquals(3 * 250 + 400 * 300, db.length());
+		assertTrue(db.contains("small"));
+		assertFalse(db.contains("other"));
+		assertEquals("small", CombinedDatabase.tag("small|sequence1 description"));
+	}
+
+	/**
+	 * A converted E-value is the E-value of the same alignment score in a
+	 * search of the tag's database alone, with BLAST's length adjustment,
+	 * rather than the E-value scaled by the ratio of residues.
+	 */
+	@Test
+	public void testEValue() {
+		int query = 400;
+		int score = 120;
+		double combined = SmithWatermanSearch.eValue(score, space(query, db.length(), db.sequences()));
+		double small = SmithWatermanSearch.eValue(score, space(query, 750, 3));
+		assertEquals(small, db.eValue(combined, query, "small"), small * 1e-9);
+
+		double ratio = combined * 750 / db.length();
+		assertTrue(Math.abs(ratio - small) > small * 0.1);
+		assertEquals(Double.POSITIVE_INFINITY, db.eValue(combined, query, "other"), 0);
+	}
+
+	/**
+	 * A search of the combined database with the converted cutoff finds every
+	 * hit which passes the cutoff in the database of any tag.
+	 */
+	@Test
+	public void testCutoff() {
+		List<Integer> queries = Arrays.asList(50, 400, 2000);
+		double cutoff = db.cutoff(1e-5, queries);
+		for (int query : queries)
+			for (String tag : Arrays.asList("small", "large")) {
+				double combined = 1e-5 / db.eValue(1.0d, query, tag);
+				assertTrue(combined <= cutoff * (1 + 1e-9));
+			}
+	}
+
+	/**
+	 * Calculate an effective search space as BLAST does.
+	 */
+	private static double space(int query, long length, int sequences) {
+		int adjustment = SmithWatermanSearch.lengthAdjustment(query, length, sequences);
+		return (query - adjustment) * (double) (length - sequences * adjustment);
+	}
+
+	/**
+	 * Write a FASTA file of identical sequences.
+	 */
+	private File fasta(String name, int sequences, int length) throws IOException {
+		File file = folder.newFile(name + ".fasta");
+		FileWriter fw = new FileWriter(file);
+		char[] residues = new char[length];
+		Arrays.fill(residues, 'A');
+		for (int i = 0; i < sequences; i++)
+			fw.write(">sequence" + i + "\n" + new String(residues) + "\n");
+		fw.close();
+		return file;
+	}
+
+}
@@ -0,0 +1,178 @@
+package ca.mcmaster.magarveylab.prism.orfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ca.mcmaster.magarveylab.prism.data.PackedSequence;
+
+/**
+ * Tests that the single-pass orf scanner finds the same open reading frames,
+ * with the same translations, as the previous caller, which scanned each
+ * strand codon by codon and translated every orf with BioJava.
+ *
+ * @author skinnider
+ *
+ */
+public class OrfScannerTest {
+
+	/**
+	 * The orfs of a genome sequence from WebContent/tests match.
+	 */
+	@Test
+	public void testGenome() throws IOException {
+		String sequence = readFasta("WebContent/tests/prodigal/streptide.fasta");
+		List<String> orfs = scan(sequence);
+		assertTrue(orfs.size() > 10);
+		assertEquals(reference(sequence), orfs);
+	}
+
+	/**
+	 * The orfs of random sequences match, including the open-ended orf at the
+	 * end of each strand.
+	 */
+	@Test
+	public void testRandomSequences() {
+		Random random = new Random(11);
+		for (int i = 0; i < 50; i++) {
+			String sequence = random(random, 200 + random.nextInt(5000));
+			assertEquals(reference(sequence), scan(sequence));
+		}
+	}
+
+	/**
+	 * Orfs starting with each alternative start codon, and with a codon that
+	 * only starts an orf because it begins the sequence, are translated as
+	 * BioJava translates them.
+	 */
+	@Test
+	public void testAlternativeStartCodons() {
+		Random random = new Random(1);
+		for (String start : new String[] { "ATG", "GTG", "TTG", "CTG", "ATT", "AAA" }) {
+			// the first codon of the sequence always starts an orf
+			String sequence = start + open(random, 40) + "TAA" + random(random, 300);
+			assertEquals(reference(sequence), scan(sequence));
+
+			// an internal start codon, after a stop in the same frame
+			sequence = "TAG" + open(random, 30) + "TGA" + start + open(random, 40) + "TAG"
+					+ random(random, 300);
+			assertEquals(reference(sequence), scan(sequence));
+
+			// a start codon on the reverse strand
+			sequence = random(random, 300) + reverseComplement("TAA" + start + open(random, 40) + "TGA");
+			assertEquals(reference(sequence), scan(sequence));
+		}
+	}
+
+	/**
+	 * Get each orf found by the scanner as its coordinates, strand and
+	 * translation, in order.
+	 */
+	private static List<String> scan(String sequence) {
+		OrfTable table = OrfScanner.table(PackedSequence.valueOf(sequence));
+		List<String> orfs = new ArrayList<String>();
+		for (int row = 0; row < table.size(); row++)
+			orfs.add(orf(table.start(row), table.end(row), table.isReverse(row) ? "-" : "+",
+					table.translate(row)));
+		Collections.sort(orfs);
+		return orfs;
+	}
+
+	/**
+	 * Find the orfs of a sequence as the previous caller did.
+	 */
+	private static List<String> reference(String sequence) {
+		int length = sequence.length();
+		List<String> orfs = new ArrayList<String>();
+		for (int[] orf : referenceFrame(sequence))
+			orfs.add(orf(orf[0], orf[1], "+", translate(sequence.substring(orf[0], orf[1]))));
+		String reverse = SequenceConverter.getReverseComplementaryDNASequence(sequence);
+		for (int[] orf : referenceFrame(reverse))
+			orfs.add(orf(length - orf[1], length - orf[0], "-", translate(reverse.substring(orf[0], orf[1]))));
+		Collections.sort(orfs);
+		return orfs;
+	}
+
+	/**
+	 * Find the start and end of the orfs in each frame of one strand, as the
+	 * previous caller did.
+	 */
+	private static List<int[]> referenceFrame(String sequence) {
+		List<int[]> orfs = new ArrayList<int[]>();
+		List<String> startCodons = Arrays.asList("ATG", "GTG", "TTG");
+		List<String> stopCodons = Arrays.asList("TAA", "TAG", "TGA");
+		int[] lastStop = { 0, 0, 0 };
+		outer: for (int i = 0; i < sequence.length() - 2; i++) {
+			if (!startCodons.contains(sequence.substring(i, i + 3)) && i != 0)
+				continue;
+			if (i < lastStop[i % 3])
+				continue;
+			for (int j = i; j < sequence.length() - 2; j += 3)
+				if (stopCodons.contains(sequence.substring(j, j + 3)) && j - i > OrfScanner.MIN_ORF_SIZE) {
+					orfs.add(new int[] { i, j + 3 });
+					lastStop[j % 3] = j;
+					continue outer;
+				}
+			orfs.add(new int[] { i, sequence.length() });
+			break;
+		}
+		return orfs;
+	}
+
+	private static String translate(String dna) {
+		return SequenceConverter.convertDNAToAA(dna);
+	}
+
+	private static String orf(int start, int end, String frame, String translation) {
+		return String.format("%08d-%08d %s %s", start, end, frame, translation);
+	}
+
+	private static String random(Random random, int length) {
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+			sb.append("ACGT".charAt(random.nextInt(4)));
+		return sb.toString();
+	}
+
+	/**
+	 * Get a random sequence of codons without a stop codon.
+	 */
+	private static String open(Random random, int codons) {
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < codons * 3) {
+			String codon = random(random, 3);
+			if (!codon.equals("TAA") && !codon.equals("TAG") && !codon.equals("TGA"))
+				sb.append(codon);
+		}
+		return sb.toString();
+	}
+
+	private static String reverseComplement(String dna) {
+		return SequenceConverter.getReverseComplementaryDNASequence(dna);
+	}
+
+	private static String readFasta(String path) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		BufferedReader br = new BufferedReader(new FileReader(path));
+		try {
+			String line = null;
+			while ((line = br.readLine()) != null)
+				if (!line.startsWith(">"))
+					sb.append(line.trim().toUpperCase());
+		} finally {
+			br.close();
+		}
+		return sb.toString();
+	}
+
+}
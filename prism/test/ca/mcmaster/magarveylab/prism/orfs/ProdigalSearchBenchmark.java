@@ -0,0 +1,186 @@
+package ca.mcmaster.magarveylab.prism.orfs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import ca.mcmaster.magarveylab.prism.data.Contig;
+import ca.mcmaster.magarveylab.prism.data.Genome;
+import ca.mcmaster.magarveylab.prism.data.Orf;
+import ca.mcmaster.magarveylab.prism.data.PackedSequence;
+import ca.mcmaster.magarveylab.prism.util.exception.ProdigalSearchException;
+
+/**
+ * Compares the time taken to read Prodigal protein output for a fragmented
+ * assembly with {@link ProdigalSearch#read(String)}, which finds the contig of
+ * each orf through a name index, and with the previous reader, which split the
+ * header of every contig for every orf.<br>
+ * <br>
+ * This is not a unit test. Run it on the test classpath with:<br>
+ * <code>java ca.mcmaster.magarveylab.prism.orfs.ProdigalSearchBenchmark
+ * [contigs] [orfs per contig] [iterations]</code>
+ *
+ * @author skinnider
+ *
+ */
+public class ProdigalSearchBenchmark {
+
+	private static final int WARMUP = 2;
+
+	public static void main(String[] args) throws IOException, ProdigalSearchException {
+		int contigs = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int orfs = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		File file = File.createTempFile("prodigal", ".fasta");
+		file.deleteOnExit();
+		write(file, contigs, orfs);
+
+		// both readers must find the same orfs
+		Genome genome = genome(contigs);
+		new ProdigalSearch(genome, null).read(file.getPath());
+		Genome previous = genome(contigs);
+		readPrevious(previous, file.getPath());
+		if (!summarize(genome).equals(summarize(previous)))
+			throw new IllegalStateException("Readers found different orfs");
+
+		long[] indexed = new long[iterations];
+		long[] scanned = new long[iterations];
+		for (int i = -WARMUP; i < iterations; i++) {
+			genome = genome(contigs);
+			long start = System.nanoTime();
+			new ProdigalSearch(genome, null).read(file.getPath());
+			long time = System.nanoTime() - start;
+			if (i >= 0)
+				indexed[i] = time;
+
+			genome = genome(contigs);
+			start = System.nanoTime();
+			readPrevious(genome, file.getPath());
+			time = System.nanoTime() - start;
+			if (i >= 0)
+				scanned[i] = time;
+		}
+
+		System.out.println(String.format("%d contigs, %d orfs", contigs, contigs * orfs));
+		System.out.println(String.format("name index:      %8.1f ms", median(indexed)));
+		System.out.println(String.format("contig scan:     %8.1f ms", median(scanned)));
+		System.out.println(String.format("speedup:         %8.1fx", median(scanned) / median(indexed)));
+	}
+
+	/**
+	 * Create a genome of contigs named as Prodigal names their orfs, with
+	 * descriptions after the name.
+	 */
+	private static Genome genome(int contigs) {
+		List<Contig> list = new ArrayList<Contig>();
+		for (int i = 1; i <= contigs; i++)
+			list.add(new Contig("NODE_" + i + "_length_50000_cov_12.5 assembled contig",
+					PackedSequence.valueOf("")));
+		return new Genome(list);
+	}
+
+	/**
+	 * Write Prodigal protein output for a number of orfs on each contig.
+	 */
+	private static void write(File file, int contigs, int orfs) throws IOException {
+		Random random = new Random(15);
+		String residues = "ACDEFGHIKLMNPQRSTVWY";
+		BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+		for (int i = 1; i <= contigs; i++)
+			for (int j = 1; j <= orfs; j++) {
+				int start = 1 + (j - 1) * 2400;
+				int length = 100 + random.nextInt(600);
+				bw.write(String.format(">NODE_%d_length_50000_cov_12.5_%d # %d # %d # %d # ID=%d_%d;partial=00;"
+						+ "start_type=ATG;rbs_motif=AGGAG;rbs_spacer=5-10bp;gc_cont=0.712\n", i, j, start,
+						start + length * 3 + 2, random.nextBoolean() ? 1 : -1, i, j));
+				StringBuilder sb = new StringBuilder("M");
+				for (int k = 1; k < length; k++)
+					sb.append(residues.charAt(random.nextInt(residues.length())));
+				sb.append('*');
+				for (int k = 0; k < sb.length(); k += 60)
+					bw.write(sb.substring(k, Math.min(sb.length(), k + 60)) + "\n");
+			}
+		bw.close();
+	}
+
+	/**
+	 * Summarize the orfs of every contig, in order.
+	 */
+	private static List<String> summarize(Genome genome) {
+		List<String> orfs = new ArrayList<String>();
+		for (Contig contig : genome.contigs())
+			for (Orf orf : contig.orfs())
+				orfs.add(contig.header() + " " + orf.name() + " " + orf.start() + " " + orf.end() + " "
+						+ orf.frame() + " " + orf.getPartial() + " " + orf.sequence());
+		return orfs;
+	}
+
+	private static double median(long[] times) {
+		long[] sorted = Arrays.copyOf(times, times.length);
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2] / 1e6;
+	}
+
+	/**
+	 * Read Prodigal protein output as ProdigalSearch did before contigs were
+	 * indexed by name.
+	 */
+	private static void readPrevious(Genome genome, String file) throws IOException {
+		List<Contig> contigs = genome.contigs();
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		Contig contig = null;
+		Orf orf = null;
+		StringBuffer sequence = new StringBuffer();
+		String line = null;
+		while ((line = br.readLine()) != null) {
+			if (line.startsWith(">")) {
+				addPrevious(orf, sequence, contig);
+				contig = null;
+				orf = null;
+
+				String[] split = line.split("#");
+				String name = split[0].trim();
+				String orfContigName = name.substring(1, name.lastIndexOf("_"));
+				for (Contig c : contigs) {
+					String contigName = c.header().split("\\s+")[0];
+					if (contigName.equals(orfContigName))
+						contig = c;
+				}
+
+				String orfName = "orf" + name.substring(name.lastIndexOf("_"));
+				orf = new Orf(orfName, "");
+				orf.setStart(Integer.parseInt(split[1].trim()) - 1);
+				orf.setEnd(Integer.parseInt(split[2].trim()));
+				orf.setFrame(split[3].trim().contains("-") ? "-" : "+");
+				String partialRaw = split[split.length - 1].trim();
+				int partialIdx = partialRaw.indexOf("partial=");
+				orf.setPartial(partialRaw.substring(partialIdx + 8, partialIdx + 10));
+				orf.setMode(GenePredictionModes.PRODIGAL);
+			} else {
+				sequence.append(line.trim());
+			}
+		}
+		addPrevious(orf, sequence, contig);
+		br.close();
+	}
+
+	private static void addPrevious(Orf orf, StringBuffer sequence, Contig contig) {
+		if (orf != null && sequence.length() > 0 && contig != null) {
+			String seq = sequence.toString();
+			if (seq.endsWith("*"))
+				seq = seq.substring(0, seq.length() - 1);
+			orf.setAASequence(seq);
+			contig.addOrf(orf);
+			sequence.delete(0, sequence.length());
+		}
+	}
+
+}
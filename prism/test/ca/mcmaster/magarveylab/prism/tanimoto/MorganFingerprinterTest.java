@@ -0,0 +1,113 @@
+package ca.mcmaster.magarveylab.prism.tanimoto;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.openscience.cdk.exception.CDKException;
+
+import ca.mcmaster.magarveylab.prism.tanimoto.data.Fingerprint;
+
+/**
+ * Parity tests for the in-process Morgan fingerprints against RDKit. Atom
+ * invariants and the radius-2 identifiers of 2-methylpyridine are those RDKit
+ * reports (the latter are listed in the RDKit documentation for
+ * GetMorganFingerprint). Bit vectors list the set bits of RDKit's bit
+ * string, i.e. each identifier modulo 1024.
+ *
+ * @author skinnider
+ *
+ */
+public class MorganFingerprinterTest {
+
+	/**
+	 * ECFP atom invariants match RDKit's.
+	 */
+	@Test
+	public void testAtomInvariants() throws CDKException, IOException {
+		assertEquals(set(2246728737L), MorganFingerprinter.identifiers("CC", 0, false));
+		assertEquals(set(2246728737L, 2245384272L, 864662311L), MorganFingerprinter.identifiers("CCO", 0, false));
+		assertEquals(set(2246728737L, 2246699815L, 864942730L, 3217380708L, 3218693969L, 864662311L),
+				MorganFingerprinter.identifiers("CC(=O)c1ccccc1O", 0, false));
+	}
+
+	/**
+	 * FCFP atom invariants are RDKit's feature masks: none for an aliphatic
+	 * carbon, aromatic for a ring carbon and aromatic acceptor for a pyridine
+	 * nitrogen.
+	 */
+	@Test
+	public void testFeatureInvariants() throws CDKException, IOException {
+		assertEquals(set(0L, 4L, 6L), MorganFingerprinter.identifiers("c1cccnc1C", 0, true));
+	}
+
+	/**
+	 * The radius-2 identifiers of 2-methylpyridine match RDKit's.
+	 */
+	@Test
+	public void testIdentifiers() throws CDKException, IOException {
+		Set<Long> expected = set(98513984L, 422715066L, 951226070L, 1100037548L, 1207774339L, 1235524787L,
+				1751362425L, 2041434490L, 2246728737L, 2614860224L, 3217380708L, 3218693969L, 3776905034L,
+				3999906991L, 4036277955L, 4048591891L);
+		assertEquals(expected, MorganFingerprinter.identifiers("c1cccnc1C", 2, false));
+	}
+
+	/**
+	 * The ECFP6 and FCFP6 bit vectors of 2-methylpyridine match RDKit's.
+	 */
+	@Test
+	public void testPyridine() throws CDKException, IOException {
+		List<Fingerprint> fingerprints = MorganFingerprinter.fingerprints("c1cccnc1C");
+		assertEquals(bits(19, 28, 33, 64, 131, 175, 179, 356, 378, 428, 448, 454, 698, 707, 726, 842, 849, 889),
+				fingerprint(fingerprints, "ecfp6"));
+		assertEquals(bits(0, 4, 6, 131, 193, 442, 590, 598, 633, 642, 666, 928, 942, 993, 1011, 1015),
+				fingerprint(fingerprints, "fcfp6"));
+	}
+
+	/**
+	 * The ECFP6 and FCFP6 bit vectors of toluene and glycine match RDKit's.
+	 */
+	@Test
+	public void testTolueneAndGlycine() throws CDKException, IOException {
+		List<Fingerprint> toluene = MorganFingerprinter.fingerprints("Cc1ccccc1");
+		assertEquals(bits(31, 33, 64, 175, 356, 389, 698, 726, 799, 821, 849, 896, 923),
+				fingerprint(toluene, "ecfp6"));
+		assertEquals(bits(0, 4, 193, 428, 532, 598, 647, 714, 837, 993), fingerprint(toluene, "fcfp6"));
+
+		List<Fingerprint> glycine = MorganFingerprinter.fingerprints("O=C(O)CN");
+		assertEquals(bits(27, 80, 147, 389, 650, 713, 807, 893, 966, 981), fingerprint(glycine, "ecfp6"));
+		assertEquals(bits(0, 1, 2, 19, 24, 32, 349, 819, 901, 926, 1013), fingerprint(glycine, "fcfp6"));
+	}
+
+	private static Set<Long> set(long... identifiers) {
+		Set<Long> set = new HashSet<Long>();
+		for (long identifier : identifiers)
+			set.add(identifier);
+		return set;
+	}
+
+	/**
+	 * Get the fingerprint with RDKit's bits set, numbered from the end of the
+	 * bit string as the fingerprinter numbers them.
+	 */
+	private static BitSet bits(int... bits) {
+		BitSet fingerprint = new BitSet(MorganFingerprinter.SIZE);
+		for (int bit : bits)
+			fingerprint.set(MorganFingerprinter.SIZE - 1 - bit);
+		return fingerprint;
+	}
+
+	private static BitSet fingerprint(List<Fingerprint> fingerprints, String name) {
+		for (Fingerprint fingerprint : fingerprints)
+			if (fingerprint.type().equals(name))
+				return fingerprint.bitset();
+		throw new AssertionError("No " + name + " fingerprint in " + Arrays.toString(fingerprints.toArray()));
+	}
+
+}
@@ -0,0 +1,141 @@
+package ca.mcmaster.magarveylab.prism.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for reading bgzip files block by block, including files whose blocks
+ * are truncated or corrupt.
+ *
+ * @author skinnider
+ *
+ */
+public class BgzfInputStreamTest {
+
+	private static final String DIR = "WebContent/tests/genbank/";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SearchExecutor executor;
+	private byte[] expected;
+
+	@Before
+	public void setUp() throws IOException {
+		executor = new SearchExecutor(3);
+		expected = Files.readAllBytes(new File(DIR + "test.gbk").toPath());
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Blocks are returned in file order across batches, whether they are read
+	 * a byte at a time or in larger reads, and with one or more threads.
+	 */
+	@Test
+	public void testRead() throws IOException {
+		for (SearchExecutor executor : new SearchExecutor[] { new SearchExecutor(1), this.executor }) {
+			File file = new File(DIR + "test.gbk.bgz");
+			assertArrayEquals(expected, read(new BgzfInputStream(file, executor), 1000));
+			assertArrayEquals(expected, read(new BgzfInputStream(file, executor), 7));
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			InputStream in = new BgzfInputStream(file, executor);
+			int b;
+			while ((b = in.read()) != -1)
+				out.write(b);
+			in.close();
+			assertArrayEquals(expected, out.toByteArray());
+		}
+	}
+
+	/**
+	 * A file which ends in the middle of a block is reported as truncated.
+	 */
+	@Test
+	public void testTruncatedBlock() throws IOException {
+		assertFails(new File(DIR + "truncated.gbk.bgz"), "Truncated bgzip block");
+	}
+
+	/**
+	 * A file which ends in the middle of a block header fails.
+	 */
+	@Test
+	public void testTruncatedHeader() throws IOException {
+		byte[] bytes = Files.readAllBytes(new File(DIR + "test.gbk.bgz").toPath());
+		File file = folder.newFile("header.bgz");
+		Files.write(file.toPath(), Arrays.copyOf(bytes, blockSize(bytes, 0) + 8));
+		assertFails(file, null);
+	}
+
+	/**
+	 * A block whose data does not match its CRC is reported.
+	 */
+	@Test
+	public void testBadCrc() throws IOException {
+		byte[] bytes = Files.readAllBytes(new File(DIR + "test.gbk.bgz").toPath());
+		int end = blockSize(bytes, 0) + blockSize(bytes, blockSize(bytes, 0));
+		bytes[end - 8] ^= 1;
+		File file = folder.newFile("crc.bgz");
+		Files.write(file.toPath(), bytes);
+		assertFails(file, "Bad CRC in bgzip block");
+	}
+
+	/**
+	 * A gzip file whose members are not bgzip blocks is rejected.
+	 */
+	@Test
+	public void testNotBgzip() throws IOException {
+		assertFails(new File(DIR + "test.gbk.gz"), "Not a bgzip block");
+	}
+
+	/**
+	 * Read a bgzip file, and check that it fails with a message.
+	 */
+	private void assertFails(File file, String message) throws IOException {
+		try {
+			read(new BgzfInputStream(file, executor), 1000);
+			throw new AssertionError("Read " + file.getName());
+		} catch (IOException e) {
+			if (message != null)
+				assertEquals(message, e.getMessage());
+		}
+	}
+
+	/**
+	 * Get the size of a bgzip block from its BC subfield.
+	 */
+	private static int blockSize(byte[] bytes, int offset) {
+		return ((bytes[offset + 16] & 0xff) | (bytes[offset + 17] & 0xff) << 8) + 1;
+	}
+
+	private static byte[] read(InputStream in, int size) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			byte[] buffer = new byte[size];
+			int n;
+			while ((n = in.read(buffer, 0, size)) != -1)
+				out.write(buffer, 0, n);
+		} finally {
+			in.close();
+		}
+		return out.toByteArray();
+	}
+
+}
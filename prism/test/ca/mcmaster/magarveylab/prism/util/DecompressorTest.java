@@ -0,0 +1,145 @@
+package ca.mcmaster.magarveylab.prism.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ca.mcmaster.magarveylab.prism.util.Decompressor.Compression;
+
+/**
+ * Tests for detecting and decompressing compressed sequence files. The
+ * fixtures in WebContent/tests/genbank hold a GenBank file compressed as a
+ * gzip file with one member per record, and as a bgzip file of 64 byte
+ * blocks, which are more blocks than are inflated in a single batch, and the
+ * same bgzip file cut off in the middle of a block.
+ *
+ * @author skinnider
+ *
+ */
+public class DecompressorTest {
+
+	private static final String DIR = "WebContent/tests/genbank/";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SearchExecutor executor;
+
+	@Before
+	public void setUp() {
+		executor = new SearchExecutor(2);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * The compression format of a file is read from its first bytes.
+	 */
+	@Test
+	public void testCompression() throws IOException {
+		assertEquals(Compression.NONE, Decompressor.getCompression(new File(DIR + "test.gbk")));
+		assertEquals(Compression.GZIP, Decompressor.getCompression(new File(DIR + "test.gbk.gz")));
+		assertEquals(Compression.BGZIP, Decompressor.getCompression(new File(DIR + "test.gbk.bgz")));
+		assertEquals(Compression.BGZIP, Decompressor.getCompression(new File(DIR + "truncated.gbk.bgz")));
+		assertEquals(Compression.ZSTD, Decompressor.getCompression(zstd()));
+		assertEquals(Compression.NONE, Decompressor.getCompression(folder.newFile("empty")));
+		assertFalse(Decompressor.isCompressed(new File(DIR + "test.gbk")));
+		assertTrue(Decompressor.isCompressed(new File(DIR + "test.gbk.gz")));
+	}
+
+	/**
+	 * Every member of a multi-member gzip file is decompressed.
+	 */
+	@Test
+	public void testMultiMemberGzip() throws IOException {
+		byte[] expected = Files.readAllBytes(new File(DIR + "test.gbk").toPath());
+		assertArrayEquals(expected, read(DIR + "test.gbk.gz", null));
+		assertArrayEquals(expected, read(DIR + "test.gbk.gz", executor));
+	}
+
+	/**
+	 * A bgzip file is decompressed in the same way on the calling thread, and
+	 * concurrently.
+	 */
+	@Test
+	public void testBgzip() throws IOException {
+		byte[] expected = Files.readAllBytes(new File(DIR + "test.gbk").toPath());
+		assertArrayEquals(expected, read(DIR + "test.gbk.bgz", null));
+		assertArrayEquals(expected, read(DIR + "test.gbk.bgz", executor));
+	}
+
+	/**
+	 * Reading a bgzip file which ends in the middle of a block fails, whether
+	 * it is decompressed on the calling thread or concurrently.
+	 */
+	@Test
+	public void testTruncatedBgzip() {
+		for (SearchExecutor executor : Arrays.asList(null, this.executor))
+			try {
+				read(DIR + "truncated.gbk.bgz", executor);
+				throw new AssertionError("Read a truncated bgzip file");
+			} catch (IOException e) {
+				// expected
+			}
+	}
+
+	/**
+	 * Reading a corrupt zstd file fails, rather than returning whatever could
+	 * be decompressed.
+	 */
+	@Test
+	public void testCorruptZstd() throws IOException {
+		File file = zstd();
+		try {
+			read(file.getPath(), null);
+			throw new AssertionError("Read a corrupt zstd file");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Write a file with the zstd magic number followed by data which is not a
+	 * valid zstd frame.
+	 */
+	private File zstd() throws IOException {
+		File file = folder.newFile("corrupt.zst");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[] { 0x28, (byte) 0xb5, 0x2f, (byte) 0xfd, 0x00, 0x58, 0x01, 0x00, 0x00, 0x41 });
+		out.close();
+		return file;
+	}
+
+	private static byte[] read(String path, SearchExecutor executor) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		InputStream in = Decompressor.open(new File(path), executor);
+		try {
+			byte[] buffer = new byte[1000];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				out.write(buffer, 0, n);
+		} finally {
+			in.close();
+		}
+		return out.toByteArray();
+	}
+
+}
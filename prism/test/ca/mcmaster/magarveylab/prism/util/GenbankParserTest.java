@@ -0,0 +1,172 @@
+package ca.mcmaster.magarveylab.prism.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.mcmaster.magarveylab.prism.data.Contig;
+import ca.mcmaster.magarveylab.prism.data.Genome;
+import ca.mcmaster.magarveylab.prism.data.Organism;
+import ca.mcmaster.magarveylab.prism.data.RnaSequence;
+
+/**
+ * Tests for reading GenBank and EMBL files. The fixtures in
+ * WebContent/tests/genbank hold the same two records in each format, with a
+ * 16S rRNA on each strand, a 23S rRNA which is not read, and runs of N and
+ * ambiguity codes in the sequence, whose sequences are given in test.fasta.
+ *
+ * @author skinnider
+ *
+ */
+public class GenbankParserTest {
+
+	private static final String DIR = "WebContent/tests/genbank/";
+
+	private SearchExecutor executor;
+
+	@Before
+	public void setUp() {
+		executor = new SearchExecutor(2);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * The records of a GenBank file are read.
+	 */
+	@Test
+	public void testGenbank() throws IOException {
+		assertRecords(read("test.gbk", null));
+	}
+
+	/**
+	 * The records of an EMBL file are read in the same way.
+	 */
+	@Test
+	public void testEmbl() throws IOException {
+		assertRecords(read("test.embl", null));
+	}
+
+	/**
+	 * The records of a multi-member gzip file and a bgzip file are read as
+	 * they are decompressed.
+	 */
+	@Test
+	public void testCompressed() throws IOException {
+		assertRecords(read("test.gbk.gz", null));
+		assertRecords(read("test.gbk.gz", executor));
+		assertRecords(read("test.gbk.bgz", null));
+		assertRecords(read("test.gbk.bgz", executor));
+	}
+
+	/**
+	 * A truncated file is reported rather than read as a shorter genome.
+	 */
+	@Test
+	public void testTruncated() {
+		for (SearchExecutor executor : Arrays.asList(null, this.executor))
+			try {
+				read("truncated.gbk.bgz", executor);
+				throw new AssertionError("Read a truncated file");
+			} catch (IOException e) {
+				// expected
+			}
+	}
+
+	/**
+	 * Check the contigs, organism and 16S rRNA sequences read from the
+	 * fixtures.
+	 */
+	private static void assertRecords(Genome genome) throws IOException {
+		List<String> sequences = readFasta(DIR + "test.fasta");
+		List<Contig> contigs = genome.contigs();
+		assertEquals(2, contigs.size());
+		assertEquals("Streptomyces testus strain X1 chromosome, partial sequence", contigs.get(0).header());
+		assertEquals("Streptomyces testus strain X1 plasmid pTEST1", contigs.get(1).header());
+		for (int i = 0; i < contigs.size(); i++) {
+			assertEquals(i + 1, contigs.get(i).index());
+			assertEquals(sequences.get(i), contigs.get(i).sequence().toString());
+		}
+		int[][] masked = contigs.get(0).sequence().maskedIntervals();
+		assertEquals(2, masked.length);
+		assertArrayEquals(new int[] { 600, 640 }, masked[0]);
+		assertArrayEquals(new int[] { 700, 702 }, masked[1]);
+
+		Organism organism = genome.organism();
+		assertEquals("Streptomyces testus strain X1 chromosome, partial sequence", organism.rawfastaheader());
+		assertEquals("TEST0001", organism.accession());
+		assertEquals("Streptomyces", organism.genus());
+		assertEquals("testus", organism.species());
+		assertEquals("subsp. exemplaris", organism.strain());
+		assertEquals(Arrays.asList("Streptomyces testus subsp. exemplaris", "Streptomyces", "Streptomycetaceae",
+				"Streptomycetales", "Actinobacteria", "Bacteria"), organism.classification());
+
+		List<RnaSequence> rnas = genome.ribosomalSequences();
+		assertEquals(2, rnas.size());
+		RnaSequence reverse = rnas.get(0);
+		assertEquals(101, (int) reverse.getStart());
+		assertEquals(250, (int) reverse.getEnd());
+		assertEquals('-', reverse.getFrame());
+		assertEquals("16S ribosomal RNA", reverse.getData().get("product"));
+		assertEquals("TEST_0001", reverse.getData().get("locus_tag"));
+		assertEquals("1", reverse.getData().get("contig"));
+		assertEquals(reverseComplement(sequences.get(0).substring(100, 250)), reverse.getData().get("sequence"));
+
+		RnaSequence forward = rnas.get(1);
+		assertEquals(10, (int) forward.getStart());
+		assertEquals(100, (int) forward.getEnd());
+		assertEquals('+', forward.getFrame());
+		assertEquals("split across two exons", forward.getData().get("note"));
+		assertEquals("2", forward.getData().get("contig"));
+		assertEquals(sequences.get(1).substring(9, 100), forward.getData().get("sequence"));
+	}
+
+	private static Genome read(String name, SearchExecutor executor) throws IOException {
+		File file = new File(DIR + name);
+		return GenbankParser.readGenbankFile(new Genome(file), file.getPath(), executor);
+	}
+
+	private static List<String> readFasta(String path) throws IOException {
+		List<String> sequences = new ArrayList<String>();
+		BufferedReader br = new BufferedReader(new FileReader(path));
+		try {
+			String line = null;
+			StringBuilder sb = null;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith(">")) {
+					if (sb != null)
+						sequences.add(sb.toString());
+					sb = new StringBuilder();
+				} else {
+					sb.append(line.trim());
+				}
+			}
+			sequences.add(sb.toString());
+		} finally {
+			br.close();
+		}
+		return sequences;
+	}
+
+	private static String reverseComplement(String dna) {
+		StringBuilder sb = new StringBuilder(dna.length());
+		for (int i = dna.length() - 1; i >= 0; i--)
+			sb.append("TGCAN".charAt("ACGTN".indexOf(dna.charAt(i))));
+		return sb.toString();
+	}
+
+}